@@ -0,0 +1,14 @@
+package clearcontrol.instructions;
+
+/**
+ * Instructions implementing this interface declare in which stage of a
+ * pipelined timelapse they can be executed. Instructions not implementing it
+ * are treated as PipelineStage.Barrier.
+ */
+public interface PipelinableInstructionInterface
+{
+  /**
+   * @return the pipeline stage this instruction belongs to
+   */
+  PipelineStage getPipelineStage();
+}
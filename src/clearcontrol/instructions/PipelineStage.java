@@ -0,0 +1,30 @@
+package clearcontrol.instructions;
+
+/**
+ * Describes where an instruction is executed if the timelapse runs in
+ * pipelined mode.
+ */
+public enum PipelineStage
+{
+ /**
+  * The instruction controls hardware and only adds containers to the
+  * DataWarehouse. It is executed in order on the timelapse thread while
+  * earlier compute instructions may still be running.
+  */
+ Hardware,
+
+ /**
+  * The instruction does not touch hardware but only consumes and produces
+  * DataWarehouse containers. It is executed on the compute lane of the
+  * pipeline, in order with other compute instructions.
+  */
+ Compute,
+
+ /**
+  * The instruction may depend on results of earlier compute instructions.
+  * All pending compute instructions are finished before it is executed on
+  * the timelapse thread. This is the default for instructions not declaring
+  * a stage.
+  */
+ Barrier
+}
@@ -15,6 +15,7 @@ import clearcontrol.microscope.lightsheet.calibrator.CalibrationEngine;
 import clearcontrol.microscope.lightsheet.component.detection.DetectionArmInterface;
 import clearcontrol.microscope.lightsheet.component.lightsheet.LightSheetInterface;
 import clearcontrol.microscope.lightsheet.component.opticalswitch.LightSheetOpticalSwitch;
+import clearcontrol.microscope.lightsheet.imaging.HandOverStackRecycler;
 import clearcontrol.microscope.lightsheet.imaging.interleaved.InterleavedImageDataContainer;
 import clearcontrol.microscope.lightsheet.imaging.opticsprefused.OpticsPrefusedImageDataContainer;
 import clearcontrol.microscope.lightsheet.imaging.sequential.SequentialImageDataContainer;
@@ -48,6 +49,9 @@ public class LightSheetMicroscope extends
 {
   private LightSheetFastFusionProcessor mStackFusionProcessor;
   private DataWarehouse mDataWarehouse;
+  private HandOverStackRecycler mHandOverStackRecycler =
+                                                       new HandOverStackRecycler(1024,
+                                                                                 1024);
 
   /**
    * Instantiates a lightsheet microscope with a given name.
@@ -83,6 +87,8 @@ public class LightSheetMicroscope extends
     addDevice(0,
               new FilterStacksInStackInterfaceContainerInstruction(getDataWarehouse()));
     addDevice(0, new DataWarehouseLogInstruction(this));
+    addDevice(0,
+              new ConfigureDataWarehouseMemoryInstruction(getDataWarehouse()));
 
     for (Class lContainerType : new Class[]
     { StackInterfaceContainer.class,
@@ -412,6 +418,17 @@ public class LightSheetMicroscope extends
     return mDataWarehouse;
   }
 
+  /**
+   * Returns the recycler cameras acquire into when their stacks are handed
+   * over to warehouse containers without copying.
+   *
+   * @return hand over stack recycler
+   */
+  public HandOverStackRecycler getHandOverStackRecycler()
+  {
+    return mHandOverStackRecycler;
+  }
+
   public InstructionInterface getSchedulerDevice(String... pMustContainStrings)
   {
     return getDevice(InstructionInterface.class,
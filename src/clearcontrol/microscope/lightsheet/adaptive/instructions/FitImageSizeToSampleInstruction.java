@@ -0,0 +1,454 @@
+package clearcontrol.microscope.lightsheet.adaptive.instructions;
+
+import java.util.ArrayList;
+
+import clearcontrol.core.log.LoggingFeature;
+import clearcontrol.core.variable.Variable;
+import clearcontrol.core.variable.bounded.BoundedVariable;
+import clearcontrol.instructions.PropertyIOableInstructionInterface;
+import clearcontrol.microscope.lightsheet.LightSheetMicroscope;
+import clearcontrol.microscope.lightsheet.adaptive.utils.SampleContentAnalysis;
+import clearcontrol.microscope.lightsheet.imaging.interleaved.InterleavedImageDataContainer;
+import clearcontrol.microscope.lightsheet.imaging.opticsprefused.OpticsPrefusedImageDataContainer;
+import clearcontrol.microscope.lightsheet.imaging.sequential.SequentialImageDataContainer;
+import clearcontrol.microscope.lightsheet.instructions.LightSheetMicroscopeInstructionBase;
+import clearcontrol.microscope.lightsheet.state.InterpolatedAcquisitionState;
+import clearcontrol.microscope.lightsheet.warehouse.containers.StackInterfaceContainer;
+import clearcontrol.stack.StackInterface;
+
+/**
+ * FitImageSizeToSampleInstruction
+ * <p>
+ * Estimates the XY bounding box of the sample from the newest raw stacks in
+ * the DataWarehouse and adapts the image size of the acquisition state, so that
+ * the next time point is acquired with a camera ROI just large enough to
+ * contain the sample plus a margin. The camera ROI is always centered, thus
+ * the size is chosen to contain the bounding box symmetrically around the
+ * center of the chip.
+ * <p>
+ * The sample is segmented on the CPU in the maximum projection, see
+ * SampleContentAnalysis. The ROI grows as soon as the sample gets close to its
+ * border, but it only shrinks if the new size is smaller by more than the
+ * hysteresis fraction, to prevent the image size from oscillating between time
+ * points.
+ */
+public class FitImageSizeToSampleInstruction extends
+                                             LightSheetMicroscopeInstructionBase
+                                             implements
+                                             PropertyIOableInstructionInterface,
+                                             LoggingFeature
+{
+  private BoundedVariable<Integer> mMarginInPixels =
+                                                   new BoundedVariable<Integer>("Margin in pixels",
+                                                                                64,
+                                                                                0,
+                                                                                Integer.MAX_VALUE);
+  private BoundedVariable<Double> mThreshold =
+                                             new BoundedVariable<Double>("Threshold (fraction of contrast)",
+                                                                         0.1,
+                                                                         0.0,
+                                                                         1.0,
+                                                                         0.01);
+  private BoundedVariable<Integer> mMinimumPixelsPerLine =
+                                                         new BoundedVariable<Integer>("Minimum sample pixels per line",
+                                                                                      3,
+                                                                                      1,
+                                                                                      Integer.MAX_VALUE);
+  private BoundedVariable<Double> mShrinkHysteresis =
+                                                    new BoundedVariable<Double>("Shrink hysteresis (fraction)",
+                                                                                0.1,
+                                                                                0.0,
+                                                                                1.0,
+                                                                                0.01);
+  private BoundedVariable<Integer> mSizeStepInPixels =
+                                                     new BoundedVariable<Integer>("Size step in pixels",
+                                                                                  64,
+                                                                                  1,
+                                                                                  Integer.MAX_VALUE);
+  private BoundedVariable<Integer> mMinimumSizeInPixels =
+                                                        new BoundedVariable<Integer>("Minimum size in pixels",
+                                                                                     256,
+                                                                                     1,
+                                                                                     Integer.MAX_VALUE);
+  private BoundedVariable<Integer> mMaximumWidthInPixels =
+                                                         new BoundedVariable<Integer>("Maximum width in pixels",
+                                                                                      2048,
+                                                                                      1,
+                                                                                      Integer.MAX_VALUE);
+  private BoundedVariable<Integer> mMaximumHeightInPixels =
+                                                          new BoundedVariable<Integer>("Maximum height in pixels",
+                                                                                       2048,
+                                                                                       1,
+                                                                                       Integer.MAX_VALUE);
+
+  /**
+   * INstanciates a virtual device with a given name
+   *
+   * @param pLightSheetMicroscope
+   */
+  public FitImageSizeToSampleInstruction(LightSheetMicroscope pLightSheetMicroscope)
+  {
+    super("Adaptation: Fit image size to sample",
+          pLightSheetMicroscope);
+  }
+
+  @Override
+  public boolean initialize()
+  {
+    return true;
+  }
+
+  @Override
+  public boolean enqueue(long pTimePoint)
+  {
+    StackInterfaceContainer lContainer = getNewestRawImageDataContainer();
+    if (lContainer == null)
+    {
+      warning("No raw image data in the DataWarehouse, image size is not changed.");
+      return false;
+    }
+
+    InterpolatedAcquisitionState lState =
+                                        (InterpolatedAcquisitionState) getLightSheetMicroscope().getAcquisitionStateManager()
+                                                                                                .getCurrentState();
+    int lCurrentWidth = lState.getImageWidthVariable().get().intValue();
+    int lCurrentHeight = lState.getImageHeightVariable()
+                               .get()
+                               .intValue();
+
+    int[] lNewSize = determineImageSize(lContainer,
+                                        lCurrentWidth,
+                                        lCurrentHeight);
+    if (lNewSize == null)
+    {
+      warning("No sample detected, image size is not changed.");
+      return true;
+    }
+    int lNewWidth = lNewSize[0];
+    int lNewHeight = lNewSize[1];
+
+    if (lNewWidth == lCurrentWidth && lNewHeight == lCurrentHeight)
+    {
+      return true;
+    }
+
+    info("Changing image size from %d x %d to %d x %d",
+         lCurrentWidth,
+         lCurrentHeight,
+         lNewWidth,
+         lNewHeight);
+
+    lState.beginUpdate();
+    try
+    {
+      lState.getImageWidthVariable().set(lNewWidth);
+      lState.getImageHeightVariable().set(lNewHeight);
+    }
+    finally
+    {
+      lState.commitUpdate();
+    }
+    return true;
+  }
+
+  /**
+   * Returns the newest container with images as they come from the cameras.
+   * Fused or otherwise processed images may be cropped, scaled or
+   * registered, their bounding box doesn't map to the camera ROI.
+   */
+  private StackInterfaceContainer getNewestRawImageDataContainer()
+  {
+    StackInterfaceContainer lNewestContainer = null;
+    for (Class<?> lClass : new Class<?>[]
+    { SequentialImageDataContainer.class,
+      InterleavedImageDataContainer.class,
+      OpticsPrefusedImageDataContainer.class })
+    {
+      ArrayList<StackInterfaceContainer> lContainers =
+                                                     getLightSheetMicroscope().getDataWarehouse()
+                                                                              .getContainers(lClass);
+      if (lContainers.isEmpty())
+      {
+        continue;
+      }
+      StackInterfaceContainer lContainer =
+                                         lContainers.get(lContainers.size()
+                                                         - 1);
+      if (lNewestContainer == null
+          || lContainer.getTimepoint() > lNewestContainer.getTimepoint())
+      {
+        lNewestContainer = lContainer;
+      }
+    }
+    return lNewestContainer;
+  }
+
+  /**
+   * Determines the image size containing the sample in all stacks of a
+   * container plus the margin. Stacks which were not acquired with the
+   * current image size are skipped, their bounding box doesn't relate to the
+   * current camera ROI.
+   *
+   * @param pContainer
+   *          container with raw images
+   * @param pCurrentWidth
+   *          current image width
+   * @param pCurrentHeight
+   *          current image height
+   * @return [width, height] or null if no sample was detected
+   */
+  public int[] determineImageSize(StackInterfaceContainer pContainer,
+                                  int pCurrentWidth,
+                                  int pCurrentHeight)
+  {
+    // union of the sample bounding boxes of all stacks, relative to the
+    // stack size: [minX, minY, maxX, maxY]
+    double[] lBounds = null;
+    boolean lTouchesBorderX = false;
+    boolean lTouchesBorderY = false;
+    for (String lKey : pContainer.keySet())
+    {
+      StackInterface lStack = pContainer.get(lKey);
+      if (lStack == null)
+      {
+        continue;
+      }
+
+      if (lStack.getWidth() != pCurrentWidth
+          || lStack.getHeight() != pCurrentHeight)
+      {
+        info("Stack %s is %d x %d, images are acquired with %d x %d now. Skipping.",
+             lKey,
+             lStack.getWidth(),
+             lStack.getHeight(),
+             pCurrentWidth,
+             pCurrentHeight);
+        continue;
+      }
+
+      int[] lBoundingBox = determineSampleBoundingBox(lStack);
+      if (lBoundingBox == null)
+      {
+        info("No sample detected in " + lKey);
+        continue;
+      }
+
+      double lWidth = lStack.getWidth();
+      double lHeight = lStack.getHeight();
+      double[] lStackBounds = new double[]
+      { lBoundingBox[0] / lWidth,
+        lBoundingBox[1] / lHeight,
+        lBoundingBox[2] / lWidth,
+        lBoundingBox[3] / lHeight };
+
+      lTouchesBorderX |= lBoundingBox[0] == 0
+                         || lBoundingBox[2] == lStack.getWidth();
+      lTouchesBorderY |= lBoundingBox[1] == 0
+                         || lBoundingBox[3] == lStack.getHeight();
+
+      if (lBounds == null)
+      {
+        lBounds = lStackBounds;
+      }
+      else
+      {
+        lBounds[0] = Math.min(lBounds[0], lStackBounds[0]);
+        lBounds[1] = Math.min(lBounds[1], lStackBounds[1]);
+        lBounds[2] = Math.max(lBounds[2], lStackBounds[2]);
+        lBounds[3] = Math.max(lBounds[3], lStackBounds[3]);
+      }
+    }
+
+    if (lBounds == null)
+    {
+      return null;
+    }
+
+    return new int[]
+    { determineSize(pCurrentWidth,
+                    lBounds[0],
+                    lBounds[2],
+                    lTouchesBorderX,
+                    mMaximumWidthInPixels.get()),
+      determineSize(pCurrentHeight,
+                    lBounds[1],
+                    lBounds[3],
+                    lTouchesBorderY,
+                    mMaximumHeightInPixels.get()) };
+  }
+
+  private int determineSize(int pCurrentSize,
+                            double pLow,
+                            double pHigh,
+                            boolean pTouchesBorder,
+                            int pMaximumSize)
+  {
+    if (pTouchesBorder)
+    {
+      // we don't know how far the sample extends, thus we open up completely:
+      return pMaximumSize;
+    }
+
+    double lHalfSize = Math.max(0.5 - pLow, pHigh - 0.5) * pCurrentSize
+                       + mMarginInPixels.get();
+
+    int lStep = mSizeStepInPixels.get();
+    int lSize = (int) (Math.ceil(2 * lHalfSize / lStep) * lStep);
+    lSize = Math.max(lSize, mMinimumSizeInPixels.get());
+    lSize = Math.min(lSize, pMaximumSize);
+
+    if (lSize < pCurrentSize
+        && pCurrentSize - lSize < mShrinkHysteresis.get()
+                                  * pCurrentSize)
+    {
+      return pCurrentSize;
+    }
+    return lSize;
+  }
+
+  /**
+   * Determines the bounding box of the sample in the maximum projection of the
+   * stack
+   *
+   * @param pStack
+   *          16 bit stack
+   * @return [minX, minY, maxX, maxY] with max exclusive, or null if there is no
+   *         sample
+   */
+  private int[] determineSampleBoundingBox(StackInterface pStack)
+  {
+    int lWidth = (int) pStack.getWidth();
+    int lHeight = (int) pStack.getHeight();
+    char[] lProjection =
+                       SampleContentAnalysis.maximumProjection(pStack);
+    double lThreshold =
+                      SampleContentAnalysis.determineThreshold(lProjection,
+                                                               mThreshold.get());
+    if (Double.isNaN(lThreshold))
+    {
+      return null;
+    }
+
+    int[] lPixelsPerColumn = new int[lWidth];
+    int[] lPixelsPerRow = new int[lHeight];
+    for (int y = 0; y < lHeight; y++)
+    {
+      int lOffset = y * lWidth;
+      for (int x = 0; x < lWidth; x++)
+      {
+        if (lProjection[lOffset + x] > lThreshold)
+        {
+          lPixelsPerColumn[x]++;
+          lPixelsPerRow[y]++;
+        }
+      }
+    }
+
+    int lMinimumPixels = mMinimumPixelsPerLine.get();
+    int lMinX = first(lPixelsPerColumn, lMinimumPixels);
+    int lMinY = first(lPixelsPerRow, lMinimumPixels);
+    if (lMinX < 0 || lMinY < 0)
+    {
+      return null;
+    }
+    int lMaxX = last(lPixelsPerColumn, lMinimumPixels) + 1;
+    int lMaxY = last(lPixelsPerRow, lMinimumPixels) + 1;
+
+    return new int[]
+    { lMinX, lMinY, lMaxX, lMaxY };
+  }
+
+  private static int first(int[] pCounts, int pMinimum)
+  {
+    for (int i = 0; i < pCounts.length; i++)
+    {
+      if (pCounts[i] >= pMinimum)
+      {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static int last(int[] pCounts, int pMinimum)
+  {
+    for (int i = pCounts.length - 1; i >= 0; i--)
+    {
+      if (pCounts[i] >= pMinimum)
+      {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public FitImageSizeToSampleInstruction copy()
+  {
+    FitImageSizeToSampleInstruction copied =
+                                           new FitImageSizeToSampleInstruction(getLightSheetMicroscope());
+    copied.mMarginInPixels.set(mMarginInPixels.get());
+    copied.mThreshold.set(mThreshold.get());
+    copied.mMinimumPixelsPerLine.set(mMinimumPixelsPerLine.get());
+    copied.mShrinkHysteresis.set(mShrinkHysteresis.get());
+    copied.mSizeStepInPixels.set(mSizeStepInPixels.get());
+    copied.mMinimumSizeInPixels.set(mMinimumSizeInPixels.get());
+    copied.mMaximumWidthInPixels.set(mMaximumWidthInPixels.get());
+    copied.mMaximumHeightInPixels.set(mMaximumHeightInPixels.get());
+    return copied;
+  }
+
+  public BoundedVariable<Integer> getMarginInPixels()
+  {
+    return mMarginInPixels;
+  }
+
+  public BoundedVariable<Double> getThreshold()
+  {
+    return mThreshold;
+  }
+
+  public BoundedVariable<Integer> getMinimumPixelsPerLine()
+  {
+    return mMinimumPixelsPerLine;
+  }
+
+  public BoundedVariable<Double> getShrinkHysteresis()
+  {
+    return mShrinkHysteresis;
+  }
+
+  public BoundedVariable<Integer> getSizeStepInPixels()
+  {
+    return mSizeStepInPixels;
+  }
+
+  public BoundedVariable<Integer> getMinimumSizeInPixels()
+  {
+    return mMinimumSizeInPixels;
+  }
+
+  public BoundedVariable<Integer> getMaximumWidthInPixels()
+  {
+    return mMaximumWidthInPixels;
+  }
+
+  public BoundedVariable<Integer> getMaximumHeightInPixels()
+  {
+    return mMaximumHeightInPixels;
+  }
+
+  @Override
+  public Variable[] getProperties()
+  {
+    return new Variable[]
+    { getMarginInPixels(),
+      getThreshold(),
+      getMinimumPixelsPerLine(),
+      getShrinkHysteresis(),
+      getSizeStepInPixels(),
+      getMinimumSizeInPixels(),
+      getMaximumWidthInPixels(),
+      getMaximumHeightInPixels() };
+  }
+}
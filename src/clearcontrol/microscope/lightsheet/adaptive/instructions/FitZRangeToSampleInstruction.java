@@ -0,0 +1,353 @@
+package clearcontrol.microscope.lightsheet.adaptive.instructions;
+
+import clearcontrol.core.log.LoggingFeature;
+import clearcontrol.core.variable.Variable;
+import clearcontrol.core.variable.bounded.BoundedVariable;
+import clearcontrol.instructions.PropertyIOableInstructionInterface;
+import clearcontrol.microscope.lightsheet.LightSheetMicroscope;
+import clearcontrol.microscope.lightsheet.adaptive.utils.SampleContentAnalysis;
+import clearcontrol.microscope.lightsheet.instructions.LightSheetMicroscopeInstructionBase;
+import clearcontrol.microscope.lightsheet.state.InterpolatedAcquisitionState;
+import clearcontrol.microscope.lightsheet.warehouse.containers.StackInterfaceContainer;
+import clearcontrol.stack.StackInterface;
+
+/**
+ * FitZRangeToSampleInstruction
+ * <p>
+ * Determines which planes of the newest stacks in the DataWarehouse contain
+ * sample and adapts the Z range of the acquisition state, so that the next
+ * time point is acquired from the first to the last plane with sample plus a
+ * margin. The new bounds are snapped to the plane positions of the current
+ * stack, extended beyond it by multiples of the Z step, so that the Z step is
+ * kept and the number of planes follows the range.
+ * <p>
+ * The range grows by at most the margin per time point if the sample reaches
+ * the first or last plane, and a bound only moves inwards if it moves by more
+ * than the hysteresis. The range stays within user-set limits, which are
+ * initialized with the range set when the instruction is initialized. By
+ * default, it also stays within the outermost control planes, so that the
+ * light sheet and detection parameters are interpolated and never extrapolated.
+ */
+public class FitZRangeToSampleInstruction extends
+                                          LightSheetMicroscopeInstructionBase
+                                          implements
+                                          PropertyIOableInstructionInterface,
+                                          LoggingFeature
+{
+  // tolerance for rounding errors when snapping positions to planes
+  private static final double cEpsilon = 1e-6;
+
+  private BoundedVariable<Double> mMarginInMicrons =
+                                                  new BoundedVariable<Double>("Margin in microns",
+                                                                              10.0,
+                                                                              0.0,
+                                                                              Double.MAX_VALUE,
+                                                                              0.001);
+  private BoundedVariable<Double> mShrinkHysteresisInMicrons =
+                                                            new BoundedVariable<Double>("Shrink hysteresis in microns",
+                                                                                        5.0,
+                                                                                        0.0,
+                                                                                        Double.MAX_VALUE,
+                                                                                        0.001);
+  private BoundedVariable<Double> mThreshold =
+                                             new BoundedVariable<Double>("Threshold (fraction of contrast)",
+                                                                         0.1,
+                                                                         0.0,
+                                                                         1.0,
+                                                                         0.01);
+  private BoundedVariable<Double> mMinimumSampleFractionPerPlane =
+                                                                new BoundedVariable<Double>("Minimum sample fraction per plane",
+                                                                                            0.001,
+                                                                                            0.0,
+                                                                                            1.0,
+                                                                                            0.0001);
+  private BoundedVariable<Integer> mSubsampling =
+                                                new BoundedVariable<Integer>("Pixel subsampling",
+                                                                             4,
+                                                                             1,
+                                                                             Integer.MAX_VALUE);
+  private BoundedVariable<Double> mLowestZInMicrons =
+                                                   new BoundedVariable<Double>("Lowest Z in microns",
+                                                                               0.0,
+                                                                               -Double.MAX_VALUE,
+                                                                               Double.MAX_VALUE,
+                                                                               0.001);
+  private BoundedVariable<Double> mHighestZInMicrons =
+                                                    new BoundedVariable<Double>("Highest Z in microns",
+                                                                                0.0,
+                                                                                -Double.MAX_VALUE,
+                                                                                Double.MAX_VALUE,
+                                                                                0.001);
+  private Variable<Boolean> mStayWithinControlPlanes =
+                                                     new Variable<Boolean>("Stay within control planes",
+                                                                           true);
+
+  private boolean mLimitsInitialized = false;
+
+  /**
+   * INstanciates a virtual device with a given name
+   *
+   * @param pLightSheetMicroscope
+   */
+  public FitZRangeToSampleInstruction(LightSheetMicroscope pLightSheetMicroscope)
+  {
+    super("Adaptation: Fit range in Z to sample",
+          pLightSheetMicroscope);
+  }
+
+  @Override
+  public boolean initialize()
+  {
+    if (!mLimitsInitialized)
+    {
+      InterpolatedAcquisitionState lState = getState();
+      mLowestZInMicrons.set(lState.getStackZLowVariable()
+                                  .get()
+                                  .doubleValue());
+      mHighestZInMicrons.set(lState.getStackZHighVariable()
+                                   .get()
+                                   .doubleValue());
+      mLimitsInitialized = true;
+    }
+    return true;
+  }
+
+  @Override
+  public boolean enqueue(long pTimePoint)
+  {
+    StackInterfaceContainer lContainer =
+                                       getLightSheetMicroscope().getDataWarehouse()
+                                                                .getNewestContainer(StackInterfaceContainer.class);
+    if (lContainer == null)
+    {
+      warning("No image data in the DataWarehouse, Z range is not changed.");
+      return false;
+    }
+
+    fitZRange(getState(), lContainer);
+    return true;
+  }
+
+  /**
+   * Determines the planes containing sample in the stacks of a container and
+   * fits the Z range of an acquisition state to them
+   *
+   * @param pState
+   *          acquisition state the stacks were acquired with
+   * @param pContainer
+   *          container with the stacks
+   */
+  public void fitZRange(InterpolatedAcquisitionState pState,
+                        StackInterfaceContainer pContainer)
+  {
+    double lZLow = pState.getStackZLowVariable().get().doubleValue();
+    double lZHigh = pState.getStackZHighVariable().get().doubleValue();
+    double lZStep = pState.getStackZStepVariable().get().doubleValue();
+    int lNumberOfPlanes = pState.getNumberOfZPlanesVariable()
+                                .get()
+                                .intValue();
+
+    // union over all stacks of the planes containing sample
+    int lFirstPlane = Integer.MAX_VALUE;
+    int lLastPlane = -1;
+    for (String lKey : pContainer.keySet())
+    {
+      StackInterface lStack = pContainer.get(lKey);
+      if (lStack == null)
+      {
+        continue;
+      }
+
+      // interleaved stacks contain several images per plane
+      int lImagesPerPlane = (int) (lStack.getDepth() / lNumberOfPlanes);
+      if (lImagesPerPlane < 1
+          || lStack.getDepth() % lNumberOfPlanes != 0)
+      {
+        info("Stack %s has %d planes, %d planes are acquired now. Skipping.",
+             lKey,
+             lStack.getDepth(),
+             lNumberOfPlanes);
+        continue;
+      }
+
+      int lSubsampling = mSubsampling.get();
+      double lThreshold =
+                        SampleContentAnalysis.determineThreshold(lStack,
+                                                                 lSubsampling,
+                                                                 mThreshold.get());
+      if (Double.isNaN(lThreshold))
+      {
+        info("No sample detected in " + lKey);
+        continue;
+      }
+
+      int[] lCounts =
+                    SampleContentAnalysis.countPixelsAboveThresholdPerPlane(lStack,
+                                                                            lSubsampling,
+                                                                            lThreshold);
+      double lPixelsPerPlane = (double) lStack.getWidth()
+                               * lStack.getHeight()
+                               / lSubsampling;
+      double lMinimumCount = mMinimumSampleFractionPerPlane.get()
+                             * lPixelsPerPlane;
+      for (int z = 0; z < lCounts.length; z++)
+      {
+        if (lCounts[z] > 0 && lCounts[z] >= lMinimumCount)
+        {
+          lFirstPlane = Math.min(lFirstPlane, z / lImagesPerPlane);
+          lLastPlane = Math.max(lLastPlane, z / lImagesPerPlane);
+        }
+      }
+    }
+
+    if (lLastPlane < 0)
+    {
+      warning("No sample detected, Z range is not changed.");
+      return;
+    }
+
+    // the new bounds are plane positions of the current stack, extended
+    // outwards to the planes beyond the margin: [lFirstIndex, lLastIndex]
+    double lMargin = mMarginInMicrons.get();
+    int lFirstIndex = lFirstPlane
+                      - (int) Math.ceil(lMargin / lZStep - cEpsilon);
+    int lLastIndex = lLastPlane
+                     + (int) Math.ceil(lMargin / lZStep - cEpsilon);
+
+    // hysteresis: bounds only move inwards by more than a minimum distance
+    double lHysteresis = mShrinkHysteresisInMicrons.get();
+    if (lFirstIndex > 0 && lFirstIndex * lZStep < lHysteresis)
+    {
+      lFirstIndex = 0;
+    }
+    int lCurrentLastIndex = lNumberOfPlanes - 1;
+    if (lLastIndex < lCurrentLastIndex
+        && (lCurrentLastIndex - lLastIndex) * lZStep < lHysteresis)
+    {
+      lLastIndex = lCurrentLastIndex;
+    }
+
+    // limits, the planes next to a limit lie within it
+    double lLowestZ = mLowestZInMicrons.get();
+    double lHighestZ = mHighestZInMicrons.get();
+    if (mStayWithinControlPlanes.get()
+        && pState.getInterpolationTables().getNumberOfControlPlanes() > 1)
+    {
+      lLowestZ = Math.max(lLowestZ,
+                          pState.getInterpolationTables().getMinZ());
+      lHighestZ = Math.min(lHighestZ,
+                           pState.getInterpolationTables().getMaxZ());
+    }
+    lFirstIndex = Math.max(lFirstIndex,
+                           (int) Math.ceil((lLowestZ - lZLow) / lZStep
+                                           - cEpsilon));
+    lLastIndex = Math.min(lLastIndex,
+                          (int) Math.floor((lHighestZ - lZLow) / lZStep
+                                           + cEpsilon));
+
+    if (lLastIndex <= lFirstIndex)
+    {
+      warning("Z range would become empty (planes %d - %d), Z range is not changed.",
+              lFirstIndex,
+              lLastIndex);
+      return;
+    }
+
+    if (lFirstIndex == 0 && lLastIndex == lCurrentLastIndex)
+    {
+      return;
+    }
+
+    double lNewZLow = lZLow + lFirstIndex * lZStep;
+    double lNewZHigh = lZLow + lLastIndex * lZStep;
+    int lNewNumberOfPlanes = lLastIndex - lFirstIndex + 1;
+
+    pState.setStackZRange(lNewZLow, lNewZHigh, lNewNumberOfPlanes);
+
+    info("Z range changed from %g - %g (%d planes) to %g - %g (%d planes, step %g)",
+         lZLow,
+         lZHigh,
+         lNumberOfPlanes,
+         lNewZLow,
+         lNewZHigh,
+         pState.getNumberOfZPlanesVariable().get().intValue(),
+         pState.getStackZStepVariable().get().doubleValue());
+  }
+
+  private InterpolatedAcquisitionState getState()
+  {
+    return (InterpolatedAcquisitionState) getLightSheetMicroscope().getAcquisitionStateManager()
+                                                                   .getCurrentState();
+  }
+
+  @Override
+  public FitZRangeToSampleInstruction copy()
+  {
+    FitZRangeToSampleInstruction copied =
+                                        new FitZRangeToSampleInstruction(getLightSheetMicroscope());
+    copied.mMarginInMicrons.set(mMarginInMicrons.get());
+    copied.mShrinkHysteresisInMicrons.set(mShrinkHysteresisInMicrons.get());
+    copied.mThreshold.set(mThreshold.get());
+    copied.mMinimumSampleFractionPerPlane.set(mMinimumSampleFractionPerPlane.get());
+    copied.mSubsampling.set(mSubsampling.get());
+    copied.mLowestZInMicrons.set(mLowestZInMicrons.get());
+    copied.mHighestZInMicrons.set(mHighestZInMicrons.get());
+    copied.mStayWithinControlPlanes.set(mStayWithinControlPlanes.get());
+    copied.mLimitsInitialized = mLimitsInitialized;
+    return copied;
+  }
+
+  public BoundedVariable<Double> getMarginInMicrons()
+  {
+    return mMarginInMicrons;
+  }
+
+  public BoundedVariable<Double> getShrinkHysteresisInMicrons()
+  {
+    return mShrinkHysteresisInMicrons;
+  }
+
+  public BoundedVariable<Double> getThreshold()
+  {
+    return mThreshold;
+  }
+
+  public BoundedVariable<Double> getMinimumSampleFractionPerPlane()
+  {
+    return mMinimumSampleFractionPerPlane;
+  }
+
+  public BoundedVariable<Integer> getSubsampling()
+  {
+    return mSubsampling;
+  }
+
+  public BoundedVariable<Double> getLowestZInMicrons()
+  {
+    return mLowestZInMicrons;
+  }
+
+  public BoundedVariable<Double> getHighestZInMicrons()
+  {
+    return mHighestZInMicrons;
+  }
+
+  public Variable<Boolean> getStayWithinControlPlanes()
+  {
+    return mStayWithinControlPlanes;
+  }
+
+  @Override
+  public Variable[] getProperties()
+  {
+    return new Variable[]
+    { getMarginInMicrons(),
+      getShrinkHysteresisInMicrons(),
+      getThreshold(),
+      getMinimumSampleFractionPerPlane(),
+      getSubsampling(),
+      getLowestZInMicrons(),
+      getHighestZInMicrons(),
+      getStayWithinControlPlanes() };
+  }
+}
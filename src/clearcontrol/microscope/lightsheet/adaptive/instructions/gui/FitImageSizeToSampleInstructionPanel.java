@@ -0,0 +1,23 @@
+package clearcontrol.microscope.lightsheet.adaptive.instructions.gui;
+
+import clearcontrol.gui.jfx.custom.gridpane.CustomGridPane;
+import clearcontrol.microscope.lightsheet.adaptive.instructions.FitImageSizeToSampleInstruction;
+
+/**
+ * FitImageSizeToSampleInstructionPanel
+ */
+public class FitImageSizeToSampleInstructionPanel extends
+                                                  CustomGridPane
+{
+  public FitImageSizeToSampleInstructionPanel(FitImageSizeToSampleInstruction instruction)
+  {
+    addIntegerField(instruction.getMarginInPixels(), 0);
+    addDoubleField(instruction.getThreshold(), 1);
+    addIntegerField(instruction.getMinimumPixelsPerLine(), 2);
+    addDoubleField(instruction.getShrinkHysteresis(), 3);
+    addIntegerField(instruction.getSizeStepInPixels(), 4);
+    addIntegerField(instruction.getMinimumSizeInPixels(), 5);
+    addIntegerField(instruction.getMaximumWidthInPixels(), 6);
+    addIntegerField(instruction.getMaximumHeightInPixels(), 7);
+  }
+}
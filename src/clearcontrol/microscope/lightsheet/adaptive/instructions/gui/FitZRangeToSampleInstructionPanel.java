@@ -0,0 +1,22 @@
+package clearcontrol.microscope.lightsheet.adaptive.instructions.gui;
+
+import clearcontrol.gui.jfx.custom.gridpane.CustomGridPane;
+import clearcontrol.microscope.lightsheet.adaptive.instructions.FitZRangeToSampleInstruction;
+
+/**
+ * FitZRangeToSampleInstructionPanel
+ */
+public class FitZRangeToSampleInstructionPanel extends CustomGridPane
+{
+  public FitZRangeToSampleInstructionPanel(FitZRangeToSampleInstruction instruction)
+  {
+    addDoubleField(instruction.getMarginInMicrons(), 0);
+    addDoubleField(instruction.getShrinkHysteresisInMicrons(), 1);
+    addDoubleField(instruction.getThreshold(), 2);
+    addDoubleField(instruction.getMinimumSampleFractionPerPlane(), 3);
+    addIntegerField(instruction.getSubsampling(), 4);
+    addDoubleField(instruction.getLowestZInMicrons(), 5);
+    addDoubleField(instruction.getHighestZInMicrons(), 6);
+    addCheckbox(instruction.getStayWithinControlPlanes(), 7);
+  }
+}
@@ -363,7 +363,7 @@ public class AdaptationA extends StandardAdaptationModule implements
   @Override
   public void updateState(InterpolatedAcquisitionState pStateToUpdate)
   {
-    updateStateInternal(pStateToUpdate, true, true);
+    updateStateInTransaction(pStateToUpdate, true, true);
   }
 
   /*
@@ -169,7 +169,7 @@ public class AdaptationW extends StandardAdaptationModule implements
   @Override
   public void updateState(InterpolatedAcquisitionState pStateToUpdate)
   {
-    updateStateInternal(pStateToUpdate, true, true);
+    updateStateInTransaction(pStateToUpdate, true, true);
   }
 
   public static BoundedVariable<Integer> getNumberOfRepeatsVariable()
@@ -83,6 +83,15 @@ public class AdaptationX extends StandardAdaptationModule implements
     double lMaxX = getMaxXVariable().get().doubleValue();
     double lDeltaX = (lMaxX - lMinX) / (lNumberOfSamples - 1);
 
+    // the sweep covers a fixed range, it is either done completely or the
+    // predicted correction is used:
+    if (getNumberOfSamplesToMeasure(lControlPlaneIndex,
+                                    lLightSheetIndex,
+                                    lDeltaX) == 0)
+    {
+      return null;
+    }
+
     LightSheetMicroscopeQueue lQueue =
                                      lLightsheetMicroscope.requestQueue();
     InterpolatedAcquisitionState lAcquisitionState =
@@ -137,7 +146,7 @@ public class AdaptationX extends StandardAdaptationModule implements
   @Override
   public void updateState(InterpolatedAcquisitionState pStateToUpdate)
   {
-    updateStateInternal(pStateToUpdate, false, false);
+    updateStateInTransaction(pStateToUpdate, false, false);
   }
 
   /**
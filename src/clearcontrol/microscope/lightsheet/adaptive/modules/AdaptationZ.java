@@ -2,8 +2,10 @@ package clearcontrol.microscope.lightsheet.adaptive.modules;
 
 import java.util.concurrent.Future;
 
+import clearcontrol.core.variable.Variable;
 import clearcontrol.core.variable.bounded.BoundedVariable;
 import clearcontrol.microscope.adaptive.modules.AdaptationModuleInterface;
+import clearcontrol.microscope.adaptive.utils.NDIterator;
 import clearcontrol.microscope.lightsheet.LightSheetDOF;
 import clearcontrol.microscope.lightsheet.LightSheetMicroscopeQueue;
 import clearcontrol.microscope.lightsheet.configurationstate.ConfigurationState;
@@ -28,6 +30,14 @@ public class AdaptationZ extends StandardAdaptationPerLightSheetModule
                                                                               Double.POSITIVE_INFINITY,
                                                                               0.001);
 
+  private final Variable<Boolean> mBatchControlPlanesVariable =
+                                                              new Variable<Boolean>("Batch control planes",
+                                                                                    false);
+
+  // the iteration set up in reset() decides how steps are taken, a change of
+  // the variable in the middle of a run takes effect with the next reset
+  private boolean mBatchControlPlanes = false;
+
   /**
    * Instantiates a Z focus adaptation module given the delta Z parameter,
    * number of samples, probability threshold and image metric threshold
@@ -66,16 +76,42 @@ public class AdaptationZ extends StandardAdaptationPerLightSheetModule
 
   }
 
+  @Override
+  public void reset()
+  {
+    super.reset();
+
+    mBatchControlPlanes = getBatchControlPlanesVariable().get();
+    if (mBatchControlPlanes)
+    {
+      // all control planes and light sheets are handled in one step:
+      setNDIterator(new NDIterator(1, 1));
+    }
+  }
+
   @Override
   public Future<?> atomicStep(int... pStepCoordinates)
   {
     info("Atomic step...");
 
+    if (mBatchControlPlanes)
+    {
+      return batchedStep();
+    }
+
     int lControlPlaneIndex = pStepCoordinates[0];
     int lLightSheetIndex = pStepCoordinates[1];
 
     double lDeltaZ = getDeltaZVariable().get();
-    int lNumberOfSamples = getNumberOfSamplesVariable().get();
+    int lNumberOfSamples =
+                         getNumberOfSamplesToMeasure(lControlPlaneIndex,
+                                                     lLightSheetIndex,
+                                                     lDeltaZ);
+    if (lNumberOfSamples == 0)
+    {
+      // the predicted correction is used:
+      return null;
+    }
     int lHalfSamples = (lNumberOfSamples - 1) / 2;
     double lMinZ = -lDeltaZ * lHalfSamples;
 
@@ -138,10 +174,101 @@ public class AdaptationZ extends StandardAdaptationPerLightSheetModule
 
   }
 
+  /**
+   * Acquires the defocus sweeps of all control planes and light sheets with a
+   * single queue, one sweep after the other, and analyses them in parallel.
+   *
+   * @return future of the analysis
+   */
+  private Future<?> batchedStep()
+  {
+    double lDeltaZ = getDeltaZVariable().get();
+    int lNumberOfSamples = getNumberOfSamplesVariable().get();
+    int lHalfSamples = (lNumberOfSamples - 1) / 2;
+    double lMinZ = -lDeltaZ * lHalfSamples;
+
+    final TDoubleArrayList lDZList = new TDoubleArrayList();
+    for (int i = 0; i < lNumberOfSamples; i++)
+    {
+      lDZList.add(lMinZ + lDeltaZ * i);
+    }
+
+    InterpolatedAcquisitionState lAcquisitionState =
+                                                   getAdaptiveEngine().getAcquisitionStateVariable()
+                                                                      .get();
+
+    int lNumberOfControlPlanes =
+                               lAcquisitionState.getNumberOfControlPlanes();
+    int lNumberOfLightSheets = lAcquisitionState.getNumberOfLightSheets();
+    int lNumberOfSweeps = lNumberOfControlPlanes * lNumberOfLightSheets;
+
+    int[] lControlPlaneIndices = new int[lNumberOfSweeps];
+    int[] lLightSheetIndices = new int[lNumberOfSweeps];
+
+    LightSheetMicroscopeQueue lQueue =
+                                     (LightSheetMicroscopeQueue) getAdaptiveEngine().getMicroscope()
+                                                                                    .requestQueue();
+
+    lQueue.clearQueue();
+
+    double lCurrentDZ = 0;
+    int lSweepIndex = 0;
+    for (int l = 0; l < lNumberOfLightSheets; l++)
+    {
+      for (int cpi = 0; cpi < lNumberOfControlPlanes; cpi++)
+      {
+        lControlPlaneIndices[lSweepIndex] = cpi;
+        lLightSheetIndices[lSweepIndex] = l;
+        lSweepIndex++;
+
+        // here we set IZ:
+        lAcquisitionState.applyStateAtControlPlane(lQueue, cpi);
+        lCurrentDZ = lQueue.getDZ(0);
+
+        lQueue.setI(l);
+        lQueue.setExp(getExposureInSecondsVariable().get());
+        lQueue.setIP(l, getLaserPowerVariable().get());
+
+        // move to the start of the sweep without acquiring:
+        lQueue.setILO(false);
+        lQueue.setC(false);
+        lQueue.setDZ(lCurrentDZ + lMinZ);
+        lQueue.addCurrentStateToQueue();
+        lQueue.addCurrentStateToQueue();
+
+        lQueue.setILO(true);
+        lQueue.setC(true);
+        for (int i = 0; i < lNumberOfSamples; i++)
+        {
+          lQueue.setDZ(lCurrentDZ + lDZList.get(i));
+          lQueue.addCurrentStateToQueue();
+        }
+      }
+    }
+
+    lQueue.setILO(false);
+    lQueue.setC(false);
+    lQueue.setDZ(lCurrentDZ);
+    lQueue.addCurrentStateToQueue();
+
+    lQueue.setTransitionTime(0.5);
+    lQueue.setFinalisationTime(0.001);
+
+    lQueue.finalizeQueue();
+
+    lQueue.addMetaDataEntry(MetaDataChannel.Channel, "NoDisplay");
+
+    return findBestDOFValues(lControlPlaneIndices,
+                             lLightSheetIndices,
+                             lQueue,
+                             lAcquisitionState,
+                             lDZList);
+  }
+
   @Override
   public void updateState(InterpolatedAcquisitionState pStateToUpdate)
   {
-    updateStateInternal(pStateToUpdate, true, true);
+    updateStateInTransaction(pStateToUpdate, true, true);
   }
 
   /**
@@ -154,4 +281,16 @@ public class AdaptationZ extends StandardAdaptationPerLightSheetModule
     return mDeltaZVariable;
   }
 
+  /**
+   * Returns the variable deciding whether the sweeps of all control planes
+   * and light sheets are acquired with one queue. Changes take effect at the
+   * next reset.
+   * 
+   * @return batch control planes variable
+   */
+  public Variable<Boolean> getBatchControlPlanesVariable()
+  {
+    return mBatchControlPlanesVariable;
+  }
+
 }
@@ -89,7 +89,15 @@ public class AdaptationZSlidingWindowDetectionArmSelection extends
     int lLightSheetIndex = pStepCoordinates[1];
 
     double lDeltaZ = getDeltaZVariable().get();
-    int lNumberOfSamples = getNumberOfSamplesVariable().get();
+    int lNumberOfSamples =
+                         getNumberOfSamplesToMeasure(lControlPlaneIndex,
+                                                     lLightSheetIndex,
+                                                     lDeltaZ);
+    if (lNumberOfSamples == 0)
+    {
+      // the predicted correction is used:
+      return null;
+    }
     int lHalfSamples = (lNumberOfSamples - 1) / 2;
     double lMinZ = -lDeltaZ * lHalfSamples;
 
@@ -154,7 +162,7 @@ public class AdaptationZSlidingWindowDetectionArmSelection extends
   @Override
   public void updateState(InterpolatedAcquisitionState pStateToUpdate)
   {
-    updateStateInternal(pStateToUpdate, true, true);
+    updateStateInTransaction(pStateToUpdate, true, true);
   }
 
   @Override
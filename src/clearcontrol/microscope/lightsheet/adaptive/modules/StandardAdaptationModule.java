@@ -3,6 +3,8 @@ package clearcontrol.microscope.lightsheet.adaptive.modules;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -12,8 +14,8 @@ import clearcontrol.core.concurrent.executors.AsynchronousExecutorFeature;
 import clearcontrol.core.device.name.ReadOnlyNameableInterface;
 import clearcontrol.core.math.argmax.SmartArgMaxFinder;
 import clearcontrol.core.variable.Variable;
+import clearcontrol.core.variable.VariableSetListener;
 import clearcontrol.gui.jfx.custom.visualconsole.VisualConsoleInterface.ChartType;
-import clearcontrol.ip.iqm.DCTS2D;
 import clearcontrol.microscope.adaptive.modules.AdaptationModuleInterface;
 import clearcontrol.microscope.adaptive.modules.NDIteratorAdaptationModule;
 import clearcontrol.microscope.adaptive.utils.NDIterator;
@@ -22,16 +24,17 @@ import clearcontrol.microscope.lightsheet.LightSheetMicroscope;
 import clearcontrol.microscope.lightsheet.LightSheetMicroscopeQueue;
 import clearcontrol.microscope.lightsheet.adaptive.controlplanestate.ControlPlaneStateListener;
 import clearcontrol.microscope.lightsheet.adaptive.controlplanestate.HasControlPlaneState;
+import clearcontrol.microscope.lightsheet.adaptive.utils.KalmanFocusTracker;
+import clearcontrol.microscope.lightsheet.adaptive.utils.StreamingFocusMetric;
 import clearcontrol.microscope.lightsheet.component.detection.DetectionArmInterface;
 import clearcontrol.microscope.lightsheet.component.lightsheet.LightSheetInterface;
 import clearcontrol.microscope.lightsheet.configurationstate.*;
 import clearcontrol.microscope.lightsheet.state.InterpolatedAcquisitionState;
 import clearcontrol.microscope.lightsheet.state.LightSheetAcquisitionStateInterface;
-import clearcontrol.stack.EmptyStack;
-import clearcontrol.stack.OffHeapPlanarStack;
 import clearcontrol.stack.StackInterface;
 import gnu.trove.list.array.TDoubleArrayList;
 
+import org.apache.commons.lang3.tuple.Pair;
 import org.apache.commons.lang3.tuple.Triple;
 
 /**
@@ -51,6 +54,11 @@ public abstract class StandardAdaptationModule extends
                                                CanBeActive
 
 {
+  // tracker noise and tolerances in units of the sweep step:
+  private static final double cMeasurementNoiseInSteps = 0.25;
+  private static final double cDriftNoiseInSteps = 0.05;
+  private static final double cSurpriseInSigmas = 3;
+  private static final int cMinimumNumberOfSamples = 5;
 
   private final Variable<Integer> mNumberOfSamplesVariable =
                                                            new Variable<Integer>("NumberOfSamples");
@@ -66,8 +74,28 @@ public abstract class StandardAdaptationModule extends
   private final Variable<Double> mLaserPowerVariable =
                                                      new Variable<Double>("LaserPower");
 
-  private HashMap<Triple<Integer, Integer, Integer>, Result> mResultsMap =
-                                                                         new HashMap<>();
+  private final Variable<Boolean> mPredictiveTrackingVariable =
+                                                              new Variable<Boolean>("PredictiveTracking",
+                                                                                    false);
+
+  private final Variable<Double> mSkipUncertaintyVariable =
+                                                          new Variable<Double>("SkipUncertainty",
+                                                                               0.35);
+
+  private final Variable<Integer> mMaximumSkippedCyclesVariable =
+                                                                new Variable<Integer>("MaximumSkippedCycles",
+                                                                                      2);
+
+  private HashMap<Pair<Integer, Integer>, KalmanFocusTracker> mTrackers =
+                                                                        new HashMap<>();
+  private HashSet<Pair<Integer, Integer>> mPredictedControlPlanes =
+                                                                  new HashSet<>();
+  private int mNumberOfTrackedControlPlanes = -1;
+  private Boolean mRelativeCorrection = null;
+  private Boolean mFlipCorrectionSign = null;
+
+  private ConcurrentHashMap<Triple<Integer, Integer, Integer>, Result> mResultsMap =
+                                                                                   new ConcurrentHashMap<>();
   protected LightSheetDOF mLightSheetDOF;
 
   int[][] mSelectedDetectionArms;
@@ -138,6 +166,170 @@ public abstract class StandardAdaptationModule extends
     setNDIterator(new NDIterator(lNumberOfControlPlanes,
                                  lNumberOfLighSheets));
 
+    // trackers survive from one adaptation cycle to the next, unless the
+    // control planes changed:
+    if (lNumberOfControlPlanes != mNumberOfTrackedControlPlanes)
+    {
+      mTrackers.clear();
+      mPredictedControlPlanes.clear();
+      mNumberOfTrackedControlPlanes = lNumberOfControlPlanes;
+    }
+  }
+
+  /**
+   * Decides how many samples the sweep of a control plane and light sheet
+   * needs in this cycle, based on the prediction of its optimum from earlier
+   * cycles. Call this once per cycle and control plane before building the
+   * queue.
+   *
+   * Without predictive tracking or sufficient history, the configured number
+   * of samples is returned. If the prediction is certain enough, 0 is
+   * returned: the control plane is skipped in this cycle and the predicted
+   * correction is applied instead of a measured one. Otherwise, a sweep
+   * centred on the current value only needs to cover the expected correction
+   * plus its uncertainty, which may need fewer samples. Modules whose sweep is
+   * not centred on the current value should only check for 0.
+   *
+   * @param pControlPlaneIndex
+   *          control plane index
+   * @param pLightSheetIndex
+   *          light sheet index
+   * @param pStep
+   *          distance between samples of the sweep in units of the DOF
+   * @return number of samples, 0 to skip
+   */
+  protected int getNumberOfSamplesToMeasure(int pControlPlaneIndex,
+                                            int pLightSheetIndex,
+                                            double pStep)
+  {
+    int lNumberOfSamples = getNumberOfSamplesVariable().get();
+    Pair<Integer, Integer> lKey = Pair.of(pControlPlaneIndex,
+                                          pLightSheetIndex);
+    mPredictedControlPlanes.remove(lKey);
+
+    if (!getPredictiveTrackingVariable().get() || pStep <= 0)
+    {
+      return lNumberOfSamples;
+    }
+
+    KalmanFocusTracker lTracker = mTrackers.get(lKey);
+    if (lTracker == null)
+    {
+      lTracker =
+               new KalmanFocusTracker(cMeasurementNoiseInSteps * pStep,
+                                      cDriftNoiseInSteps * pStep);
+      mTrackers.put(lKey, lTracker);
+    }
+    lTracker.predict();
+
+    if (!lTracker.isReady() || mRelativeCorrection == null)
+    {
+      return lNumberOfSamples;
+    }
+
+    double lCurrentValue =
+                         getAdaptiveEngine().getAcquisitionStateVariable()
+                                            .get()
+                                            .getInterpolationTables()
+                                            .get(mLightSheetDOF,
+                                                 pControlPlaneIndex,
+                                                 pLightSheetIndex);
+    double lCorrection = lTracker.getPredictedValue()
+                         - (mRelativeCorrection ? lCurrentValue : 0);
+    double lUncertainty = lTracker.getUncertainty();
+
+    if (lUncertainty < getSkipUncertaintyVariable().get() * pStep
+        && lTracker.getNumberOfPredictionsSinceMeasurement()
+           - 1 < getMaximumSkippedCyclesVariable().get())
+    {
+      info("Predicted correction for cpi=%d, l=%d: %g (uncertainty %g), skipping sweep",
+           pControlPlaneIndex,
+           pLightSheetIndex,
+           lCorrection,
+           lUncertainty);
+      usePrediction(pControlPlaneIndex, pLightSheetIndex, lCorrection);
+      mPredictedControlPlanes.add(lKey);
+      return 0;
+    }
+
+    if (!mRelativeCorrection)
+    {
+      return lNumberOfSamples;
+    }
+
+    int lHalfSamples =
+                     (int) Math.ceil((Math.abs(lCorrection)
+                                      + cSurpriseInSigmas * lUncertainty)
+                                     / pStep);
+    return Math.max(Math.min(cMinimumNumberOfSamples,
+                             lNumberOfSamples),
+                    Math.min(2 * lHalfSamples + 1, lNumberOfSamples));
+  }
+
+  private void usePrediction(int pControlPlaneIndex,
+                             int pLightSheetIndex,
+                             double pCorrection)
+  {
+    // a result leading to the predicted correction, equal for all detection
+    // arms, which passes the quality checks:
+    double lArgMax = (mFlipCorrectionSign ? -1 : 1) * pCorrection;
+    Result lResult = Result.of(lArgMax,
+                               getImageMetricThresholdVariable().get(),
+                               1.0);
+
+    int lNumberOfDetectionArms =
+                               getAdaptiveEngine().getAcquisitionStateVariable()
+                                                  .get()
+                                                  .getNumberOfDetectionArms();
+    for (int d = 0; d < lNumberOfDetectionArms; d++)
+    {
+      setResult(pControlPlaneIndex, pLightSheetIndex, d, lResult);
+    }
+  }
+
+  /**
+   * Enters the values resulting from the measurements of this cycle into the
+   * trackers. Values resulting from predictions or from failed measurements
+   * are not entered, the latter and unexpected measurements reset the
+   * tracker so that the next cycle measures with a full sweep.
+   *
+   * @param pUpdatedState
+   *          state after applying the corrections
+   */
+  private void updateTrackers(InterpolatedAcquisitionState pUpdatedState)
+  {
+    for (Pair<Integer, Integer> lKey : mTrackers.keySet())
+    {
+      if (mPredictedControlPlanes.contains(lKey))
+      {
+        continue;
+      }
+
+      int cpi = lKey.getLeft();
+      int l = lKey.getRight();
+      KalmanFocusTracker lTracker = mTrackers.get(lKey);
+
+      if (mControlPlaneStates == null
+          || mControlPlaneStates[l][cpi] != ConfigurationState.SUCCEEDED)
+      {
+        lTracker.reset();
+        continue;
+      }
+
+      double lValue = pUpdatedState.getInterpolationTables()
+                                   .get(mLightSheetDOF, cpi, l);
+      if (lTracker.isSurprise(lValue, cSurpriseInSigmas))
+      {
+        info("Unexpected value for cpi=%d, l=%d: %g instead of %g, tracking restarts",
+             cpi,
+             l,
+             lValue,
+             lTracker.getPredictedValue());
+        lTracker.reset();
+      }
+      lTracker.update(lValue);
+    }
+    mPredictedControlPlanes.clear();
   }
 
   protected Future<?> findBestDOFValue(int pControlPlaneIndex,
@@ -146,195 +338,346 @@ public abstract class StandardAdaptationModule extends
                                        InterpolatedAcquisitionState pStackAcquisition,
                                        final TDoubleArrayList pDOFValueList)
   {
+    initializeControlPlaneStates(pStackAcquisition);
 
-    try
+    ArrayList<double[]> lMetricArrays = playQueueAndComputeMetrics(pQueue);
+
+    if (lMetricArrays == null)
     {
-      LightSheetMicroscope lLightsheetMicroscope =
-                                                 (LightSheetMicroscope) getAdaptiveEngine().getMicroscope();
+      mControlPlaneStates[pLightSheetIndex][pControlPlaneIndex] =
+                                                                ConfigurationState.FAILED;
+      mControlPlaneStateDescriptions[pLightSheetIndex][pControlPlaneIndex] =
+                                                                           "Playing queue failed";
+
+      invokeControlPlaneStateChangeListeners(pLightSheetIndex,
+                                             pControlPlaneIndex);
+      return null;
+    }
 
-      if (mControlPlaneStates == null)
+    Runnable lRunnable = analyseDOFValues(pControlPlaneIndex,
+                                          pLightSheetIndex,
+                                          pDOFValueList,
+                                          lMetricArrays);
+
+    return executeAndSyncIfNeeded(lRunnable);
+  }
+
+  /**
+   * Finds the best DOF values of several control plane and light sheet
+   * combinations from a single queue. The queue has to contain the sweep of
+   * each combination in the given order and each sweep has to acquire one
+   * image per DOF value. The resulting stacks are split into one sweep per
+   * combination, which are then analysed in parallel.
+   *
+   * @param pControlPlaneIndices
+   *          control plane index per sweep
+   * @param pLightSheetIndices
+   *          light sheet index per sweep
+   * @param pQueue
+   *          queue containing all sweeps
+   * @param pStackAcquisition
+   *          acquisition state
+   * @param pDOFValueList
+   *          DOF values of every sweep
+   * @return future of the analysis of all sweeps, null if playing the queue
+   *         failed
+   */
+  protected Future<?> findBestDOFValues(int[] pControlPlaneIndices,
+                                        int[] pLightSheetIndices,
+                                        LightSheetMicroscopeQueue pQueue,
+                                        InterpolatedAcquisitionState pStackAcquisition,
+                                        final TDoubleArrayList pDOFValueList)
+  {
+    initializeControlPlaneStates(pStackAcquisition);
+
+    ArrayList<double[]> lMetricArrays = playQueueAndComputeMetrics(pQueue);
+
+    int lNumberOfSweeps = pControlPlaneIndices.length;
+    if (lMetricArrays == null)
+    {
+      for (int i = 0; i < lNumberOfSweeps; i++)
       {
-        mControlPlaneStates =
-                            new ConfigurationState[lLightsheetMicroscope.getNumberOfLightSheets()][pStackAcquisition.getNumberOfControlPlanes()];
-        mControlPlaneStateDescriptions =
-                                       new String[lLightsheetMicroscope.getNumberOfLightSheets()][pStackAcquisition.getNumberOfControlPlanes()];
-        mSelectedDetectionArms =
-                               new int[lLightsheetMicroscope.getNumberOfLightSheets()][pStackAcquisition.getNumberOfControlPlanes()];
-        for (int lLightSheetIndex =
-                                  0; lLightSheetIndex < lLightsheetMicroscope.getNumberOfLightSheets(); lLightSheetIndex++)
+        mControlPlaneStates[pLightSheetIndices[i]][pControlPlaneIndices[i]] =
+                                                                            ConfigurationState.FAILED;
+        mControlPlaneStateDescriptions[pLightSheetIndices[i]][pControlPlaneIndices[i]] =
+                                                                                       "Playing queue failed";
+
+        invokeControlPlaneStateChangeListeners(pLightSheetIndices[i],
+                                               pControlPlaneIndices[i]);
+      }
+      return null;
+    }
+
+    // demultiplex: each sweep is a consecutive range of planes
+    int lNumberOfSamples = pDOFValueList.size();
+    ArrayList<Runnable> lRunnables = new ArrayList<>();
+    for (int i = 0; i < lNumberOfSweeps; i++)
+    {
+      ArrayList<double[]> lSweepMetricArrays = new ArrayList<>();
+      for (double[] lMetricArray : lMetricArrays)
+      {
+        if (lMetricArray == null
+            || lMetricArray.length < (i + 1) * lNumberOfSamples)
         {
-          for (int lControlPlaneIndex =
-                                      0; lControlPlaneIndex < pStackAcquisition.getNumberOfControlPlanes(); lControlPlaneIndex++)
-          {
-            mControlPlaneStates[lLightSheetIndex][lControlPlaneIndex] =
-                                                                      ConfigurationState.UNINITIALIZED;
-            mControlPlaneStateDescriptions[lLightSheetIndex][lControlPlaneIndex] =
-                                                                                 "";
-            mSelectedDetectionArms[lLightSheetIndex][lControlPlaneIndex] =
-                                                                         -1;
-            invokeControlPlaneStateChangeListeners(lLightSheetIndex,
-                                                   lControlPlaneIndex);
-          }
+          lSweepMetricArrays.add(null);
+          continue;
         }
+        lSweepMetricArrays.add(Arrays.copyOfRange(lMetricArray,
+                                                  i * lNumberOfSamples,
+                                                  (i + 1) * lNumberOfSamples));
       }
+      lRunnables.add(analyseDOFValues(pControlPlaneIndices[i],
+                                      pLightSheetIndices[i],
+                                      pDOFValueList,
+                                      lSweepMetricArrays));
+    }
 
-      lLightsheetMicroscope.useRecycler("adaptation", 1, 4, 4);
-      final Boolean lPlayQueueAndWait =
-                                      lLightsheetMicroscope.playQueueAndWaitForStacks(pQueue,
-                                                                                      10 + pQueue.getQueueLength(),
-                                                                                      TimeUnit.SECONDS);
+    return executeAndSyncIfNeeded(() -> lRunnables.parallelStream()
+                                                  .forEach(Runnable::run));
+  }
 
-      if (!lPlayQueueAndWait)
-      {
-        mControlPlaneStates[pLightSheetIndex][pControlPlaneIndex] =
-                                                                  ConfigurationState.FAILED;
-        mControlPlaneStateDescriptions[pLightSheetIndex][pControlPlaneIndex] =
-                                                                             "Playing queue failed";
+  private void initializeControlPlaneStates(InterpolatedAcquisitionState pStackAcquisition)
+  {
+    LightSheetMicroscope lLightsheetMicroscope =
+                                               (LightSheetMicroscope) getAdaptiveEngine().getMicroscope();
 
-        invokeControlPlaneStateChangeListeners(pLightSheetIndex,
-                                               pControlPlaneIndex);
-        return null;
+    if (mControlPlaneStates == null)
+    {
+      mControlPlaneStates =
+                          new ConfigurationState[lLightsheetMicroscope.getNumberOfLightSheets()][pStackAcquisition.getNumberOfControlPlanes()];
+      mControlPlaneStateDescriptions =
+                                     new String[lLightsheetMicroscope.getNumberOfLightSheets()][pStackAcquisition.getNumberOfControlPlanes()];
+      mSelectedDetectionArms =
+                             new int[lLightsheetMicroscope.getNumberOfLightSheets()][pStackAcquisition.getNumberOfControlPlanes()];
+      for (int lLightSheetIndex =
+                                0; lLightSheetIndex < lLightsheetMicroscope.getNumberOfLightSheets(); lLightSheetIndex++)
+      {
+        for (int lControlPlaneIndex =
+                                    0; lControlPlaneIndex < pStackAcquisition.getNumberOfControlPlanes(); lControlPlaneIndex++)
+        {
+          mControlPlaneStates[lLightSheetIndex][lControlPlaneIndex] =
+                                                                    ConfigurationState.UNINITIALIZED;
+          mControlPlaneStateDescriptions[lLightSheetIndex][lControlPlaneIndex] =
+                                                                               "";
+          mSelectedDetectionArms[lLightSheetIndex][lControlPlaneIndex] =
+                                                                       -1;
+          invokeControlPlaneStateChangeListeners(lLightSheetIndex,
+                                                 lControlPlaneIndex);
+        }
       }
+    }
+  }
+
+  /**
+   * Plays the given queue. The focus metrics are computed plane-parallel as
+   * soon as each camera delivers its stack.
+   *
+   * @param pQueue
+   *          queue
+   * @return metric per plane and detection arm, null if playing the queue
+   *         failed
+   */
+  private ArrayList<double[]> playQueueAndComputeMetrics(LightSheetMicroscopeQueue pQueue)
+  {
+    try
+    {
+      LightSheetMicroscope lLightsheetMicroscope =
+                                                 (LightSheetMicroscope) getAdaptiveEngine().getMicroscope();
 
       final int lNumberOfDetectionArmDevices =
                                              lLightsheetMicroscope.getDeviceLists()
                                                                   .getNumberOfDevices(DetectionArmInterface.class);
 
-      ArrayList<StackInterface> lStacks = new ArrayList<>();
+      // focus metrics are computed plane-parallel as soon as each camera
+      // delivers its stack, directly on camera memory:
+      StreamingFocusMetric[] lFocusMetrics =
+                                           new StreamingFocusMetric[lNumberOfDetectionArmDevices];
+      ArrayList<VariableSetListener<StackInterface>> lStackListeners =
+                                                                     new ArrayList<>();
       for (int d = 0; d < lNumberOfDetectionArmDevices; d++)
       {
-        final StackInterface lStackInterface =
-                                             lLightsheetMicroscope.getCameraStackVariable(d)
-                                                                  .get();
-        lStacks.add(lStackInterface.duplicate());
+        final StreamingFocusMetric lFocusMetric =
+                                                new StreamingFocusMetric();
+        lFocusMetrics[d] = lFocusMetric;
+        VariableSetListener<StackInterface> lStackListener =
+                                                           (pOldStack,
+                                                            pNewStack) -> lFocusMetric.submitStack(pNewStack);
+        lStackListeners.add(lStackListener);
+        lLightsheetMicroscope.getCameraStackVariable(d)
+                             .addSetListener(lStackListener);
+      }
 
+      lLightsheetMicroscope.useRecycler("adaptation", 1, 4, 4);
+      final Boolean lPlayQueueAndWait;
+      try
+      {
+        lPlayQueueAndWait =
+                          lLightsheetMicroscope.playQueueAndWaitForStacks(pQueue,
+                                                                          10 + pQueue.getQueueLength(),
+                                                                          TimeUnit.SECONDS);
+      }
+      finally
+      {
+        for (int d = 0; d < lNumberOfDetectionArmDevices; d++)
+        {
+          lLightsheetMicroscope.getCameraStackVariable(d)
+                               .removeSetListener(lStackListeners.get(d));
+        }
       }
 
-      Runnable lRunnable = () -> {
+      if (!lPlayQueueAndWait)
+      {
+        return null;
+      }
 
-        try
+      // the camera stacks are only valid until the next queue is played,
+      // so we wait here for the (mostly finished) plane metrics:
+      ArrayList<double[]> lMetricArrays = new ArrayList<>();
+      for (int d = 0; d < lNumberOfDetectionArmDevices; d++)
+      {
+        if (!lFocusMetrics[d].hasReceivedPlanes())
         {
-          SmartArgMaxFinder lSmartArgMaxFinder =
-                                               new SmartArgMaxFinder();
+          lFocusMetrics[d].submitStack(lLightsheetMicroscope.getCameraStackVariable(d)
+                                                            .get());
+        }
+        lMetricArrays.add(lFocusMetrics[d].getMetricArray(10 + pQueue.getQueueLength(),
+                                                          TimeUnit.SECONDS));
+      }
+      return lMetricArrays;
+    }
+    catch (InterruptedException | ExecutionException
+        | TimeoutException e)
+    {
+      e.printStackTrace();
+    }
+    return null;
+  }
 
-          String lInfoString = "";
+  private Runnable analyseDOFValues(int pControlPlaneIndex,
+                                    int pLightSheetIndex,
+                                    final TDoubleArrayList pDOFValueList,
+                                    ArrayList<double[]> pMetricArrays)
+  {
+    final int lNumberOfDetectionArmDevices = pMetricArrays.size();
 
-          double lMaxProbability = 0;
-          double lMaxMetric = 0;
-          double lArgMax = 0;
-          int lSelectedDetectionArm = -1;
+    return () -> {
 
-          for (int pDetectionArmIndex =
-                                      0; pDetectionArmIndex < lNumberOfDetectionArmDevices; pDetectionArmIndex++)
+      try
+      {
+        SmartArgMaxFinder lSmartArgMaxFinder =
+                                             new SmartArgMaxFinder();
 
-          {
+        String lInfoString = "";
 
-            final double[] lMetricArray =
-                                        computeMetric(pControlPlaneIndex,
-                                                      pLightSheetIndex,
-                                                      pDetectionArmIndex,
-                                                      pDOFValueList,
-                                                      lStacks.get(pDetectionArmIndex));
+        double lMaxProbability = 0;
+        double lMaxMetric = 0;
+        double lArgMax = 0;
+        int lSelectedDetectionArm = -1;
 
-            if (lMetricArray == null)
-              continue;
+        for (int pDetectionArmIndex =
+                                    0; pDetectionArmIndex < lNumberOfDetectionArmDevices; pDetectionArmIndex++)
 
-            Double lArgmax =
-                           lSmartArgMaxFinder.argmax(pDOFValueList.toArray(),
-                                                     lMetricArray);
+        {
 
-            Double lFitProbability =
-                                   lSmartArgMaxFinder.getLastFitProbability();
+          final double[] lMetricArray =
+                                      computeMetric(pControlPlaneIndex,
+                                                    pLightSheetIndex,
+                                                    pDetectionArmIndex,
+                                                    pDOFValueList,
+                                                    pMetricArrays.get(pDetectionArmIndex));
 
-            if (lArgmax == null || lFitProbability == null)
-            {
-              lArgmax = 0d;
-              lFitProbability = 0d;
-            }
+          if (lMetricArray == null)
+            continue;
 
-            double lMetricMax = Arrays.stream(lMetricArray)
-                                      .max()
-                                      .getAsDouble();
-
-            info("argmax = %s, metric=%s, probability = %s ",
-                 lArgmax,
-                 lMetricMax,
-                 lFitProbability);
-
-            setResult(pControlPlaneIndex,
-                      pLightSheetIndex,
-                      pDetectionArmIndex,
-                      Result.of(lArgmax,
-                                lMetricMax,
-                                lFitProbability));
-
-            lInfoString +=
-                        String.format("argmax=%g\nmetricmax=%g\nprob=%g\n",
-                                      lArgmax,
-                                      lMetricMax,
-                                      lFitProbability);
-
-            if (lMaxProbability * lMaxMetric < lFitProbability
-                                               + lMetricMax)
-            {
-              lMaxMetric = lMetricMax;
-              lMaxProbability = lFitProbability;
-              lArgMax = lArgmax;
-              lSelectedDetectionArm = pDetectionArmIndex;
-            }
+          Double lArgmax =
+                         lSmartArgMaxFinder.argmax(pDOFValueList.toArray(),
+                                                   lMetricArray);
+
+          Double lFitProbability =
+                                 lSmartArgMaxFinder.getLastFitProbability();
 
+          if (lArgmax == null || lFitProbability == null)
+          {
+            lArgmax = 0d;
+            lFitProbability = 0d;
           }
 
-          getAdaptiveEngine().addEntry(getName(),
-                                       false,
-                                       "LS",
-                                       "CPI",
-                                       9,
-                                       pLightSheetIndex,
-                                       pControlPlaneIndex,
-                                       lInfoString);
-
-          checkAdaptationQuality(pLightSheetIndex,
-                                 pControlPlaneIndex,
-                                 lArgMax,
-                                 lMaxMetric,
-                                 lMaxProbability,
-                                 lSelectedDetectionArm);
-
-          for (StackInterface lStack : lStacks)
-            lStack.free();
+          double lMetricMax = Arrays.stream(lMetricArray)
+                                    .max()
+                                    .getAsDouble();
+
+          info("argmax = %s, metric=%s, probability = %s ",
+               lArgmax,
+               lMetricMax,
+               lFitProbability);
+
+          setResult(pControlPlaneIndex,
+                    pLightSheetIndex,
+                    pDetectionArmIndex,
+                    Result.of(lArgmax,
+                              lMetricMax,
+                              lFitProbability));
+
+          lInfoString +=
+                      String.format("argmax=%g\nmetricmax=%g\nprob=%g\n",
+                                    lArgmax,
+                                    lMetricMax,
+                                    lFitProbability);
+
+          if (lMaxProbability * lMaxMetric < lFitProbability
+                                             + lMetricMax)
+          {
+            lMaxMetric = lMetricMax;
+            lMaxProbability = lFitProbability;
+            lArgMax = lArgmax;
+            lSelectedDetectionArm = pDetectionArmIndex;
+          }
 
         }
-        catch (Throwable e)
-        {
-          e.printStackTrace();
-        }
 
-      };
+        getAdaptiveEngine().addEntry(getName(),
+                                     false,
+                                     "LS",
+                                     "CPI",
+                                     9,
+                                     pLightSheetIndex,
+                                     pControlPlaneIndex,
+                                     lInfoString);
 
-      Future<?> lFuture = executeAsynchronously(lRunnable);
+        checkAdaptationQuality(pLightSheetIndex,
+                               pControlPlaneIndex,
+                               lArgMax,
+                               lMaxMetric,
+                               lMaxProbability,
+                               lSelectedDetectionArm);
 
-      // FORCE SYNC:
-      if (!getAdaptiveEngine().getConcurrentExecutionVariable().get())
+      }
+      catch (Throwable e)
       {
-        try
-        {
-          lFuture.get();
-        }
-        catch (Throwable e)
-        {
-          e.printStackTrace();
-        }
+        e.printStackTrace();
       }
 
-      return lFuture;
-    }
-    catch (InterruptedException | ExecutionException
-        | TimeoutException e)
+    };
+  }
+
+  private Future<?> executeAndSyncIfNeeded(Runnable pRunnable)
+  {
+    Future<?> lFuture = executeAsynchronously(pRunnable);
+
+    // FORCE SYNC:
+    if (!getAdaptiveEngine().getConcurrentExecutionVariable().get())
     {
-      e.printStackTrace();
+      try
+      {
+        lFuture.get();
+      }
+      catch (Throwable e)
+      {
+        e.printStackTrace();
+      }
     }
-    return null;
+
+    return lFuture;
   }
 
   protected void setResult(int pControlPlaneIndex,
@@ -361,19 +704,12 @@ public abstract class StandardAdaptationModule extends
                                    int pLightSheetIndex,
                                    int pDetectionArmIndex,
                                    final TDoubleArrayList lDOFValueList,
-                                   StackInterface lDuplicatedStack)
+                                   final double[] lMetricArray)
   {
 
-    if (lDuplicatedStack instanceof EmptyStack)
+    if (lMetricArray == null)
       return null;
 
-    DCTS2D lDCTS2D = new DCTS2D();
-
-    // System.out.format("computing DCTS on %s ...\n", lDuplicatedStack);
-    final double[] lMetricArray =
-                                lDCTS2D.computeImageQualityMetric((OffHeapPlanarStack) lDuplicatedStack);
-    lDuplicatedStack.free();
-
     String lChartName = String.format("CPI=%d|LS=%d|D=%d",
                                       pControlPlaneIndex,
                                       pLightSheetIndex,
@@ -408,6 +744,42 @@ public abstract class StandardAdaptationModule extends
     return lMetricArray;
   }
 
+  /**
+   * Applies the corrections to the given state within one transactional
+   * update, so that state and interpolation table listeners are notified once
+   * instead of once per control plane and light sheet.
+   *
+   * @param pStateToUpdate
+   *          state to update
+   * @param pRelativeCorrection
+   *          true if corrections are added to the current values
+   * @param pFlipCorrectionSign
+   *          true if the correction sign should be flipped
+   */
+  protected void updateStateInTransaction(InterpolatedAcquisitionState pStateToUpdate,
+                                          boolean pRelativeCorrection,
+                                          boolean pFlipCorrectionSign)
+  {
+    mRelativeCorrection = pRelativeCorrection;
+    mFlipCorrectionSign = pFlipCorrectionSign;
+
+    pStateToUpdate.beginUpdate();
+    try
+    {
+      updateStateInternal(pStateToUpdate,
+                          pRelativeCorrection,
+                          pFlipCorrectionSign);
+      if (getPredictiveTrackingVariable().get())
+      {
+        updateTrackers(pStateToUpdate);
+      }
+    }
+    finally
+    {
+      pStateToUpdate.commitUpdate();
+    }
+  }
+
   protected void updateStateInternal(InterpolatedAcquisitionState pStateToUpdate,
                                      boolean pRelativeCorrection,
                                      boolean pFlipCorrectionSign)
@@ -692,6 +1064,40 @@ public abstract class StandardAdaptationModule extends
     return mLaserPowerVariable;
   }
 
+  /**
+   * Returns the variable deciding whether the optima of each control plane
+   * and light sheet are tracked over time, so that sweeps can be shortened or
+   * skipped.
+   * 
+   * @return predictive tracking variable
+   */
+  public Variable<Boolean> getPredictiveTrackingVariable()
+  {
+    return mPredictiveTrackingVariable;
+  }
+
+  /**
+   * Returns the variable holding the prediction uncertainty below which a
+   * sweep is skipped, in units of the sweep step.
+   * 
+   * @return skip uncertainty variable
+   */
+  public Variable<Double> getSkipUncertaintyVariable()
+  {
+    return mSkipUncertaintyVariable;
+  }
+
+  /**
+   * Returns the variable holding the maximum number of consecutive cycles a
+   * control plane may be skipped.
+   * 
+   * @return maximum skipped cycles variable
+   */
+  public Variable<Integer> getMaximumSkippedCyclesVariable()
+  {
+    return mMaximumSkippedCyclesVariable;
+  }
+
   ConfigurationState mConfigurationState =
                                          ConfigurationState.UNINITIALIZED;
 
@@ -29,6 +29,9 @@ public class AdaptationZPanel extends StandardAdaptationModulePanel
                                               .getMax(),
                                   pAdaptationZ.getDeltaZVariable()
                                               .getGranularity());
+
+    addCheckBoxForVariable("Batch control planes",
+                           pAdaptationZ.getBatchControlPlanesVariable());
   }
 
 }
@@ -52,6 +52,21 @@ public class StandardAdaptationModulePanel extends CustomVariablePane
                                   0.0,
                                   1.0,
                                   0.001);
+
+    addCheckBoxForVariable("predictive tracking: ",
+                           pAdaptationModule.getPredictiveTrackingVariable());
+
+    addNumberTextFieldForVariable("skip below uncertainty (steps): ",
+                                  pAdaptationModule.getSkipUncertaintyVariable(),
+                                  0.0,
+                                  10.0,
+                                  0.01);
+
+    addNumberTextFieldForVariable("maximum skipped cycles: ",
+                                  pAdaptationModule.getMaximumSkippedCyclesVariable(),
+                                  0,
+                                  100,
+                                  1);
   }
 
 }
@@ -0,0 +1,128 @@
+package clearcontrol.microscope.lightsheet.adaptive.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+
+import clearcontrol.microscope.lightsheet.LightSheetMicroscope;
+import clearcontrol.microscope.lightsheet.adaptive.instructions.FitImageSizeToSampleInstruction;
+import clearcontrol.microscope.lightsheet.warehouse.containers.StackInterfaceContainer;
+import clearcontrol.stack.ContiguousOffHeapPlanarStackFactory;
+import clearcontrol.stack.StackInterface;
+import clearcontrol.stack.StackRequest;
+
+import org.junit.Test;
+
+/**
+ * Fit image size to sample tests
+ */
+public class FitImageSizeToSampleTests
+{
+  private static final int cWidth = 512;
+  private static final int cHeight = 512;
+  private static final int cDepth = 8;
+
+  // sample box [minX, minY, maxX, maxY], off the center of the chip
+  private static final int[] cSample = new int[]
+  { 300, 280, 400, 360 };
+
+  private static class StackContainer extends StackInterfaceContainer
+  {
+    StackContainer()
+    {
+      super(0);
+    }
+
+    @Override
+    public boolean isDataComplete()
+    {
+      return true;
+    }
+  }
+
+  /**
+   * tests that the centered ROI fitted to a sample which is not in the center
+   * still contains the whole sample plus margin
+   */
+  @Test
+  public void fitsOffCenterSample()
+  {
+    FitImageSizeToSampleInstruction lInstruction = createInstruction();
+    StackContainer lContainer = new StackContainer();
+    lContainer.put("C0L0", createStack());
+
+    int[] lSize = lInstruction.determineImageSize(lContainer,
+                                                  cWidth,
+                                                  cHeight);
+
+    // the sample extends 144 pixels right and 104 pixels below the center
+    assertArrayEquals(new int[]
+    { 2 * (144 + 16), 2 * (104 + 16) }, lSize);
+
+    int lMargin = lInstruction.getMarginInPixels().get();
+    assertTrue(cWidth / 2 - lSize[0] / 2 <= cSample[0] - lMargin);
+    assertTrue(cWidth / 2 + lSize[0] / 2 >= cSample[2] + lMargin);
+    assertTrue(cHeight / 2 - lSize[1] / 2 <= cSample[1] - lMargin);
+    assertTrue(cHeight / 2 + lSize[1] / 2 >= cSample[3] + lMargin);
+  }
+
+  /**
+   * tests that stacks acquired with another image size are ignored
+   */
+  @Test
+  public void skipsStacksOfOtherSize()
+  {
+    FitImageSizeToSampleInstruction lInstruction = createInstruction();
+    StackContainer lContainer = new StackContainer();
+    lContainer.put("C0L0", createStack());
+
+    assertNull(lInstruction.determineImageSize(lContainer,
+                                               2 * cWidth,
+                                               cHeight));
+  }
+
+  private static FitImageSizeToSampleInstruction createInstruction()
+  {
+    FitImageSizeToSampleInstruction lInstruction =
+                                                 new FitImageSizeToSampleInstruction(new LightSheetMicroscope("Dummy",
+                                                                                                              null,
+                                                                                                              1,
+                                                                                                              1));
+    lInstruction.getMarginInPixels().set(16);
+    lInstruction.getSizeStepInPixels().set(16);
+    lInstruction.getMinimumSizeInPixels().set(64);
+    lInstruction.getShrinkHysteresis().set(0.0);
+    return lInstruction;
+  }
+
+  private static StackInterface createStack()
+  {
+    StackInterface lStack =
+                          new ContiguousOffHeapPlanarStackFactory().create(StackRequest.build(cWidth,
+                                                                                              cHeight,
+                                                                                              cDepth));
+    for (int z = 0; z < cDepth; z++)
+    {
+      CharBuffer lPlane = lStack.getContiguousMemory(z)
+                                .getByteBuffer()
+                                .order(ByteOrder.nativeOrder())
+                                .asCharBuffer();
+      for (int y = 0; y < cHeight; y++)
+      {
+        for (int x = 0; x < cWidth; x++)
+        {
+          boolean lIsSample = z >= 2 && z < 6
+                              && x >= cSample[0]
+                              && x < cSample[2]
+                              && y >= cSample[1]
+                              && y < cSample[3];
+          lPlane.put(y * cWidth + x, (char) (lIsSample ? 1000 : 100));
+        }
+      }
+    }
+    return lStack;
+  }
+}
@@ -0,0 +1,145 @@
+package clearcontrol.microscope.lightsheet.adaptive.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+
+import clearcontrol.microscope.lightsheet.LightSheetMicroscope;
+import clearcontrol.microscope.lightsheet.adaptive.instructions.FitZRangeToSampleInstruction;
+import clearcontrol.microscope.lightsheet.component.lightsheet.LightSheet;
+import clearcontrol.microscope.lightsheet.state.InterpolatedAcquisitionState;
+import clearcontrol.microscope.lightsheet.warehouse.containers.StackInterfaceContainer;
+import clearcontrol.stack.ContiguousOffHeapPlanarStackFactory;
+import clearcontrol.stack.StackInterface;
+import clearcontrol.stack.StackRequest;
+
+import org.junit.Test;
+
+/**
+ * Fit Z range to sample tests
+ */
+public class FitZRangeToSampleTests
+{
+  private static final int cWidth = 32;
+  private static final int cHeight = 32;
+
+  private static final double cZLow = -60;
+  private static final double cZHigh = 60;
+  private static final double cZStep = 2;
+
+  // the recorded sample is a slab drifting upwards in Z
+  private static final double cSampleHalfThickness = 15;
+  private static final double cDriftPerTimePoint = 4;
+  private static final int cNumberOfTimePoints = 15;
+
+  private static class StackContainer extends StackInterfaceContainer
+  {
+    StackContainer(long pTimePoint)
+    {
+      super(pTimePoint);
+    }
+
+    @Override
+    public boolean isDataComplete()
+    {
+      return true;
+    }
+  }
+
+  /**
+   * replays a time lapse of a drifting sample: every time point is imaged with
+   * the range fitted to the time point before. The sample must be covered
+   * completely at every time point and the Z step must not change.
+   */
+  @Test
+  public void followsDriftingSampleWithoutChangingZStep()
+  {
+    LightSheetMicroscope lLightSheetMicroscope =
+                                               new LightSheetMicroscope("Dummy",
+                                                                        null,
+                                                                        1,
+                                                                        1);
+    lLightSheetMicroscope.addDevice(0, new LightSheet("L0", 1, 2));
+    InterpolatedAcquisitionState lState =
+                                        new InterpolatedAcquisitionState("current",
+                                                                         lLightSheetMicroscope);
+    lState.setStackZRange(cZLow,
+                          cZHigh,
+                          (long) ((cZHigh - cZLow) / cZStep) + 1);
+
+    FitZRangeToSampleInstruction lInstruction =
+                                              new FitZRangeToSampleInstruction(lLightSheetMicroscope);
+    lInstruction.getMarginInMicrons().set(10.0);
+    lInstruction.getShrinkHysteresisInMicrons().set(5.0);
+    lInstruction.getLowestZInMicrons().set(-200.0);
+    lInstruction.getHighestZInMicrons().set(200.0);
+    lInstruction.getStayWithinControlPlanes().set(false);
+
+    for (int t = 0; t < cNumberOfTimePoints; t++)
+    {
+      double lZLow = lState.getStackZLowVariable().get().doubleValue();
+      double lZHigh = lState.getStackZHighVariable().get().doubleValue();
+      double lZStep = lState.getStackZStepVariable().get().doubleValue();
+      int lNumberOfPlanes = lState.getNumberOfZPlanesVariable()
+                                  .get()
+                                  .intValue();
+
+      assertEquals(cZStep, lZStep, 1e-9);
+      assertEquals(lZHigh - lZLow, (lNumberOfPlanes - 1) * lZStep, 1e-9);
+      double lPlanesFromStart = (lZLow - cZLow) / cZStep;
+      assertEquals(Math.round(lPlanesFromStart), lPlanesFromStart, 1e-9);
+
+      double lSampleCenter = getSampleCenter(t);
+      assertTrue("sample below the range at time point " + t,
+                 lZLow <= lSampleCenter - cSampleHalfThickness);
+      assertTrue("sample above the range at time point " + t,
+                 lZHigh >= lSampleCenter + cSampleHalfThickness);
+
+      StackContainer lContainer = new StackContainer(t);
+      lContainer.put("C0L0", acquireStack(t, lZLow, lZStep, lNumberOfPlanes));
+      lInstruction.fitZRange(lState, lContainer);
+    }
+
+    // the range follows the sample instead of just staying large:
+    assertTrue(lState.getNumberOfZPlanesVariable().get().intValue() < 31);
+  }
+
+  private static double getSampleCenter(int pTimePoint)
+  {
+    return -20 + cDriftPerTimePoint * pTimePoint;
+  }
+
+  private static StackInterface acquireStack(int pTimePoint,
+                                             double pZLow,
+                                             double pZStep,
+                                             int pNumberOfPlanes)
+  {
+    StackInterface lStack =
+                          new ContiguousOffHeapPlanarStackFactory().create(StackRequest.build(cWidth,
+                                                                                              cHeight,
+                                                                                              pNumberOfPlanes));
+    for (int z = 0; z < pNumberOfPlanes; z++)
+    {
+      boolean lPlaneHasSample = Math.abs(pZLow + z * pZStep
+                                         - getSampleCenter(pTimePoint)) <= cSampleHalfThickness;
+      CharBuffer lPlane = lStack.getContiguousMemory(z)
+                                .getByteBuffer()
+                                .order(ByteOrder.nativeOrder())
+                                .asCharBuffer();
+      for (int y = 0; y < cHeight; y++)
+      {
+        for (int x = 0; x < cWidth; x++)
+        {
+          boolean lIsSample = lPlaneHasSample && x >= 12
+                              && x < 20
+                              && y >= 12
+                              && y < 20;
+          lPlane.put(y * cWidth + x, (char) (lIsSample ? 1000 : 100));
+        }
+      }
+    }
+    return lStack;
+  }
+}
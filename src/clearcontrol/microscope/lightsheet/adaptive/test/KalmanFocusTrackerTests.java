@@ -0,0 +1,84 @@
+package clearcontrol.microscope.lightsheet.adaptive.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import clearcontrol.microscope.lightsheet.adaptive.utils.KalmanFocusTracker;
+
+import org.junit.Test;
+
+/**
+ * Kalman focus tracker tests
+ */
+public class KalmanFocusTrackerTests
+{
+  private static final double cMeasurementNoise = 0.25;
+  private static final double cDriftNoise = 0.05;
+
+  /**
+   * tests that a linear drift is learned and predicted with decreasing
+   * uncertainty
+   */
+  @Test
+  public void predictsLinearDrift()
+  {
+    Random lRandom = new Random(42);
+    KalmanFocusTracker lTracker =
+                                new KalmanFocusTracker(cMeasurementNoise,
+                                                       cDriftNoise);
+    assertFalse(lTracker.isReady());
+
+    double lDrift = 0.8;
+    double lUncertainty = Double.POSITIVE_INFINITY;
+    for (int t = 0; t < 20; t++)
+    {
+      lTracker.predict();
+      if (lTracker.isReady())
+      {
+        assertTrue(lTracker.getUncertainty() <= lUncertainty + 1e-9);
+        lUncertainty = lTracker.getUncertainty();
+      }
+      lTracker.update(10 + lDrift * t
+                      + cMeasurementNoise * lRandom.nextGaussian());
+    }
+
+    lTracker.predict();
+    assertEquals(10 + lDrift * 20, lTracker.getPredictedValue(), 0.5);
+    assertEquals(lDrift, lTracker.getDrift(), 0.1);
+    assertTrue(lTracker.getUncertainty() < 2 * cMeasurementNoise);
+  }
+
+  /**
+   * tests that a sudden jump is detected and that predictions without
+   * measurement become more uncertain
+   */
+  @Test
+  public void detectsSurprises()
+  {
+    KalmanFocusTracker lTracker =
+                                new KalmanFocusTracker(cMeasurementNoise,
+                                                       cDriftNoise);
+    for (int t = 0; t < 10; t++)
+    {
+      lTracker.predict();
+      lTracker.update(5);
+    }
+
+    lTracker.predict();
+    assertFalse(lTracker.isSurprise(5.1, 3));
+    assertTrue(lTracker.isSurprise(8, 3));
+
+    double lUncertainty = lTracker.getUncertainty();
+    lTracker.predict();
+    assertTrue(lTracker.getUncertainty() > lUncertainty);
+    assertEquals(2,
+                 lTracker.getNumberOfPredictionsSinceMeasurement());
+
+    lTracker.reset();
+    assertFalse(lTracker.isReady());
+    assertFalse(lTracker.isSurprise(8, 3));
+  }
+}
@@ -0,0 +1,123 @@
+package clearcontrol.microscope.lightsheet.adaptive.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import clearcontrol.ip.iqm.DCTS2D;
+import clearcontrol.microscope.lightsheet.adaptive.utils.StreamingFocusMetric;
+import clearcontrol.stack.ContiguousOffHeapPlanarStackFactory;
+import clearcontrol.stack.OffHeapPlanarStack;
+import clearcontrol.stack.StackInterface;
+import clearcontrol.stack.StackRequest;
+
+import org.junit.Test;
+
+/**
+ * Streaming focus metric tests
+ */
+public class StreamingFocusMetricTests
+{
+  private static final int cWidth = 64;
+  private static final int cHeight = 48;
+  private static final int cDepth = 9;
+  private static final int cFocusPlane = 5;
+
+  /**
+   * the adaptation modules used to run DCTS2D on a copy of each camera stack,
+   * the streaming metric has to deliver the same values per plane
+   *
+   * @throws Exception
+   *           NA
+   */
+  @Test
+  public void matchesDCTS2D() throws Exception
+  {
+    StackInterface lStack = createStack();
+
+    StreamingFocusMetric lStreamingFocusMetric = new StreamingFocusMetric();
+    lStreamingFocusMetric.submitStack(lStack);
+    double[] lStreamingMetric =
+                              lStreamingFocusMetric.getMetricArray(10,
+                                                                   TimeUnit.SECONDS);
+
+    double[] lDCTS2DMetric =
+                           new DCTS2D().computeImageQualityMetric((OffHeapPlanarStack) lStack);
+
+    assertEquals(cDepth, lStreamingMetric.length);
+    assertEquals(cDepth, lDCTS2DMetric.length);
+    for (int z = 0; z < cDepth; z++)
+    {
+      assertEquals("plane " + z,
+                   lDCTS2DMetric[z],
+                   lStreamingMetric[z],
+                   1e-6 * Math.abs(lDCTS2DMetric[z]));
+    }
+    assertEquals(cFocusPlane, argmax(lStreamingMetric));
+
+    lStack.free();
+  }
+
+  /**
+   * random texture which is blurred more the further a plane is from the
+   * focus plane
+   */
+  private static StackInterface createStack()
+  {
+    Random lRandom = new Random(42);
+    double[] lTexture = new double[cWidth * cHeight];
+    for (int i = 0; i < lTexture.length; i++)
+    {
+      lTexture[i] = lRandom.nextDouble();
+    }
+
+    StackInterface lStack =
+                          new ContiguousOffHeapPlanarStackFactory().create(StackRequest.build(cWidth,
+                                                                                              cHeight,
+                                                                                              cDepth));
+    for (int z = 0; z < cDepth; z++)
+    {
+      int lRadius = Math.abs(z - cFocusPlane);
+      CharBuffer lPlane = lStack.getContiguousMemory(z)
+                                .getByteBuffer()
+                                .order(ByteOrder.nativeOrder())
+                                .asCharBuffer();
+      for (int y = 0; y < cHeight; y++)
+      {
+        for (int x = 0; x < cWidth; x++)
+        {
+          double lSum = 0;
+          int lCount = 0;
+          for (int v = Math.max(0, y - lRadius); v <= Math.min(cHeight - 1,
+                                                              y + lRadius); v++)
+          {
+            for (int u = Math.max(0, x - lRadius); u <= Math.min(cWidth - 1,
+                                                                x + lRadius); u++)
+            {
+              lSum += lTexture[v * cWidth + u];
+              lCount++;
+            }
+          }
+          lPlane.put(y * cWidth + x, (char) (100 + 1000 * lSum / lCount));
+        }
+      }
+    }
+    return lStack;
+  }
+
+  private static int argmax(double[] pArray)
+  {
+    int lIndex = 0;
+    for (int i = 1; i < pArray.length; i++)
+    {
+      if (pArray[i] > pArray[lIndex])
+      {
+        lIndex = i;
+      }
+    }
+    return lIndex;
+  }
+}
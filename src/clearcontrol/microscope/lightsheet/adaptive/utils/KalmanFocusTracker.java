@@ -0,0 +1,185 @@
+package clearcontrol.microscope.lightsheet.adaptive.utils;
+
+/**
+ * Kalman filter tracking the optimal value of a degree of freedom (e.g. the
+ * focus of a control plane) from one adaptation cycle to the next. The state
+ * consists of the optimal value and its drift per cycle; the drift itself is
+ * assumed to change randomly.
+ *
+ * Each cycle, predict() has to be called once before the measurement of this
+ * cycle is entered with update(...). Without measurement, predict() extends
+ * the prediction by another cycle and the uncertainty grows.
+ */
+public class KalmanFocusTracker
+{
+  private static final double cInitialDriftVarianceFactor = 100;
+
+  private final double mMeasurementVariance;
+  private final double mDriftVariance;
+
+  private double mValue;
+  private double mDrift;
+  private double mP00, mP01, mP11;
+
+  private int mNumberOfMeasurements = 0;
+  private int mNumberOfPredictionsSinceMeasurement = 0;
+
+  /**
+   * Instantiates a tracker
+   *
+   * @param pMeasurementNoise
+   *          standard deviation of a measurement
+   * @param pDriftNoise
+   *          standard deviation of the change of the drift per cycle
+   */
+  public KalmanFocusTracker(double pMeasurementNoise,
+                            double pDriftNoise)
+  {
+    mMeasurementVariance = pMeasurementNoise * pMeasurementNoise;
+    mDriftVariance = pDriftNoise * pDriftNoise;
+  }
+
+  /**
+   * Advances the tracker by one cycle
+   */
+  public void predict()
+  {
+    if (mNumberOfMeasurements == 0)
+    {
+      return;
+    }
+
+    mValue += mDrift;
+
+    // P = F P F' + Q with F = [1 1; 0 1] and Q = q [1/4 1/2; 1/2 1]
+    double lP00 = mP00 + 2 * mP01 + mP11 + 0.25 * mDriftVariance;
+    double lP01 = mP01 + mP11 + 0.5 * mDriftVariance;
+    double lP11 = mP11 + mDriftVariance;
+    mP00 = lP00;
+    mP01 = lP01;
+    mP11 = lP11;
+
+    mNumberOfPredictionsSinceMeasurement++;
+  }
+
+  /**
+   * Enters the measurement of the current cycle
+   *
+   * @param pMeasuredValue
+   *          measured optimal value
+   */
+  public void update(double pMeasuredValue)
+  {
+    if (mNumberOfMeasurements == 0)
+    {
+      mValue = pMeasuredValue;
+      mDrift = 0;
+      mP00 = mMeasurementVariance;
+      mP01 = 0;
+      mP11 = cInitialDriftVarianceFactor * mMeasurementVariance;
+    }
+    else
+    {
+      double lInnovation = pMeasuredValue - mValue;
+      double lInnovationVariance = mP00 + mMeasurementVariance;
+      double lK0 = mP00 / lInnovationVariance;
+      double lK1 = mP01 / lInnovationVariance;
+
+      mValue += lK0 * lInnovation;
+      mDrift += lK1 * lInnovation;
+
+      double lP00 = (1 - lK0) * mP00;
+      double lP01 = (1 - lK0) * mP01;
+      double lP11 = mP11 - lK1 * mP01;
+      mP00 = lP00;
+      mP01 = lP01;
+      mP11 = lP11;
+    }
+    mNumberOfMeasurements++;
+    mNumberOfPredictionsSinceMeasurement = 0;
+  }
+
+  /**
+   * Checks whether a measurement is unexpected given the prediction
+   *
+   * @param pMeasuredValue
+   *          measured optimal value
+   * @param pNumberOfSigmas
+   *          tolerated deviation in standard deviations
+   * @return true if the tracker is ready and the measurement deviates more
+   *         than tolerated
+   */
+  public boolean isSurprise(double pMeasuredValue, double pNumberOfSigmas)
+  {
+    if (!isReady())
+    {
+      return false;
+    }
+    double lInnovationSigma = Math.sqrt(mP00 + mMeasurementVariance);
+    return Math.abs(pMeasuredValue - mValue) > pNumberOfSigmas
+                                                * lInnovationSigma;
+  }
+
+  /**
+   * Forgets all measurements
+   */
+  public void reset()
+  {
+    mNumberOfMeasurements = 0;
+    mNumberOfPredictionsSinceMeasurement = 0;
+  }
+
+  /**
+   * Returns true if enough measurements were made to estimate the drift
+   *
+   * @return true if ready
+   */
+  public boolean isReady()
+  {
+    return mNumberOfMeasurements >= 2;
+  }
+
+  /**
+   * Returns the predicted optimal value
+   *
+   * @return predicted value
+   */
+  public double getPredictedValue()
+  {
+    return mValue;
+  }
+
+  /**
+   * Returns the standard deviation of the predicted optimal value
+   *
+   * @return uncertainty, infinite if not ready
+   */
+  public double getUncertainty()
+  {
+    if (!isReady())
+    {
+      return Double.POSITIVE_INFINITY;
+    }
+    return Math.sqrt(mP00);
+  }
+
+  /**
+   * Returns the estimated drift per cycle
+   *
+   * @return drift
+   */
+  public double getDrift()
+  {
+    return mDrift;
+  }
+
+  /**
+   * Returns the number of cycles predicted since the last measurement
+   *
+   * @return number of predictions
+   */
+  public int getNumberOfPredictionsSinceMeasurement()
+  {
+    return mNumberOfPredictionsSinceMeasurement;
+  }
+}
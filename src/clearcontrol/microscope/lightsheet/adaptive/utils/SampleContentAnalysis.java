@@ -0,0 +1,185 @@
+package clearcontrol.microscope.lightsheet.adaptive.utils;
+
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.util.stream.IntStream;
+
+import clearcontrol.stack.StackInterface;
+
+/**
+ * CPU routines to find out where in a 16 bit stack the sample is. Pixels count
+ * as sample if they are brighter than the background (median) plus a fraction
+ * of the contrast between background and the brightest pixels (99.9th
+ * percentile). The stacks are read directly from their memory, no copy is
+ * made.
+ */
+public class SampleContentAnalysis
+{
+  private static final double cBackgroundPercentile = 0.5;
+  private static final double cForegroundPercentile = 0.999;
+
+  /**
+   * Computes the maximum projection along Z
+   *
+   * @param pStack
+   *          16 bit stack
+   * @return projection, row by row
+   */
+  public static char[] maximumProjection(StackInterface pStack)
+  {
+    int lWidth = (int) pStack.getWidth();
+    int lHeight = (int) pStack.getHeight();
+    CharBuffer[] lPlanes = getPlanes(pStack);
+
+    char[] lProjection = new char[lWidth * lHeight];
+    IntStream.range(0, lHeight).parallel().forEach((y) -> {
+      int lOffset = y * lWidth;
+      for (CharBuffer lPlane : lPlanes)
+      {
+        for (int x = 0; x < lWidth; x++)
+        {
+          char lValue = lPlane.get(lOffset + x);
+          if (lValue > lProjection[lOffset + x])
+          {
+            lProjection[lOffset + x] = lValue;
+          }
+        }
+      }
+    });
+    return lProjection;
+  }
+
+  /**
+   * Determines the sample threshold of an image
+   *
+   * @param pImage
+   *          16 bit pixels
+   * @param pThreshold
+   *          fraction of the contrast between background and foreground
+   * @return threshold, or NaN if the image has no contrast
+   */
+  public static double determineThreshold(char[] pImage,
+                                          double pThreshold)
+  {
+    int[] lHistogram = new int[65536];
+    for (char lValue : pImage)
+    {
+      lHistogram[lValue]++;
+    }
+    return determineThreshold(lHistogram, pImage.length, pThreshold);
+  }
+
+  /**
+   * Determines the sample threshold of a stack. Only every n-th pixel is taken
+   * into account.
+   *
+   * @param pStack
+   *          16 bit stack
+   * @param pSubsampling
+   *          n
+   * @param pThreshold
+   *          fraction of the contrast between background and foreground
+   * @return threshold, or NaN if the stack has no contrast
+   */
+  public static double determineThreshold(StackInterface pStack,
+                                          int pSubsampling,
+                                          double pThreshold)
+  {
+    CharBuffer[] lPlanes = getPlanes(pStack);
+    int lLength = (int) (pStack.getWidth() * pStack.getHeight());
+
+    int[] lHistogram = new int[65536];
+    long lCount = 0;
+    for (CharBuffer lPlane : lPlanes)
+    {
+      for (int i = 0; i < lLength; i += pSubsampling)
+      {
+        lHistogram[lPlane.get(i)]++;
+        lCount++;
+      }
+    }
+    return determineThreshold(lHistogram, lCount, pThreshold);
+  }
+
+  /**
+   * Counts the pixels above a threshold in every plane of a stack. Only every
+   * n-th pixel is taken into account.
+   *
+   * @param pStack
+   *          16 bit stack
+   * @param pSubsampling
+   *          n
+   * @param pThreshold
+   *          threshold
+   * @return number of (sampled) pixels above the threshold per plane
+   */
+  public static int[] countPixelsAboveThresholdPerPlane(StackInterface pStack,
+                                                        int pSubsampling,
+                                                        double pThreshold)
+  {
+    CharBuffer[] lPlanes = getPlanes(pStack);
+    int lLength = (int) (pStack.getWidth() * pStack.getHeight());
+
+    int[] lCounts = new int[lPlanes.length];
+    IntStream.range(0, lPlanes.length).parallel().forEach((z) -> {
+      CharBuffer lPlane = lPlanes[z];
+      int lCount = 0;
+      for (int i = 0; i < lLength; i += pSubsampling)
+      {
+        if (lPlane.get(i) > pThreshold)
+        {
+          lCount++;
+        }
+      }
+      lCounts[z] = lCount;
+    });
+    return lCounts;
+  }
+
+  private static double determineThreshold(int[] pHistogram,
+                                           long pCount,
+                                           double pThreshold)
+  {
+    int lBackground = percentile(pHistogram,
+                                 pCount,
+                                 cBackgroundPercentile);
+    int lForeground = percentile(pHistogram,
+                                 pCount,
+                                 cForegroundPercentile);
+    if (lForeground <= lBackground)
+    {
+      return Double.NaN;
+    }
+    return lBackground + pThreshold * (lForeground - lBackground);
+  }
+
+  private static int percentile(int[] pHistogram,
+                                long pCount,
+                                double pFraction)
+  {
+    long lTarget = (long) Math.ceil(pFraction * pCount);
+    long lSum = 0;
+    for (int i = 0; i < pHistogram.length; i++)
+    {
+      lSum += pHistogram[i];
+      if (lSum >= lTarget)
+      {
+        return i;
+      }
+    }
+    return pHistogram.length - 1;
+  }
+
+  private static CharBuffer[] getPlanes(StackInterface pStack)
+  {
+    CharBuffer[] lPlanes = new CharBuffer[(int) pStack.getDepth()];
+    for (int z = 0; z < lPlanes.length; z++)
+    {
+      lPlanes[z] = pStack.getContiguousMemory(z)
+                         .getByteBuffer()
+                         .order(ByteOrder.nativeOrder())
+                         .asCharBuffer();
+    }
+    return lPlanes;
+  }
+}
@@ -0,0 +1,171 @@
+package clearcontrol.microscope.lightsheet.adaptive.utils;
+
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import autopilot.image.DoubleArrayImage;
+import autopilot.measures.FocusMeasures;
+import clearcontrol.stack.EmptyStack;
+import clearcontrol.stack.StackInterface;
+import coremem.ContiguousMemoryInterface;
+
+/**
+ * Computes a focus measure for each plane of a camera stack. Planes are
+ * submitted as soon as they are available and processed in parallel on the
+ * common fork-join pool, reading directly from the camera memory. No copy of
+ * the stack is made; the caller has to keep the stack alive until
+ * getMetricArray() returned.
+ *
+ * By default, the normalized DCT Shannon entropy is computed, as DCTS2D does.
+ */
+public class StreamingFocusMetric
+{
+  private static final ThreadLocal<DoubleArrayImage> cWorkingImage =
+                                                                   new ThreadLocal<>();
+
+  private final FocusMeasures.FocusMeasure mFocusMeasure;
+  private final ArrayList<CompletableFuture<Void>> mPlaneFutures =
+                                                                 new ArrayList<>();
+  private volatile double[] mMetricArray;
+  private volatile boolean mEmpty = false;
+
+  public StreamingFocusMetric()
+  {
+    this(FocusMeasures.FocusMeasure.SpectralNormDCTEntropyShannon);
+  }
+
+  public StreamingFocusMetric(FocusMeasures.FocusMeasure pFocusMeasure)
+  {
+    mFocusMeasure = pFocusMeasure;
+  }
+
+  /**
+   * Submits all planes of a stack for metric computation. Returns
+   * immediately.
+   *
+   * @param pStack
+   *          camera stack
+   */
+  public synchronized void submitStack(StackInterface pStack)
+  {
+    if (pStack == null || pStack instanceof EmptyStack)
+    {
+      mEmpty = true;
+      return;
+    }
+    int lDepth = (int) pStack.getDepth();
+    for (int z = 0; z < lDepth; z++)
+    {
+      submitPlane(z,
+                  lDepth,
+                  pStack.getContiguousMemory(z),
+                  (int) pStack.getWidth(),
+                  (int) pStack.getHeight());
+    }
+  }
+
+  /**
+   * Submits a single 16 bit plane for metric computation. Returns
+   * immediately.
+   *
+   * @param pPlaneIndex
+   *          index of the plane
+   * @param pNumberOfPlanes
+   *          total number of planes of the stack
+   * @param pPlane
+   *          plane memory
+   * @param pWidth
+   *          plane width
+   * @param pHeight
+   *          plane height
+   */
+  public synchronized void submitPlane(int pPlaneIndex,
+                                       int pNumberOfPlanes,
+                                       ContiguousMemoryInterface pPlane,
+                                       int pWidth,
+                                       int pHeight)
+  {
+    if (mMetricArray == null || mMetricArray.length != pNumberOfPlanes)
+    {
+      mMetricArray = new double[pNumberOfPlanes];
+    }
+    final double[] lMetricArray = mMetricArray;
+    mPlaneFutures.add(CompletableFuture.runAsync(() -> {
+      lMetricArray[pPlaneIndex] = computePlaneMetric(pPlane,
+                                                     pWidth,
+                                                     pHeight);
+    }));
+  }
+
+  private double computePlaneMetric(ContiguousMemoryInterface pPlane,
+                                    int pWidth,
+                                    int pHeight)
+  {
+    DoubleArrayImage lImage = cWorkingImage.get();
+    if (lImage == null || lImage.getWidth() != pWidth
+        || lImage.getHeight() != pHeight)
+    {
+      lImage = new DoubleArrayImage(pWidth, pHeight);
+      cWorkingImage.set(lImage);
+    }
+
+    double[] lArray = lImage.getArray();
+    CharBuffer lBuffer = pPlane.getByteBuffer()
+                               .order(ByteOrder.nativeOrder())
+                               .asCharBuffer();
+    for (int i = 0; i < lArray.length; i++)
+    {
+      lArray[i] = lBuffer.get(i);
+    }
+
+    return FocusMeasures.computeFocusMeasure(mFocusMeasure, lImage);
+  }
+
+  /**
+   * Returns true if a stack or plane has been submitted
+   *
+   * @return true if planes were submitted
+   */
+  public synchronized boolean hasReceivedPlanes()
+  {
+    return mEmpty || !mPlaneFutures.isEmpty();
+  }
+
+  /**
+   * Waits until the metrics of all submitted planes are computed.
+   *
+   * @param pTimeOut
+   *          time out
+   * @param pTimeUnit
+   *          time unit
+   * @return metric per plane, or null if an empty stack was submitted
+   * @throws InterruptedException
+   *           if interrupted while waiting
+   * @throws ExecutionException
+   *           if the computation failed
+   * @throws TimeoutException
+   *           if the computation did not finish in time
+   */
+  public double[] getMetricArray(long pTimeOut, TimeUnit pTimeUnit) throws InterruptedException,
+                                                                     ExecutionException,
+                                                                     TimeoutException
+  {
+    CompletableFuture<Void> lAllPlanes;
+    synchronized (this)
+    {
+      if (mEmpty || mMetricArray == null)
+      {
+        return null;
+      }
+      lAllPlanes =
+                 CompletableFuture.allOf(mPlaneFutures.toArray(new CompletableFuture[mPlaneFutures.size()]));
+    }
+    lAllPlanes.get(pTimeOut, pTimeUnit);
+    return mMetricArray;
+  }
+}
@@ -78,6 +78,10 @@ public class CalibrationEngine extends TaskDevice implements
                                                        new Variable<Boolean>("CalibrateHP",
                                                                              false);
 
+  private final Variable<Boolean> mValidateFirstVariable =
+                                                        new Variable<Boolean>("ValidateFirst",
+                                                                              false);
+
   private final Variable<String> mCalibrationDataName =
                                                       new Variable<String>("CalibrationName",
                                                                            "system");
@@ -174,8 +178,33 @@ public class CalibrationEngine extends TaskDevice implements
    */
   public boolean calibrate()
   {
+    boolean lCalibrateZ = getCalibrateZVariable().get();
+    boolean lCalibrateA = getCalibrateAVariable().get();
+
+    if (getValidateFirstVariable().get())
+    {
+      if (!load())
+      {
+        info("No stored calibration '%s', calibrating from scratch",
+             mCalibrationDataName.get());
+      }
+      else
+      {
+        if (lCalibrateZ)
+          lCalibrateZ = !validateZ();
 
-    if (getCalibrateZVariable().get() && !calibrateZ())
+        if (isStopRequested())
+          return false;
+
+        if (lCalibrateA)
+          lCalibrateA = !validateA();
+
+        if (isStopRequested())
+          return false;
+      }
+    }
+
+    if (lCalibrateZ && !calibrateZ())
       return false;
 
     if (isStopRequested())
@@ -188,7 +217,7 @@ public class CalibrationEngine extends TaskDevice implements
     if (isStopRequested())
       return false;/**/
 
-    if (getCalibrateAVariable().get() && !calibrateA())
+    if (lCalibrateA && !calibrateA())
       return false;
 
     if (isStopRequested())
@@ -209,8 +238,7 @@ public class CalibrationEngine extends TaskDevice implements
     if (getCalibrateWVariable().get() && !calibrateW())
       return false;
 
-    if ((getCalibrateAVariable().get()
-         || getCalibrateXYVariable().get())
+    if ((lCalibrateA || getCalibrateXYVariable().get())
         && getCalibrateZVariable().get() && !calibrateZ())
       return false;
 
@@ -224,6 +252,65 @@ public class CalibrationEngine extends TaskDevice implements
     return true;
   }
 
+  /**
+   * Validates the Z calibration of all lightsheets to be calibrated by
+   * measuring a few probe positions.
+   *
+   * @return true if all residuals are within the threshold
+   */
+  public boolean validateZ()
+  {
+    double lThreshold = mCalibrationZ.getValidationThresholdInMicrons()
+                                     .get();
+    for (int l = 0; l < mNumberOfLightSheetDevices; l++)
+    {
+      if (isStopRequested())
+        return false;
+
+      if (getCalibrateLightSheetOnOff(l).get())
+      {
+        double lResidual = mCalibrationZ.validate(l);
+        info("Z residual of lightsheet %d: %g (threshold %g)",
+             l,
+             lResidual,
+             lThreshold);
+        if (Double.isNaN(lResidual) || lResidual > lThreshold)
+          return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Validates the alpha angle calibration of all lightsheets to be calibrated
+   * with a single sweep per lightsheet.
+   *
+   * @return true if all residuals are within the threshold
+   */
+  public boolean validateA()
+  {
+    double lThreshold =
+                      mCalibrationA.getValidationThresholdInDegreesVariable()
+                                   .get();
+    for (int l = 0; l < mNumberOfLightSheetDevices; l++)
+    {
+      if (isStopRequested())
+        return false;
+
+      if (getCalibrateLightSheetOnOff(l).get())
+      {
+        double lResidual = mCalibrationA.validate(l);
+        info("A residual of lightsheet %d: %g (threshold %g)",
+             l,
+             lResidual,
+             lThreshold);
+        if (Double.isNaN(lResidual) || lResidual > lThreshold)
+          return false;
+      }
+    }
+    return true;
+  }
+
   /**
    * Returns true if calibration should be stopped immediately.
    * 
@@ -664,6 +751,18 @@ public class CalibrationEngine extends TaskDevice implements
     return mCalibrateHPVariable;
   }
 
+  /**
+   * Returns the variable holding the 'validate first' boolean flag. If set,
+   * the stored calibration is loaded and validated first, and only the Z and A
+   * calibrations which are off are repeated.
+   * 
+   * @return validate first variable
+   */
+  public Variable<Boolean> getValidateFirstVariable()
+  {
+    return mValidateFirstVariable;
+  }
+
   /**
    * Returns the variable holding the 'calibrate W' boolean flag.
    * 
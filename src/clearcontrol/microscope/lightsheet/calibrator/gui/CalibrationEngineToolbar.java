@@ -154,6 +154,12 @@ public class CalibrationEngineToolbar extends CustomGridPane
                                       lRow);
 
       lRow++;
+      addCheckBoxForCalibrationModule("Validate stored first",
+                                      pCalibrationEngine.getValidateFirstVariable(),
+                                      0,
+                                      lRow);
+
+      lRow++;
     }
 
     {
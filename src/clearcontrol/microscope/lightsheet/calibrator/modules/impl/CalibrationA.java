@@ -5,13 +5,14 @@ import static java.lang.Math.min;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
-import clearcontrol.core.math.argmax.ArgMaxFinder1DInterface;
 import clearcontrol.core.math.argmax.SmartArgMaxFinder;
 import clearcontrol.core.math.functions.UnivariateAffineFunction;
 import clearcontrol.core.variable.Variable;
@@ -21,11 +22,17 @@ import clearcontrol.microscope.lightsheet.LightSheetMicroscopeQueue;
 import clearcontrol.microscope.lightsheet.calibrator.CalibrationEngine;
 import clearcontrol.microscope.lightsheet.calibrator.modules.CalibrationModuleInterface;
 import clearcontrol.microscope.lightsheet.calibrator.modules.CalibrationPerLightSheetBase;
+import clearcontrol.microscope.lightsheet.calibrator.utils.CalibrationPipeline;
+import clearcontrol.microscope.lightsheet.calibrator.utils.CoarseToFineSweep;
+import clearcontrol.microscope.lightsheet.calibrator.utils.EvenlySpacedSweep;
 import clearcontrol.microscope.lightsheet.calibrator.utils.ImageAnalysisUtils;
+import clearcontrol.microscope.lightsheet.calibrator.utils.SweepResult;
+import clearcontrol.microscope.lightsheet.calibrator.utils.SweepStrategyInterface;
 import clearcontrol.microscope.lightsheet.component.lightsheet.LightSheetInterface;
 import clearcontrol.microscope.lightsheet.configurationstate.ConfigurationState;
 import clearcontrol.microscope.lightsheet.configurationstate.HasStateDescriptionPerLightSheet;
 import clearcontrol.stack.OffHeapPlanarStack;
+import clearcontrol.stack.StackInterface;
 import clearcontrol.stack.sourcesink.sink.RawFileStackSink;
 import gnu.trove.list.array.TDoubleArrayList;
 
@@ -40,7 +47,6 @@ public class CalibrationA extends CalibrationPerLightSheetBase
                           HasStateDescriptionPerLightSheet
 {
 
-  private ArgMaxFinder1DInterface mArgMaxFinder;
   private HashMap<Integer, UnivariateAffineFunction> mModels;
 
   private BoundedVariable<Double> mAngleOptimisationRangeWidthVariable =
@@ -69,6 +75,42 @@ public class CalibrationA extends CalibrationPerLightSheetBase
                                                                                         1,
                                                                                         Integer.MAX_VALUE);
 
+  private Variable<Boolean> mCoarseToFineSearch =
+                                                new Variable<Boolean>("Coarse to fine search",
+                                                                      true);
+
+  private BoundedVariable<Integer> mNumberOfCoarseAnglesVariable =
+                                                                 new BoundedVariable<Integer>("Number of coarse angles",
+                                                                                              7,
+                                                                                              3,
+                                                                                              Integer.MAX_VALUE);
+
+  private BoundedVariable<Integer> mNumberOfRefineAnglesVariable =
+                                                                 new BoundedVariable<Integer>("Number of angles per refinement",
+                                                                                              3,
+                                                                                              1,
+                                                                                              Integer.MAX_VALUE);
+
+  private BoundedVariable<Integer> mMaximumNumberOfSearchPassesVariable =
+                                                                        new BoundedVariable<Integer>("Maximum number of search passes",
+                                                                                                     4,
+                                                                                                     1,
+                                                                                                     Integer.MAX_VALUE);
+
+  private BoundedVariable<Double> mSearchToleranceInDegreesVariable =
+                                                                    new BoundedVariable<Double>("Search tolerance in degrees",
+                                                                                                0.25,
+                                                                                                0.0,
+                                                                                                40.0,
+                                                                                                0.01);
+
+  private BoundedVariable<Double> mValidationThresholdInDegreesVariable =
+                                                                       new BoundedVariable<Double>("Validation threshold in degrees",
+                                                                                                   0.5,
+                                                                                                   0.0,
+                                                                                                   Double.MAX_VALUE,
+                                                                                                   0.01);
+
   private BoundedVariable<Integer> mMaxIterationsVariable =
                                                           new BoundedVariable<Integer>("Maximum number of iterations",
                                                                                        3,
@@ -179,8 +221,6 @@ public class CalibrationA extends CalibrationPerLightSheetBase
   private double calibrate(int pLightSheetIndex,
                            int pNumberOfDetectionArmDevices)
   {
-    mArgMaxFinder = new SmartArgMaxFinder();
-
     LightSheetInterface lLightSheet =
                                     getLightSheetMicroscope().getDeviceLists()
                                                              .getDevice(LightSheetInterface.class,
@@ -189,6 +229,58 @@ public class CalibrationA extends CalibrationPerLightSheetBase
     System.out.println("Current Alpha function: "
                        + lLightSheet.getAlphaFunction());
 
+    final double[] angles =
+                          measureAngles(pLightSheetIndex,
+                                        pNumberOfDetectionArmDevices,
+                                        mNumberOfRepeatsVariable.get());
+    if (angles == null)
+    {
+      return Double.NaN;
+    }
+
+    double angle = 0;
+    for (int i = 0; i < pNumberOfDetectionArmDevices; i++)
+    {
+      angle += angles[i];
+    }
+    angle /= pNumberOfDetectionArmDevices;
+
+    System.out.format("Average alpha angle for all detection arms (assumes that the cameras are well aligned): %s \n",
+                      angle);
+
+    UnivariateAffineFunction lUnivariateAffineFunction =
+                                                       new UnivariateAffineFunction(1,
+                                                                                    angle);
+    mModels.put(pLightSheetIndex, lUnivariateAffineFunction);
+
+    System.out.format("Corresponding model: %s \n",
+                      lUnivariateAffineFunction);
+
+    return apply(pLightSheetIndex);
+  }
+
+  /**
+   * Measures the alpha angles of a given lightsheet for which the detection
+   * arms are in focus, averaged over the given number of repeats.
+   *
+   * @param pLightSheetIndex
+   *          lightsheet index
+   * @param pNumberOfDetectionArmDevices
+   *          number of detection arms
+   * @param pNumberOfRepeats
+   *          number of repeats
+   * @return angle per detection arm, null if no valid measurement was made or
+   *         if stopped
+   */
+  private double[] measureAngles(int pLightSheetIndex,
+                                 int pNumberOfDetectionArmDevices,
+                                 int pNumberOfRepeats)
+  {
+    LightSheetInterface lLightSheet =
+                                    getLightSheetMicroscope().getDeviceLists()
+                                                             .getDevice(LightSheetInterface.class,
+                                                                        pLightSheetIndex);
+
     double lMinA = -mAngleOptimisationRangeWidthVariable.get() / 2.0;
     double lMaxA = mAngleOptimisationRangeWidthVariable.get() / 2.0;
 
@@ -220,69 +312,89 @@ public class CalibrationA extends CalibrationPerLightSheetBase
     double y = 0.5 * min(abs(lMinIY), abs(lMaxIY));
     double z = 0.5 * (lMaxZ + lMinZ);
 
-    int lNumberOfRepeats = mNumberOfRepeatsVariable.get();
     int lNumberOfAngles = mNumberOfAnglesVariable.get();
 
-    for (int r = 0; r < lNumberOfRepeats; r++)
+    // all sweeps are independent: while the metrics of one sweep are
+    // computed, the next one is acquired
+    ArrayList<Future<SweepResult>> lSweepsM = new ArrayList<>();
+    ArrayList<Future<SweepResult>> lSweepsP = new ArrayList<>();
+    try (CalibrationPipeline lPipeline =
+                                       new CalibrationPipeline(getLightSheetMicroscope()))
     {
-      System.out.format("Searching for optimal alpha angles for lighsheet at y=+/-%g \n",
-                        y);
-
-      final double[] anglesM = focusA(pLightSheetIndex,
-                                      lMinA,
-                                      lMaxA,
-                                      (lMaxA - lMinA)
-                                             / (lNumberOfAngles - 1),
+      for (int r = 0; r < pNumberOfRepeats; r++)
+      {
+        lSweepsM.add(lPipeline.submit(() -> sweepA(lPipeline,
+                                                   pLightSheetIndex,
+                                                   lMinA,
+                                                   lMaxA,
+                                                   lNumberOfAngles,
+                                                   -y,
+                                                   z)));
+        lSweepsP.add(lPipeline.submit(() -> sweepA(lPipeline,
+                                                   pLightSheetIndex,
+                                                   lMinA,
+                                                   lMaxA,
+                                                   lNumberOfAngles,
+                                                   +y,
+                                                   z)));
+      }
+
+      // results are collated in the order of the repeats:
+      for (int r = 0; r < pNumberOfRepeats; r++)
+      {
+        System.out.format("Searching for optimal alpha angles for lighsheet at y=+/-%g \n",
+                          y);
+
+        final double[] anglesM =
+                               focusA(pLightSheetIndex,
                                       -y,
-                                      z);
+                                      CalibrationPipeline.getResult(lSweepsM.get(r)));
 
-      final double[] anglesP = focusA(pLightSheetIndex,
-                                      lMinA,
-                                      lMaxA,
-                                      (lMaxA - lMinA)
-                                             / (lNumberOfAngles - 1),
+        final double[] anglesP =
+                               focusA(pLightSheetIndex,
                                       +y,
-                                      z);
-
-      System.out.format("Optimal alpha angles for lighsheet at y=%g: %s \n",
-                        -y,
-                        Arrays.toString(anglesM));
-      System.out.format("Optimal alpha angles for lighsheet at y=%g: %s \n",
-                        +y,
-                        Arrays.toString(anglesP));
+                                      CalibrationPipeline.getResult(lSweepsP.get(r)));
 
-      boolean lValid = true;
+        System.out.format("Optimal alpha angles for lighsheet at y=%g: %s \n",
+                          -y,
+                          Arrays.toString(anglesM));
+        System.out.format("Optimal alpha angles for lighsheet at y=%g: %s \n",
+                          +y,
+                          Arrays.toString(anglesP));
 
-      for (int i = 0; i < pNumberOfDetectionArmDevices; i++)
-      {
-        lValid &=
-               !Double.isNaN(anglesM[i]) && !Double.isNaN(anglesM[i]);
-      }
+        boolean lValid = anglesM != null && anglesP != null;
 
-      if (lValid)
-      {
-        System.out.format("Angle values are valid, we proceed... \n");
-        for (int i = 0; i < pNumberOfDetectionArmDevices; i++)
+        for (int i = 0; lValid && i < pNumberOfDetectionArmDevices; i++)
         {
-          angles[i] += 0.5 * (anglesM[i] + anglesP[i]);
+          lValid &=
+                 !Double.isNaN(anglesM[i]) && !Double.isNaN(anglesM[i]);
         }
 
-        lCount++;
-      }
-      else
-        System.out.format("Angle are not valid, we continue with next set of y values... \n");
+        if (lValid)
+        {
+          System.out.format("Angle values are valid, we proceed... \n");
+          for (int i = 0; i < pNumberOfDetectionArmDevices; i++)
+          {
+            angles[i] += 0.5 * (anglesM[i] + anglesP[i]);
+          }
 
-      if (getCalibrationEngine().isStopRequested())
-      {
-        setConfigurationState(pLightSheetIndex,
-                              ConfigurationState.CANCELLED);
-        return Double.NaN;
+          lCount++;
+        }
+        else
+          System.out.format("Angle are not valid, we continue with next set of y values... \n");
+
+        if (getCalibrationEngine().isStopRequested())
+        {
+          setConfigurationState(pLightSheetIndex,
+                                ConfigurationState.CANCELLED);
+          return null;
+        }
       }
     }
 
     if (lCount == 0)
     {
-      return Double.NaN;
+      return null;
     }
 
     for (int i = 0; i < pNumberOfDetectionArmDevices; i++)
@@ -292,190 +404,263 @@ public class CalibrationA extends CalibrationPerLightSheetBase
     System.out.format("Averaged alpha angles: %s \n",
                       Arrays.toString(angles));
 
-    double angle = 0;
-    for (int i = 0; i < pNumberOfDetectionArmDevices; i++)
+    return angles;
+  }
+
+  /**
+   * Checks the current alpha angle calibration of a lightsheet without
+   * changing it: For a calibrated lightsheet, the detection arms are in focus
+   * at an angle correction of zero.
+   *
+   * @param pLightSheetIndex
+   *          lightsheet index
+   * @return absolute angle correction averaged over all detection arms in
+   *         degrees, NaN if it could not be measured
+   */
+  public double validate(int pLightSheetIndex)
+  {
+    int lNumberOfDetectionArmDevices = getNumberOfDetectionArms();
+    double[] lAngles = measureAngles(pLightSheetIndex,
+                                     lNumberOfDetectionArmDevices,
+                                     1);
+    if (lAngles == null)
     {
-      angle += angles[i];
+      return Double.NaN;
     }
-    angle /= pNumberOfDetectionArmDevices;
-
-    System.out.format("Average alpha angle for all detection arms (assumes that the cameras are well aligned): %s \n",
-                      angle);
 
-    UnivariateAffineFunction lUnivariateAffineFunction =
-                                                       new UnivariateAffineFunction(1,
-                                                                                    angle);
-    mModels.put(pLightSheetIndex, lUnivariateAffineFunction);
+    double lAngle = 0;
+    for (int i = 0; i < lNumberOfDetectionArmDevices; i++)
+    {
+      lAngle += lAngles[i];
+    }
+    lAngle /= lNumberOfDetectionArmDevices;
 
-    System.out.format("Corresponding model: %s \n",
-                      lUnivariateAffineFunction);
+    info("Validation of lightsheet %d: alpha correction=%g",
+         pLightSheetIndex,
+         lAngle);
+    return abs(lAngle);
+  }
 
-    return apply(pLightSheetIndex);
+  private SweepResult sweepA(CalibrationPipeline pPipeline,
+                             int pLightSheetIndex,
+                             double pMinA,
+                             double pMaxA,
+                             int pNumberOfAngles,
+                             double pY,
+                             double pZ)
+  {
+    SweepResult lSweepResult =
+                             getSweepStrategy(pNumberOfAngles).sweep(pMinA,
+                                                                     pMaxA,
+                                                                     getNumberOfDetectionArms(),
+                                                                     (lAngles) -> measureA(pPipeline,
+                                                                                           pLightSheetIndex,
+                                                                                           lAngles,
+                                                                                           pY,
+                                                                                           pZ));
+    if (lSweepResult != null)
+    {
+      info("Measured %d angles in %d passes",
+           lSweepResult.getNumberOfMeasuredPositions(),
+           lSweepResult.getNumberOfPasses());
+    }
+    return lSweepResult;
   }
 
   private double[] focusA(int pLightSheetIndex,
-                          double pMinA,
-                          double pMaxA,
-                          double pStep,
                           double pY,
-                          double pZ)
+                          SweepResult pSweepResult)
   {
-    try
+    if (pSweepResult == null)
     {
-      int lNumberOfDetectionArmDevices = getNumberOfDetectionArms();
+      return null;
+    }
 
-      LightSheetMicroscopeQueue lQueue =
-                                       getLightSheetMicroscope().requestQueue();
+    int lNumberOfDetectionArmDevices = getNumberOfDetectionArms();
 
-      final TDoubleArrayList lAList = new TDoubleArrayList();
-      double[] angles = new double[lNumberOfDetectionArmDevices];
+    double[] angles = new double[lNumberOfDetectionArmDevices];
 
-      lQueue.clearQueue();
-      // lQueue.zero();
+    for (int i = 0; i < lNumberOfDetectionArmDevices; i++)
+    {
+      double[] lAList = pSweepResult.getPositions(i);
+      double[] lAvgIntensityArray = pSweepResult.getValues(i);
 
-      lQueue.setFullROI();
-      lQueue.setExp(mExposureTimeInSecondsVariable.get());
+      if (lAList.length == 0)
+      {
+        continue;
+      }
 
-      lQueue.setI(pLightSheetIndex);
-      lQueue.setIX(pLightSheetIndex, 0);
-      lQueue.setIY(pLightSheetIndex, pY);
-      lQueue.setIZ(pLightSheetIndex, pZ);
-      lQueue.setIW(pLightSheetIndex,
-                   mLightSheetWidthWhileImaging.get());
-      lQueue.setIH(pLightSheetIndex, 0);
-      lQueue.setIA(pLightSheetIndex, pMinA);
+      String lChartName = String.format("D=%d, I=%d, IY=%g",
+                                        i,
+                                        pLightSheetIndex,
+                                        pY);
 
-      for (int i = 0; i < lNumberOfDetectionArmDevices; i++)
+      getCalibrationEngine().configureChart(lChartName,
+                                            "samples",
+                                            "DZ",
+                                            "IZ",
+                                            ChartType.Line);
+
+      for (int j = 0; j < lAvgIntensityArray.length; j++)
       {
-        lQueue.setDZ(i, pZ);
-        lQueue.setC(i, false);
+        getCalibrationEngine().addPoint(lChartName,
+                                        "samples",
+                                        j == 0,
+                                        lAList[j],
+                                        lAvgIntensityArray[j]);
+
       }
-      lQueue.addCurrentStateToQueue();
 
-      for (int i = 0; i < lNumberOfDetectionArmDevices; i++)
-        lQueue.setC(i, true);
+      final double lArgMax = pSweepResult.getArgMax(i);
 
-      for (double a = pMinA; a <= pMaxA; a += pStep)
+      if (!Double.isNaN(lArgMax))
       {
-        lAList.add(a);
-        lQueue.setIA(pLightSheetIndex, a);
-        lQueue.addCurrentStateToQueue();
-      }
+        TDoubleArrayList lAvgIntensityList =
+                                           new TDoubleArrayList(lAvgIntensityArray);
 
-      lQueue.setIA(pLightSheetIndex, pMinA);
-      for (int i = 0; i < lNumberOfDetectionArmDevices; i++)
+        double lAmplitudeRatio = (lAvgIntensityList.max()
+                                  - lAvgIntensityList.min())
+                                 / lAvgIntensityList.max();
+
+        System.out.format("argmax=%s amplratio=%s \n",
+                          lArgMax,
+                          lAmplitudeRatio);
+
+        if (lAmplitudeRatio > 0.1 && lArgMax > lAList[0])
+        {
+          angles[i] = lArgMax;
+        }
+        else
+        {
+          angles[i] = Double.NaN;
+        }
+      }
+      else
       {
-        lQueue.setC(i, false);
+        angles[i] = Double.NaN;
+        System.out.println("Argmax is NULL!");
       }
-      lQueue.addCurrentStateToQueue();
+    }
+    return angles;
+  }
+
+  private SweepStrategyInterface getSweepStrategy(int pNumberOfAngles)
+  {
+    if (mCoarseToFineSearch.get())
+    {
+      return new CoarseToFineSweep(mNumberOfCoarseAnglesVariable.get(),
+                                   mNumberOfRefineAnglesVariable.get(),
+                                   mSearchToleranceInDegreesVariable.get(),
+                                   mMaximumNumberOfSearchPassesVariable.get());
+    }
+    // argmax finders are not shared, sweeps run concurrently:
+    return new EvenlySpacedSweep(new SmartArgMaxFinder(),
+                                 pNumberOfAngles);
+  }
+
+  private double[][] measureA(CalibrationPipeline pPipeline,
+                              int pLightSheetIndex,
+                              double[] pAngles,
+                              double pY,
+                              double pZ)
+  {
+    StackInterface[] lStacks = null;
+    try
+    {
+      int lNumberOfDetectionArmDevices = getNumberOfDetectionArms();
 
-      lQueue.addVoxelDimMetaData(getLightSheetMicroscope(), 10);
+      lStacks = pPipeline.acquire(() -> {
+        double lMinA = pAngles[0];
 
-      lQueue.finalizeQueue();
+        LightSheetMicroscopeQueue lQueue =
+                                         getLightSheetMicroscope().requestQueue();
 
-      getLightSheetMicroscope().useRecycler("adaptation", 1, 4, 4);
-      final Boolean lPlayQueueAndWait =
-                                      getLightSheetMicroscope().playQueueAndWaitForStacks(lQueue,
-                                                                                          lQueue.getQueueLength(),
-                                                                                          TimeUnit.SECONDS);
+        lQueue.clearQueue();
+        // lQueue.zero();
+
+        lQueue.setFullROI();
+        lQueue.setExp(mExposureTimeInSecondsVariable.get());
+
+        lQueue.setI(pLightSheetIndex);
+        lQueue.setIX(pLightSheetIndex, 0);
+        lQueue.setIY(pLightSheetIndex, pY);
+        lQueue.setIZ(pLightSheetIndex, pZ);
+        lQueue.setIW(pLightSheetIndex,
+                     mLightSheetWidthWhileImaging.get());
+        lQueue.setIH(pLightSheetIndex, 0);
+        lQueue.setIA(pLightSheetIndex, lMinA);
 
-      if (lPlayQueueAndWait)
-      {
         for (int i = 0; i < lNumberOfDetectionArmDevices; i++)
         {
-          final OffHeapPlanarStack lStack =
-                                          (OffHeapPlanarStack) getLightSheetMicroscope().getCameraStackVariable(i)
-                                                                                        .get();
+          lQueue.setDZ(i, pZ);
+          lQueue.setC(i, false);
+        }
+        lQueue.addCurrentStateToQueue();
 
-          final double[] lAvgIntensityArray =
-                                            ImageAnalysisUtils.computeAverageSquareVariationPerPlane(lStack);
+        for (int i = 0; i < lNumberOfDetectionArmDevices; i++)
+          lQueue.setC(i, true);
 
-          if (mDebugPath.get().length() > 0)
-          {
-            String timepoint = "" + System.currentTimeMillis();
-            RawFileStackSink lRawFileStackSink =
-                                               new RawFileStackSink();
-            lRawFileStackSink.setLocation(new File(mDebugPath.get()),
-                                          "tempA" + timepoint);
-            lRawFileStackSink.appendStack(lStack);
-            lRawFileStackSink.close();
-            info("Saved as " + timepoint);
-          }
-          smooth(lAvgIntensityArray, 10);
+        for (double a : pAngles)
+        {
+          lQueue.setIA(pLightSheetIndex, a);
+          lQueue.addCurrentStateToQueue();
+        }
 
-          String lChartName = String.format("D=%d, I=%d, IY=%g",
-                                            i,
-                                            pLightSheetIndex,
-                                            pY);
+        lQueue.setIA(pLightSheetIndex, lMinA);
+        for (int i = 0; i < lNumberOfDetectionArmDevices; i++)
+        {
+          lQueue.setC(i, false);
+        }
+        lQueue.addCurrentStateToQueue();
 
-          getCalibrationEngine().configureChart(lChartName,
-                                                "samples",
-                                                "DZ",
-                                                "IZ",
-                                                ChartType.Line);
+        lQueue.addVoxelDimMetaData(getLightSheetMicroscope(), 10);
 
-          for (int j = 0; j < lAvgIntensityArray.length; j++)
-          {
-            getCalibrationEngine().addPoint(lChartName,
-                                            "samples",
-                                            j == 0,
-                                            lAList.get(j),
-                                            lAvgIntensityArray[j]);
+        lQueue.finalizeQueue();
 
-          }
+        getLightSheetMicroscope().useRecycler("adaptation", 1, 4, 4);
+        final Boolean lPlayQueueAndWait =
+                                        getLightSheetMicroscope().playQueueAndWaitForStacks(lQueue,
+                                                                                            lQueue.getQueueLength(),
+                                                                                            TimeUnit.SECONDS);
 
-          final Double lArgMax =
-                               mArgMaxFinder.argmax(lAList.toArray(),
-                                                    lAvgIntensityArray);
+        if (!lPlayQueueAndWait)
+          return new StackInterface[lNumberOfDetectionArmDevices];
+        return pPipeline.copyCameraStacks();
+      });
 
-          if (lArgMax != null)
-          {
-            TDoubleArrayList lAvgIntensityList =
-                                               new TDoubleArrayList(lAvgIntensityArray);
-
-            double lAmplitudeRatio = (lAvgIntensityList.max()
-                                      - lAvgIntensityList.min())
-                                     / lAvgIntensityList.max();
-
-            System.out.format("argmax=%s amplratio=%s \n",
-                              lArgMax.toString(),
-                              lAmplitudeRatio);
-
-            // lPlot.setScatterPlot("argmax");
-            // lPlot.addPoint("argmax", lArgMax, 0);
-
-            if (lAmplitudeRatio > 0.1 && lArgMax > lAList.get(0))
-            {
-              angles[i] = lArgMax;
-            }
-            else
-            {
-              angles[i] = Double.NaN;
-            }
-            /* if (mArgMaxFinder instanceof Fitting1D)
-            {
-              Fitting1D lFitting1D = (Fitting1D) mArgMaxFinder;
-            
-              double[] lFit =
-                            lFitting1D.fit(lAList.toArray(),
-                                           new double[lAList.size()]);
-            
-              for (int j = 0; j < lAList.size(); j++)
-              {
-                //lPlot.setScatterPlot("fit");
-                //lPlot.addPoint("fit", lAList.get(j), lFit[j]);
-              }
-            }/**/
+      // the metrics are computed while the next sweep is acquired:
+      final double[][] lMetrics =
+                                new double[lNumberOfDetectionArmDevices][];
 
-          }
-          else
-          {
-            angles[i] = Double.NaN;
-            System.out.println("Argmax is NULL!");
-          }
+      for (int i = 0; i < lNumberOfDetectionArmDevices; i++)
+      {
+        final OffHeapPlanarStack lStack = (OffHeapPlanarStack) lStacks[i];
+
+        if (lStack == null)
+          continue;
+
+        final double[] lAvgIntensityArray =
+                                          ImageAnalysisUtils.computeAverageSquareVariationPerPlane(lStack);
+
+        if (mDebugPath.get().length() > 0)
+        {
+          String timepoint = "" + System.currentTimeMillis();
+          RawFileStackSink lRawFileStackSink = new RawFileStackSink();
+          lRawFileStackSink.setLocation(new File(mDebugPath.get()),
+                                        "tempA" + timepoint);
+          lRawFileStackSink.appendStack(lStack);
+          lRawFileStackSink.close();
+          info("Saved as " + timepoint);
         }
+
+        // smoothing assumes densely and evenly sampled angles, the coarse
+        // to fine search interpolates the maximum instead:
+        if (!mCoarseToFineSearch.get())
+          smooth(lAvgIntensityArray, 10);
+
+        lMetrics[i] = lAvgIntensityArray;
       }
-      return angles;
+      return lMetrics;
 
     }
     catch (final InterruptedException e)
@@ -494,6 +679,10 @@ public class CalibrationA extends CalibrationPerLightSheetBase
     {
       e.printStackTrace();
     }
+    finally
+    {
+      CalibrationPipeline.release(lStacks);
+    }
 
     return null;
 
@@ -608,6 +797,36 @@ public class CalibrationA extends CalibrationPerLightSheetBase
     return mNumberOfAnglesVariable;
   }
 
+  public Variable<Boolean> getCoarseToFineSearch()
+  {
+    return mCoarseToFineSearch;
+  }
+
+  public BoundedVariable<Integer> getNumberOfCoarseAnglesVariable()
+  {
+    return mNumberOfCoarseAnglesVariable;
+  }
+
+  public BoundedVariable<Integer> getNumberOfRefineAnglesVariable()
+  {
+    return mNumberOfRefineAnglesVariable;
+  }
+
+  public BoundedVariable<Integer> getMaximumNumberOfSearchPassesVariable()
+  {
+    return mMaximumNumberOfSearchPassesVariable;
+  }
+
+  public BoundedVariable<Double> getSearchToleranceInDegreesVariable()
+  {
+    return mSearchToleranceInDegreesVariable;
+  }
+
+  public BoundedVariable<Double> getValidationThresholdInDegreesVariable()
+  {
+    return mValidationThresholdInDegreesVariable;
+  }
+
   public BoundedVariable<Integer> getMaxIterationsVariable()
   {
     return mMaxIterationsVariable;
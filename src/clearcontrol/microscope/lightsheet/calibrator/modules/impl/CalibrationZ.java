@@ -4,13 +4,14 @@ import static java.lang.Math.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import clearcl.util.ElapsedTime;
 import clearcontrol.core.configuration.MachineConfiguration;
-import clearcontrol.core.math.argmax.ArgMaxFinder1DInterface;
 import clearcontrol.core.math.argmax.methods.ModeArgMaxFinder;
 import clearcontrol.core.math.functions.UnivariateAffineFunction;
 import clearcontrol.core.math.regression.linear.TheilSenEstimator;
@@ -22,12 +23,18 @@ import clearcontrol.microscope.lightsheet.LightSheetMicroscopeQueue;
 import clearcontrol.microscope.lightsheet.calibrator.CalibrationEngine;
 import clearcontrol.microscope.lightsheet.calibrator.modules.CalibrationModuleInterface;
 import clearcontrol.microscope.lightsheet.calibrator.modules.CalibrationPerLightSheetBase;
+import clearcontrol.microscope.lightsheet.calibrator.utils.CalibrationPipeline;
+import clearcontrol.microscope.lightsheet.calibrator.utils.CoarseToFineSweep;
+import clearcontrol.microscope.lightsheet.calibrator.utils.EvenlySpacedSweep;
 import clearcontrol.microscope.lightsheet.calibrator.utils.ImageAnalysisUtils;
+import clearcontrol.microscope.lightsheet.calibrator.utils.SweepResult;
+import clearcontrol.microscope.lightsheet.calibrator.utils.SweepStrategyInterface;
 import clearcontrol.microscope.lightsheet.component.detection.DetectionArmInterface;
 import clearcontrol.microscope.lightsheet.component.lightsheet.LightSheetInterface;
 import clearcontrol.microscope.lightsheet.configurationstate.ConfigurationState;
 import clearcontrol.microscope.lightsheet.configurationstate.HasStateDescriptionPerLightSheet;
 import clearcontrol.stack.OffHeapPlanarStack;
+import clearcontrol.stack.StackInterface;
 import clearcontrol.stack.sourcesink.sink.RawFileStackSink;
 import gnu.trove.list.array.TDoubleArrayList;
 
@@ -44,13 +51,10 @@ public class CalibrationZ extends CalibrationPerLightSheetBase
                           HasStateDescriptionPerLightSheet
 {
 
-  private ArgMaxFinder1DInterface mArgMaxFinder;
   private MultiKeyMap<Integer, UnivariateAffineFunction> mModels;
   private int mNumberOfDetectionArmDevices;
 
   private boolean mUseDCTS = false;
-  private DCTS2D mDCTS2D;
-  private double[] mMetricArray;
 
   private BoundedVariable<Integer> mNumberOfISamples =
                                                      new BoundedVariable<Integer>("Number of illumination samples",
@@ -62,6 +66,30 @@ public class CalibrationZ extends CalibrationPerLightSheetBase
                                                                                   13,
                                                                                   0,
                                                                                   Integer.MAX_VALUE);
+  private Variable<Boolean> mCoarseToFineSearch =
+                                                new Variable<Boolean>("Coarse to fine search",
+                                                                      true);
+  private BoundedVariable<Integer> mNumberOfCoarseDSamples =
+                                                           new BoundedVariable<Integer>("Number of coarse detection samples",
+                                                                                        5,
+                                                                                        3,
+                                                                                        Integer.MAX_VALUE);
+  private BoundedVariable<Integer> mNumberOfRefineDSamples =
+                                                           new BoundedVariable<Integer>("Number of detection samples per refinement",
+                                                                                        3,
+                                                                                        1,
+                                                                                        Integer.MAX_VALUE);
+  private BoundedVariable<Integer> mMaximumNumberOfSearchPasses =
+                                                                new BoundedVariable<Integer>("Maximum number of search passes",
+                                                                                             3,
+                                                                                             1,
+                                                                                             Integer.MAX_VALUE);
+  private BoundedVariable<Double> mSearchToleranceDZ =
+                                                     new BoundedVariable<Double>("Detection Z search tolerance",
+                                                                                 1.0,
+                                                                                 0.0,
+                                                                                 Double.MAX_VALUE,
+                                                                                 0.01);
   private BoundedVariable<Integer> mMaxIterationsVariable =
                                                           new BoundedVariable<Integer>("Maximum number of iterations",
                                                                                        7,
@@ -90,6 +118,18 @@ public class CalibrationZ extends CalibrationPerLightSheetBase
                                                                                                Double.MAX_VALUE,
                                                                                                0.001);
 
+  private BoundedVariable<Integer> mNumberOfValidationSamples =
+                                                              new BoundedVariable<Integer>("Number of illumination samples for validation",
+                                                                                           3,
+                                                                                           1,
+                                                                                           Integer.MAX_VALUE);
+  private BoundedVariable<Double> mValidationThresholdInMicrons =
+                                                                new BoundedVariable<Double>("Validation threshold in microns",
+                                                                                            2.0,
+                                                                                            0.0,
+                                                                                            Double.MAX_VALUE,
+                                                                                            0.01);
+
   /**
    * Instantiates a Z calibrator module given calibrator
    * 
@@ -107,6 +147,83 @@ public class CalibrationZ extends CalibrationPerLightSheetBase
     mModels = new MultiKeyMap<>();
   }
 
+  /**
+   * Checks the current Z calibration of a lightsheet without changing it: At
+   * a few lightsheet positions, the detection focus is searched within the
+   * maximum DeltaZ around the lightsheet. For a calibrated system, both
+   * positions are equal.
+   *
+   * @param pLightSheetIndex
+   *          lightsheet index
+   * @return largest distance between lightsheet and detection focus in
+   *         microns, NaN if it could not be measured
+   */
+  public double validate(int pLightSheetIndex)
+  {
+    LightSheetInterface lLightSheetDevice =
+                                          getLightSheetMicroscope().getDeviceLists()
+                                                                   .getDevice(LightSheetInterface.class,
+                                                                              pLightSheetIndex);
+
+    BoundedVariable<Number> lZVariable =
+                                       lLightSheetDevice.getZVariable();
+    double lMinIZ = lZVariable.getMin().doubleValue();
+    double lMaxIZ = lZVariable.getMax().doubleValue();
+
+    int lNumberOfSamples = mNumberOfValidationSamples.get();
+    int lNumberOfDSamples = mNumberOfDSamples.get();
+    double lMaxDeltaZ = mMaxDeltaZ.get();
+
+    double lResidual = Double.NaN;
+    try (CalibrationPipeline lPipeline =
+                                       new CalibrationPipeline(getLightSheetMicroscope()))
+    {
+      // positions within the range, away from its bounds:
+      double[] lIZs = new double[lNumberOfSamples];
+      ArrayList<Future<SweepResult>> lSweeps = new ArrayList<>();
+      for (int k = 0; k < lNumberOfSamples; k++)
+      {
+        final double iz = lMinIZ + (k + 1) * (lMaxIZ - lMinIZ)
+                                   / (lNumberOfSamples + 1);
+        lIZs[k] = iz;
+        lSweeps.add(lPipeline.submit(() -> sweepZ(lPipeline,
+                                                  pLightSheetIndex,
+                                                  lNumberOfDSamples,
+                                                  iz - lMaxDeltaZ,
+                                                  iz + lMaxDeltaZ,
+                                                  iz)));
+      }
+
+      for (int k = 0; k < lNumberOfSamples; k++)
+      {
+        final double[] dz =
+                          focusZ(pLightSheetIndex,
+                                 CalibrationPipeline.getResult(lSweeps.get(k)));
+        if (dz == null || getCalibrationEngine().isStopRequested())
+        {
+          return Double.NaN;
+        }
+
+        for (int d = 0; d < mNumberOfDetectionArmDevices; d++)
+        {
+          if (Double.isNaN(dz[d]))
+            continue;
+
+          double lDeviation = abs(dz[d] - lIZs[k]);
+          info("Validation of lightsheet %d: Iz=%g Dz%d=%g",
+               pLightSheetIndex,
+               lIZs[k],
+               d,
+               dz[d]);
+          lResidual = Double.isNaN(lResidual) ? lDeviation
+                                              : max(lResidual,
+                                                    lDeviation);
+        }
+      }
+    }
+    return lResidual;
+  }
+
   /**
    * Calibrates the lightsheet and detection arm Z positions.
    *
@@ -185,8 +302,6 @@ public class CalibrationZ extends CalibrationPerLightSheetBase
          lNumberOfISamples,
          pSearchAmplitude);
 
-    mArgMaxFinder = new ModeArgMaxFinder();
-
     incrementIteration();
 
     final TheilSenEstimator[] lTheilSenEstimators =
@@ -219,94 +334,115 @@ public class CalibrationZ extends CalibrationPerLightSheetBase
          lStepIZ,
          lDZSearchRadius);
 
-    for (double iz = lMinIZ; iz <= lMaxIZ; iz += lStepIZ)
+    // the Dz sweeps for the Iz positions are independent: while the metrics
+    // of one sweep are computed, the next one is acquired
+    ArrayList<Double> lPerturbedIZs = new ArrayList<>();
+    ArrayList<Future<SweepResult>> lSweeps = new ArrayList<>();
+    try (CalibrationPipeline lPipeline =
+                                       new CalibrationPipeline(getLightSheetMicroscope()))
     {
+      for (double iz = lMinIZ; iz <= lMaxIZ; iz += lStepIZ)
+      {
+        final double lPerturbedIZ = iz + 0.1 * lStepIZ
+                                         * (2 * Math.random() - 1);
 
-      final double lPerturbedIZ = iz + 0.1 * lStepIZ
-                                       * (2 * Math.random() - 1);
+        // TODO: this does not work when the calibration is really off:
+        if (pRestrictedSearch)
+        {
+          lMinDZ = lPerturbedIZ - lDZSearchRadius;
+          lMaxDZ = lPerturbedIZ + lDZSearchRadius;
+        }
 
-      // TODO: this does not work when the calibration is really off:
-      if (pRestrictedSearch)
-      {
-        lMinDZ = lPerturbedIZ - lDZSearchRadius;
-        lMaxDZ = lPerturbedIZ + lDZSearchRadius;
+        final double lSweepMinDZ = lMinDZ;
+        final double lSweepMaxDZ = lMaxDZ;
+        lPerturbedIZs.add(lPerturbedIZ);
+        lSweeps.add(lPipeline.submit(() -> sweepZ(lPipeline,
+                                                  pLightSheetIndex,
+                                                  lNumberOfDSamples,
+                                                  lSweepMinDZ,
+                                                  lSweepMaxDZ,
+                                                  lPerturbedIZ)));
       }
 
-      final double[] dz = focusZ(pLightSheetIndex,
-                                 lNumberOfDSamples,
-                                 lMinDZ,
-                                 lMaxDZ,
-                                 lPerturbedIZ);
-
-      if (dz == null)
+      // results are collated in the order of the Iz positions:
+      for (int k = 0; k < lSweeps.size(); k++)
       {
-        setConfigurationState(pLightSheetIndex,
-                              ConfigurationState.FAILED);
-        return Double.NaN;
-      }
+        final double lPerturbedIZ = lPerturbedIZs.get(k);
 
-      String lChartName =
-                        this.getClass().getSimpleName() + " DZ v. IZ";
+        final double[] dz =
+                          focusZ(pLightSheetIndex,
+                                 CalibrationPipeline.getResult(lSweeps.get(k)));
 
-      String lSeriesName = "measured";
+        if (dz == null)
+        {
+          setConfigurationState(pLightSheetIndex,
+                                ConfigurationState.FAILED);
+          return Double.NaN;
+        }
 
-      getCalibrationEngine().configureChart(lChartName,
-                                            lSeriesName,
-                                            "DZ",
-                                            "IZ",
-                                            ChartType.Line);
+        String lChartName =
+                          this.getClass().getSimpleName() + " DZ v. IZ";
 
-      for (int d = 0; d < mNumberOfDetectionArmDevices; d++)
-      {
-        if (!Double.isNaN(dz[d]))
+        String lSeriesName = "measured";
+
+        getCalibrationEngine().configureChart(lChartName,
+                                              lSeriesName,
+                                              "DZ",
+                                              "IZ",
+                                              ChartType.Line);
+
+        for (int d = 0; d < mNumberOfDetectionArmDevices; d++)
         {
-          if (dz[d] > 0.001
-              && Math.abs(dz[d] - lPerturbedIZ) < mMaxDeltaZ.get()) // this is a
-                                                                    // workaround.
-                                                                    // Too many
-                                                                    // lightsheet
-                                                                    // positions
-                                                                    // resulted
-                                                                    // in dz[d]
-                                                                    // = 0 so
-                                                                    // that the
-                                                                    // fitting
-                                                                    // doesn't
-                                                                    // work
-                                                                    // anymore
+          if (!Double.isNaN(dz[d]))
           {
-            System.out.println("D" + d
-                               + " enter "
-                               + dz[d]
-                               + " / "
-                               + lPerturbedIZ);
-            lTheilSenEstimators[d].enter(dz[d], lPerturbedIZ);
-
-            getCalibrationEngine().addPoint(lChartName,
-                                            lSeriesName,
-                                            iz == lMinIZ,
+            if (dz[d] > 0.001
+                && Math.abs(dz[d] - lPerturbedIZ) < mMaxDeltaZ.get()) // this is a
+                                                                      // workaround.
+                                                                      // Too many
+                                                                      // lightsheet
+                                                                      // positions
+                                                                      // resulted
+                                                                      // in dz[d]
+                                                                      // = 0 so
+                                                                      // that the
+                                                                      // fitting
+                                                                      // doesn't
+                                                                      // work
+                                                                      // anymore
+            {
+              System.out.println("D" + d
+                                 + " enter "
+                                 + dz[d]
+                                 + " / "
+                                 + lPerturbedIZ);
+              lTheilSenEstimators[d].enter(dz[d], lPerturbedIZ);
 
-                                            dz[d],
-                                            lPerturbedIZ);
-          }
-          else
-          {
-            System.out.println("D" + d
-                               + " ignore "
-                               + dz[d]
-                               + " / "
-                               + lPerturbedIZ);
+              getCalibrationEngine().addPoint(lChartName,
+                                              lSeriesName,
+                                              k == 0,
+
+                                              dz[d],
+                                              lPerturbedIZ);
+            }
+            else
+            {
+              System.out.println("D" + d
+                                 + " ignore "
+                                 + dz[d]
+                                 + " / "
+                                 + lPerturbedIZ);
+            }
           }
         }
-      }
 
-      if (getCalibrationEngine().isStopRequested())
-      {
-        setConfigurationState(pLightSheetIndex,
-                              ConfigurationState.CANCELLED);
-        return Double.NaN;
-      }
+        if (getCalibrationEngine().isStopRequested())
+        {
+          setConfigurationState(pLightSheetIndex,
+                                ConfigurationState.CANCELLED);
+          return Double.NaN;
+        }
 
+      }
     }
 
     for (int d = 0; d < mNumberOfDetectionArmDevices; d++)
@@ -358,241 +494,259 @@ public class CalibrationZ extends CalibrationPerLightSheetBase
     return apply(pLightSheetIndex, pAdjustDetectionZ);
   }
 
-  private double[] focusZ(int pLightSheetIndex,
-                          int pNumberOfDSamples,
-                          double pMinDZ,
-                          double pMaxDZ,
-                          double pIZ)
+  private SweepResult sweepZ(CalibrationPipeline pPipeline,
+                             int pLightSheetIndex,
+                             int pNumberOfDSamples,
+                             double pMinDZ,
+                             double pMaxDZ,
+                             double pIZ)
   {
+    double lMinDZ = pMinDZ;
+    double lMaxDZ = pMaxDZ;
 
-    try
+    for (int d = 0; d < mNumberOfDetectionArmDevices; d++)
     {
+      BoundedVariable<Number> lDetectionFocusZVariable =
+                                                       getLightSheetMicroscope().getDeviceLists()
+                                                                                .getDevice(DetectionArmInterface.class,
+                                                                                           d)
+                                                                                .getZVariable();
 
-      double lMinDZ = pMinDZ;
-      double lMaxDZ = pMaxDZ;
+      lMinDZ = max(lMinDZ,
+                   lDetectionFocusZVariable.getMin().doubleValue());
+      lMaxDZ = min(lMaxDZ,
+                   lDetectionFocusZVariable.getMax().doubleValue());
+    }
 
-      for (int d = 0; d < mNumberOfDetectionArmDevices; d++)
-      {
-        BoundedVariable<Number> lDetectionFocusZVariable =
-                                                         getLightSheetMicroscope().getDeviceLists()
-                                                                                  .getDevice(DetectionArmInterface.class,
-                                                                                             d)
-                                                                                  .getZVariable();
-
-        lMinDZ = max(lMinDZ,
-                     lDetectionFocusZVariable.getMin().doubleValue());
-        lMaxDZ = min(lMaxDZ,
-                     lDetectionFocusZVariable.getMax().doubleValue());
-      }
+    info("Focussing for lightsheet %d at %g, with %d D samples, with Dz values within [%g,%g] \n",
+         pLightSheetIndex,
+         pIZ,
+         pNumberOfDSamples,
+         lMinDZ,
+         lMaxDZ);
+
+    SweepResult lSweepResult =
+                             getSweepStrategy(pNumberOfDSamples).sweep(lMinDZ,
+                                                                       lMaxDZ,
+                                                                       mNumberOfDetectionArmDevices,
+                                                                       (lPositions) -> measureZ(pPipeline,
+                                                                                                pLightSheetIndex,
+                                                                                                lPositions,
+                                                                                                pIZ));
+    if (lSweepResult != null)
+    {
+      info("Measured %d Dz positions in %d passes",
+           lSweepResult.getNumberOfMeasuredPositions(),
+           lSweepResult.getNumberOfPasses());
+    }
+    return lSweepResult;
+  }
 
-      info("Focussing for lightsheet %d at %g, with %d D samples, with Dz values within [%g,%g] \n",
-           pLightSheetIndex,
-           pIZ,
-           pNumberOfDSamples,
-           lMinDZ,
-           lMaxDZ);
+  private double[] focusZ(int pLightSheetIndex,
+                          SweepResult pSweepResult)
+  {
+    if (pSweepResult == null)
+    {
+      return null;
+    }
 
-      double lStep = (lMaxDZ - lMinDZ) / (pNumberOfDSamples - 1);
+    final double[] dz = new double[mNumberOfDetectionArmDevices];
 
-      // info("Begin building queue");
-      LightSheetMicroscopeQueue lQueue =
-                                       getLightSheetMicroscope().requestQueue();
-      lQueue.clearQueue();
-      // lQueue.zero();
+    for (int d = 0; d < mNumberOfDetectionArmDevices; d++)
+    {
+      double[] lDZList = pSweepResult.getPositions(d);
+      double[] lMetricArray = pSweepResult.getValues(d);
 
-      lQueue.setFullROI();
-      lQueue.setExp(mExposureTimeInSecondsVariable.get());
+      if (lDZList.length == 0)
+      {
+        // a camera did not deliver:
+        dz[d] = Double.NaN;
+        continue;
+      }
 
-      lQueue.setI(pLightSheetIndex);
-      lQueue.setIX(pLightSheetIndex, 0);
-      lQueue.setIY(pLightSheetIndex, 0);
-      lQueue.setIZ(pLightSheetIndex, lMinDZ);
-      lQueue.setIH(pLightSheetIndex, 0);
+      String lChartName = String.format("D=%d, I=%d",
+                                        d,
+                                        pLightSheetIndex);
 
-      final double[] dz = new double[mNumberOfDetectionArmDevices];
+      String lSeriesName = String.format("iteration=%d",
+                                         getIteration());
 
-      final TDoubleArrayList lDZList = new TDoubleArrayList();
+      getCalibrationEngine().configureChart(lChartName,
+                                            lSeriesName,
+                                            "ΔZ",
+                                            "focus metric",
+                                            ChartType.Line);
 
-      for (int d = 0; d < mNumberOfDetectionArmDevices; d++)
+      for (int j = 0; j < lDZList.length; j++)
       {
-        lQueue.setIZ(pLightSheetIndex, lMinDZ);
-        lQueue.setDZ(d, lMinDZ);
-        lQueue.setC(d, false);
+        getCalibrationEngine().addPoint(lChartName,
+                                        lSeriesName,
+                                        j == 0,
+                                        lDZList[j],
+                                        lMetricArray[j]);
       }
-      lQueue.addCurrentStateToQueue();
 
-      for (double z = lMinDZ; z <= lMaxDZ; z += lStep)
+      double lArgMax = pSweepResult.getArgMax(d);
+      if (!Double.isNaN(lArgMax))
       {
-        lDZList.add(z);
+        TDoubleArrayList lDCTSList = new TDoubleArrayList(lMetricArray);
 
-        for (int d = 0; d < mNumberOfDetectionArmDevices; d++)
+        double lAmplitudeRatio = (lDCTSList.max() - lDCTSList.min())
+                                 / lDCTSList.max();
+
+        if (lAmplitudeRatio > 0.001)
         {
-          lQueue.setDZ(d, z);
-          lQueue.setC(d, true);
+          if (lArgMax < lDZList[0])
+            dz[d] = lDZList[0];
+          else if (lArgMax > lDZList[lDZList.length - 1])
+            dz[d] = lDZList[lDZList.length - 1];
+          else
+            dz[d] = lArgMax;
         }
-
-        lQueue.setIZ(pLightSheetIndex, pIZ);
-
-        lQueue.addCurrentStateToQueue();
+        else
+          dz[d] = Double.NaN;
       }
-
-      lQueue.addVoxelDimMetaData(getLightSheetMicroscope(), 10);
-
-      for (int d = 0; d < mNumberOfDetectionArmDevices; d++)
+      else
       {
-        lQueue.setDZ(d, lMinDZ);
-        lQueue.setC(d, false);
+        dz[d] = Double.NaN;
+        severe("Argmax is NULL!");
       }
-      lQueue.addCurrentStateToQueue();
+    }
+    return dz;
+  }
 
-      lQueue.setTransitionTime(0.1);
+  private SweepStrategyInterface getSweepStrategy(int pNumberOfDSamples)
+  {
+    if (mCoarseToFineSearch.get())
+    {
+      return new CoarseToFineSweep(mNumberOfCoarseDSamples.get(),
+                                   mNumberOfRefineDSamples.get(),
+                                   mSearchToleranceDZ.get(),
+                                   mMaximumNumberOfSearchPasses.get());
+    }
+    // argmax finders are not shared, sweeps run concurrently:
+    return new EvenlySpacedSweep(new ModeArgMaxFinder(),
+                                 pNumberOfDSamples);
+  }
 
-      lQueue.finalizeQueue();
-      // info("End building queue");
+  private double[][] measureZ(CalibrationPipeline pPipeline,
+                              int pLightSheetIndex,
+                              double[] pDZPositions,
+                              double pIZ)
+  {
+    StackInterface[] lStacks = null;
+    try
+    {
+      lStacks = pPipeline.acquire(() -> {
+        double lMinDZ = pDZPositions[0];
 
-      /* ScoreVisualizerJFrame.visualize("queuedscore",
-      																mLightSheetMicroscope.getDeviceLists()
-      																											.getDevice(NIRIOSignalGenerator.class, 0)
-      																											.get());/**/
+        // info("Begin building queue");
+        LightSheetMicroscopeQueue lQueue =
+                                         getLightSheetMicroscope().requestQueue();
+        lQueue.clearQueue();
+        // lQueue.zero();
 
-      // info("Begin play queue");
-      getLightSheetMicroscope().useRecycler("adaptation", 1, 4, 4);
-      final Boolean lPlayQueueAndWait =
-                                      getLightSheetMicroscope().playQueueAndWaitForStacks(lQueue,
-                                                                                          100 + lQueue.getQueueLength(),
-                                                                                          TimeUnit.SECONDS);
-      // info("End play queue");
+        lQueue.setFullROI();
+        lQueue.setExp(mExposureTimeInSecondsVariable.get());
+
+        lQueue.setI(pLightSheetIndex);
+        lQueue.setIX(pLightSheetIndex, 0);
+        lQueue.setIY(pLightSheetIndex, 0);
+        lQueue.setIZ(pLightSheetIndex, lMinDZ);
+        lQueue.setIH(pLightSheetIndex, 0);
 
-      if (lPlayQueueAndWait)
-      {
         for (int d = 0; d < mNumberOfDetectionArmDevices; d++)
         {
-          final OffHeapPlanarStack lStack =
-                                          (OffHeapPlanarStack) getLightSheetMicroscope().getCameraStackVariable(d)
-                                                                                        .get();
-
-          if (lStack == null)
-            continue;
+          lQueue.setIZ(pLightSheetIndex, lMinDZ);
+          lQueue.setDZ(d, lMinDZ);
+          lQueue.setC(d, false);
+        }
+        lQueue.addCurrentStateToQueue();
 
-          if (mDebugPath.get().length() > 0)
+        for (double z : pDZPositions)
+        {
+          for (int d = 0; d < mNumberOfDetectionArmDevices; d++)
           {
-            String timepoint = "" + System.currentTimeMillis();
-            RawFileStackSink lRawFileStackSink =
-                                               new RawFileStackSink();
-            lRawFileStackSink.setLocation(new File(mDebugPath.get()),
-                                          "tempZ" + timepoint);
-            lRawFileStackSink.appendStack(lStack);
-            lRawFileStackSink.close();
-            info("Saved as " + timepoint);
+            lQueue.setDZ(d, z);
+            lQueue.setC(d, true);
           }
 
-          // info("Begin compute metric");
-          ElapsedTime.measureForceOutput("compute metric", () -> {
-            if (mUseDCTS)
-            {
-              if (mDCTS2D == null)
-                mDCTS2D = new DCTS2D();
-
-              mMetricArray =
-                           mDCTS2D.computeImageQualityMetric(lStack);
-            }
-            else
-              mMetricArray =
-                           ImageAnalysisUtils.computeAverageSquareVariationPerPlane(lStack);/**/
-          });
-          // info("Begin compute metric");
-
-          Double lArgMax = null;
-
-          if (lDZList.size() != mMetricArray.length)
-          {
-            severe("Z position list and metric list have different lengths!");
-          }
-          else
-          {
-            // System.out.format("metric array: \n");
+          lQueue.setIZ(pLightSheetIndex, pIZ);
 
-            String lChartName = String.format("D=%d, I=%d",
-                                              d,
-                                              pLightSheetIndex);
+          lQueue.addCurrentStateToQueue();
+        }
 
-            String lSeriesName = String.format("iteration=%d",
-                                               getIteration());
+        lQueue.addVoxelDimMetaData(getLightSheetMicroscope(), 10);
 
-            getCalibrationEngine().configureChart(lChartName,
-                                                  lSeriesName,
-                                                  "ΔZ",
-                                                  "focus metric",
-                                                  ChartType.Line);
+        for (int d = 0; d < mNumberOfDetectionArmDevices; d++)
+        {
+          lQueue.setDZ(d, lMinDZ);
+          lQueue.setC(d, false);
+        }
+        lQueue.addCurrentStateToQueue();
 
-            for (int j = 0; j < lDZList.size(); j++)
-            {
-              getCalibrationEngine().addPoint(lChartName,
-                                              lSeriesName,
-                                              j == 0,
-                                              lDZList.get(j),
-                                              mMetricArray[j]);
+        lQueue.setTransitionTime(0.1);
 
-              /*System.out.format("z=%s m=%s \n",
-                              lDZList.get(j),
-                              mMetricArray[j]);/**/
+        lQueue.finalizeQueue();
+        // info("End building queue");
 
-            }
+        // info("Begin play queue");
+        getLightSheetMicroscope().useRecycler("adaptation", 1, 4, 4);
+        final Boolean lPlayQueueAndWait =
+                                        getLightSheetMicroscope().playQueueAndWaitForStacks(lQueue,
+                                                                                            100 + lQueue.getQueueLength(),
+                                                                                            TimeUnit.SECONDS);
+        // info("End play queue");
 
-            // info("Begin argmax");
-            lArgMax = mArgMaxFinder.argmax(lDZList.toArray(),
-                                           mMetricArray);
-            // info("End argmax");
-          }
-          if (lArgMax != null)
-          {
-            TDoubleArrayList lDCTSList =
-                                       new TDoubleArrayList(mMetricArray);
+        if (!lPlayQueueAndWait)
+          return new StackInterface[mNumberOfDetectionArmDevices];
+        return pPipeline.copyCameraStacks();
+      });
 
-            double lAmplitudeRatio =
-                                   (lDCTSList.max() - lDCTSList.min())
-                                     / lDCTSList.max();
+      // the metrics are computed while the next sweep is acquired:
+      final double[][] lMetrics =
+                                new double[mNumberOfDetectionArmDevices][];
 
-            /*System.out.format("argmax=%s amplratio=%s \n",
-                              lArgMax.toString(),
-                              lAmplitudeRatio);/**/
+      for (int d = 0; d < mNumberOfDetectionArmDevices; d++)
+      {
+        final OffHeapPlanarStack lStack = (OffHeapPlanarStack) lStacks[d];
 
-            if (lAmplitudeRatio > 0.001)
-            {
-              if (lArgMax < lDZList.get(0))
-                dz[d] = lDZList.get(0);
-              else if (lArgMax > lDZList.get(lDZList.size() - 1))
-                dz[d] = lDZList.get(lDZList.size() - 1);
-              else
-                dz[d] = lArgMax;
-            }
-            else
-              dz[d] = Double.NaN;
+        if (lStack == null)
+          continue;
 
-            /*if (mArgMaxFinder instanceof Fitting1D)
-            {
-              Fitting1D lFitting1D = (Fitting1D) mArgMaxFinder;
-            
-              double[] lFit =
-                            lFitting1D.fit(lDZList.toArray(),
-                                           new double[lDZList.size()]);
-            
-              for (int j = 0; j < lDZList.size(); j++)
-              {
-                lPlot.setScatterPlot("fit");
-                lPlot.addPoint("fit", lDZList.get(j), lFit[j]);
-              }
-            }/**/
+        if (mDebugPath.get().length() > 0)
+        {
+          String timepoint = "" + System.currentTimeMillis();
+          RawFileStackSink lRawFileStackSink = new RawFileStackSink();
+          lRawFileStackSink.setLocation(new File(mDebugPath.get()),
+                                        "tempZ" + timepoint);
+          lRawFileStackSink.appendStack(lStack);
+          lRawFileStackSink.close();
+          info("Saved as " + timepoint);
+        }
 
-          }
+        // info("Begin compute metric");
+        final double[][] lMetricArray = new double[1][];
+        ElapsedTime.measureForceOutput("compute metric", () -> {
+          if (mUseDCTS)
+            lMetricArray[0] =
+                            new DCTS2D().computeImageQualityMetric(lStack);
           else
-          {
-            dz[d] = Double.NaN;
-            severe("Argmax is NULL!");
-          }
+            lMetricArray[0] =
+                            ImageAnalysisUtils.computeAverageSquareVariationPerPlane(lStack);/**/
+        });
+        // info("Begin compute metric");
+
+        if (pDZPositions.length != lMetricArray[0].length)
+        {
+          severe("Z position list and metric list have different lengths!");
+        }
+        else
+        {
+          lMetrics[d] = lMetricArray[0];
         }
       }
-      return dz;
+      return lMetrics;
 
     }
     catch (final InterruptedException e)
@@ -611,6 +765,10 @@ public class CalibrationZ extends CalibrationPerLightSheetBase
     {
       e.printStackTrace();
     }
+    finally
+    {
+      CalibrationPipeline.release(lStacks);
+    }
 
     return null;
 
@@ -801,11 +959,46 @@ public class CalibrationZ extends CalibrationPerLightSheetBase
     return mNumberOfISamples;
   }
 
+  public BoundedVariable<Integer> getNumberOfValidationSamples()
+  {
+    return mNumberOfValidationSamples;
+  }
+
+  public BoundedVariable<Double> getValidationThresholdInMicrons()
+  {
+    return mValidationThresholdInMicrons;
+  }
+
   public BoundedVariable<Integer> getNumberOfDSamples()
   {
     return mNumberOfDSamples;
   }
 
+  public Variable<Boolean> getCoarseToFineSearch()
+  {
+    return mCoarseToFineSearch;
+  }
+
+  public BoundedVariable<Integer> getNumberOfCoarseDSamples()
+  {
+    return mNumberOfCoarseDSamples;
+  }
+
+  public BoundedVariable<Integer> getNumberOfRefineDSamples()
+  {
+    return mNumberOfRefineDSamples;
+  }
+
+  public BoundedVariable<Integer> getMaximumNumberOfSearchPasses()
+  {
+    return mMaximumNumberOfSearchPasses;
+  }
+
+  public BoundedVariable<Double> getSearchToleranceDZ()
+  {
+    return mSearchToleranceDZ;
+  }
+
   public BoundedVariable<Integer> getMaxIterationsVariable()
   {
     return mMaxIterationsVariable;
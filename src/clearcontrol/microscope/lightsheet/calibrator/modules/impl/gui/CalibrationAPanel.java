@@ -31,6 +31,21 @@ public class CalibrationAPanel extends StandardCalibrationModulePanel
     addNumberTextFieldForVariable(pCalibrationA.getNumberOfAnglesVariable()
                                                .getName(),
                                   pCalibrationA.getNumberOfAnglesVariable());
+    addCheckBoxForVariable(pCalibrationA.getCoarseToFineSearch()
+                                        .getName(),
+                           pCalibrationA.getCoarseToFineSearch());
+    addNumberTextFieldForVariable(pCalibrationA.getNumberOfCoarseAnglesVariable()
+                                               .getName(),
+                                  pCalibrationA.getNumberOfCoarseAnglesVariable());
+    addNumberTextFieldForVariable(pCalibrationA.getNumberOfRefineAnglesVariable()
+                                               .getName(),
+                                  pCalibrationA.getNumberOfRefineAnglesVariable());
+    addNumberTextFieldForVariable(pCalibrationA.getMaximumNumberOfSearchPassesVariable()
+                                               .getName(),
+                                  pCalibrationA.getMaximumNumberOfSearchPassesVariable());
+    addNumberTextFieldForVariable(pCalibrationA.getSearchToleranceInDegreesVariable()
+                                               .getName(),
+                                  pCalibrationA.getSearchToleranceInDegreesVariable());
     addNumberTextFieldForVariable(pCalibrationA.getNumberOfRepeatsVariable()
                                                .getName(),
                                   pCalibrationA.getNumberOfRepeatsVariable());
@@ -46,6 +61,9 @@ public class CalibrationAPanel extends StandardCalibrationModulePanel
     addNumberTextFieldForVariable(pCalibrationA.getStoppingConditionErrorThreshold()
                                                .getName(),
                                   pCalibrationA.getStoppingConditionErrorThreshold());
+    addNumberTextFieldForVariable(pCalibrationA.getValidationThresholdInDegreesVariable()
+                                               .getName(),
+                                  pCalibrationA.getValidationThresholdInDegreesVariable());
     addStringField(pCalibrationA.getDebugPath().getName(),
                    pCalibrationA.getDebugPath());
 
@@ -18,6 +18,21 @@ public class CalibrationZPanel extends StandardCalibrationModulePanel
     addNumberTextFieldForVariable(pCalibrationZ.getNumberOfDSamples()
                                                .getName(),
                                   pCalibrationZ.getNumberOfDSamples());
+    addCheckBoxForVariable(pCalibrationZ.getCoarseToFineSearch()
+                                        .getName(),
+                           pCalibrationZ.getCoarseToFineSearch());
+    addNumberTextFieldForVariable(pCalibrationZ.getNumberOfCoarseDSamples()
+                                               .getName(),
+                                  pCalibrationZ.getNumberOfCoarseDSamples());
+    addNumberTextFieldForVariable(pCalibrationZ.getNumberOfRefineDSamples()
+                                               .getName(),
+                                  pCalibrationZ.getNumberOfRefineDSamples());
+    addNumberTextFieldForVariable(pCalibrationZ.getMaximumNumberOfSearchPasses()
+                                               .getName(),
+                                  pCalibrationZ.getMaximumNumberOfSearchPasses());
+    addNumberTextFieldForVariable(pCalibrationZ.getSearchToleranceDZ()
+                                               .getName(),
+                                  pCalibrationZ.getSearchToleranceDZ());
     addNumberTextFieldForVariable(pCalibrationZ.getExposureTimeInSecondsVariable()
                                                .getName(),
                                   pCalibrationZ.getExposureTimeInSecondsVariable());
@@ -30,6 +45,12 @@ public class CalibrationZPanel extends StandardCalibrationModulePanel
     addNumberTextFieldForVariable(pCalibrationZ.getStoppingConditionErrorThreshold()
                                                .getName(),
                                   pCalibrationZ.getStoppingConditionErrorThreshold());
+    addNumberTextFieldForVariable(pCalibrationZ.getNumberOfValidationSamples()
+                                               .getName(),
+                                  pCalibrationZ.getNumberOfValidationSamples());
+    addNumberTextFieldForVariable(pCalibrationZ.getValidationThresholdInMicrons()
+                                               .getName(),
+                                  pCalibrationZ.getValidationThresholdInMicrons());
     addStringField(pCalibrationZ.getDebugPath().getName(),
                    pCalibrationZ.getDebugPath());
 
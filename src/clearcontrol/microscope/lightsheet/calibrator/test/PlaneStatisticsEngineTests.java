@@ -0,0 +1,156 @@
+package clearcontrol.microscope.lightsheet.calibrator.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import clearcontrol.microscope.lightsheet.calibrator.utils.PlaneStatisticsEngine;
+import clearcontrol.stack.ContiguousOffHeapPlanarStackFactory;
+import clearcontrol.stack.StackInterface;
+import clearcontrol.stack.StackRequest;
+import coremem.ContiguousMemoryInterface;
+
+import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import org.junit.Test;
+
+/**
+ * Plane statistics engine tests
+ */
+public class PlaneStatisticsEngineTests
+{
+  // odd width so that the unrolled loops have a remainder
+  private static final int cWidth = 67;
+  private static final int cHeight = 45;
+  private static final int cDepth = 6;
+
+  private static final double[] cPercentiles = new double[]
+  { 0.5, 1, 25, 50, 90, 95, 99.9, 100 };
+
+  /**
+   * compares the per plane statistics with the ones computed with
+   * DescriptiveStatistics, as done before
+   */
+  @Test
+  public void matchesDescriptiveStatistics()
+  {
+    StackInterface lStack = createStack();
+    DescriptiveStatistics[] lReference = computeReference(lStack);
+
+    double[] lSums = PlaneStatisticsEngine.computeSumPerPlane(lStack);
+    double[] lAverages =
+                       PlaneStatisticsEngine.computeAveragePerPlane(lStack);
+    double[] lAverageSquares =
+                             PlaneStatisticsEngine.computeAveragePowerPerPlane(lStack,
+                                                                               2);
+    double[] lAverageCubes =
+                           PlaneStatisticsEngine.computeAveragePowerPerPlane(lStack,
+                                                                             3);
+
+    double lTotalSum = 0;
+    for (int p = 0; p < cDepth; p++)
+    {
+      DescriptiveStatistics lStatistics = lReference[p];
+      String lMessage = "plane " + p;
+
+      assertEquals(lMessage, lStatistics.getSum(), lSums[p], 0);
+      assertEquals(lMessage, lStatistics.getMean(), lAverages[p], 1e-9);
+      assertEquals(lMessage,
+                   lStatistics.getSumsq() / lStatistics.getN(),
+                   lAverageSquares[p],
+                   1e-9 * lAverageSquares[p]);
+      assertEquals(lMessage,
+                   averageOfCubes(lStatistics),
+                   lAverageCubes[p],
+                   1e-9 * lAverageCubes[p]);
+      lTotalSum += lStatistics.getSum();
+    }
+    assertEquals(lTotalSum, PlaneStatisticsEngine.computeSum(lStack), 0);
+
+    for (double lPercentile : cPercentiles)
+    {
+      double[] lPercentiles =
+                            PlaneStatisticsEngine.computePercentilePerPlane(lStack,
+                                                                            lPercentile);
+      for (int p = 0; p < cDepth; p++)
+      {
+        assertEquals("plane " + p + ", percentile " + lPercentile,
+                     lReference[p].getPercentile(lPercentile),
+                     lPercentiles[p],
+                     1e-9);
+      }
+    }
+
+    lStack.free();
+  }
+
+  private static StackInterface createStack()
+  {
+    StackInterface lStack =
+                          new ContiguousOffHeapPlanarStackFactory().create(StackRequest.build(cWidth,
+                                                                                              cHeight,
+                                                                                              cDepth));
+    Random lRandom = new Random(42);
+    for (int p = 0; p < cDepth; p++)
+    {
+      ContiguousMemoryInterface lPlane =
+                                       lStack.getFragmentedMemory().get(p);
+      for (long i = 0; i < cWidth * cHeight; i++)
+      {
+        int lValue;
+        switch (p)
+        {
+        case 0:
+          // constant plane
+          lValue = 100;
+          break;
+        case 1:
+          // few grey values, many ties
+          lValue = 100 + lRandom.nextInt(4);
+          break;
+        case 2:
+          // full 16 bit range
+          lValue = lRandom.nextInt(1 << 16);
+          break;
+        case 3:
+          // dark background with a few bright spots
+          lValue = lRandom.nextInt(100) == 0 ? 60000
+                                             : 90 + lRandom.nextInt(20);
+          break;
+        default:
+          lValue = (int) Math.max(0,
+                                  Math.min(65535,
+                                           1000 + 200
+                                                  * lRandom.nextGaussian()));
+        }
+        lPlane.setCharAligned(i, (char) lValue);
+      }
+    }
+    return lStack;
+  }
+
+  private static DescriptiveStatistics[] computeReference(StackInterface pStack)
+  {
+    DescriptiveStatistics[] lReference = new DescriptiveStatistics[cDepth];
+    for (int p = 0; p < cDepth; p++)
+    {
+      ContiguousMemoryInterface lPlane =
+                                       pStack.getFragmentedMemory().get(p);
+      lReference[p] = new DescriptiveStatistics();
+      for (long i = 0; i < cWidth * cHeight; i++)
+      {
+        lReference[p].addValue(lPlane.getCharAligned(i));
+      }
+    }
+    return lReference;
+  }
+
+  private static double averageOfCubes(DescriptiveStatistics pStatistics)
+  {
+    double lSum = 0;
+    for (double lValue : pStatistics.getValues())
+    {
+      lSum += lValue * lValue * lValue;
+    }
+    return lSum / pStatistics.getN();
+  }
+}
@@ -0,0 +1,87 @@
+package clearcontrol.microscope.lightsheet.calibrator.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import clearcontrol.core.math.argmax.methods.ModeArgMaxFinder;
+import clearcontrol.microscope.lightsheet.calibrator.utils.CoarseToFineSweep;
+import clearcontrol.microscope.lightsheet.calibrator.utils.EvenlySpacedSweep;
+import clearcontrol.microscope.lightsheet.calibrator.utils.SweepMeasurementInterface;
+import clearcontrol.microscope.lightsheet.calibrator.utils.SweepResult;
+
+import org.junit.Test;
+
+/**
+ * Sweep strategy tests
+ */
+public class SweepStrategyTests
+{
+  // focus curves of two detection arms with slightly different maxima
+  private static final double[] cOptima = new double[]
+  { 12.3, 14.1 };
+
+  private static SweepMeasurementInterface focusCurves()
+  {
+    return (pPositions) -> {
+      double[][] lValues = new double[cOptima.length][pPositions.length];
+      for (int d = 0; d < cOptima.length; d++)
+      {
+        for (int j = 0; j < pPositions.length; j++)
+        {
+          double x = (pPositions[j] - cOptima[d]) / 20.0;
+          lValues[d][j] = 100 + 1000 * Math.exp(-x * x);
+        }
+      }
+      return lValues;
+    };
+  }
+
+  /**
+   * tests that the coarse to fine search finds the maxima as precisely as the
+   * evenly spaced sweep with less than half of the samples
+   */
+  @Test
+  public void coarseToFineNeedsFewerSamples()
+  {
+    SweepResult lEvenlySpacedResult =
+                                    new EvenlySpacedSweep(new ModeArgMaxFinder(),
+                                                          33).sweep(-100,
+                                                                    100,
+                                                                    cOptima.length,
+                                                                    focusCurves());
+    SweepResult lCoarseToFineResult =
+                                    new CoarseToFineSweep(5,
+                                                          3,
+                                                          200.0 / 32,
+                                                          10).sweep(-100,
+                                                                    100,
+                                                                    cOptima.length,
+                                                                    focusCurves());
+    assertNotNull(lEvenlySpacedResult);
+    assertNotNull(lCoarseToFineResult);
+
+    for (int d = 0; d < cOptima.length; d++)
+    {
+      assertEquals(cOptima[d], lCoarseToFineResult.getArgMax(d), 0.5);
+      assertEquals(lEvenlySpacedResult.getArgMax(d),
+                   lCoarseToFineResult.getArgMax(d),
+                   200.0 / 32);
+    }
+    assertTrue(lCoarseToFineResult.getNumberOfMeasuredPositions()
+               * 2 <= lEvenlySpacedResult.getNumberOfMeasuredPositions());
+  }
+
+  /**
+   * tests that a failing measurement ends the search
+   */
+  @Test
+  public void failingMeasurement()
+  {
+    assertNull(new CoarseToFineSweep(5, 3, 0.5, 10).sweep(0,
+                                                          1,
+                                                          1,
+                                                          (pPositions) -> null));
+  }
+}
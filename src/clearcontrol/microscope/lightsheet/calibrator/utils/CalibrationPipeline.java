@@ -0,0 +1,245 @@
+package clearcontrol.microscope.lightsheet.calibrator.utils;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+
+import clearcontrol.core.log.LoggingFeature;
+import clearcontrol.microscope.lightsheet.LightSheetMicroscope;
+import clearcontrol.microscope.stacks.StackRecyclerManager;
+import clearcontrol.stack.StackInterface;
+import clearcontrol.stack.StackRequest;
+import coremem.recycling.RecyclerInterface;
+
+/**
+ * Overlaps acquisition and analysis of independent calibration measurements.
+ * Measurements are submitted in the order their results are needed and run
+ * on two worker threads: while one of them computes the metrics of its
+ * images, the other one acquires. Acquisitions are serialized, see
+ * acquire(...), so that only one queue is played at a time.
+ *
+ * The camera stacks are only valid until the next queue is played. Thus,
+ * measurements copy them with copyCameraStacks() while they still hold the
+ * microscope and release the copies after their analysis.
+ *
+ * Submit measurements from one thread only.
+ */
+public class CalibrationPipeline implements AutoCloseable, LoggingFeature
+{
+  private static final String cRecyclerName = "calibration";
+  private static final int cRecyclerSize = 8;
+  private static final long cTimeOutInSeconds = 1000;
+
+  /**
+   * Acquisition run while holding the microscope
+   *
+   * @param <T>
+   *          result type
+   */
+  public interface Acquisition<T>
+  {
+    T acquire() throws InterruptedException,
+                ExecutionException,
+                TimeoutException;
+  }
+
+  private final LightSheetMicroscope mLightSheetMicroscope;
+  private final ReentrantLock mMicroscopeLock = new ReentrantLock(true);
+  private final ExecutorService mExecutor =
+                                          Executors.newFixedThreadPool(2,
+                                                                       (r) -> {
+                                                                         Thread lThread =
+                                                                                        new Thread(r,
+                                                                                                   "Calibration pipeline");
+                                                                         lThread.setDaemon(true);
+                                                                         return lThread;
+                                                                       });
+  private final ArrayList<Future<?>> mFutures = new ArrayList<>();
+
+  /**
+   * Instantiates a pipeline for the given microscope
+   *
+   * @param pLightSheetMicroscope
+   *          microscope
+   */
+  public CalibrationPipeline(LightSheetMicroscope pLightSheetMicroscope)
+  {
+    mLightSheetMicroscope = pLightSheetMicroscope;
+  }
+
+  /**
+   * Submits a measurement. It should use acquire(...) for everything touching
+   * the microscope.
+   *
+   * @param pMeasurement
+   *          measurement
+   * @return future result
+   */
+  public <T> Future<T> submit(Callable<T> pMeasurement)
+  {
+    Future<T> lFuture = mExecutor.submit(pMeasurement);
+    mFutures.add(lFuture);
+    return lFuture;
+  }
+
+  /**
+   * Runs an acquisition while no other measurement of this pipeline accesses
+   * the microscope. Waiting measurements get the microscope in the order they
+   * asked for it.
+   *
+   * @param pAcquisition
+   *          acquisition, e.g. building and playing a queue and copying the
+   *          camera stacks
+   * @return result of the acquisition
+   * @throws InterruptedException
+   *           if interrupted while waiting for the microscope or the
+   *           acquisition
+   * @throws ExecutionException
+   *           thrown by the acquisition
+   * @throws TimeoutException
+   *           thrown by the acquisition
+   */
+  public <T> T acquire(Acquisition<T> pAcquisition) throws InterruptedException,
+                                                     ExecutionException,
+                                                     TimeoutException
+  {
+    mMicroscopeLock.lockInterruptibly();
+    try
+    {
+      return pAcquisition.acquire();
+    }
+    finally
+    {
+      mMicroscopeLock.unlock();
+    }
+  }
+
+  /**
+   * Copies the current stack of every camera. Call this within acquire(...),
+   * right after playing the queue. The copies have to be released by the
+   * caller.
+   *
+   * @return copy per camera, null for cameras without stack
+   * @throws TimeoutException
+   *           if the recycler has no stack left for a copy, the measurement
+   *           is aborted then
+   */
+  public StackInterface[] copyCameraStacks() throws TimeoutException
+  {
+    StackRecyclerManager lStackRecyclerManager =
+                                               mLightSheetMicroscope.getDevice(StackRecyclerManager.class,
+                                                                               0);
+    RecyclerInterface<StackInterface, StackRequest> lRecycler =
+                                                              lStackRecyclerManager.getRecycler(cRecyclerName,
+                                                                                                cRecyclerSize,
+                                                                                                cRecyclerSize);
+
+    StackInterface[] lCopies =
+                             new StackInterface[mLightSheetMicroscope.getNumberOfDetectionArms()];
+    for (int d = 0; d < lCopies.length; d++)
+    {
+      StackInterface lStack =
+                            mLightSheetMicroscope.getCameraStackVariable(d)
+                                                 .get();
+      if (lStack == null)
+      {
+        continue;
+      }
+
+      StackInterface lCopy =
+                           lRecycler.getOrWait(cTimeOutInSeconds,
+                                               TimeUnit.SECONDS,
+                                               StackRequest.build(lStack.getWidth(),
+                                                                  lStack.getHeight(),
+                                                                  lStack.getDepth()));
+      if (lCopy == null)
+      {
+        warning("No stack available in the recycler '" + cRecyclerName
+                + "' for copying the stack of camera "
+                + d
+                + ", measurement aborted.");
+        release(lCopies);
+        throw new TimeoutException("No stack available for copying the stack of camera "
+                                   + d);
+      }
+      lStack.getContiguousMemory()
+            .copyTo(lCopy.getContiguousMemory());
+      lCopy.setMetaData(lStack.getMetaData().clone());
+      lCopies[d] = lCopy;
+    }
+    return lCopies;
+  }
+
+  /**
+   * Releases stacks copied with copyCameraStacks()
+   *
+   * @param pStacks
+   *          copies, entries might be null
+   */
+  public static void release(StackInterface[] pStacks)
+  {
+    if (pStacks == null)
+    {
+      return;
+    }
+    for (StackInterface lStack : pStacks)
+    {
+      if (lStack != null && !lStack.isReleased())
+      {
+        lStack.release();
+      }
+    }
+  }
+
+  /**
+   * Waits for the result of a submitted measurement
+   *
+   * @param pFuture
+   *          future result
+   * @return result, or null if the measurement failed or was interrupted
+   */
+  public static <T> T getResult(Future<T> pFuture)
+  {
+    try
+    {
+      return pFuture.get();
+    }
+    catch (InterruptedException e)
+    {
+      e.printStackTrace();
+    }
+    catch (ExecutionException e)
+    {
+      e.printStackTrace();
+    }
+    return null;
+  }
+
+  /**
+   * Cancels all measurements which did not start yet and waits for the
+   * running ones, so that the microscope is not used anymore afterwards.
+   */
+  @Override
+  public void close()
+  {
+    for (Future<?> lFuture : mFutures)
+    {
+      lFuture.cancel(false);
+    }
+    mExecutor.shutdown();
+    try
+    {
+      mExecutor.awaitTermination(cTimeOutInSeconds, TimeUnit.SECONDS);
+    }
+    catch (InterruptedException e)
+    {
+      e.printStackTrace();
+    }
+  }
+}
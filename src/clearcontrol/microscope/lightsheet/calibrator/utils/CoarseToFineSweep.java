@@ -0,0 +1,167 @@
+package clearcontrol.microscope.lightsheet.calibrator.utils;
+
+import java.util.ArrayList;
+
+/**
+ * Searches the maximum of a metric coarse to fine: The whole range is sampled
+ * coarsely first. Then, the bracket between the neighbours of the best sample
+ * is sampled again, until the samples around the maximum are closer than a
+ * tolerance or a maximum number of passes is reached. Finally, the maximum is
+ * interpolated by a parabola through the best sample and its neighbours.
+ *
+ * All positions of a pass are handed to the measurement at once, so that they
+ * can be acquired with one queue. If several detection arms are measured,
+ * the brackets around the maxima of all arms are refined in the same pass.
+ */
+public class CoarseToFineSweep implements SweepStrategyInterface
+{
+  private final int mNumberOfCoarseSamples;
+  private final int mNumberOfRefineSamples;
+  private final double mTolerance;
+  private final int mMaximumNumberOfPasses;
+
+  /**
+   * Instantiates a coarse to fine sweep
+   *
+   * @param pNumberOfCoarseSamples
+   *          number of samples over the whole range
+   * @param pNumberOfRefineSamples
+   *          number of new samples within the bracket in every further pass
+   * @param pTolerance
+   *          the search stops when the samples around the maximum are closer
+   *          than this
+   * @param pMaximumNumberOfPasses
+   *          maximum number of passes including the coarse one
+   */
+  public CoarseToFineSweep(int pNumberOfCoarseSamples,
+                           int pNumberOfRefineSamples,
+                           double pTolerance,
+                           int pMaximumNumberOfPasses)
+  {
+    mNumberOfCoarseSamples = Math.max(3, pNumberOfCoarseSamples);
+    mNumberOfRefineSamples = Math.max(1, pNumberOfRefineSamples);
+    mTolerance = pTolerance;
+    mMaximumNumberOfPasses = Math.max(1, pMaximumNumberOfPasses);
+  }
+
+  @Override
+  public SweepResult sweep(double pMin,
+                           double pMax,
+                           int pNumberOfArms,
+                           SweepMeasurementInterface pMeasurement)
+  {
+    SweepResult lResult = new SweepResult(pNumberOfArms);
+
+    double[] lPositions =
+                        EvenlySpacedSweep.evenlySpaced(pMin,
+                                                       pMax,
+                                                       mNumberOfCoarseSamples);
+    for (int p = 0; p < mMaximumNumberOfPasses; p++)
+    {
+      double[][] lValues = pMeasurement.measure(lPositions);
+      if (lValues == null)
+      {
+        return null;
+      }
+      lResult.addPass(lPositions, lValues);
+
+      // brackets between the neighbours of the best sample of every arm
+      // which is not found precisely enough yet
+      ArrayList<double[]> lBrackets = new ArrayList<>();
+      for (int d = 0; d < pNumberOfArms; d++)
+      {
+        int lIndex = lResult.indexOfMaximum(d);
+        if (lIndex < 0)
+        {
+          continue;
+        }
+        double[] lArmPositions = lResult.getPositions(d);
+        double lLeft = lArmPositions[Math.max(lIndex - 1, 0)];
+        double lRight =
+                      lArmPositions[Math.min(lIndex + 1,
+                                             lArmPositions.length - 1)];
+        if (Math.max(lArmPositions[lIndex] - lLeft,
+                     lRight - lArmPositions[lIndex]) > mTolerance)
+        {
+          lBrackets.add(new double[]
+          { lLeft, lRight });
+        }
+      }
+      if (lBrackets.isEmpty())
+      {
+        break;
+      }
+
+      // overlapping brackets are refined together
+      lBrackets.sort((a, b) -> Double.compare(a[0], b[0]));
+      ArrayList<double[]> lMergedBrackets = new ArrayList<>();
+      for (double[] lBracket : lBrackets)
+      {
+        double[] lLast = lMergedBrackets.isEmpty() ? null
+                                                   : lMergedBrackets.get(lMergedBrackets.size()
+                                                                         - 1);
+        if (lLast != null && lBracket[0] <= lLast[1])
+        {
+          lLast[1] = Math.max(lLast[1], lBracket[1]);
+        }
+        else
+        {
+          lMergedBrackets.add(lBracket);
+        }
+      }
+
+      // new samples within the brackets, their bounds are measured already
+      lPositions = new double[lMergedBrackets.size()
+                              * mNumberOfRefineSamples];
+      int lCount = 0;
+      for (double[] lBracket : lMergedBrackets)
+      {
+        double lStep = (lBracket[1] - lBracket[0])
+                       / (mNumberOfRefineSamples + 1);
+        for (int j = 0; j < mNumberOfRefineSamples; j++)
+        {
+          lPositions[lCount++] = lBracket[0] + (j + 1) * lStep;
+        }
+      }
+    }
+
+    for (int d = 0; d < pNumberOfArms; d++)
+    {
+      lResult.setArgMax(d, interpolateMaximum(lResult, d));
+    }
+    return lResult;
+  }
+
+  private static double interpolateMaximum(SweepResult pResult,
+                                           int pArm)
+  {
+    int lIndex = pResult.indexOfMaximum(pArm);
+    if (lIndex < 0)
+    {
+      return Double.NaN;
+    }
+    double[] lPositions = pResult.getPositions(pArm);
+    double[] lValues = pResult.getValues(pArm);
+    if (lIndex == 0 || lIndex == lPositions.length - 1)
+    {
+      return lPositions[lIndex];
+    }
+
+    // vertex of the parabola through three not necessarily evenly spaced
+    // points
+    double x0 = lPositions[lIndex - 1], y0 = lValues[lIndex - 1];
+    double x1 = lPositions[lIndex], y1 = lValues[lIndex];
+    double x2 = lPositions[lIndex + 1], y2 = lValues[lIndex + 1];
+
+    double lNumerator = (x1 - x0) * (x1 - x0) * (y1 - y2)
+                        - (x1 - x2) * (x1 - x2) * (y1 - y0);
+    double lDenominator = (x1 - x0) * (y1 - y2)
+                          - (x1 - x2) * (y1 - y0);
+    if (lDenominator <= 0)
+    {
+      return x1;
+    }
+    double lVertex = x1 - 0.5 * lNumerator / lDenominator;
+    return Math.max(x0, Math.min(x2, lVertex));
+  }
+}
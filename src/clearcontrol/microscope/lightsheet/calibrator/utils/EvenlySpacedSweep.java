@@ -0,0 +1,84 @@
+package clearcontrol.microscope.lightsheet.calibrator.utils;
+
+import clearcontrol.core.math.argmax.ArgMaxFinder1DInterface;
+
+/**
+ * Samples the whole range at evenly spaced positions in one pass and hands the
+ * samples to an argmax finder.
+ */
+public class EvenlySpacedSweep implements SweepStrategyInterface
+{
+  private final ArgMaxFinder1DInterface mArgMaxFinder;
+  private final int mNumberOfSamples;
+
+  /**
+   * Instantiates an evenly spaced sweep
+   *
+   * @param pArgMaxFinder
+   *          argmax finder applied to the samples
+   * @param pNumberOfSamples
+   *          number of samples
+   */
+  public EvenlySpacedSweep(ArgMaxFinder1DInterface pArgMaxFinder,
+                           int pNumberOfSamples)
+  {
+    mArgMaxFinder = pArgMaxFinder;
+    mNumberOfSamples = Math.max(2, pNumberOfSamples);
+  }
+
+  @Override
+  public SweepResult sweep(double pMin,
+                           double pMax,
+                           int pNumberOfArms,
+                           SweepMeasurementInterface pMeasurement)
+  {
+    double[] lPositions = evenlySpaced(pMin, pMax, mNumberOfSamples);
+    double[][] lValues = pMeasurement.measure(lPositions);
+    if (lValues == null)
+    {
+      return null;
+    }
+
+    SweepResult lResult = new SweepResult(pNumberOfArms);
+    lResult.addPass(lPositions, lValues);
+    for (int d = 0; d < pNumberOfArms; d++)
+    {
+      double[] lArmPositions = lResult.getPositions(d);
+      if (lArmPositions.length == 0)
+      {
+        continue;
+      }
+      Double lArgMax = mArgMaxFinder.argmax(lArmPositions,
+                                            lResult.getValues(d));
+      if (lArgMax != null)
+      {
+        lResult.setArgMax(d, lArgMax);
+      }
+    }
+    return lResult;
+  }
+
+  /**
+   * Computes evenly spaced positions including both bounds
+   *
+   * @param pMin
+   *          lower bound
+   * @param pMax
+   *          upper bound
+   * @param pNumberOfSamples
+   *          number of positions, at least two
+   * @return positions
+   */
+  public static double[] evenlySpaced(double pMin,
+                                      double pMax,
+                                      int pNumberOfSamples)
+  {
+    double[] lPositions = new double[pNumberOfSamples];
+    double lStep = (pMax - pMin) / (pNumberOfSamples - 1);
+    for (int j = 0; j < pNumberOfSamples; j++)
+    {
+      lPositions[j] = pMin + j * lStep;
+    }
+    return lPositions;
+  }
+}
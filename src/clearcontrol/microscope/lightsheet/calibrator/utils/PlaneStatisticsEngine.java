@@ -0,0 +1,340 @@
+package clearcontrol.microscope.lightsheet.calibrator.utils;
+
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import clearcontrol.stack.StackInterface;
+import coremem.ContiguousMemoryInterface;
+import coremem.fragmented.FragmentedMemoryInterface;
+import gnu.trove.list.array.TDoubleArrayList;
+
+import org.apache.commons.math3.geometry.euclidean.twod.Vector2D;
+import org.apache.commons.math3.stat.StatUtils;
+
+/**
+ * Computes statistics of the planes of 16 bit stacks. Planes are copied in
+ * bulk into char arrays and processed with simple, unrolled loops the JIT can
+ * vectorize. Sums are accumulated in long/double precision, percentiles are
+ * read from 16 bit histograms instead of sorting. Planes are distributed over
+ * the common fork-join pool.
+ */
+public class PlaneStatisticsEngine
+{
+  private static final int cNumberOfGreyValues = 1 << 16;
+
+  private static final ThreadLocal<char[]> cPlaneBuffer =
+                                                        ThreadLocal.withInitial(() -> new char[0]);
+  private static final ThreadLocal<int[]> cHistogramBuffer =
+                                                           ThreadLocal.withInitial(() -> new int[cNumberOfGreyValues]);
+
+  private interface PlaneFunction
+  {
+    double apply(int pPlaneIndex, char[] pPixels, int pLength);
+  }
+
+  /**
+   * Computes the sum of intensities of each plane
+   *
+   * @param pStack
+   *          16 bit stack
+   * @return sum per plane
+   */
+  public static double[] computeSumPerPlane(StackInterface pStack)
+  {
+    return computePerPlane(pStack,
+                           (p, pPixels, pLength) -> sum(pPixels,
+                                                        pLength));
+  }
+
+  /**
+   * Computes the sum of all voxel intensities of a stack
+   *
+   * @param pStack
+   *          16 bit stack
+   * @return intensity integral
+   */
+  public static double computeSum(StackInterface pStack)
+  {
+    double lSum = 0;
+    for (double lPlaneSum : computeSumPerPlane(pStack))
+    {
+      lSum += lPlaneSum;
+    }
+    return lSum;
+  }
+
+  /**
+   * Computes the average intensity of each plane
+   *
+   * @param pStack
+   *          16 bit stack
+   * @return average intensity per plane
+   */
+  public static double[] computeAveragePerPlane(StackInterface pStack)
+  {
+    return computePerPlane(pStack,
+                           (p, pPixels,
+                            pLength) -> ((double) sum(pPixels, pLength))
+                                        / pLength);
+  }
+
+  /**
+   * Computes the average intensity elevated to a given power of each plane
+   *
+   * @param pStack
+   *          16 bit stack
+   * @param pPower
+   *          power
+   * @return average power intensity per plane
+   */
+  public static double[] computeAveragePowerPerPlane(StackInterface pStack,
+                                                     int pPower)
+  {
+    if (pPower == 1)
+    {
+      return computeAveragePerPlane(pStack);
+    }
+    if (pPower == 2)
+    {
+      return computePerPlane(pStack,
+                             (p, pPixels,
+                              pLength) -> ((double) sumOfSquares(pPixels,
+                                                                 pLength))
+                                          / pLength);
+    }
+
+    // other powers are evaluated once per grey value on the histogram
+    double[] lPowers = new double[cNumberOfGreyValues];
+    for (int v = 0; v < cNumberOfGreyValues; v++)
+    {
+      lPowers[v] = Math.pow(v, pPower);
+    }
+    return computePerPlane(pStack, (p, pPixels, pLength) -> {
+      int[] lHistogram = histogram(pPixels, pLength);
+      double lSumOfPowers = 0;
+      for (int v = 0; v < cNumberOfGreyValues; v++)
+      {
+        if (lHistogram[v] != 0)
+        {
+          lSumOfPowers += lHistogram[v] * lPowers[v];
+        }
+      }
+      return lSumOfPowers / pLength;
+    });
+  }
+
+  /**
+   * Computes the average squared difference between each pixel and a running
+   * average of the pixels before it, for each plane.
+   *
+   * @param pStack
+   *          16 bit stack
+   * @return average square variation per plane
+   */
+  public static double[] computeAverageSquareVariationPerPlane(StackInterface pStack)
+  {
+    return computePerPlane(pStack, (p, pPixels, pLength) -> {
+      if (pLength == 0)
+      {
+        return 0;
+      }
+      double lPreviousValue = pPixels[0];
+      double lSumOfSquares = 0;
+      for (int i = 0; i < pLength; i++)
+      {
+        double lValue = pPixels[i];
+        double lVariation = lValue - lPreviousValue;
+        lSumOfSquares += lVariation * lVariation;
+        lPreviousValue = 0.9 * lPreviousValue + 0.1 * lValue;
+      }
+      return lSumOfSquares / pLength;
+    });
+  }
+
+  /**
+   * Computes a given percentile of the intensities of each plane. The
+   * estimation is the same as the one of commons-math's
+   * DescriptiveStatistics.getPercentile().
+   *
+   * @param pStack
+   *          16 bit stack
+   * @param pPercentile
+   *          percentile between 0 and 100
+   * @return percentile per plane
+   */
+  public static double[] computePercentilePerPlane(StackInterface pStack,
+                                                   double pPercentile)
+  {
+    return computePerPlane(pStack, (p, pPixels, pLength) -> {
+      if (pLength == 0)
+      {
+        return Double.NaN;
+      }
+      int[] lHistogram = histogram(pPixels, pLength);
+
+      double lPosition = pPercentile * (pLength + 1) / 100;
+      if (lPosition < 1)
+      {
+        return valueAtRank(lHistogram, 0);
+      }
+      if (lPosition >= pLength)
+      {
+        return valueAtRank(lHistogram, pLength - 1);
+      }
+      int lIntegerPosition = (int) Math.floor(lPosition);
+      double lLower = valueAtRank(lHistogram, lIntegerPosition - 1);
+      double lUpper = valueAtRank(lHistogram, lIntegerPosition);
+      return lLower + (lPosition - lIntegerPosition) * (lUpper - lLower);
+    });
+  }
+
+  /**
+   * Returns the median position of the brightest pixels of each plane.
+   *
+   * @param pStack
+   *          16 bit stack
+   * @return array of 2D points, one for each plane.
+   */
+  public static Vector2D[] findCOMOfBrightestPointsPerPlane(StackInterface pStack)
+  {
+    int lWidth = (int) pStack.getWidth();
+    Vector2D[] lPoints = new Vector2D[(int) pStack.getDepth()];
+    computePerPlane(pStack, (p, pPixels, pLength) -> {
+      int lMaxValue = max(pPixels, pLength);
+
+      TDoubleArrayList lXList = new TDoubleArrayList();
+      TDoubleArrayList lYList = new TDoubleArrayList();
+      for (int i = 0; i < pLength; i++)
+      {
+        if (pPixels[i] == lMaxValue)
+        {
+          lXList.add(i % lWidth);
+          lYList.add(i / lWidth);
+        }
+      }
+
+      lPoints[p] =
+                 new Vector2D(StatUtils.percentile(lXList.toArray(), 50),
+                              StatUtils.percentile(lYList.toArray(), 50));
+      return 0;
+    });
+    return lPoints;
+  }
+
+  private static double[] computePerPlane(StackInterface pStack,
+                                          PlaneFunction pFunction)
+  {
+    int lNumberOfPlanes = (int) pStack.getDepth();
+    FragmentedMemoryInterface lFragmentedMemory =
+                                                pStack.getFragmentedMemory();
+    double[] lResult = new double[lNumberOfPlanes];
+
+    IntStream.range(0, lNumberOfPlanes).parallel().forEach((p) -> {
+      ContiguousMemoryInterface lPlane = lFragmentedMemory.get(p);
+      int lLength = (int) (lPlane.getSizeInBytes() / 2);
+      char[] lPixels = cPlaneBuffer.get();
+      if (lPixels.length < lLength)
+      {
+        lPixels = new char[lLength];
+        cPlaneBuffer.set(lPixels);
+      }
+      lPlane.getByteBuffer()
+            .order(ByteOrder.nativeOrder())
+            .asCharBuffer()
+            .get(lPixels, 0, lLength);
+
+      lResult[p] = pFunction.apply(p, lPixels, lLength);
+    });
+
+    return lResult;
+  }
+
+  private static long sum(char[] pPixels, int pLength)
+  {
+    long lSum0 = 0, lSum1 = 0, lSum2 = 0, lSum3 = 0;
+    int i = 0;
+    for (; i <= pLength - 4; i += 4)
+    {
+      lSum0 += pPixels[i];
+      lSum1 += pPixels[i + 1];
+      lSum2 += pPixels[i + 2];
+      lSum3 += pPixels[i + 3];
+    }
+    for (; i < pLength; i++)
+    {
+      lSum0 += pPixels[i];
+    }
+    return lSum0 + lSum1 + lSum2 + lSum3;
+  }
+
+  private static long sumOfSquares(char[] pPixels, int pLength)
+  {
+    long lSum0 = 0, lSum1 = 0, lSum2 = 0, lSum3 = 0;
+    int i = 0;
+    for (; i <= pLength - 4; i += 4)
+    {
+      long lValue0 = pPixels[i];
+      long lValue1 = pPixels[i + 1];
+      long lValue2 = pPixels[i + 2];
+      long lValue3 = pPixels[i + 3];
+      lSum0 += lValue0 * lValue0;
+      lSum1 += lValue1 * lValue1;
+      lSum2 += lValue2 * lValue2;
+      lSum3 += lValue3 * lValue3;
+    }
+    for (; i < pLength; i++)
+    {
+      long lValue = pPixels[i];
+      lSum0 += lValue * lValue;
+    }
+    return lSum0 + lSum1 + lSum2 + lSum3;
+  }
+
+  private static int max(char[] pPixels, int pLength)
+  {
+    int lMax0 = 0, lMax1 = 0, lMax2 = 0, lMax3 = 0;
+    int i = 0;
+    for (; i <= pLength - 4; i += 4)
+    {
+      lMax0 = Math.max(lMax0, pPixels[i]);
+      lMax1 = Math.max(lMax1, pPixels[i + 1]);
+      lMax2 = Math.max(lMax2, pPixels[i + 2]);
+      lMax3 = Math.max(lMax3, pPixels[i + 3]);
+    }
+    for (; i < pLength; i++)
+    {
+      lMax0 = Math.max(lMax0, pPixels[i]);
+    }
+    return Math.max(Math.max(lMax0, lMax1), Math.max(lMax2, lMax3));
+  }
+
+  private static int[] histogram(char[] pPixels, int pLength)
+  {
+    int[] lHistogram = cHistogramBuffer.get();
+    Arrays.fill(lHistogram, 0);
+    for (int i = 0; i < pLength; i++)
+    {
+      lHistogram[pPixels[i]]++;
+    }
+    return lHistogram;
+  }
+
+  /**
+   * @return grey value of the pixel with the given rank (0 = darkest) in the
+   *         sorted plane
+   */
+  private static int valueAtRank(int[] pHistogram, long pRank)
+  {
+    long lCount = 0;
+    for (int v = 0; v < cNumberOfGreyValues; v++)
+    {
+      lCount += pHistogram[v];
+      if (lCount > pRank)
+      {
+        return v;
+      }
+    }
+    return cNumberOfGreyValues - 1;
+  }
+}
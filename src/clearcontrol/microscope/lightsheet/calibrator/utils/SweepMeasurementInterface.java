@@ -0,0 +1,18 @@
+package clearcontrol.microscope.lightsheet.calibrator.utils;
+
+/**
+ * Measures a focus metric at given positions of a calibration parameter, for
+ * instance by acquiring one plane per position with every detection arm.
+ */
+public interface SweepMeasurementInterface
+{
+  /**
+   * Measures the metric at the given positions
+   *
+   * @param pPositions
+   *          positions in ascending order
+   * @return metric per detection arm and position, an entry might be null if
+   *         an arm did not deliver an image. Null if the measurement failed.
+   */
+  double[][] measure(double[] pPositions);
+}
@@ -0,0 +1,141 @@
+package clearcontrol.microscope.lightsheet.calibrator.utils;
+
+import java.util.Arrays;
+
+import gnu.trove.list.array.TDoubleArrayList;
+
+/**
+ * Samples collected during a sweep, sorted by position, and the argmax found
+ * per detection arm.
+ */
+public class SweepResult
+{
+  private final TDoubleArrayList[] mPositions;
+  private final TDoubleArrayList[] mValues;
+  private final double[] mArgMax;
+  private int mNumberOfPasses = 0;
+  private int mNumberOfMeasuredPositions = 0;
+
+  /**
+   * Instantiates an empty result
+   *
+   * @param pNumberOfArms
+   *          number of detection arms
+   */
+  public SweepResult(int pNumberOfArms)
+  {
+    mPositions = new TDoubleArrayList[pNumberOfArms];
+    mValues = new TDoubleArrayList[pNumberOfArms];
+    for (int d = 0; d < pNumberOfArms; d++)
+    {
+      mPositions[d] = new TDoubleArrayList();
+      mValues[d] = new TDoubleArrayList();
+    }
+    mArgMax = new double[pNumberOfArms];
+    Arrays.fill(mArgMax, Double.NaN);
+  }
+
+  void addPass(double[] pPositions, double[][] pValues)
+  {
+    mNumberOfPasses++;
+    mNumberOfMeasuredPositions += pPositions.length;
+    for (int d = 0; d < mPositions.length && d < pValues.length; d++)
+    {
+      if (pValues[d] == null || pValues[d].length != pPositions.length)
+      {
+        continue;
+      }
+      for (int j = 0; j < pPositions.length; j++)
+      {
+        if (Double.isNaN(pValues[d][j]))
+        {
+          continue;
+        }
+        int lIndex = mPositions[d].binarySearch(pPositions[j]);
+        if (lIndex >= 0)
+        {
+          // position measured twice, the newer value wins
+          mValues[d].set(lIndex, pValues[d][j]);
+        }
+        else
+        {
+          mPositions[d].insert(-lIndex - 1, pPositions[j]);
+          mValues[d].insert(-lIndex - 1, pValues[d][j]);
+        }
+      }
+    }
+  }
+
+  int indexOfMaximum(int pArm)
+  {
+    TDoubleArrayList lValues = mValues[pArm];
+    int lIndex = -1;
+    for (int j = 0; j < lValues.size(); j++)
+    {
+      if (lIndex < 0 || lValues.get(j) > lValues.get(lIndex))
+      {
+        lIndex = j;
+      }
+    }
+    return lIndex;
+  }
+
+  void setArgMax(int pArm, double pArgMax)
+  {
+    mArgMax[pArm] = pArgMax;
+  }
+
+  /**
+   * @return number of detection arms
+   */
+  public int getNumberOfArms()
+  {
+    return mArgMax.length;
+  }
+
+  /**
+   * @param pArm
+   *          detection arm
+   * @return sampled positions in ascending order
+   */
+  public double[] getPositions(int pArm)
+  {
+    return mPositions[pArm].toArray();
+  }
+
+  /**
+   * @param pArm
+   *          detection arm
+   * @return metric values corresponding to the sampled positions
+   */
+  public double[] getValues(int pArm)
+  {
+    return mValues[pArm].toArray();
+  }
+
+  /**
+   * @param pArm
+   *          detection arm
+   * @return position of the maximum, NaN if it could not be determined
+   */
+  public double getArgMax(int pArm)
+  {
+    return mArgMax[pArm];
+  }
+
+  /**
+   * @return number of acquisitions made
+   */
+  public int getNumberOfPasses()
+  {
+    return mNumberOfPasses;
+  }
+
+  /**
+   * @return number of positions measured over all passes
+   */
+  public int getNumberOfMeasuredPositions()
+  {
+    return mNumberOfMeasuredPositions;
+  }
+}
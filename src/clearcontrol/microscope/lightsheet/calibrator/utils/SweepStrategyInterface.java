@@ -0,0 +1,27 @@
+package clearcontrol.microscope.lightsheet.calibrator.utils;
+
+/**
+ * Strategy deciding at which positions a calibration parameter is sampled to
+ * find the position maximizing a metric.
+ */
+public interface SweepStrategyInterface
+{
+  /**
+   * Searches the position of the maximum of the metric within a range
+   *
+   * @param pMin
+   *          lower bound of the range
+   * @param pMax
+   *          upper bound of the range
+   * @param pNumberOfArms
+   *          number of detection arms the measurement delivers metrics for
+   * @param pMeasurement
+   *          measurement
+   * @return result containing all samples and the argmax per arm, or null if
+   *         a measurement failed
+   */
+  SweepResult sweep(double pMin,
+                    double pMax,
+                    int pNumberOfArms,
+                    SweepMeasurementInterface pMeasurement);
+}
@@ -0,0 +1,121 @@
+package clearcontrol.microscope.lightsheet.calibrator.utils.demo;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import clearcontrol.microscope.lightsheet.calibrator.utils.PlaneStatisticsEngine;
+import clearcontrol.stack.ContiguousOffHeapPlanarStackFactory;
+import clearcontrol.stack.StackInterface;
+import clearcontrol.stack.StackRequest;
+import coremem.ContiguousMemoryInterface;
+import coremem.buffers.ContiguousBuffer;
+import coremem.recycling.BasicRecycler;
+
+import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+
+/**
+ * Compares the PlaneStatisticsEngine with the per pixel ContiguousBuffer loops
+ * ImageAnalysisUtils used before, on a camera sized random stack.
+ */
+public class PlaneStatisticsEngineBenchmarkDemo
+{
+  private static final int cWarmupIterations = 3;
+  private static final int cIterations = 10;
+
+  public static void main(String[] args)
+  {
+    BasicRecycler<StackInterface, StackRequest> lRecycler =
+                                                          new BasicRecycler<StackInterface, StackRequest>(new ContiguousOffHeapPlanarStackFactory(),
+                                                                                                          1,
+                                                                                                          1,
+                                                                                                          true);
+    StackInterface lStack = lRecycler.getOrWait(1000,
+                                                TimeUnit.SECONDS,
+                                                StackRequest.build(2048,
+                                                                   2048,
+                                                                   16));
+
+    Random lRandom = new Random(42);
+    for (int p = 0; p < lStack.getDepth(); p++)
+    {
+      ContiguousMemoryInterface lPlane =
+                                       lStack.getFragmentedMemory().get(p);
+      for (long i = 0; i < lPlane.getSizeInBytes() / 2; i++)
+      {
+        lPlane.setCharAligned(i, (char) (100 + lRandom.nextInt(4000)));
+      }
+    }
+
+    benchmark("average per plane, loops",
+              () -> averagePerPlaneWithLoops(lStack));
+    benchmark("average per plane, engine",
+              () -> PlaneStatisticsEngine.computeAveragePerPlane(lStack));
+    benchmark("95th percentile per plane, loops",
+              () -> percentilePerPlaneWithLoops(lStack, 95));
+    benchmark("95th percentile per plane, engine",
+              () -> PlaneStatisticsEngine.computePercentilePerPlane(lStack,
+                                                                    95));
+
+    lStack.free();
+  }
+
+  private static void benchmark(String pName, Supplier<double[]> pTask)
+  {
+    for (int i = 0; i < cWarmupIterations; i++)
+    {
+      pTask.get();
+    }
+    long lStartTime = System.nanoTime();
+    double[] lResult = null;
+    for (int i = 0; i < cIterations; i++)
+    {
+      lResult = pTask.get();
+    }
+    double lMilliseconds = (System.nanoTime() - lStartTime) * 1e-6
+                           / cIterations;
+    System.out.format("%-36s %10.2f ms (first plane: %.3f)\n",
+                      pName,
+                      lMilliseconds,
+                      lResult[0]);
+  }
+
+  private static double[] averagePerPlaneWithLoops(StackInterface pStack)
+  {
+    double[] lResult = new double[(int) pStack.getDepth()];
+    for (int p = 0; p < lResult.length; p++)
+    {
+      ContiguousBuffer lBuffer =
+                               ContiguousBuffer.wrap(pStack.getFragmentedMemory()
+                                                           .get(p));
+      float lSum = 0;
+      while (lBuffer.hasRemainingByte())
+      {
+        lSum += lBuffer.readChar();
+      }
+      lResult[p] = lSum / (pStack.getWidth() * pStack.getHeight());
+    }
+    return lResult;
+  }
+
+  private static double[] percentilePerPlaneWithLoops(StackInterface pStack,
+                                                      int pPercentile)
+  {
+    DescriptiveStatistics lDescriptiveStatistics =
+                                                 new DescriptiveStatistics();
+    double[] lResult = new double[(int) pStack.getDepth()];
+    for (int p = 0; p < lResult.length; p++)
+    {
+      ContiguousBuffer lBuffer =
+                               ContiguousBuffer.wrap(pStack.getFragmentedMemory()
+                                                           .get(p));
+      lDescriptiveStatistics.clear();
+      while (lBuffer.hasRemainingByte())
+      {
+        lDescriptiveStatistics.addValue(lBuffer.readChar());
+      }
+      lResult[p] = lDescriptiveStatistics.getPercentile(pPercentile);
+    }
+    return lResult;
+  }
+}
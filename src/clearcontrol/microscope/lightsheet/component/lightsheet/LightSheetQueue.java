@@ -1,19 +1,21 @@
 package clearcontrol.microscope.lightsheet.component.lightsheet;
 
 import clearcontrol.core.device.queue.QueueInterface;
-import clearcontrol.core.device.queue.VariableQueueBase;
 import clearcontrol.core.variable.Variable;
 import clearcontrol.core.variable.bounded.BoundedVariable;
 import clearcontrol.devices.signalgen.staves.SteppingFunction;
 import clearcontrol.microscope.lightsheet.component.lightsheet.si.ClosureStructuredIlluminationPattern;
 import clearcontrol.microscope.lightsheet.component.lightsheet.si.StructuredIlluminationPatternInterface;
+import clearcontrol.microscope.lightsheet.component.queue.ColumnarVariableQueueBase;
 
 /**
- * lightsheet queue
+ * lightsheet queue. Queued values are stored in primitive columns, see
+ * ColumnarVariableQueueBase.
  *
  * @author royer
  */
-public class LightSheetQueue extends VariableQueueBase implements
+public class LightSheetQueue extends ColumnarVariableQueueBase
+                             implements
                              QueueInterface,
                              LightSheetParameterInterface
 {
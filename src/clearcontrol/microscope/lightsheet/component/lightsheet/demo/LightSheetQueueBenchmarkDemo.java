@@ -0,0 +1,152 @@
+package clearcontrol.microscope.lightsheet.component.lightsheet.demo;
+
+import clearcontrol.core.device.queue.QueueInterface;
+import clearcontrol.core.device.queue.VariableQueueBase;
+import clearcontrol.core.variable.Variable;
+import clearcontrol.microscope.lightsheet.component.lightsheet.LightSheet;
+import clearcontrol.microscope.lightsheet.component.lightsheet.LightSheetQueue;
+
+import org.junit.Test;
+
+/**
+ * Measures build time, read-out time and heap use of light sheet queues with
+ * thousands of planes, comparing the columnar LightSheetQueue with a
+ * VariableQueueBase holding the same variables as boxed values.
+ */
+public class LightSheetQueueBenchmarkDemo
+{
+  private static final int cNumberOfLightSheets = 4;
+  private static final int cNumberOfPlanes = 4000;
+  private static final int cIterations = 10;
+
+  /**
+   * Runs the benchmark
+   */
+  @Test
+  public void benchmark()
+  {
+    LightSheet[] lLightSheets = new LightSheet[cNumberOfLightSheets];
+    for (int l = 0; l < cNumberOfLightSheets; l++)
+    {
+      lLightSheets[l] = new LightSheet("benchmark" + l, 9.4, 2);
+    }
+
+    // warm up:
+    buildColumnar(lLightSheets);
+    buildBoxed(lLightSheets);
+
+    long lUsedBefore = usedMemory();
+    long lStartTime = System.nanoTime();
+    LightSheetQueue[] lColumnarQueues = null;
+    for (int i = 0; i < cIterations; i++)
+    {
+      lColumnarQueues = buildColumnar(lLightSheets);
+    }
+    double lColumnarBuildTime = (System.nanoTime() - lStartTime) * 1e-6
+                                / cIterations;
+    long lColumnarHeap = usedMemory() - lUsedBefore;
+
+    lStartTime = System.nanoTime();
+    double lSum = 0;
+    for (LightSheetQueue lQueue : lColumnarQueues)
+    {
+      for (int z = 0; z < lQueue.getQueueLength(); z++)
+      {
+        lSum += lQueue.getQueuedDoubleValue(lQueue.getZVariable(), z);
+        lSum += lQueue.getQueuedDoubleValue(lQueue.getPowerVariable(),
+                                            z);
+      }
+    }
+    double lColumnarReadTime = (System.nanoTime() - lStartTime) * 1e-6;
+
+    lColumnarQueues = null;
+    lUsedBefore = usedMemory();
+    lStartTime = System.nanoTime();
+    VariableQueueBase[] lBoxedQueues = null;
+    for (int i = 0; i < cIterations; i++)
+    {
+      lBoxedQueues = buildBoxed(lLightSheets);
+    }
+    double lBoxedBuildTime = (System.nanoTime() - lStartTime) * 1e-6
+                             / cIterations;
+    long lBoxedHeap = usedMemory() - lUsedBefore;
+
+    System.out.format("%d light sheets x %d planes (checksum %g)\n",
+                      cNumberOfLightSheets,
+                      cNumberOfPlanes,
+                      lSum);
+    System.out.format("columnar: build %8.2f ms, read %8.2f ms, heap %8d kB\n",
+                      lColumnarBuildTime,
+                      lColumnarReadTime,
+                      lColumnarHeap / 1024);
+    System.out.format("boxed:    build %8.2f ms,                  heap %8d kB (%d queues)\n",
+                      lBoxedBuildTime,
+                      lBoxedHeap / 1024,
+                      lBoxedQueues.length);
+  }
+
+  private LightSheetQueue[] buildColumnar(LightSheet[] pLightSheets)
+  {
+    LightSheetQueue[] lQueues =
+                              new LightSheetQueue[pLightSheets.length];
+    for (int l = 0; l < pLightSheets.length; l++)
+    {
+      lQueues[l] = pLightSheets[l].requestQueue();
+      fill(lQueues[l], lQueues[l]);
+    }
+    return lQueues;
+  }
+
+  private VariableQueueBase[] buildBoxed(LightSheet[] pLightSheets)
+  {
+    VariableQueueBase[] lQueues =
+                                new VariableQueueBase[pLightSheets.length];
+    for (int l = 0; l < pLightSheets.length; l++)
+    {
+      LightSheetQueue lTemplate = pLightSheets[l].requestQueue();
+      VariableQueueBase lQueue = new VariableQueueBase()
+      {
+      };
+      lQueue.registerVariables(lTemplate.getReadoutTimeInMicrosecondsPerLineVariable(),
+                               lTemplate.getOverScanVariable(),
+                               lTemplate.getImageHeightVariable(),
+                               lTemplate.getXVariable(),
+                               lTemplate.getYVariable(),
+                               lTemplate.getZVariable(),
+                               lTemplate.getBetaInDegreesVariable(),
+                               lTemplate.getAlphaInDegreesVariable(),
+                               lTemplate.getHeightVariable(),
+                               lTemplate.getWidthVariable(),
+                               lTemplate.getPowerVariable(),
+                               lTemplate.getAdaptPowerToWidthHeightVariable());
+      fill(lTemplate, lQueue);
+      lQueues[l] = lQueue;
+    }
+    return lQueues;
+  }
+
+  private void fill(LightSheetQueue pVariables,
+                    QueueInterface pQueue)
+  {
+    pQueue.clearQueue();
+    Variable<Number> lZVariable = pVariables.getZVariable();
+    Variable<Number> lPowerVariable = pVariables.getPowerVariable();
+    for (int z = 0; z < cNumberOfPlanes; z++)
+    {
+      lZVariable.set(z * 0.5);
+      lPowerVariable.set((z % 10) * 0.1);
+      pQueue.addCurrentStateToQueue();
+    }
+    pQueue.finalizeQueue();
+  }
+
+  private static long usedMemory()
+  {
+    Runtime lRuntime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++)
+    {
+      System.gc();
+    }
+    return lRuntime.totalMemory() - lRuntime.freeMemory();
+  }
+}
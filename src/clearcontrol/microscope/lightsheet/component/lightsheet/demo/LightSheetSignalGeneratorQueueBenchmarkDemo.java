@@ -0,0 +1,88 @@
+package clearcontrol.microscope.lightsheet.component.lightsheet.demo;
+
+import clearcontrol.devices.signalgen.SignalGeneratorInterface;
+import clearcontrol.devices.signalgen.devices.sim.SignalGeneratorSimulatorDevice;
+import clearcontrol.microscope.lightsheet.component.lightsheet.LightSheet;
+import clearcontrol.microscope.lightsheet.component.lightsheet.LightSheetQueue;
+import clearcontrol.microscope.lightsheet.signalgen.LightSheetSignalGeneratorDevice;
+import clearcontrol.microscope.lightsheet.signalgen.LightSheetSignalGeneratorQueue;
+
+import org.junit.Test;
+
+/**
+ * Measures how long it takes to build the signal generator queue of a 2000
+ * plane stack on the simulated signal generator. When only Z changes from
+ * plane to plane, only the galvo staves are recomputed; when all light sheet
+ * parameters change, every stave needs to be rewritten for every plane.
+ */
+public class LightSheetSignalGeneratorQueueBenchmarkDemo
+{
+  private static final int cNumberOfPlanes = 2000;
+  private static final int cIterations = 10;
+
+  /**
+   * Runs the benchmark
+   */
+  @Test
+  public void benchmark()
+  {
+    final SignalGeneratorInterface lSignalGeneratorDevice =
+                                                          new SignalGeneratorSimulatorDevice();
+
+    final LightSheetSignalGeneratorDevice lLightSheetSignalGeneratorDevice =
+                                                                           LightSheetSignalGeneratorDevice.wrap(lSignalGeneratorDevice,
+                                                                                                                false);
+
+    final LightSheet lLightSheet = new LightSheet("demo", 9.4, 2);
+    lLightSheet.getHeightVariable().set(100.0);
+    lLightSheet.getImageHeightVariable().set(512L);
+    lLightSheet.getEffectiveExposureInSecondsVariable().set(0.005);
+
+    LightSheetQueue lLightSheetQueue = lLightSheet.requestQueue();
+    LightSheetSignalGeneratorQueue lQueue =
+                                          lLightSheetSignalGeneratorDevice.requestQueue();
+    lQueue.addLightSheetQueue(lLightSheetQueue);
+
+    // warm up:
+    buildQueue(lQueue, lLightSheetQueue, false);
+    buildQueue(lQueue, lLightSheetQueue, true);
+
+    double lZOnlyTime = 0;
+    double lAllChangingTime = 0;
+    for (int i = 0; i < cIterations; i++)
+    {
+      lZOnlyTime += buildQueue(lQueue, lLightSheetQueue, false);
+      lAllChangingTime += buildQueue(lQueue, lLightSheetQueue, true);
+    }
+
+    System.out.format("%d planes, only Z changing:        %8.2f ms\n",
+                      cNumberOfPlanes,
+                      lZOnlyTime / cIterations);
+    System.out.format("%d planes, all parameters changing: %8.2f ms\n",
+                      cNumberOfPlanes,
+                      lAllChangingTime / cIterations);
+  }
+
+  private double buildQueue(LightSheetSignalGeneratorQueue pQueue,
+                            LightSheetQueue pLightSheetQueue,
+                            boolean pChangeAllParameters)
+  {
+    long lStartTime = System.nanoTime();
+    pQueue.clearQueue();
+    for (int z = 0; z < cNumberOfPlanes; z++)
+    {
+      pLightSheetQueue.getZVariable().set(z * 0.1);
+      if (pChangeAllParameters)
+      {
+        pLightSheetQueue.getXVariable().set(z % 2);
+        pLightSheetQueue.getBetaInDegreesVariable().set(z % 3);
+        pLightSheetQueue.getWidthVariable().set(0.1 * (z % 5));
+        pLightSheetQueue.getPowerVariable().set(0.1 * (z % 7));
+        pLightSheetQueue.getLaserOnOffArrayVariable(0).set(z % 2 == 0);
+      }
+      pQueue.addCurrentStateToQueue();
+    }
+    pQueue.finalizeQueue();
+    return (System.nanoTime() - lStartTime) * 1e-6;
+  }
+}
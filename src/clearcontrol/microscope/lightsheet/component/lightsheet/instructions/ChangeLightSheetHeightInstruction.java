@@ -56,14 +56,22 @@ public class ChangeLightSheetHeightInstruction extends
                                         (InterpolatedAcquisitionState) getLightSheetMicroscope().getDevice(AcquisitionStateManager.class,
                                                                                                            0)
                                                                                                 .getCurrentState();
-    for (int cpi = 0; cpi < lState.getNumberOfControlPlanes(); cpi++)
+    lState.beginUpdate();
+    try
     {
-      for (int l = 0; l < lState.getNumberOfLightSheets(); l++)
+      for (int cpi = 0; cpi < lState.getNumberOfControlPlanes(); cpi++)
       {
-        lState.getInterpolationTables()
-              .set(LightSheetDOF.IH, cpi, l, mLightSheetHeight.get());
+        for (int l = 0; l < lState.getNumberOfLightSheets(); l++)
+        {
+          lState.getInterpolationTables()
+                .set(LightSheetDOF.IH, cpi, l, mLightSheetHeight.get());
+        }
       }
     }
+    finally
+    {
+      lState.commitUpdate();
+    }
     return true;
   }
 
@@ -54,14 +54,22 @@ public class ChangeLightSheetWidthInstruction extends
                                         (InterpolatedAcquisitionState) getLightSheetMicroscope().getDevice(AcquisitionStateManager.class,
                                                                                                            0)
                                                                                                 .getCurrentState();
-    for (int cpi = 0; cpi < lState.getNumberOfControlPlanes(); cpi++)
+    lState.beginUpdate();
+    try
     {
-      for (int l = 0; l < lState.getNumberOfLightSheets(); l++)
+      for (int cpi = 0; cpi < lState.getNumberOfControlPlanes(); cpi++)
       {
-        lState.getInterpolationTables()
-              .set(LightSheetDOF.IW, cpi, l, mLightSheetWidth.get());
+        for (int l = 0; l < lState.getNumberOfLightSheets(); l++)
+        {
+          lState.getInterpolationTables()
+                .set(LightSheetDOF.IW, cpi, l, mLightSheetWidth.get());
+        }
       }
     }
+    finally
+    {
+      lState.commitUpdate();
+    }
     return true;
   }
 
@@ -55,14 +55,22 @@ public class ChangeLightSheetXInstruction extends
                                         (InterpolatedAcquisitionState) getLightSheetMicroscope().getDevice(AcquisitionStateManager.class,
                                                                                                            0)
                                                                                                 .getCurrentState();
-    for (int cpi = 0; cpi < lState.getNumberOfControlPlanes(); cpi++)
+    lState.beginUpdate();
+    try
     {
-      for (int l = 0; l < lState.getNumberOfLightSheets(); l++)
+      for (int cpi = 0; cpi < lState.getNumberOfControlPlanes(); cpi++)
       {
-        lState.getInterpolationTables()
-              .set(LightSheetDOF.IX, cpi, l, mLightSheetX.get());
+        for (int l = 0; l < lState.getNumberOfLightSheets(); l++)
+        {
+          lState.getInterpolationTables()
+                .set(LightSheetDOF.IX, cpi, l, mLightSheetX.get());
+        }
       }
     }
+    finally
+    {
+      lState.commitUpdate();
+    }
     return true;
   }
 
@@ -55,14 +55,22 @@ public class ChangeLightSheetYInstruction extends
                                         (InterpolatedAcquisitionState) getLightSheetMicroscope().getDevice(AcquisitionStateManager.class,
                                                                                                            0)
                                                                                                 .getCurrentState();
-    for (int cpi = 0; cpi < lState.getNumberOfControlPlanes(); cpi++)
+    lState.beginUpdate();
+    try
     {
-      for (int l = 0; l < lState.getNumberOfLightSheets(); l++)
+      for (int cpi = 0; cpi < lState.getNumberOfControlPlanes(); cpi++)
       {
-        lState.getInterpolationTables()
-              .set(LightSheetDOF.IX, cpi, l, mLightSheetY.get());
+        for (int l = 0; l < lState.getNumberOfLightSheets(); l++)
+        {
+          lState.getInterpolationTables()
+                .set(LightSheetDOF.IX, cpi, l, mLightSheetY.get());
+        }
       }
     }
+    finally
+    {
+      lState.commitUpdate();
+    }
     return true;
   }
 
@@ -0,0 +1,226 @@
+package clearcontrol.microscope.lightsheet.component.queue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+import clearcontrol.core.device.queue.QueueInterface;
+import clearcontrol.core.math.functions.UnivariateAffineFunction;
+import clearcontrol.core.variable.Variable;
+
+/**
+ * Variable queue storing the queued values of each registered variable in a
+ * column of its own. Number variables are stored in growable double arrays,
+ * boolean variables in growable boolean arrays; only other types (e.g.
+ * structured illumination patterns) are kept as object references. Adding a
+ * plane to the queue and reading back numbers and booleans does not allocate,
+ * apart from growing the columns.
+ *
+ * It offers the same registration / add / get methods as VariableQueueBase.
+ */
+public class ColumnarVariableQueueBase implements QueueInterface
+{
+  private static final int cInitialCapacity = 64;
+
+  private final ArrayList<Column> mColumnList = new ArrayList<>();
+  private final IdentityHashMap<Variable<?>, Column> mVariableToColumnMap =
+                                                                          new IdentityHashMap<>();
+  private volatile int mQueueLength = 0;
+
+  private static class Column
+  {
+    final Variable<?> mVariable;
+    double[] mDoubles;
+    boolean[] mBooleans;
+    Object[] mObjects;
+
+    Column(Variable<?> pVariable)
+    {
+      mVariable = pVariable;
+      Object lValue = pVariable.get();
+      if (lValue instanceof Number)
+        mDoubles = new double[cInitialCapacity];
+      else if (lValue instanceof Boolean)
+        mBooleans = new boolean[cInitialCapacity];
+      else
+        mObjects = new Object[cInitialCapacity];
+    }
+
+    void set(int pIndex)
+    {
+      Object lValue = mVariable.get();
+      if (mDoubles != null)
+      {
+        if (pIndex == mDoubles.length)
+          mDoubles = Arrays.copyOf(mDoubles, 2 * pIndex);
+        mDoubles[pIndex] = lValue == null ? Double.NaN
+                                          : ((Number) lValue).doubleValue();
+      }
+      else if (mBooleans != null)
+      {
+        if (pIndex == mBooleans.length)
+          mBooleans = Arrays.copyOf(mBooleans, 2 * pIndex);
+        mBooleans[pIndex] = lValue != null && (Boolean) lValue;
+      }
+      else
+      {
+        if (pIndex == mObjects.length)
+          mObjects = Arrays.copyOf(mObjects, 2 * pIndex);
+        mObjects[pIndex] = lValue;
+      }
+    }
+  }
+
+  /**
+   * Registers a variable, its value is added to the queue with every call to
+   * addCurrentStateToQueue()
+   *
+   * @param pVariable
+   *          variable to register
+   */
+  public void registerVariable(Variable<?> pVariable)
+  {
+    if (mVariableToColumnMap.containsKey(pVariable))
+      return;
+    Column lColumn = new Column(pVariable);
+    mColumnList.add(lColumn);
+    mVariableToColumnMap.put(pVariable, lColumn);
+  }
+
+  /**
+   * Registers several variables
+   *
+   * @param pVariables
+   *          variables to register
+   */
+  public void registerVariables(Variable<?>... pVariables)
+  {
+    for (Variable<?> lVariable : pVariables)
+      registerVariable(lVariable);
+  }
+
+  @Override
+  public void clearQueue()
+  {
+    for (Column lColumn : mColumnList)
+    {
+      if (lColumn.mObjects != null)
+        Arrays.fill(lColumn.mObjects, 0, mQueueLength, null);
+    }
+    mQueueLength = 0;
+  }
+
+  @Override
+  public void addCurrentStateToQueue()
+  {
+    int lIndex = mQueueLength;
+    for (int i = 0; i < mColumnList.size(); i++)
+      mColumnList.get(i).set(lIndex);
+    mQueueLength = lIndex + 1;
+  }
+
+  @Override
+  public void finalizeQueue()
+  {
+  }
+
+  @Override
+  public int getQueueLength()
+  {
+    return mQueueLength;
+  }
+
+  /**
+   * Returns the queued value of a number variable at a given position
+   *
+   * @param pVariable
+   *          registered number variable
+   * @param pQueueIndex
+   *          queue position
+   * @return queued value
+   */
+  public double getQueuedDoubleValue(Variable<? extends Number> pVariable,
+                                     int pQueueIndex)
+  {
+    return getColumn(pVariable, pQueueIndex).mDoubles[pQueueIndex];
+  }
+
+  /**
+   * Returns the queued value of a boolean variable at a given position
+   *
+   * @param pVariable
+   *          registered boolean variable
+   * @param pQueueIndex
+   *          queue position
+   * @return queued value
+   */
+  public boolean getQueuedBooleanValue(Variable<Boolean> pVariable,
+                                       int pQueueIndex)
+  {
+    return getColumn(pVariable, pQueueIndex).mBooleans[pQueueIndex];
+  }
+
+  /**
+   * Returns the queued value of a number variable transformed by the given
+   * function, at a given position
+   *
+   * @param pFunction
+   *          function to apply
+   * @param pVariable
+   *          registered number variable
+   * @param pQueueIndex
+   *          queue position
+   * @return transformed queued value
+   */
+  public Number getQueuedValue(UnivariateAffineFunction pFunction,
+                               Variable<? extends Number> pVariable,
+                               int pQueueIndex)
+  {
+    return pFunction.value(getQueuedDoubleValue(pVariable,
+                                                pQueueIndex));
+  }
+
+  /**
+   * Returns the queued value of a variable at a given position. Numbers and
+   * booleans are boxed, prefer getQueuedDoubleValue() and
+   * getQueuedBooleanValue() in loops.
+   *
+   * @param pVariable
+   *          registered variable
+   * @param pQueueIndex
+   *          queue position
+   * @return queued value
+   */
+  @SuppressWarnings("unchecked")
+  public <T> T getQueuedValue(Variable<T> pVariable, int pQueueIndex)
+  {
+    Column lColumn = getColumn(pVariable, pQueueIndex);
+    if (lColumn.mDoubles != null)
+    {
+      double lValue = lColumn.mDoubles[pQueueIndex];
+      Object lCurrentValue = pVariable.get();
+      if (lCurrentValue instanceof Long)
+        return (T) Long.valueOf((long) lValue);
+      if (lCurrentValue instanceof Integer)
+        return (T) Integer.valueOf((int) lValue);
+      return (T) Double.valueOf(lValue);
+    }
+    if (lColumn.mBooleans != null)
+      return (T) Boolean.valueOf(lColumn.mBooleans[pQueueIndex]);
+    return (T) lColumn.mObjects[pQueueIndex];
+  }
+
+  private Column getColumn(Variable<?> pVariable, int pQueueIndex)
+  {
+    Column lColumn = mVariableToColumnMap.get(pVariable);
+    if (lColumn == null)
+      throw new IllegalArgumentException("Variable " + pVariable.getName()
+                                         + " is not registered in this queue");
+    if (pQueueIndex < 0 || pQueueIndex >= mQueueLength)
+      throw new IndexOutOfBoundsException("Queue index " + pQueueIndex
+                                          + " out of range [0,"
+                                          + mQueueLength
+                                          + ")");
+    return lColumn;
+  }
+}
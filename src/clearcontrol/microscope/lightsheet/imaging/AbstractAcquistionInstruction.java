@@ -5,7 +5,10 @@ import java.util.concurrent.TimeUnit;
 import clearcl.util.ElapsedTime;
 import clearcontrol.core.log.LoggingFeature;
 import clearcontrol.core.variable.Variable;
+import clearcontrol.devices.cameras.StackCameraDeviceInterface;
 import clearcontrol.instructions.InstructionInterface;
+import clearcontrol.instructions.PipelinableInstructionInterface;
+import clearcontrol.instructions.PipelineStage;
 import clearcontrol.microscope.lightsheet.LightSheetMicroscope;
 import clearcontrol.microscope.lightsheet.LightSheetMicroscopeQueue;
 import clearcontrol.microscope.lightsheet.instructions.LightSheetMicroscopeInstructionBase;
@@ -18,6 +21,7 @@ import clearcontrol.microscope.stacks.StackRecyclerManager;
 import clearcontrol.stack.StackInterface;
 import clearcontrol.stack.StackRequest;
 import clearcontrol.stack.metadata.MetaDataOrdinals;
+import clearcontrol.stack.metadata.StackMetaData;
 import clearcontrol.stack.sourcesink.sink.FileStackSinkInterface;
 import coremem.recycling.RecyclerInterface;
 
@@ -32,7 +36,8 @@ public abstract class AbstractAcquistionInstruction extends
                                                     LightSheetMicroscopeInstructionBase
                                                     implements
                                                     InstructionInterface,
-                                                    LoggingFeature
+                                                    LoggingFeature,
+                                                    PipelinableInstructionInterface
 {
 
   protected String mImageKeyToSave = "fused";
@@ -43,6 +48,14 @@ public abstract class AbstractAcquistionInstruction extends
   protected StackInterface mLastFusedStack;
   protected StackInterface mLastAcquiredStack;
 
+  private static final String cWarehouseRecyclerName = "warehouse";
+  private static final int cWarehouseRecyclerSize = 1024;
+
+  protected Variable<Boolean> mHandOverCameraStacks =
+                                                    new Variable<Boolean>("Hand over camera stacks without copying",
+                                                                          true);
+  private boolean mCamerasUseWarehouseRecycler = false;
+
   /**
    * INstanciates a virtual device with a given name
    *
@@ -81,17 +94,104 @@ public abstract class AbstractAcquistionInstruction extends
     return true;
   }
 
+  /**
+   * Lets the cameras acquire into stacks of the hand over recycler of the
+   * microscope. Camera stacks acquired afterwards are handed over to
+   * containers without copying them, see putStackInContainer(String,
+   * StackInterface, StackInterfaceContainer). Call this before playing the
+   * acquisition queue.
+   */
+  protected void useWarehouseRecyclerForCameras()
+  {
+    mCamerasUseWarehouseRecycler = mHandOverCameraStacks.get();
+    if (mCamerasUseWarehouseRecycler)
+    {
+      HandOverStackRecycler lRecycler =
+                                      getLightSheetMicroscope().getHandOverStackRecycler();
+      for (StackCameraDeviceInterface<?> lStackCamera : getLightSheetMicroscope().getDeviceLists()
+                                                                                .getDevices(StackCameraDeviceInterface.class))
+      {
+        lStackCamera.setStackRecycler(lRecycler);
+      }
+    }
+  }
+
+  /**
+   * Puts a camera stack in the container. If the cameras acquire into the
+   * hand over recycler (see useWarehouseRecyclerForCameras()), the container
+   * claims the stack itself: the stack is published to the stack pipeline as
+   * well, and only goes back to the recycler (and to the cameras) once both
+   * the pipeline and the container released it. Otherwise, the stack is
+   * copied.
+   *
+   * @param pKey
+   *          key in the container
+   * @param pStack
+   *          camera stack
+   * @param pContainer
+   *          container
+   */
+  protected void putStackInContainer(String pKey,
+                                     StackInterface pStack,
+                                     StackInterfaceContainer pContainer)
+  {
+    // stacks which were released already or which are older than the
+    // current request might be reused by the camera, they are copied:
+    if (mCamerasUseWarehouseRecycler
+        && pStack.getMetaData()
+                 .getTimeStampInNanoseconds() >= mTimeStampBeforeImaging
+        && getLightSheetMicroscope().getHandOverStackRecycler()
+                                    .claim(pStack))
+    {
+      info("Hand over stack (" + pKey + ") to container");
+      putStackInContainerWithoutCopy(pKey, pStack, pContainer);
+      return;
+    }
+
+    putStackInContainer(pKey,
+                        pStack,
+                        0,
+                        pStack.getDepth(),
+                        pStack.getMetaData(),
+                        pContainer);
+  }
+
+  /**
+   * Copies a range of planes of a camera stack into a new stack and puts it in
+   * the container. This allows to split stacks containing several views
+   * acquired in one go.
+   *
+   * @param pKey
+   *          key in the container
+   * @param pStack
+   *          camera stack
+   * @param pFirstPlane
+   *          index of the first plane to copy
+   * @param pNumberOfPlanes
+   *          number of planes to copy
+   * @param pMetaData
+   *          meta data of the resulting stack, it is cloned
+   * @param pContainer
+   *          container
+   */
   protected void putStackInContainer(String pKey,
                                      StackInterface pStack,
+                                     long pFirstPlane,
+                                     long pNumberOfPlanes,
+                                     StackMetaData pMetaData,
                                      StackInterfaceContainer pContainer)
   {
     StackRecyclerManager lStackRecyclerManager =
                                                getLightSheetMicroscope().getDevice(StackRecyclerManager.class,
                                                                                    0);
     RecyclerInterface<StackInterface, StackRequest> lRecycler =
-                                                              lStackRecyclerManager.getRecycler("warehouse",
-                                                                                                1024,
-                                                                                                1024);
+                                                              lStackRecyclerManager.getRecycler(cWarehouseRecyclerName,
+                                                                                                cWarehouseRecyclerSize,
+                                                                                                cWarehouseRecyclerSize);
+
+    long lPlaneSizeInBytes = pStack.getContiguousMemory()
+                                   .getSizeInBytes()
+                             / pStack.getDepth();
 
     Variable<StackInterface> lStackCopyVariable =
                                                 new Variable<StackInterface>("stackcopy",
@@ -101,36 +201,42 @@ public abstract class AbstractAcquistionInstruction extends
                                    () -> {
                                      lStackCopyVariable.set(lRecycler.getOrWait(1000,
                                                                                 TimeUnit.SECONDS,
-                                                                                StackRequest.build(pStack.getDimensions())));
+                                                                                StackRequest.build(pStack.getWidth(),
+                                                                                                   pStack.getHeight(),
+                                                                                                   pNumberOfPlanes)));
 
                                      // we need to copy the data out of the
                                      // input-buffer from the camera
                                      pStack.getContiguousMemory()
+                                           .subRegion(pFirstPlane * lPlaneSizeInBytes,
+                                                      pNumberOfPlanes * lPlaneSizeInBytes)
                                            .copyTo(lStackCopyVariable.get()
                                                                      .getContiguousMemory());
                                      lStackCopyVariable.get()
-                                                       .setMetaData(pStack.getMetaData()
-                                                                          .clone());
+                                                       .setMetaData(pMetaData.clone());
                                    });
-    if ((lStackCopyVariable.get()
-                           .getMetaData()
-                           .getTimeStampInNanoseconds()
+    putStackInContainerWithoutCopy(pKey,
+                                   lStackCopyVariable.get(),
+                                   pContainer);
+  }
+
+  private void putStackInContainerWithoutCopy(String pKey,
+                                              StackInterface pStack,
+                                              StackInterfaceContainer pContainer)
+  {
+    if ((pStack.getMetaData().getTimeStampInNanoseconds()
          - mTimeStampBeforeImaging) < 0)
     {
       warning("Error: an acquired image is older than its request!");
     }
 
     info(pKey + " ("
-         + lStackCopyVariable.get()
-                             .getMetaData()
-                             .getValue(MetaDataOrdinals.TimePoint)
+         + pStack.getMetaData().getValue(MetaDataOrdinals.TimePoint)
          + ") in a container "
-         + MetaDataView.getCxLyString(lStackCopyVariable.get()
-                                                        .getMetaData()));
-    pContainer.put(pKey, lStackCopyVariable.get());
-
-    mLastAcquiredStack = lStackCopyVariable.get();
+         + MetaDataView.getCxLyString(pStack.getMetaData()));
+    pContainer.put(pKey, pStack);
 
+    mLastAcquiredStack = pStack;
   }
 
   @Deprecated
@@ -210,4 +316,15 @@ public abstract class AbstractAcquistionInstruction extends
   {
     return mChannelName;
   }
+
+  public Variable<Boolean> getHandOverCameraStacksVariable()
+  {
+    return mHandOverCameraStacks;
+  }
+
+  @Override
+  public PipelineStage getPipelineStage()
+  {
+    return PipelineStage.Hardware;
+  }
 }
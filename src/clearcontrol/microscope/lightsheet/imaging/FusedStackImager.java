@@ -75,7 +75,7 @@ public class FusedStackImager implements
                                                                              0);
     lProcessor.initializeEngine();
     lProcessor.reInitializeEngine();
-    lProcessor.getEngine().reset(true);
+    lProcessor.resetEngine(true);
 
     AbstractAcquistionInstruction lAcquisitionScheduler;
     FusionInstruction lFusionScheduler;
@@ -0,0 +1,127 @@
+package clearcontrol.microscope.lightsheet.imaging;
+
+import java.util.IdentityHashMap;
+import java.util.concurrent.TimeUnit;
+
+import clearcontrol.stack.ContiguousOffHeapPlanarStackFactory;
+import clearcontrol.stack.StackInterface;
+import clearcontrol.stack.StackRequest;
+import coremem.recycling.BasicRecycler;
+
+/**
+ * Recycler for camera stacks which are handed over to warehouse containers
+ * without copying. A camera stack is also published to the stack pipeline,
+ * which releases it once it is processed or displayed. A stack claimed by a
+ * container therefore needs one more release() call, the one of the
+ * container, before it goes back to the pool and can be reused by the camera.
+ *
+ * Every stack handed out by this recycler has a reference count of one,
+ * claim() increments it and release() decrements it. The stack is recycled
+ * when the count reaches zero.
+ */
+public class HandOverStackRecycler extends
+                                   BasicRecycler<StackInterface, StackRequest>
+{
+  private final IdentityHashMap<StackInterface, Integer> mReferenceCounts =
+                                                                          new IdentityHashMap<>();
+
+  /**
+   * Instantiates a recycler
+   *
+   * @param pMaximumNumberOfAvailableObjects
+   *          maximal number of stacks kept for reuse
+   * @param pMaximumNumberOfLiveObjects
+   *          maximal number of stacks in use
+   */
+  public HandOverStackRecycler(int pMaximumNumberOfAvailableObjects,
+                               int pMaximumNumberOfLiveObjects)
+  {
+    super(new ContiguousOffHeapPlanarStackFactory(),
+          pMaximumNumberOfAvailableObjects,
+          pMaximumNumberOfLiveObjects,
+          true);
+  }
+
+  @Override
+  public StackInterface getOrWait(long pWaitTime,
+                                  TimeUnit pTimeUnit,
+                                  StackRequest pRequest)
+  {
+    return handedOut(super.getOrWait(pWaitTime, pTimeUnit, pRequest));
+  }
+
+  @Override
+  public StackInterface getOrFail(StackRequest pRequest)
+  {
+    return handedOut(super.getOrFail(pRequest));
+  }
+
+  private StackInterface handedOut(StackInterface pStack)
+  {
+    if (pStack != null)
+    {
+      // released stacks have to come back here, even if the stack was
+      // created by the factory without recycler
+      pStack.setRecycler(this);
+      synchronized (mReferenceCounts)
+      {
+        mReferenceCounts.put(pStack, 1);
+      }
+    }
+    return pStack;
+  }
+
+  /**
+   * Adds a reference to a stack handed out by this recycler, the caller has to
+   * release the stack once it is done with it.
+   *
+   * @param pStack
+   *          stack to claim
+   * @return true if the stack was claimed, false if it was released already
+   *         (and might be in use for another acquisition)
+   */
+  public boolean claim(StackInterface pStack)
+  {
+    synchronized (mReferenceCounts)
+    {
+      Integer lCount = mReferenceCounts.get(pStack);
+      if (lCount == null)
+      {
+        return false;
+      }
+      mReferenceCounts.put(pStack, lCount + 1);
+      return true;
+    }
+  }
+
+  /**
+   * @param pStack
+   *          stack
+   * @return number of references to a stack handed out by this recycler, 0
+   *         if it is not in use
+   */
+  public int getReferenceCount(StackInterface pStack)
+  {
+    synchronized (mReferenceCounts)
+    {
+      Integer lCount = mReferenceCounts.get(pStack);
+      return lCount == null ? 0 : lCount;
+    }
+  }
+
+  @Override
+  public void release(StackInterface pStack)
+  {
+    synchronized (mReferenceCounts)
+    {
+      Integer lCount = mReferenceCounts.get(pStack);
+      if (lCount != null && lCount > 1)
+      {
+        mReferenceCounts.put(pStack, lCount - 1);
+        return;
+      }
+      mReferenceCounts.remove(pStack);
+    }
+    super.release(pStack);
+  }
+}
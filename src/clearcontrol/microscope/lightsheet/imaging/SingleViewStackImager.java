@@ -66,7 +66,7 @@ public class SingleViewStackImager implements
                                                                              0);
     lProcessor.initializeEngine();
     lProcessor.reInitializeEngine();
-    lProcessor.getEngine().reset(true);
+    lProcessor.resetEngine(true);
 
     AbstractAcquistionInstruction lAcquisitionScheduler = null;
     for (SingleViewAcquisitionInstruction lScheduler : mLightSheetMicroscope.getDevices(SingleViewAcquisitionInstruction.class))
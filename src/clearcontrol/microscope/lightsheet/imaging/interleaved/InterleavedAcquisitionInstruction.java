@@ -48,28 +48,23 @@ public class InterleavedAcquisitionInstruction extends
     mChannelName.set("interleaved");
   }
 
-  @Override
-  public boolean enqueue(long pTimePoint)
+  protected LightSheetMicroscopeQueue buildQueue(InterpolatedAcquisitionState pState)
   {
-    mCurrentState =
-                  (InterpolatedAcquisitionState) getLightSheetMicroscope().getAcquisitionStateManager()
-                                                                          .getCurrentState();
-
-    int lImageWidth = mCurrentState.getImageWidthVariable()
-                                   .get()
-                                   .intValue();
-    int lImageHeight = mCurrentState.getImageHeightVariable()
-                                    .get()
-                                    .intValue();
+    int lImageWidth = pState.getImageWidthVariable()
+                            .get()
+                            .intValue();
+    int lImageHeight = pState.getImageHeightVariable()
+                             .get()
+                             .intValue();
     double lExposureTimeInSeconds =
-                                  mCurrentState.getExposureInSecondsVariable()
-                                               .get()
-                                               .doubleValue();
+                                  pState.getExposureInSecondsVariable()
+                                        .get()
+                                        .doubleValue();
 
     int lNumberOfImagesToTake =
-                              mCurrentState.getNumberOfZPlanesVariable()
-                                           .get()
-                                           .intValue();
+                              pState.getNumberOfZPlanesVariable()
+                                    .get()
+                                    .intValue();
 
     // build a queue
     LightSheetMicroscopeQueue lQueue =
@@ -84,12 +79,12 @@ public class InterleavedAcquisitionInstruction extends
     // initial position
     goToInitialPosition(getLightSheetMicroscope(),
                         lQueue,
-                        mCurrentState.getStackZLowVariable()
-                                     .get()
-                                     .doubleValue(),
-                        mCurrentState.getStackZLowVariable()
-                                     .get()
-                                     .doubleValue());
+                        pState.getStackZLowVariable()
+                              .get()
+                              .doubleValue(),
+                        pState.getStackZLowVariable()
+                              .get()
+                              .doubleValue());
 
     // --------------------------------------------------------------------
     // build a queue
@@ -101,8 +96,8 @@ public class InterleavedAcquisitionInstruction extends
       for (int l =
                  0; l < getLightSheetMicroscope().getNumberOfLightSheets(); l++)
       {
-        mCurrentState.applyAcquisitionStateAtStackPlane(lQueue,
-                                                        lImageCounter);
+        pState.applyAcquisitionStateAtStackPlane(lQueue,
+                                                 lImageCounter);
 
         // configure light sheets accordingly
         for (int k =
@@ -118,12 +113,12 @@ public class InterleavedAcquisitionInstruction extends
     // back to initial position
     goToInitialPosition(getLightSheetMicroscope(),
                         lQueue,
-                        mCurrentState.getStackZLowVariable()
-                                     .get()
-                                     .doubleValue(),
-                        mCurrentState.getStackZLowVariable()
-                                     .get()
-                                     .doubleValue());
+                        pState.getStackZLowVariable()
+                              .get()
+                              .doubleValue(),
+                        pState.getStackZLowVariable()
+                              .get()
+                              .doubleValue());
 
     lQueue.setTransitionTime(0.5);
     lQueue.setFinalisationTime(0.005);
@@ -144,13 +139,34 @@ public class InterleavedAcquisitionInstruction extends
       lMetaData.addEntry(MetaDataChannel.Channel, "interleaved");
     }
     lQueue.addVoxelDimMetaData(getLightSheetMicroscope(),
-                               mCurrentState.getStackZStepVariable()
-                                            .get()
-                                            .doubleValue());
-    lQueue.addMetaDataEntry(MetaDataOrdinals.TimePoint, pTimePoint);
+                               pState.getStackZStepVariable()
+                                     .get()
+                                     .doubleValue());
 
     lQueue.finalizeQueue();
 
+    return lQueue;
+  }
+
+  @Override
+  public boolean enqueue(long pTimePoint)
+  {
+    mCurrentState =
+                  (InterpolatedAcquisitionState) getLightSheetMicroscope().getAcquisitionStateManager()
+                                                                          .getCurrentState();
+
+    // the queue compiled for an earlier time point is reused as long as the
+    // acquisition state did not change:
+    final InterpolatedAcquisitionState lState = mCurrentState;
+    LightSheetMicroscopeQueue lQueue =
+                                     lState.getCompiledQueue("interleaved",
+                                                             () -> buildQueue(lState));
+    lQueue.addMetaDataEntry(MetaDataOrdinals.TimePoint, pTimePoint);
+
+    // acquire directly into stacks which can be handed over to the
+    // warehouse:
+    useWarehouseRecyclerForCameras();
+
     // acquire!
     boolean lPlayQueueAndWait = false;
     try
@@ -200,6 +216,10 @@ public class InterleavedAcquisitionInstruction extends
                              .put("interleaved_raw_" + pTimePoint,
                                   lContainer);
 
+    // in case the state changed while imaging, the queue for the next time
+    // point is compiled in the background already now:
+    lState.prepareCompiledQueue("interleaved", () -> buildQueue(lState));
+
     return true;
   }
 
@@ -143,6 +143,10 @@ public class OpticsPrefusedAcquisitionInstruction extends
 
     lQueue.finalizeQueue();
 
+    // acquire directly into stacks which can be handed over to the
+    // warehouse:
+    useWarehouseRecyclerForCameras();
+
     // acquire!
     boolean lPlayQueueAndWait = false;
     try
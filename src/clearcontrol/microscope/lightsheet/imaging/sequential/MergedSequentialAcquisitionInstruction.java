@@ -0,0 +1,296 @@
+package clearcontrol.microscope.lightsheet.imaging.sequential;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import clearcontrol.core.log.LoggingFeature;
+import clearcontrol.instructions.InstructionInterface;
+import clearcontrol.microscope.lightsheet.LightSheetMicroscope;
+import clearcontrol.microscope.lightsheet.LightSheetMicroscopeQueue;
+import clearcontrol.microscope.lightsheet.processor.MetaDataFusion;
+import clearcontrol.microscope.lightsheet.stacks.MetaDataView;
+import clearcontrol.microscope.lightsheet.state.InterpolatedAcquisitionState;
+import clearcontrol.microscope.stacks.metadata.MetaDataAcquisitionType;
+import clearcontrol.microscope.state.AcquisitionType;
+import clearcontrol.stack.StackInterface;
+import clearcontrol.stack.metadata.MetaDataChannel;
+import clearcontrol.stack.metadata.MetaDataOrdinals;
+import clearcontrol.stack.metadata.StackMetaData;
+
+/**
+ * This instruction acquires the same views as the
+ * SequentialAcquisitionInstruction, but all views of a time point are encoded
+ * in one queue which is played at once. The light sheets are switched from
+ * view to view by the signal generator, two planes with cameras off between
+ * the views give the galvos time to move back to the start of the stack.
+ *
+ * Every camera delivers one stack containing the planes of all views one after
+ * the other. This stack is split into one stack per view which are stored in a
+ * SequentialImageDataContainer with keys like:
+ *
+ * C0L0 C1L0 C0L1 C1L1
+ *
+ * Thus, fusion and saving instructions for sequential acquisition can be used
+ * without changes.
+ */
+public class MergedSequentialAcquisitionInstruction extends
+                                                    SequentialAcquisitionInstruction
+                                                    implements
+                                                    InstructionInterface,
+                                                    LoggingFeature
+{
+
+  /**
+   * INstanciates a virtual device with a given name
+   *
+   * @param pLightSheetMicroscope
+   *          microscope
+   */
+  public MergedSequentialAcquisitionInstruction(LightSheetMicroscope pLightSheetMicroscope)
+  {
+    super("Acquisition: Sequential (single queue)",
+          pLightSheetMicroscope);
+    mChannelName.set("sequential");
+  }
+
+  @Override
+  public boolean enqueue(long pTimePoint)
+  {
+    mCurrentState =
+                  (InterpolatedAcquisitionState) getLightSheetMicroscope().getAcquisitionStateManager()
+                                                                          .getCurrentState();
+    final InterpolatedAcquisitionState lState = mCurrentState;
+
+    final int[] lLightSheetIndices = getActiveLightSheetIndices();
+    if (lLightSheetIndices.length == 0)
+    {
+      warning("No light sheet is switched on, nothing to acquire.");
+      return false;
+    }
+
+    int lNumberOfImagesPerView =
+                               lState.getNumberOfZPlanesVariable()
+                                     .get()
+                                     .intValue();
+
+    LightSheetMicroscopeQueue lQueue =
+                                     lState.getCompiledQueue(getMergedQueueKey(lLightSheetIndices),
+                                                             () -> getQueueForAllLightSheets(lState,
+                                                                                             lLightSheetIndices));
+    lQueue.addMetaDataEntry(MetaDataOrdinals.TimePoint,
+                            mTimelapse.getTimePointCounterVariable()
+                                      .get());
+
+    // acquire all views at once:
+    try
+    {
+      mTimeStampBeforeImaging = System.nanoTime();
+      getLightSheetMicroscope().playQueueAndWait(lQueue,
+                                                 mTimelapse.getTimeOut(),
+                                                 TimeUnit.SECONDS);
+    }
+    catch (InterruptedException e)
+    {
+      e.printStackTrace();
+      return false;
+    }
+    catch (ExecutionException e)
+    {
+      e.printStackTrace();
+      return false;
+    }
+    catch (TimeoutException e)
+    {
+      e.printStackTrace();
+      return false;
+    }
+
+    // split the camera stacks into one stack per view:
+    SequentialImageDataContainer lContainer =
+                                            new SequentialImageDataContainer(getLightSheetMicroscope());
+    for (int d =
+               0; d < getLightSheetMicroscope().getNumberOfDetectionArms(); d++)
+    {
+      if (isCameraOn(d))
+      {
+        StackInterface lStack =
+                              getLightSheetMicroscope().getCameraStackVariable(d)
+                                                       .get();
+
+        long lExpectedDepth = (long) lNumberOfImagesPerView
+                              * lLightSheetIndices.length;
+        if (lStack.getDepth() != lExpectedDepth)
+        {
+          warning("Camera %d delivered %d planes, but %d were expected. Skipping time point.",
+                  d,
+                  lStack.getDepth(),
+                  lExpectedDepth);
+          return false;
+        }
+
+        for (int v = 0; v < lLightSheetIndices.length; v++)
+        {
+          int l = lLightSheetIndices[v];
+
+          StackMetaData lMetaData = lStack.getMetaData().clone();
+          lMetaData.addEntry(MetaDataView.LightSheet, l);
+          if (isFused())
+          {
+            lMetaData.addEntry(MetaDataFusion.RequestFullFusion, true);
+            lMetaData.addEntry(MetaDataChannel.Channel, "sequential");
+          }
+          else
+          {
+            lMetaData.addEntry(MetaDataChannel.Channel,
+                               MetaDataView.getCxLyString(lMetaData));
+          }
+
+          putStackInContainer("C" + d + "L" + l,
+                              lStack,
+                              (long) v * lNumberOfImagesPerView,
+                              lNumberOfImagesPerView,
+                              lMetaData,
+                              lContainer);
+        }
+      }
+    }
+
+    // store container in the DataWarehouse
+    getLightSheetMicroscope().getDataWarehouse()
+                             .put("sequential_raw_" + pTimePoint,
+                                  lContainer);
+
+    // in case the state changed while imaging, the queue for the next time
+    // point is compiled in the background already now:
+    lState.prepareCompiledQueue(getMergedQueueKey(lLightSheetIndices),
+                                () -> getQueueForAllLightSheets(lState,
+                                                                lLightSheetIndices));
+
+    return true;
+  }
+
+  private int[] getActiveLightSheetIndices()
+  {
+    ArrayList<Integer> lList = new ArrayList<>();
+    for (int l = 0; l < getLightSheetMicroscope().getNumberOfLightSheets(); l++)
+    {
+      if (isLightSheetOn(l))
+      {
+        lList.add(l);
+      }
+    }
+    int[] lIndices = new int[lList.size()];
+    for (int i = 0; i < lIndices.length; i++)
+    {
+      lIndices[i] = lList.get(i);
+    }
+    return lIndices;
+  }
+
+  private String getMergedQueueKey(int[] pLightSheetIndices)
+  {
+    StringBuilder lKey = new StringBuilder("merged sequential fused="
+                                           + isFused()
+                                           + " L");
+    for (int l : pLightSheetIndices)
+    {
+      lKey.append(l).append(' ');
+    }
+    return lKey.toString();
+  }
+
+  /**
+   * Builds a queue which images the stack once per given light sheet. The
+   * cameras record the views one after the other.
+   *
+   * @param pState
+   *          acquisition state
+   * @param pLightSheetIndices
+   *          light sheets to image with, in order
+   * @return finalized queue
+   */
+  protected LightSheetMicroscopeQueue getQueueForAllLightSheets(InterpolatedAcquisitionState pState,
+                                                                int[] pLightSheetIndices)
+  {
+    int lNumberOfImagesToTake = pState.getNumberOfZPlanesVariable()
+                                      .get()
+                                      .intValue();
+
+    int lImageWidth = pState.getImageWidthVariable()
+                            .get()
+                            .intValue();
+    int lImageHeight = pState.getImageHeightVariable()
+                             .get()
+                             .intValue();
+    double lExposureTimeInSeconds =
+                                  pState.getExposureInSecondsVariable()
+                                        .get()
+                                        .doubleValue();
+    double lZLow = pState.getStackZLowVariable().get().doubleValue();
+
+    LightSheetMicroscopeQueue lQueue =
+                                     getLightSheetMicroscope().requestQueue();
+    lQueue.clearQueue();
+    lQueue.setCenteredROI(lImageWidth, lImageHeight);
+    lQueue.setExp(lExposureTimeInSeconds);
+
+    info("acquiring merged stack from " + pState);
+
+    for (int l : pLightSheetIndices)
+    {
+      // move to the start of the stack, the cameras are off during these
+      // planes so that galvos and stages can settle:
+      goToInitialPosition(getLightSheetMicroscope(),
+                          lQueue,
+                          lZLow,
+                          lZLow);
+      // the exposure might have been prolonged to wait for the iris:
+      lQueue.setExp(lExposureTimeInSeconds);
+
+      for (int lImageCounter =
+                             0; lImageCounter < lNumberOfImagesToTake; lImageCounter++)
+      {
+        pState.applyAcquisitionStateAtStackPlane(lQueue,
+                                                 lImageCounter);
+        for (int k =
+                   0; k < getLightSheetMicroscope().getNumberOfLightSheets(); k++)
+        {
+          lQueue.setI(k, l == k);
+        }
+        lQueue.addCurrentStateToQueue();
+      }
+    }
+
+    // back to initial position
+    goToInitialPosition(getLightSheetMicroscope(),
+                        lQueue,
+                        lZLow,
+                        lZLow);
+
+    for (int c =
+               0; c < getLightSheetMicroscope().getNumberOfDetectionArms(); c++)
+    {
+      StackMetaData lMetaData = lQueue.getCameraDeviceQueue(c)
+                                      .getMetaDataVariable()
+                                      .get();
+
+      lMetaData.addEntry(MetaDataAcquisitionType.AcquisitionType,
+                         AcquisitionType.TimelapseSequential);
+      lMetaData.addEntry(MetaDataView.Camera, c);
+    }
+
+    lQueue.setTransitionTime(0.5);
+    lQueue.setFinalisationTime(0.005);
+    lQueue.finalizeQueue();
+
+    return lQueue;
+  }
+
+  @Override
+  public MergedSequentialAcquisitionInstruction copy()
+  {
+    return new MergedSequentialAcquisitionInstruction(getLightSheetMicroscope());
+  }
+}
@@ -1,6 +1,5 @@
 package clearcontrol.microscope.lightsheet.imaging.sequential;
 
-import java.util.HashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -67,31 +66,35 @@ public class SequentialAcquisitionInstruction extends
     int lNumberOfLightSheets =
                              getLightSheetMicroscope().getNumberOfLightSheets();
 
-    HashMap<Integer, LightSheetMicroscopeQueue> lViewToQueueMap =
-                                                                new HashMap<>();
-
     SequentialImageDataContainer lContainer =
                                             new SequentialImageDataContainer(getLightSheetMicroscope());
 
-    // preparing queues:
-    for (int l = 0; l < lNumberOfLightSheets; l++)
-      if (isLightSheetOn(l))
-      {
-        LightSheetMicroscopeQueue lQueueForView =
-                                                getQueueForSingleLightSheet(mCurrentState,
-                                                                            l);
+    // queues compiled for earlier time points are reused as long as the
+    // acquisition state did not change. Queues which need to be compiled are
+    // built on a worker thread, so that the queue of the next view is ready
+    // while the current one is playing:
+    final InterpolatedAcquisitionState lState = mCurrentState;
+    prepareQueues(lState);
 
-        lViewToQueueMap.put(l, lQueueForView);
-      }
+    // acquire directly into stacks which can be handed over to the
+    // warehouse:
+    useWarehouseRecyclerForCameras();
 
     // playing the queues in sequence:
 
+    long lTimeStampAfterPreviousView = 0;
     for (int l = 0; l < lNumberOfLightSheets; l++)
     {
       if (isLightSheetOn(l))
       {
+        final int lLightSheetIndex = l;
         LightSheetMicroscopeQueue lQueueForView =
-                                                lViewToQueueMap.get(l);
+                                                lState.getCompiledQueue(getQueueKey(l),
+                                                                        () -> getQueueForSingleLightSheet(lState,
+                                                                                                          lLightSheetIndex));
+        lQueueForView.addMetaDataEntry(MetaDataOrdinals.TimePoint,
+                                       mTimelapse.getTimePointCounterVariable()
+                                                 .get());
 
         for (int c = 0; c < lNumberOfDetectionArms; c++)
         {
@@ -129,6 +132,13 @@ public class SequentialAcquisitionInstruction extends
         try
         {
           mTimeStampBeforeImaging = System.nanoTime();
+          if (lTimeStampAfterPreviousView != 0)
+          {
+            double lGapInMilliseconds = (mTimeStampBeforeImaging
+                                         - lTimeStampAfterPreviousView)
+                                        * 1e-6;
+            info("Gap between views: %.1f ms", lGapInMilliseconds);
+          }
           getLightSheetMicroscope().playQueueAndWait(lQueueForView,
                                                      mTimelapse.getTimeOut(),
                                                      TimeUnit.SECONDS);
@@ -148,6 +158,7 @@ public class SequentialAcquisitionInstruction extends
           e.printStackTrace();
           return false;
         }
+        lTimeStampAfterPreviousView = System.nanoTime();
 
         // store results in a DataContainer
         for (int d =
@@ -173,12 +184,38 @@ public class SequentialAcquisitionInstruction extends
                              .put("sequential_raw_" + pTimePoint,
                                   lContainer);
 
+    // in case the state changed while imaging, the queues for the next time
+    // point are compiled in the background already now:
+    prepareQueues(lState);
+
     return true;
   }
 
+  private String getQueueKey(int pLightSheetIndex)
+  {
+    return "sequential L" + pLightSheetIndex + " fused=" + isFused();
+  }
+
+  private void prepareQueues(InterpolatedAcquisitionState pState)
+  {
+    for (int l = 0; l < getLightSheetMicroscope().getNumberOfLightSheets(); l++)
+      if (isLightSheetOn(l))
+      {
+        final int lLightSheetIndex = l;
+        pState.prepareCompiledQueue(getQueueKey(l),
+                                    () -> getQueueForSingleLightSheet(pState,
+                                                                      lLightSheetIndex));
+      }
+  }
+
   protected LightSheetMicroscopeQueue getQueueForSingleLightSheet(LightSheetAcquisitionStateInterface<?> pCurrentState,
                                                                   int pLightSheetIndex)
   {
+    // the state is passed explicitly, queues might be compiled on a worker
+    // thread while mCurrentState already points to another state:
+    InterpolatedAcquisitionState lState =
+                                        (InterpolatedAcquisitionState) pCurrentState;
+
     int lNumberOfDetectionArms =
                                getLightSheetMicroscope().getNumberOfDetectionArms();
 
@@ -187,45 +224,45 @@ public class SequentialAcquisitionInstruction extends
                              getLightSheetMicroscope().getNumberOfLightSheets();
 
     int lNumberOfImagesToTake =
-                              mCurrentState.getNumberOfZPlanesVariable()
-                                           .get()
-                                           .intValue();
+                              lState.getNumberOfZPlanesVariable()
+                                    .get()
+                                    .intValue();
 
     LightSheetMicroscopeQueue lQueue =
                                      getLightSheetMicroscope().requestQueue();
     lQueue.clearQueue();
 
-    int lImageWidth = mCurrentState.getImageWidthVariable()
-                                   .get()
-                                   .intValue();
-    int lImageHeight = mCurrentState.getImageHeightVariable()
-                                    .get()
-                                    .intValue();
+    int lImageWidth = lState.getImageWidthVariable()
+                            .get()
+                            .intValue();
+    int lImageHeight = lState.getImageHeightVariable()
+                             .get()
+                             .intValue();
     double lExposureTimeInSeconds =
-                                  mCurrentState.getExposureInSecondsVariable()
-                                               .get()
-                                               .doubleValue();
+                                  lState.getExposureInSecondsVariable()
+                                        .get()
+                                        .doubleValue();
 
     lQueue.setCenteredROI(lImageWidth, lImageHeight);
     lQueue.setExp(lExposureTimeInSeconds);
 
-    info("acquiring stack from " + mCurrentState);
+    info("acquiring stack from " + lState);
 
     // initial position
     goToInitialPosition(getLightSheetMicroscope(),
                         lQueue,
-                        mCurrentState.getStackZLowVariable()
-                                     .get()
-                                     .doubleValue(),
-                        mCurrentState.getStackZLowVariable()
-                                     .get()
-                                     .doubleValue());
+                        lState.getStackZLowVariable()
+                              .get()
+                              .doubleValue(),
+                        lState.getStackZLowVariable()
+                              .get()
+                              .doubleValue());
 
     for (int lImageCounter =
                            0; lImageCounter < lNumberOfImagesToTake; lImageCounter++)
     {
-      mCurrentState.applyAcquisitionStateAtStackPlane(lQueue,
-                                                      lImageCounter);
+      lState.applyAcquisitionStateAtStackPlane(lQueue,
+                                               lImageCounter);
       for (int k =
                  0; k < getLightSheetMicroscope().getNumberOfLightSheets(); k++)
       {
@@ -249,12 +286,12 @@ public class SequentialAcquisitionInstruction extends
     // initial position
     goToInitialPosition(getLightSheetMicroscope(),
                         lQueue,
-                        mCurrentState.getStackZLowVariable()
-                                     .get()
-                                     .doubleValue(),
-                        mCurrentState.getStackZLowVariable()
-                                     .get()
-                                     .doubleValue());
+                        lState.getStackZLowVariable()
+                              .get()
+                              .doubleValue(),
+                        lState.getStackZLowVariable()
+                              .get()
+                              .doubleValue());
 
     /*
     for (int l = 0; l < mLightSheetMicroscope.getNumberOfLightSheets(); l++)
@@ -266,9 +303,6 @@ public class SequentialAcquisitionInstruction extends
       info("Light sheet " + l + " H: " + lQueue.getIH(l));
     }
     */
-    lQueue.addMetaDataEntry(MetaDataOrdinals.TimePoint,
-                            mTimelapse.getTimePointCounterVariable()
-                                      .get());
 
     lQueue.setTransitionTime(0.5);
     lQueue.setFinalisationTime(0.005);
@@ -7,6 +7,8 @@ import clearcontrol.core.log.LoggingFeature;
 import clearcontrol.core.variable.Variable;
 import clearcontrol.core.variable.bounded.BoundedVariable;
 import clearcontrol.instructions.PropertyIOableInstructionInterface;
+import clearcontrol.instructions.PipelinableInstructionInterface;
+import clearcontrol.instructions.PipelineStage;
 import clearcontrol.microscope.lightsheet.LightSheetMicroscope;
 import clearcontrol.microscope.lightsheet.instructions.LightSheetMicroscopeInstructionBase;
 import clearcontrol.microscope.lightsheet.processor.fusion.FusedImageDataContainer;
@@ -24,7 +26,8 @@ public class SequentialSingleCameraFusionInstruction extends
                                                      LightSheetMicroscopeInstructionBase
                                                      implements
                                                      LoggingFeature,
-                                                     PropertyIOableInstructionInterface
+                                                     PropertyIOableInstructionInterface,
+                                                     PipelinableInstructionInterface
 {
 
   private BoundedVariable<Integer> cameraIndex =
@@ -141,4 +144,10 @@ public class SequentialSingleCameraFusionInstruction extends
   {
     return cameraIndex;
   }
+
+  @Override
+  public PipelineStage getPipelineStage()
+  {
+    return PipelineStage.Compute;
+  }
 }
@@ -37,8 +37,12 @@ public class WriteSingleLightSheetImageAsTifToDiscInstruction extends
   @Override
   public WriteSingleLightSheetImageAsTifToDiscInstruction copy()
   {
-    return new WriteSingleLightSheetImageAsTifToDiscInstruction(mDetectionArmIndex,
-                                                                mLightSheetIndex,
-                                                                getLightSheetMicroscope());
+    WriteSingleLightSheetImageAsTifToDiscInstruction copied =
+                                                            new WriteSingleLightSheetImageAsTifToDiscInstruction(mDetectionArmIndex,
+                                                                                                                 mLightSheetIndex,
+                                                                                                                 getLightSheetMicroscope());
+    copied.getCompressionVariable()
+          .set(getCompressionVariable().get());
+    return copied;
   }
 }
\ No newline at end of file
@@ -0,0 +1,72 @@
+package clearcontrol.microscope.lightsheet.imaging.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import clearcontrol.microscope.lightsheet.imaging.HandOverStackRecycler;
+import clearcontrol.stack.StackInterface;
+import clearcontrol.stack.StackRequest;
+
+import org.junit.Test;
+
+/**
+ * Checks that camera stacks handed over to containers only go back to the
+ * recycler once both the stack pipeline and the container released them.
+ */
+public class HandOverStackRecyclerTests
+{
+  private static final StackRequest cRequest =
+                                             StackRequest.build(32, 32, 4);
+
+  @Test
+  public void testHandOverAndRelease()
+  {
+    HandOverStackRecycler lRecycler = new HandOverStackRecycler(4, 4);
+    StackInterface lStack = lRecycler.getOrWait(1,
+                                                TimeUnit.SECONDS,
+                                                cRequest);
+    assertEquals(1, lRecycler.getReferenceCount(lStack));
+
+    // the container claims the stack
+    assertTrue(lRecycler.claim(lStack));
+    assertEquals(2, lRecycler.getReferenceCount(lStack));
+
+    // the pipeline is done with it, the camera must not get it again
+    lStack.release();
+    assertFalse(lStack.isReleased());
+    assertEquals(0, lRecycler.getNumberOfAvailableObjects());
+    StackInterface lNextCameraStack =
+                                    lRecycler.getOrWait(1,
+                                                        TimeUnit.SECONDS,
+                                                        cRequest);
+    assertNotSame(lStack, lNextCameraStack);
+    lNextCameraStack.release();
+
+    // the container is recycled
+    lStack.release();
+    assertTrue(lStack.isReleased());
+    assertEquals(0, lRecycler.getReferenceCount(lStack));
+    assertEquals(2, lRecycler.getNumberOfAvailableObjects());
+  }
+
+  @Test
+  public void testReleasedStacksCannotBeClaimed()
+  {
+    HandOverStackRecycler lRecycler = new HandOverStackRecycler(4, 4);
+    StackInterface lStack = lRecycler.getOrWait(1,
+                                                TimeUnit.SECONDS,
+                                                cRequest);
+    lStack.release();
+    assertFalse(lRecycler.claim(lStack));
+
+    // reused for the next acquisition, it can be claimed again
+    assertSame(lStack,
+               lRecycler.getOrWait(1, TimeUnit.SECONDS, cRequest));
+    assertTrue(lRecycler.claim(lStack));
+  }
+}
@@ -13,8 +13,13 @@ import clearcontrol.core.log.LoggingFeature;
 import clearcontrol.core.variable.Variable;
 import clearcontrol.core.variable.bounded.BoundedVariable;
 import clearcontrol.instructions.PropertyIOableInstructionInterface;
+import clearcontrol.instructions.PipelinableInstructionInterface;
+import clearcontrol.instructions.PipelineStage;
 import clearcontrol.microscope.lightsheet.LightSheetMicroscope;
 import clearcontrol.microscope.lightsheet.instructions.LightSheetMicroscopeInstructionBase;
+import clearcontrol.microscope.lightsheet.processor.cpu.CpuFallback;
+import clearcontrol.microscope.lightsheet.processor.cpu.CpuFusionImage;
+import clearcontrol.microscope.lightsheet.processor.cpu.CpuFusionOperations;
 import clearcontrol.microscope.lightsheet.warehouse.containers.StackInterfaceContainer;
 import clearcontrol.microscope.stacks.metadata.MetaDataAcquisitionType;
 import clearcontrol.microscope.state.AcquisitionType;
@@ -30,7 +35,8 @@ import clearcontrol.stack.metadata.StackMetaData;
  * Assumptions: - The cameras deliver images of type UnsignedShort - All Images
  * in the container have the same size
  *
- * Thus, it can be used to fuse images resulting from sequential imaging.
+ * Thus, it can be used to fuse images resulting from sequential imaging. If no
+ * OpenCL device is available, the fusion is computed on the CPU.
  *
  * Author: @haesleinhuepf August 2018
  */
@@ -38,7 +44,8 @@ public class TenengradFusionPerCameraInstruction extends
                                                  LightSheetMicroscopeInstructionBase
                                                  implements
                                                  LoggingFeature,
-                                                 PropertyIOableInstructionInterface
+                                                 PropertyIOableInstructionInterface,
+                                                 PipelinableInstructionInterface
 {
 
   private BoundedVariable<Double> blurWeightSigmaX =
@@ -87,6 +94,11 @@ public class TenengradFusionPerCameraInstruction extends
   @Override
   public boolean enqueue(long pTimePoint)
   {
+    if (!CpuFallback.isOpenCLAvailable())
+    {
+      return enqueueOnCpu(pTimePoint);
+    }
+
     ClearCLIJ clij = ClearCLIJ.getInstance();
 
     StackInterfaceContainer containerIn =
@@ -192,6 +204,72 @@ public class TenengradFusionPerCameraInstruction extends
     return true;
   }
 
+  private boolean enqueueOnCpu(long pTimePoint)
+  {
+    StackInterfaceContainer containerIn =
+                                        getLightSheetMicroscope().getDataWarehouse()
+                                                                 .getOldestContainer(StackInterfaceContainer.class);
+
+    float[] weightBlurSigmas =
+    { blurWeightSigmaX.get().floatValue(),
+      blurWeightSigmaY.get().floatValue(),
+      blurWeightSigmaZ.get().floatValue() };
+
+    TenengradFusedStackInterfaceContainer containerOut =
+                                                       new TenengradFusedStackInterfaceContainer(pTimePoint);
+
+    for (int c =
+               0; c < getLightSheetMicroscope().getNumberOfDetectionArms(); c++)
+    {
+      ArrayList<CpuFusionImage> images = new ArrayList<CpuFusionImage>();
+
+      StackMetaData metaData = null;
+      for (String key : containerIn.keySet())
+      {
+        if (key.toLowerCase().startsWith("c" + c))
+        {
+          StackInterface stack = containerIn.get(key);
+          metaData = stack.getMetaData().clone();
+          images.add(CpuFusionImage.fromStack(stack));
+        }
+      }
+
+      if (images.size() == 0)
+      {
+        warning("No images found for camera c" + c);
+        continue;
+      }
+
+      info("Fusing " + images.size() + " images on CPU");
+
+      CpuFusionImage[] imagesIn = new CpuFusionImage[images.size()];
+      images.toArray(imagesIn);
+      StackInterface result =
+                            CpuFusionOperations.tenengradFusion(weightBlurSigmas,
+                                                                weightExponent.get()
+                                                                              .floatValue(),
+                                                                imagesIn)
+                                               .toStack();
+      result.setMetaData(metaData);
+      result.getMetaData().removeEntry(MetaDataChannel.Channel);
+      result.getMetaData().addEntry(MetaDataChannel.Channel,
+                                    "tenengrad_fused");
+      result.getMetaData()
+            .removeEntry(MetaDataAcquisitionType.AcquisitionType);
+      result.getMetaData()
+            .addEntry(MetaDataAcquisitionType.AcquisitionType,
+                      AcquisitionType.TimelapseSequential);
+
+      containerOut.put("C" + c + "_tenengrad_fused", result);
+    }
+
+    getLightSheetMicroscope().getDataWarehouse()
+                             .put("tenengrad_fused_" + pTimePoint,
+                                  containerOut);
+
+    return true;
+  }
+
   @Override
   public TenengradFusionPerCameraInstruction copy()
   {
@@ -227,4 +305,10 @@ public class TenengradFusionPerCameraInstruction extends
       getBlurWeightSigmaZ(),
       getWeightExponent() };
   }
+
+  @Override
+  public PipelineStage getPipelineStage()
+  {
+    return PipelineStage.Compute;
+  }
 }
@@ -19,6 +19,8 @@ import clearcontrol.core.log.LoggingFeature;
 import clearcontrol.core.variable.Variable;
 import clearcontrol.instructions.InstructionInterface;
 import clearcontrol.instructions.PropertyIOableInstructionInterface;
+import clearcontrol.instructions.PipelinableInstructionInterface;
+import clearcontrol.instructions.PipelineStage;
 import clearcontrol.microscope.lightsheet.LightSheetMicroscope;
 import clearcontrol.microscope.lightsheet.instructions.LightSheetMicroscopeInstructionBase;
 import clearcontrol.microscope.lightsheet.postprocessing.containers.FocusMeasuresContainer;
@@ -46,7 +48,8 @@ public class MeasureImageQualityInstruction extends
                                             LightSheetMicroscopeInstructionBase
                                             implements
                                             LoggingFeature,
-                                            PropertyIOableInstructionInterface
+                                            PropertyIOableInstructionInterface,
+                                            PipelinableInstructionInterface
 {
 
   private Variable<String> mKeyMustContainString =
@@ -321,4 +324,10 @@ public class MeasureImageQualityInstruction extends
     variables[i] = mKeyMustContainString;
     return variables;
   }
+
+  @Override
+  public PipelineStage getPipelineStage()
+  {
+    return PipelineStage.Compute;
+  }
 }
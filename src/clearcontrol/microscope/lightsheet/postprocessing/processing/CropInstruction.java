@@ -7,6 +7,11 @@ import clearcontrol.core.variable.Variable;
 import clearcontrol.core.variable.bounded.BoundedVariable;
 import clearcontrol.instructions.InstructionInterface;
 import clearcontrol.instructions.PropertyIOableInstructionInterface;
+import clearcontrol.instructions.PipelinableInstructionInterface;
+import clearcontrol.instructions.PipelineStage;
+import clearcontrol.microscope.lightsheet.processor.cpu.CpuFallback;
+import clearcontrol.microscope.lightsheet.processor.cpu.CpuFusionImage;
+import clearcontrol.microscope.lightsheet.processor.cpu.CpuFusionOperations;
 import clearcontrol.microscope.lightsheet.warehouse.DataWarehouse;
 import clearcontrol.microscope.lightsheet.warehouse.containers.StackInterfaceContainer;
 import clearcontrol.microscope.lightsheet.warehouse.instructions.DataWarehouseInstructionBase;
@@ -15,13 +20,15 @@ import clearcontrol.stack.StackInterface;
 /**
  * The CropInstruction takes a StackInterfaceContainer from the DataWarehouse,
  * crops all images in it according to its configuration and put the result back
- * to the DataWarehouse in a new container.
+ * to the DataWarehouse in a new container. If no OpenCL device is available,
+ * cropping is done on the CPU.
  *
  * Author: @haesleinhuepf 06 2018
  */
 public class CropInstruction extends DataWarehouseInstructionBase
                              implements
-                             PropertyIOableInstructionInterface
+                             PropertyIOableInstructionInterface,
+                             PipelinableInstructionInterface
 {
 
   private BoundedVariable<Integer> mCropXVariable =
@@ -93,6 +100,22 @@ public class CropInstruction extends DataWarehouseInstructionBase
     {
       StackInterface lStack = lSourceContainer.get(key);
 
+      if (!CpuFallback.isOpenCLAvailable())
+      {
+        StackInterface lCroppedStack =
+                                     CpuFusionOperations.crop(CpuFusionImage.fromStack(lStack),
+                                                              mCropXVariable.get(),
+                                                              mCropYVariable.get(),
+                                                              mCropZVariable.get(),
+                                                              mCropWidthVariable.get(),
+                                                              mCropHeightVariable.get(),
+                                                              mCropDepthVariable.get())
+                                                        .toStack();
+        lCroppedStack.copyMetaDataFrom(lStack);
+        lTargetContainer.put(key, lCroppedStack);
+        continue;
+      }
+
       ClearCLIJ clij = ClearCLIJ.getInstance();
       ClearCLImage src = clij.converter(lStack).getClearCLImage();
       ClearCLImage dst = clij.createCLImage(new long[]
@@ -172,4 +195,10 @@ public class CropInstruction extends DataWarehouseInstructionBase
       getCropHeightVariable(),
       getCropDepthVariable() };
   }
+
+  @Override
+  public PipelineStage getPipelineStage()
+  {
+    return PipelineStage.Compute;
+  }
 }
@@ -6,6 +6,11 @@ import clearcl.imagej.kernels.Kernels;
 import clearcontrol.core.variable.Variable;
 import clearcontrol.core.variable.bounded.BoundedVariable;
 import clearcontrol.instructions.PropertyIOableInstructionInterface;
+import clearcontrol.instructions.PipelinableInstructionInterface;
+import clearcontrol.instructions.PipelineStage;
+import clearcontrol.microscope.lightsheet.processor.cpu.CpuFallback;
+import clearcontrol.microscope.lightsheet.processor.cpu.CpuFusionImage;
+import clearcontrol.microscope.lightsheet.processor.cpu.CpuFusionOperations;
 import clearcontrol.microscope.lightsheet.warehouse.DataWarehouse;
 import clearcontrol.microscope.lightsheet.warehouse.containers.StackInterfaceContainer;
 import clearcontrol.microscope.lightsheet.warehouse.instructions.DataWarehouseInstructionBase;
@@ -21,7 +26,8 @@ import clearcontrol.stack.StackInterface;
 public class DownsampleInstruction extends
                                    DataWarehouseInstructionBase
                                    implements
-                                   PropertyIOableInstructionInterface
+                                   PropertyIOableInstructionInterface,
+                                   PipelinableInstructionInterface
 {
 
   private BoundedVariable<Double> mDownSampleFactorX =
@@ -74,6 +80,21 @@ public class DownsampleInstruction extends
     {
       StackInterface stack = lContainer.get(key);
 
+      if (!CpuFallback.isOpenCLAvailable())
+      {
+        stack =
+              CpuFusionOperations.downsample(CpuFusionImage.fromStack(stack),
+                                             mDownSampleFactorX.get()
+                                                               .floatValue(),
+                                             mDownSampleFactorY.get()
+                                                               .floatValue(),
+                                             mDownSampleFactorZ.get()
+                                                               .floatValue())
+                                 .toStack();
+        lResultContainer.put(key, stack);
+        continue;
+      }
+
       ClearCLIJ clij = ClearCLIJ.getInstance();
 
       ClearCLImage lCLImage = clij.converter(stack).getClearCLImage();
@@ -138,4 +159,10 @@ public class DownsampleInstruction extends
   {
     return mDownSampleFactorZ;
   }
+
+  @Override
+  public PipelineStage getPipelineStage()
+  {
+    return PipelineStage.Compute;
+  }
 }
@@ -1,5 +1,6 @@
 package clearcontrol.microscope.lightsheet.processor;
 
+import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
 
@@ -11,6 +12,8 @@ import clearcontrol.core.variable.Variable;
 import clearcontrol.core.variable.bounded.BoundedVariable;
 import clearcontrol.gui.jfx.custom.visualconsole.VisualConsoleInterface;
 import clearcontrol.microscope.lightsheet.LightSheetMicroscope;
+import clearcontrol.microscope.lightsheet.processor.cpu.CpuFastFusionEngine;
+import clearcontrol.microscope.lightsheet.processor.cpu.CpuFusionImage;
 import clearcontrol.microscope.lightsheet.stacks.MetaDataView;
 import clearcontrol.microscope.lightsheet.stacks.MetaDataViewFlags;
 import clearcontrol.microscope.stacks.metadata.MetaDataAcquisitionType;
@@ -27,7 +30,8 @@ import coremem.recycling.RecyclerInterface;
 import org.apache.commons.lang3.tuple.Triple;
 
 /**
- * Lightsheet fusion processor
+ * Lightsheet fusion processor. If no OpenCL device is available, fusion is
+ * done by a multi-threaded CPU engine instead.
  *
  * @author royer
  */
@@ -40,6 +44,7 @@ public class LightSheetFastFusionProcessor extends
 {
   private final LightSheetMicroscope mLightSheetMicroscope;
   private LightSheetFastFusionEngine mEngine;
+  private CpuFastFusionEngine mCpuEngine;
 
   ConcurrentLinkedQueue<Triple<Integer, StackMetaData, ClearCLImage>> mFusedStackQueue =
                                                                                        new ConcurrentLinkedQueue<>();
@@ -97,21 +102,131 @@ public class LightSheetFastFusionProcessor extends
 
   public void initializeEngine()
   {
-    if (mEngine == null)
+    if (mEngine != null || mCpuEngine != null)
     {
-      mEngine =
-              new LightSheetFastFusionEngine(getContext(),
-                                             (VisualConsoleInterface) this,
-                                             mLightSheetMicroscope.getNumberOfLightSheets(),
-                                             mLightSheetMicroscope.getNumberOfDetectionArms());
+      return;
     }
+    if (getContext() != null)
+    {
+      try
+      {
+        mEngine =
+                new LightSheetFastFusionEngine(getContext(),
+                                               (VisualConsoleInterface) this,
+                                               mLightSheetMicroscope.getNumberOfLightSheets(),
+                                               mLightSheetMicroscope.getNumberOfDetectionArms());
+        return;
+      }
+      catch (Throwable e)
+      {
+        warning("Could not set up GPU fusion engine, falling back to CPU: %s",
+                e.toString());
+        mEngine = null;
+      }
+    }
+    else
+    {
+      warning("No OpenCL context available, fusing on CPU");
+    }
+    mCpuEngine =
+               new CpuFastFusionEngine(mLightSheetMicroscope.getNumberOfLightSheets(),
+                                       mLightSheetMicroscope.getNumberOfDetectionArms());
   }
 
   public void reInitializeEngine()
   {
-    mEngine.setSubtractingBackground(mBackgroundSubtractionSwitchVariable.get());
-    mEngine.setup(mLightSheetMicroscope.getNumberOfLightSheets(),
-                  mLightSheetMicroscope.getNumberOfDetectionArms());
+    if (isUsingCpuFallback())
+    {
+      mCpuEngine.setSubtractingBackground(mBackgroundSubtractionSwitchVariable.get());
+    }
+    else
+    {
+      mEngine.setSubtractingBackground(mBackgroundSubtractionSwitchVariable.get());
+    }
+    setupEngine(mLightSheetMicroscope.getNumberOfLightSheets(),
+                mLightSheetMicroscope.getNumberOfDetectionArms());
+  }
+
+  /**
+   * Sets up the task graph of the engine in use for a given number of light
+   * sheets and detection arms
+   *
+   * @param pNumberOfLightSheets
+   *          number of lightsheets
+   * @param pNumberOfDetectionArms
+   *          number of detection arms
+   */
+  public void setupEngine(int pNumberOfLightSheets,
+                          int pNumberOfDetectionArms)
+  {
+    initializeEngine();
+    if (isUsingCpuFallback())
+    {
+      mCpuEngine.setup(pNumberOfLightSheets, pNumberOfDetectionArms);
+    }
+    else
+    {
+      mEngine.setup(pNumberOfLightSheets, pNumberOfDetectionArms);
+    }
+  }
+
+  /**
+   * Resets the engine in use, if it has been initialized
+   *
+   * @param pCloseImages
+   *          true if images should be closed
+   */
+  public void resetEngine(boolean pCloseImages)
+  {
+    if (mCpuEngine != null)
+    {
+      mCpuEngine.reset(pCloseImages);
+    }
+    if (mEngine != null)
+    {
+      mEngine.reset(pCloseImages);
+    }
+  }
+
+  /**
+   * Executes all tasks of the engine in use which are ready to run
+   *
+   * @return number of executed tasks
+   */
+  public int executeAllTasks()
+  {
+    initializeEngine();
+    if (isUsingCpuFallback())
+    {
+      return mCpuEngine.executeAllTasks();
+    }
+    return mEngine.executeAllTasks();
+  }
+
+  /**
+   * Returns the keys of the images the engine in use holds
+   *
+   * @return image keys
+   */
+  public Set<String> getAvailableImagesSlotKeys()
+  {
+    initializeEngine();
+    if (isUsingCpuFallback())
+    {
+      return mCpuEngine.getAvailableImagesSlotKeys();
+    }
+    return mEngine.getAvailableImagesSlotKeys();
+  }
+
+  /**
+   * Returns true if fusion runs on the CPU because no OpenCL device could be
+   * used
+   *
+   * @return true if the CPU engine is in use
+   */
+  public boolean isUsingCpuFallback()
+  {
+    return mCpuEngine != null;
   }
 
   public synchronized StackInterface process(StackInterface pStack,
@@ -120,13 +235,20 @@ public class LightSheetFastFusionProcessor extends
     info("forwarding "
          + pStack.getMetaData().getValue(MetaDataChannel.Channel));
     boolean lEngineNeedsInitialisation = false;
-    if (mEngine == null)
+    if (mEngine == null && mCpuEngine == null)
     {
       initializeEngine();
 
       lEngineNeedsInitialisation = true;
     }
 
+    if (isUsingCpuFallback())
+    {
+      return processOnCpu(pStack,
+                          pStackRecycler,
+                          lEngineNeedsInitialisation);
+    }
+
     if (mEngine.isSubtractingBackground() != mBackgroundSubtractionSwitchVariable.get())
     /* // todo: there is no checkbox for registration and downscaline mEngine.isRegistration() != ... || */
     {
@@ -285,6 +407,101 @@ public class LightSheetFastFusionProcessor extends
     return null;
   }
 
+  private StackInterface processOnCpu(StackInterface pStack,
+                                      RecyclerInterface<StackInterface, StackRequest> pStackRecycler,
+                                      boolean pEngineNeedsInitialisation)
+  {
+    if (pEngineNeedsInitialisation
+        || mCpuEngine.isSubtractingBackground() != mBackgroundSubtractionSwitchVariable.get())
+    {
+      reInitializeEngine();
+    }
+
+    if (isPassThrough(pStack))
+    {
+      info("pass-through mode on, passing stack untouched: %s",
+           pStack);
+      return pStack;
+    }
+
+    if (mCpuEngine.isDownscale() && pStack.getMetaData() != null
+        && pStack.getMetaData().getVoxelDimX() != null
+        && pStack.getMetaData().getVoxelDimY() != null)
+    {
+      double lVoxelDimX = pStack.getMetaData().getVoxelDimX();
+      double lVoxelDimY = pStack.getMetaData().getVoxelDimY();
+
+      pStack.getMetaData().setVoxelDimX(2 * lVoxelDimX);
+      pStack.getMetaData().setVoxelDimY(2 * lVoxelDimY);
+    }
+
+    boolean lPerCameraFusion =
+                             pStack.getMetaData()
+                                   .hasEntry(MetaDataFusion.RequestPerCameraFusion);
+    mCpuEngine.passStack(pStack);
+
+    ElapsedTime.measureForceOutput("CpuFuseTaskExecution", () -> {
+      int lNumberOfTasksExecuted = mCpuEngine.executeAllTasks();
+      info("executed %d fusion tasks on CPU", lNumberOfTasksExecuted);
+    });
+
+    if (lPerCameraFusion)
+    {
+      int lNumberOfDetectionArms =
+                                 mLightSheetMicroscope.getNumberOfDetectionArms();
+      for (int c = 0; c < lNumberOfDetectionArms; c++)
+      {
+        CpuFusionImage lImage = mCpuEngine.getImage("C" + c);
+        if (lImage != null)
+        {
+          StackInterface lStack =
+                                copyFusedStack(pStackRecycler,
+                                               lImage,
+                                               mCpuEngine.getFusedMetaData(),
+                                               "C" + c);
+          lStack.getMetaData().addEntry(MetaDataView.Camera, c);
+          return lStack;
+        }
+      }
+    }
+    else if (mCpuEngine.isDone())
+    {
+      return copyFusedStack(pStackRecycler,
+                            mCpuEngine.getImage("fused"),
+                            mCpuEngine.getFusedMetaData(),
+                            null);
+    }
+
+    return null;
+  }
+
+  private StackInterface copyFusedStack(RecyclerInterface<StackInterface, StackRequest> pStackRecycler,
+                                        CpuFusionImage pFusedImage,
+                                        StackMetaData pStackMetaData,
+                                        String pChannel)
+  {
+    mFusedStack =
+                pStackRecycler.getOrWait(1000,
+                                         TimeUnit.SECONDS,
+                                         StackRequest.build(pFusedImage.getDimensions()));
+
+    mFusedStack.setMetaData(pStackMetaData);
+    mFusedStack.getMetaData().addEntry(MetaDataFusion.Fused, true);
+    if (pChannel != null)
+      mFusedStack.getMetaData().addEntry(MetaDataChannel.Channel,
+                                         pChannel);
+    mFusedStack.getMetaData().removeAllEntries(MetaDataView.class);
+    mFusedStack.getMetaData()
+               .removeAllEntries(MetaDataViewFlags.class);
+    mFusedStack.getMetaData().removeEntry(MetaDataOrdinals.Index);
+
+    pFusedImage.writeTo(mFusedStack);
+
+    mCpuEngine.reset(false);
+
+    return mFusedStack;
+  }
+
   /**
    * This function has been marked as deprecated, because it does a lot more
    * things than its name suggests. Stack saving has been moved to a new class,
@@ -0,0 +1,43 @@
+package clearcontrol.microscope.lightsheet.processor.cpu;
+
+import clearcl.imagej.ClearCLIJ;
+
+/**
+ * Tells whether image processing instructions can use ClearCLIJ or have to
+ * fall back to the CPU implementations in this package. The check is done
+ * once and cached.
+ */
+public class CpuFallback
+{
+  private static volatile Boolean mOpenCLAvailable = null;
+
+  /**
+   * Returns true if ClearCLIJ could be instantiated, i.e. an OpenCL device is
+   * available
+   *
+   * @return true if OpenCL can be used
+   */
+  public static boolean isOpenCLAvailable()
+  {
+    if (mOpenCLAvailable == null)
+    {
+      synchronized (CpuFallback.class)
+      {
+        if (mOpenCLAvailable == null)
+        {
+          boolean lAvailable;
+          try
+          {
+            lAvailable = ClearCLIJ.getInstance() != null;
+          }
+          catch (Throwable e)
+          {
+            lAvailable = false;
+          }
+          mOpenCLAvailable = lAvailable;
+        }
+      }
+    }
+    return mOpenCLAvailable;
+  }
+}
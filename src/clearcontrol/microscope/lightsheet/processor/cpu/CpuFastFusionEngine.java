@@ -0,0 +1,419 @@
+package clearcontrol.microscope.lightsheet.processor.cpu;
+
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import clearcontrol.core.configuration.MachineConfiguration;
+import clearcontrol.core.log.LoggingFeature;
+import clearcontrol.microscope.lightsheet.stacks.MetaDataView;
+import clearcontrol.stack.StackInterface;
+import clearcontrol.stack.metadata.StackMetaData;
+
+/**
+ * Multi-threaded pure Java counterpart of the LightSheetFastFusionEngine. It
+ * is used when no OpenCL device is available and sets up the same task graph
+ * for the supported light sheet / detection arm configurations: XY
+ * downscaling, splitting of interleaved stacks, Tenengrad weighted fusion,
+ * mirroring / transforming the second camera and optional background
+ * subtraction.
+ *
+ * The registration optimisation of fastfuse is not ported: the second camera
+ * is transformed with the registration transform, which defaults to the
+ * mirroring along X the GPU registration starts from and can be set, e.g.
+ * to a transform found on a machine with GPU.
+ *
+ * Within the tolerance of float arithmetic, downscaling, splitting and
+ * mirroring give the same results as on the GPU (+/-1 grey value after
+ * conversion to 16 bit). Blur based steps (fusion weights, background) are
+ * computed with clamped borders and normalised kernels truncated at 3 sigma,
+ * fused images are expected to stay within 1% of the GPU result.
+ */
+public class CpuFastFusionEngine implements LoggingFeature
+{
+  private volatile boolean mRegistration =
+                                         MachineConfiguration.get()
+                                                             .getBooleanProperty("fastfuse.register",
+                                                                                 true);
+
+  private volatile boolean mBackgroundSubtraction =
+                                                  MachineConfiguration.get()
+                                                                      .getBooleanProperty("fastfuse.backgroundsubtraction",
+                                                                                          false);
+
+  private volatile boolean mDownscale =
+                                      MachineConfiguration.get()
+                                                          .getBooleanProperty("fastfuse.downscale",
+                                                                              true);
+
+  private final float[] mKernelSigmasFusion = new float[]
+  { 15, 15, 5 };
+  private final float[] mKernelSigmasTenengrad = new float[]
+  { 2, 2, 1 };
+  private final float[] mKernelSigmasBackground = new float[]
+  { 30, 30, 10 };
+
+  private volatile double[] mRegistrationTransform = new double[]
+  { -1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0 };
+  private volatile double mScaleZ = 1;
+
+  private final ConcurrentHashMap<String, CpuFusionImage> mImages =
+                                                                  new ConcurrentHashMap<>();
+  private final ArrayList<Task> mTasks = new ArrayList<>();
+
+  private StackMetaData mFusedStackMetaData = new StackMetaData();
+
+  private static class Task
+  {
+    final String[] mInputKeys;
+    final String[] mOutputKeys;
+    final Function<CpuFusionImage[], CpuFusionImage[]> mFunction;
+
+    Task(String[] pInputKeys,
+         String[] pOutputKeys,
+         Function<CpuFusionImage[], CpuFusionImage[]> pFunction)
+    {
+      mInputKeys = pInputKeys;
+      mOutputKeys = pOutputKeys;
+      mFunction = pFunction;
+    }
+  }
+
+  /**
+   * Instantiates a CPU fusion engine
+   *
+   * @param pNumberOfLightSheets
+   *          number of lightsheets
+   * @param pNumberOfDetectionArms
+   *          number of detection arms
+   */
+  public CpuFastFusionEngine(int pNumberOfLightSheets,
+                             int pNumberOfDetectionArms)
+  {
+    setup(pNumberOfLightSheets, pNumberOfDetectionArms);
+  }
+
+  public synchronized void setup(int pNumberOfLightSheets,
+                                 int pNumberOfDetectionArms)
+  {
+    reset(true);
+    mTasks.clear();
+
+    if (pNumberOfDetectionArms == 1)
+    {
+      String[] lViews = new String[pNumberOfLightSheets];
+      for (int l = 0; l < pNumberOfLightSheets; l++)
+      {
+        lViews[l] = "C0L" + l;
+      }
+      if (pNumberOfLightSheets == 1)
+      {
+        addDownscaleTask("C0L0", "fused");
+        return;
+      }
+      addDownscaleTasks(lViews);
+      addTenengradFusionTask("fused",
+                             mKernelSigmasTenengrad,
+                             withSuffix("d", lViews));
+    }
+    else if (pNumberOfDetectionArms == 2)
+    {
+      if (pNumberOfLightSheets == 1)
+      {
+        addDownscaleTasks("C0L0", "C1L0");
+        addIdentityTask("C0L0d", "C0");
+        addIdentityTask("C1L0d", "C1");
+      }
+      else
+      {
+        for (int c = 0; c < 2; c++)
+        {
+          String[] lViews = new String[pNumberOfLightSheets];
+          for (int l = 0; l < pNumberOfLightSheets; l++)
+          {
+            lViews[l] = "C" + c + "L" + l;
+          }
+          if (pNumberOfLightSheets == 4)
+          {
+            // optically camera-fused and interleaved acquisitions
+            addDownscaleTask("C" + c + "opticallycamerafused",
+                             "C" + c);
+            addSplitTask("C" + c + "interleaved",
+                         withSuffix("d", lViews));
+          }
+          addDownscaleTasks(lViews);
+          addTenengradFusionTask("C" + c,
+                                 pNumberOfLightSheets == 4 ? mKernelSigmasFusion
+                                                           : mKernelSigmasTenengrad,
+                                 withSuffix("d", lViews));
+        }
+      }
+
+      addTask(new String[]
+      { "C1" }, new String[]
+      { "C1adjusted" },
+              (i) -> new CpuFusionImage[]
+              { isRegistration() ? CpuFusionOperations.affineTransform(i[0],
+                                                                       mRegistrationTransform,
+                                                                       mScaleZ)
+                                 : CpuFusionOperations.flipX(i[0]) });
+
+      String lFusedKey = isSubtractingBackground() ? "fused-preliminary"
+                                                   : "fused";
+      addTenengradFusionTask(lFusedKey,
+                             pNumberOfLightSheets == 4 ? mKernelSigmasFusion
+                                                       : mKernelSigmasTenengrad,
+                             "C0",
+                             "C1adjusted");
+      if (isSubtractingBackground())
+      {
+        addTask(new String[]
+        { "fused-preliminary" }, new String[]
+        { "fused" },
+                (i) -> new CpuFusionImage[]
+                { CpuFusionOperations.subtractBlurredCopy(i[0],
+                                                          mKernelSigmasBackground) });
+      }
+    }
+  }
+
+  private void addTask(String[] pInputKeys,
+                       String[] pOutputKeys,
+                       Function<CpuFusionImage[], CpuFusionImage[]> pFunction)
+  {
+    mTasks.add(new Task(pInputKeys, pOutputKeys, pFunction));
+  }
+
+  private void addIdentityTask(String pInputKey, String pOutputKey)
+  {
+    addTask(new String[]
+    { pInputKey }, new String[]
+    { pOutputKey }, (i) -> i);
+  }
+
+  private void addDownscaleTasks(String... pKeys)
+  {
+    for (String lKey : pKeys)
+    {
+      addDownscaleTask(lKey, lKey + "d");
+    }
+  }
+
+  private void addDownscaleTask(String pInputKey, String pOutputKey)
+  {
+    addTask(new String[]
+    { pInputKey }, new String[]
+    { pOutputKey },
+            (i) -> new CpuFusionImage[]
+            { isDownscale() ? CpuFusionOperations.downsampleXYbyHalf(i[0],
+                                                                     false)
+                            : i[0] });
+  }
+
+  private void addSplitTask(String pInputKey, String... pOutputKeys)
+  {
+    addTask(new String[]
+    { pInputKey }, pOutputKeys, (i) -> {
+      CpuFusionImage[] lSplit =
+                              CpuFusionOperations.split(i[0],
+                                                        pOutputKeys.length);
+      for (int n = 0; n < lSplit.length && isDownscale(); n++)
+      {
+        lSplit[n] = CpuFusionOperations.downsampleXYbyHalf(lSplit[n],
+                                                           false);
+      }
+      return lSplit;
+    });
+  }
+
+  private void addTenengradFusionTask(String pOutputKey,
+                                      float[] pWeightBlurSigmas,
+                                      String... pInputKeys)
+  {
+    addTask(pInputKeys, new String[]
+    { pOutputKey },
+            (i) -> new CpuFusionImage[]
+            { CpuFusionOperations.tenengradFusion(pWeightBlurSigmas,
+                                                  1,
+                                                  i) });
+  }
+
+  private static String[] withSuffix(String pSuffix, String... pKeys)
+  {
+    String[] lResult = new String[pKeys.length];
+    for (int i = 0; i < pKeys.length; i++)
+    {
+      lResult[i] = pKeys[i] + pSuffix;
+    }
+    return lResult;
+  }
+
+  /**
+   * Passes a stack to the engine. The stack is converted and released.
+   *
+   * @param pStack
+   *          stack
+   */
+  public void passStack(StackInterface pStack)
+  {
+    StackMetaData lStackMetaData = pStack.getMetaData();
+    if (lStackMetaData != null && lStackMetaData.getVoxelDimX() != null
+        && lStackMetaData.getVoxelDimZ() != null)
+    {
+      mScaleZ = lStackMetaData.getVoxelDimZ()
+                / lStackMetaData.getVoxelDimX();
+    }
+
+    String lKey = MetaDataView.getCxLyString(lStackMetaData);
+    info("Passing stack " + lKey + " " + pStack);
+    mImages.put(lKey, CpuFusionImage.fromStack(pStack));
+    synchronized (this)
+    {
+      mFusedStackMetaData.addAll(lStackMetaData);
+    }
+    pStack.release();
+  }
+
+  /**
+   * Executes all tasks whose inputs are available and whose results are not
+   * computed yet, until no task can be executed anymore.
+   *
+   * @return number of executed tasks
+   */
+  public synchronized int executeAllTasks()
+  {
+    int lNumberOfExecutedTasks = 0;
+    boolean lProgress = true;
+    while (lProgress)
+    {
+      lProgress = false;
+      for (Task lTask : mTasks)
+      {
+        if (!areAvailable(lTask.mInputKeys)
+            || areAvailable(lTask.mOutputKeys))
+        {
+          continue;
+        }
+        CpuFusionImage[] lInputs =
+                                 new CpuFusionImage[lTask.mInputKeys.length];
+        for (int i = 0; i < lInputs.length; i++)
+        {
+          lInputs[i] = mImages.get(lTask.mInputKeys[i]);
+        }
+        CpuFusionImage[] lOutputs = lTask.mFunction.apply(lInputs);
+        for (int i = 0; i < lOutputs.length; i++)
+        {
+          mImages.put(lTask.mOutputKeys[i], lOutputs[i]);
+        }
+        lNumberOfExecutedTasks++;
+        lProgress = true;
+      }
+    }
+    return lNumberOfExecutedTasks;
+  }
+
+  private boolean areAvailable(String[] pKeys)
+  {
+    for (String lKey : pKeys)
+    {
+      if (!mImages.containsKey(lKey))
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public boolean isImageAvailable(String pKey)
+  {
+    return mImages.containsKey(pKey);
+  }
+
+  public CpuFusionImage getImage(String pKey)
+  {
+    return mImages.get(pKey);
+  }
+
+  public Set<String> getAvailableImagesSlotKeys()
+  {
+    return mImages.keySet();
+  }
+
+  /**
+   * Returns true if the fusion is done
+   *
+   * @return true -> fusion done
+   */
+  public boolean isDone()
+  {
+    return isImageAvailable("fused");
+  }
+
+  public synchronized void reset(boolean pCloseImages)
+  {
+    mImages.clear();
+    mFusedStackMetaData.clear();
+  }
+
+  /**
+   * Returns the fused metadata object
+   *
+   * @return fused metadata
+   */
+  public synchronized StackMetaData getFusedMetaData()
+  {
+    return mFusedStackMetaData.clone();
+  }
+
+  public boolean isRegistration()
+  {
+    return mRegistration;
+  }
+
+  public void setRegistration(boolean pRegistration)
+  {
+    mRegistration = pRegistration;
+  }
+
+  public boolean isSubtractingBackground()
+  {
+    return mBackgroundSubtraction;
+  }
+
+  public void setSubtractingBackground(boolean pBackgroundSubtraction)
+  {
+    mBackgroundSubtraction = pBackgroundSubtraction;
+  }
+
+  public boolean isDownscale()
+  {
+    return mDownscale;
+  }
+
+  public void setDownscale(boolean pDownscale)
+  {
+    mDownscale = pDownscale;
+  }
+
+  /**
+   * Returns the transform applied to the second camera's image
+   *
+   * @return 3x4 matrix, row by row, mapping output to input coordinates
+   */
+  public double[] getRegistrationTransform()
+  {
+    return mRegistrationTransform.clone();
+  }
+
+  /**
+   * Sets the transform applied to the second camera's image
+   *
+   * @param pRegistrationTransform
+   *          3x4 matrix, row by row, mapping output to input coordinates
+   */
+  public void setRegistrationTransform(double[] pRegistrationTransform)
+  {
+    mRegistrationTransform = pRegistrationTransform.clone();
+  }
+}
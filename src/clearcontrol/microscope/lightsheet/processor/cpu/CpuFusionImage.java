@@ -0,0 +1,143 @@
+package clearcontrol.microscope.lightsheet.processor.cpu;
+
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.util.stream.IntStream;
+
+import clearcontrol.stack.ContiguousOffHeapPlanarStackFactory;
+import clearcontrol.stack.StackInterface;
+import clearcontrol.stack.StackRequest;
+
+/**
+ * Float image used by the CPU fusion backend. Every plane is a float array of
+ * its own, so that operations can work plane by plane (and row by row) on
+ * cache resident data and distribute planes over threads.
+ */
+public class CpuFusionImage
+{
+  private final int mWidth;
+  private final int mHeight;
+  private final float[][] mPlanes;
+
+  public CpuFusionImage(int pWidth, int pHeight, int pDepth)
+  {
+    mWidth = pWidth;
+    mHeight = pHeight;
+    mPlanes = new float[pDepth][pWidth * pHeight];
+  }
+
+  /**
+   * Converts a 16 bit stack into a float image
+   *
+   * @param pStack
+   *          16 bit stack
+   * @return float image
+   */
+  public static CpuFusionImage fromStack(StackInterface pStack)
+  {
+    CpuFusionImage lImage = new CpuFusionImage((int) pStack.getWidth(),
+                                               (int) pStack.getHeight(),
+                                               (int) pStack.getDepth());
+    int lLength = lImage.mWidth * lImage.mHeight;
+    IntStream.range(0, lImage.getDepth()).parallel().forEach((z) -> {
+      CharBuffer lSource = pStack.getContiguousMemory(z)
+                                 .getByteBuffer()
+                                 .order(ByteOrder.nativeOrder())
+                                 .asCharBuffer();
+      float[] lTarget = lImage.mPlanes[z];
+      for (int i = 0; i < lLength; i++)
+      {
+        lTarget[i] = lSource.get(i);
+      }
+    });
+    return lImage;
+  }
+
+  /**
+   * Writes this image into a 16 bit stack of the same size. Values are
+   * rounded and clamped to 0...65535.
+   *
+   * @param pStack
+   *          target stack
+   */
+  public void writeTo(StackInterface pStack)
+  {
+    int lLength = mWidth * mHeight;
+    IntStream.range(0, getDepth()).parallel().forEach((z) -> {
+      CharBuffer lTarget = pStack.getContiguousMemory(z)
+                                 .getByteBuffer()
+                                 .order(ByteOrder.nativeOrder())
+                                 .asCharBuffer();
+      float[] lSource = mPlanes[z];
+      for (int i = 0; i < lLength; i++)
+      {
+        float lValue = Math.round(lSource[i]);
+        lTarget.put(i,
+                    (char) (lValue < 0 ? 0
+                                       : lValue > 65535 ? 65535
+                                                        : lValue));
+      }
+    });
+  }
+
+  /**
+   * Writes this image into a newly allocated 16 bit off-heap stack
+   *
+   * @return new stack
+   */
+  public StackInterface toStack()
+  {
+    StackInterface lStack =
+                          new ContiguousOffHeapPlanarStackFactory().create(StackRequest.build(getDimensions()));
+    writeTo(lStack);
+    return lStack;
+  }
+
+  public int getWidth()
+  {
+    return mWidth;
+  }
+
+  public int getHeight()
+  {
+    return mHeight;
+  }
+
+  public int getDepth()
+  {
+    return mPlanes.length;
+  }
+
+  public long[] getDimensions()
+  {
+    return new long[]
+    { mWidth, mHeight, getDepth() };
+  }
+
+  /**
+   * @param pZ
+   *          plane index
+   * @return the plane as array, row by row
+   */
+  public float[] getPlane(int pZ)
+  {
+    return mPlanes[pZ];
+  }
+
+  public boolean hasSameDimensions(CpuFusionImage pImage)
+  {
+    return mWidth == pImage.mWidth && mHeight == pImage.mHeight
+           && getDepth() == pImage.getDepth();
+  }
+
+  @Override
+  public String toString()
+  {
+    return "CpuFusionImage [" + mWidth
+           + "x"
+           + mHeight
+           + "x"
+           + getDepth()
+           + "]";
+  }
+}
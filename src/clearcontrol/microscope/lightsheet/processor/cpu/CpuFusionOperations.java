@@ -0,0 +1,740 @@
+package clearcontrol.microscope.lightsheet.processor.cpu;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Image operations of the CPU fusion backend. They correspond to the fastfuse
+ * and ClearCLIJ kernels used on the GPU: downscaling, 3D Gaussian blur,
+ * Tenengrad weighted fusion, averaging, affine transforms and background
+ * subtraction.
+ *
+ * All operations work plane by plane and row by row on float arrays and
+ * distribute planes over the common fork-join pool. Borders are handled by
+ * clamping coordinates to the image, as the GPU samplers do.
+ *
+ * Multi-pass operations run all passes over one plane before moving on, with
+ * the intermediate planes held in per thread buffers, instead of writing
+ * whole intermediate stacks. The affine transform works in tiles of 64 x 64
+ * pixels, so that the source region of a tile stays in cache also for
+ * rotations. The Tenengrad fusion is not tiled in XY: its
+ * weight blur reaches 3 sigma (45 pixels for the default sigma of 15) beyond
+ * a tile, so tiles would recompute more than they save.
+ */
+public class CpuFusionOperations
+{
+  private static final float cEpsilon = 1e-6f;
+
+  private static final int cTileSize = 64;
+
+  private static final ThreadLocal<float[]> cPlaneBuffer0 =
+                                                          new ThreadLocal<>();
+  private static final ThreadLocal<float[]> cPlaneBuffer1 =
+                                                          new ThreadLocal<>();
+
+  /**
+   * Halves the image size in X and Y by averaging (or taking the median of)
+   * 2x2 pixels
+   *
+   * @param pImage
+   *          input image
+   * @param pMedian
+   *          true: median of the four pixels, false: mean
+   * @return downscaled image
+   */
+  public static CpuFusionImage downsampleXYbyHalf(CpuFusionImage pImage,
+                                                  boolean pMedian)
+  {
+    int lWidth = pImage.getWidth();
+    int lHeight = pImage.getHeight();
+    int lTargetWidth = lWidth / 2;
+    int lTargetHeight = lHeight / 2;
+    CpuFusionImage lResult = new CpuFusionImage(lTargetWidth,
+                                                lTargetHeight,
+                                                pImage.getDepth());
+    IntStream.range(0, pImage.getDepth()).parallel().forEach((z) -> {
+      float[] lSource = pImage.getPlane(z);
+      float[] lTarget = lResult.getPlane(z);
+      for (int y = 0; y < lTargetHeight; y++)
+      {
+        int lRow0 = 2 * y * lWidth;
+        int lRow1 = lRow0 + lWidth;
+        int lTargetRow = y * lTargetWidth;
+        for (int x = 0; x < lTargetWidth; x++)
+        {
+          float a = lSource[lRow0 + 2 * x];
+          float b = lSource[lRow0 + 2 * x + 1];
+          float c = lSource[lRow1 + 2 * x];
+          float d = lSource[lRow1 + 2 * x + 1];
+          if (pMedian)
+          {
+            // median of four values: mean of the two middle ones
+            float lMin = Math.min(Math.min(a, b), Math.min(c, d));
+            float lMax = Math.max(Math.max(a, b), Math.max(c, d));
+            lTarget[lTargetRow + x] = (a + b + c + d - lMin - lMax)
+                                      * 0.5f;
+          }
+          else
+          {
+            lTarget[lTargetRow + x] = (a + b + c + d) * 0.25f;
+          }
+        }
+      }
+    });
+    return lResult;
+  }
+
+  /**
+   * Separable 3D Gaussian blur
+   *
+   * @param pImage
+   *          input image
+   * @param pSigmas
+   *          sigma in X, Y and Z in pixels; 0 skips the dimension
+   * @param pKernelSizes
+   *          kernel sizes in X, Y and Z or null to use 3 sigma on each side
+   * @return blurred image
+   */
+  public static CpuFusionImage gaussianBlur(CpuFusionImage pImage,
+                                            float[] pSigmas,
+                                            int[] pKernelSizes)
+  {
+    float[] lKernelX = gaussianKernel(pSigmas[0],
+                                      pKernelSizes == null ? 0
+                                                           : pKernelSizes[0]);
+    float[] lKernelY = gaussianKernel(pSigmas[1],
+                                      pKernelSizes == null ? 0
+                                                           : pKernelSizes[1]);
+    float[] lKernelZ = gaussianKernel(pSigmas[2],
+                                      pKernelSizes == null ? 0
+                                                           : pKernelSizes[2]);
+
+    int lWidth = pImage.getWidth();
+    int lHeight = pImage.getHeight();
+    int lDepth = pImage.getDepth();
+
+    CpuFusionImage lBlurredXY = new CpuFusionImage(lWidth,
+                                                   lHeight,
+                                                   lDepth);
+    IntStream.range(0, lDepth).parallel().forEach((z) -> {
+      float[] lTemp = getPlaneBuffer(cPlaneBuffer0, lWidth * lHeight);
+      blurRows(pImage.getPlane(z), lTemp, lWidth, lHeight, lKernelX);
+      blurColumns(lTemp,
+                  lBlurredXY.getPlane(z),
+                  lWidth,
+                  lHeight,
+                  lKernelY);
+    });
+
+    if (lKernelZ.length == 1)
+    {
+      return lBlurredXY;
+    }
+
+    CpuFusionImage lResult = new CpuFusionImage(lWidth, lHeight, lDepth);
+    IntStream.range(0, lDepth).parallel().forEach((z) -> {
+      blurPlaneZ(lBlurredXY, z, lKernelZ, lResult.getPlane(z));
+    });
+    return lResult;
+  }
+
+  /**
+   * Computes the Tenengrad measure (squared Sobel gradient magnitude in XY) for
+   * each pixel.
+   *
+   * @param pImage
+   *          input image
+   * @return Tenengrad image
+   */
+  public static CpuFusionImage tenengrad(CpuFusionImage pImage)
+  {
+    int lWidth = pImage.getWidth();
+    int lHeight = pImage.getHeight();
+    CpuFusionImage lResult = new CpuFusionImage(lWidth,
+                                                lHeight,
+                                                pImage.getDepth());
+    IntStream.range(0, pImage.getDepth()).parallel().forEach((z) -> {
+      tenengradPlane(pImage.getPlane(z),
+                     lResult.getPlane(z),
+                     lWidth,
+                     lHeight);
+    });
+    return lResult;
+  }
+
+  /**
+   * Fuses images with weights derived from their blurred Tenengrad measure.
+   * Where all weights vanish, the images are averaged.
+   *
+   * @param pWeightBlurSigmas
+   *          sigmas of the blur applied to the Tenengrad weights
+   * @param pExponent
+   *          exponent applied to the blurred weights
+   * @param pImages
+   *          images to fuse, all of the same size
+   * @return fused image
+   */
+  public static CpuFusionImage tenengradFusion(float[] pWeightBlurSigmas,
+                                               float pExponent,
+                                               CpuFusionImage... pImages)
+  {
+    float[] lKernelX = gaussianKernel(pWeightBlurSigmas[0], 0);
+    float[] lKernelY = gaussianKernel(pWeightBlurSigmas[1], 0);
+    float[] lKernelZ = gaussianKernel(pWeightBlurSigmas[2], 0);
+
+    CpuFusionImage lReference = pImages[0];
+    int lWidth = lReference.getWidth();
+    int lHeight = lReference.getHeight();
+    int lDepth = lReference.getDepth();
+    int lLength = lWidth * lHeight;
+
+    // Tenengrad measure and its blur in XY plane by plane, only the blurred
+    // planes are kept:
+    CpuFusionImage[] lWeightsXY = new CpuFusionImage[pImages.length];
+    for (int n = 0; n < pImages.length; n++)
+    {
+      lWeightsXY[n] = new CpuFusionImage(lWidth, lHeight, lDepth);
+    }
+    IntStream.range(0, pImages.length * lDepth).parallel().forEach((i) -> {
+      int n = i / lDepth;
+      int z = i % lDepth;
+      float[] lTenengrad = getPlaneBuffer(cPlaneBuffer0, lLength);
+      float[] lTemp = getPlaneBuffer(cPlaneBuffer1, lLength);
+      tenengradPlane(pImages[n].getPlane(z), lTenengrad, lWidth, lHeight);
+      blurRows(lTenengrad, lTemp, lWidth, lHeight, lKernelX);
+      blurColumns(lTemp,
+                  lWeightsXY[n].getPlane(z),
+                  lWidth,
+                  lHeight,
+                  lKernelY);
+    });
+
+    // blur in Z, weighting and normalisation for one output plane at a time:
+    CpuFusionImage lResult = new CpuFusionImage(lWidth, lHeight, lDepth);
+    IntStream.range(0, lDepth).parallel().forEach((z) -> {
+      float[] lTarget = lResult.getPlane(z);
+      float[] lWeight = getPlaneBuffer(cPlaneBuffer0, lLength);
+      float[] lWeightSum = getPlaneBuffer(cPlaneBuffer1, lLength);
+      Arrays.fill(lWeightSum, 0, lLength, 0);
+      for (int n = 0; n < pImages.length; n++)
+      {
+        float[] lImage = pImages[n].getPlane(z);
+        blurPlaneZ(lWeightsXY[n], z, lKernelZ, lWeight);
+        if (pExponent != 1)
+        {
+          for (int i = 0; i < lLength; i++)
+          {
+            lWeight[i] = (float) Math.pow(lWeight[i], pExponent);
+          }
+        }
+        for (int i = 0; i < lLength; i++)
+        {
+          lTarget[i] += lWeight[i] * lImage[i];
+          lWeightSum[i] += lWeight[i];
+        }
+      }
+      for (int i = 0; i < lLength; i++)
+      {
+        if (lWeightSum[i] > cEpsilon)
+        {
+          lTarget[i] /= lWeightSum[i];
+        }
+        else
+        {
+          float lSum = 0;
+          for (int n = 0; n < pImages.length; n++)
+          {
+            lSum += pImages[n].getPlane(z)[i];
+          }
+          lTarget[i] = lSum / pImages.length;
+        }
+      }
+    });
+    return lResult;
+  }
+
+  /**
+   * Averages images of the same size
+   *
+   * @param pImages
+   *          images
+   * @return average image
+   */
+  public static CpuFusionImage average(CpuFusionImage... pImages)
+  {
+    CpuFusionImage lReference = pImages[0];
+    CpuFusionImage lResult = new CpuFusionImage(lReference.getWidth(),
+                                                lReference.getHeight(),
+                                                lReference.getDepth());
+    int lLength = lReference.getWidth() * lReference.getHeight();
+    float lFactor = 1.0f / pImages.length;
+    IntStream.range(0, lReference.getDepth()).parallel().forEach((z) -> {
+      float[] lTarget = lResult.getPlane(z);
+      for (CpuFusionImage lImage : pImages)
+      {
+        float[] lSource = lImage.getPlane(z);
+        for (int i = 0; i < lLength; i++)
+        {
+          lTarget[i] += lFactor * lSource[i];
+        }
+      }
+    });
+    return lResult;
+  }
+
+  /**
+   * Mirrors an image along X
+   *
+   * @param pImage
+   *          input image
+   * @return flipped image
+   */
+  public static CpuFusionImage flipX(CpuFusionImage pImage)
+  {
+    int lWidth = pImage.getWidth();
+    int lHeight = pImage.getHeight();
+    CpuFusionImage lResult = new CpuFusionImage(lWidth,
+                                                lHeight,
+                                                pImage.getDepth());
+    IntStream.range(0, pImage.getDepth()).parallel().forEach((z) -> {
+      float[] lSource = pImage.getPlane(z);
+      float[] lTarget = lResult.getPlane(z);
+      for (int y = 0; y < lHeight; y++)
+      {
+        int lRow = y * lWidth;
+        for (int x = 0; x < lWidth; x++)
+        {
+          lTarget[lRow + x] = lSource[lRow + lWidth - 1 - x];
+        }
+      }
+    });
+    return lResult;
+  }
+
+  /**
+   * Transforms an image with an affine matrix and trilinear interpolation.
+   * The matrix maps output to input coordinates; coordinates are centered in
+   * the image and Z is scaled by the given aspect ratio (voxel depth / voxel
+   * width), as the fastfuse registration does.
+   *
+   * @param pImage
+   *          input image
+   * @param pMatrix
+   *          3x4 or 4x4 matrix, row by row
+   * @param pScaleZ
+   *          Z aspect ratio
+   * @return transformed image
+   */
+  public static CpuFusionImage affineTransform(CpuFusionImage pImage,
+                                               double[] pMatrix,
+                                               double pScaleZ)
+  {
+    int lWidth = pImage.getWidth();
+    int lHeight = pImage.getHeight();
+    int lDepth = pImage.getDepth();
+    double lCenterX = (lWidth - 1) * 0.5;
+    double lCenterY = (lHeight - 1) * 0.5;
+    double lCenterZ = (lDepth - 1) * 0.5;
+
+    CpuFusionImage lResult = new CpuFusionImage(lWidth, lHeight, lDepth);
+    int lTilesX = (lWidth + cTileSize - 1) / cTileSize;
+    int lTilesY = (lHeight + cTileSize - 1) / cTileSize;
+    int lTilesPerPlane = lTilesX * lTilesY;
+    IntStream.range(0, lDepth * lTilesPerPlane).parallel().forEach((t) -> {
+      int z = t / lTilesPerPlane;
+      int lTileY = (t % lTilesPerPlane) / lTilesX;
+      int lTileX = t % lTilesX;
+      int lEndY = Math.min(lHeight, (lTileY + 1) * cTileSize);
+      int lEndX = Math.min(lWidth, (lTileX + 1) * cTileSize);
+      float[] lTarget = lResult.getPlane(z);
+      double lZ = (z - lCenterZ) * pScaleZ;
+      for (int y = lTileY * cTileSize; y < lEndY; y++)
+      {
+        double lY = y - lCenterY;
+        for (int x = lTileX * cTileSize; x < lEndX; x++)
+        {
+          double lX = x - lCenterX;
+          double lSourceX = pMatrix[0] * lX + pMatrix[1] * lY
+                            + pMatrix[2] * lZ
+                            + pMatrix[3]
+                            + lCenterX;
+          double lSourceY = pMatrix[4] * lX + pMatrix[5] * lY
+                            + pMatrix[6] * lZ
+                            + pMatrix[7]
+                            + lCenterY;
+          double lSourceZ = (pMatrix[8] * lX + pMatrix[9] * lY
+                             + pMatrix[10] * lZ
+                             + pMatrix[11])
+                            / pScaleZ
+                            + lCenterZ;
+          lTarget[y * lWidth + x] = interpolate(pImage,
+                                                lSourceX,
+                                                lSourceY,
+                                                lSourceZ);
+        }
+      }
+    });
+    return lResult;
+  }
+
+  /**
+   * Splits an interleaved stack: plane z goes to image z % n
+   *
+   * @param pImage
+   *          interleaved image
+   * @param pNumberOfImages
+   *          number of interleaved images
+   * @return de-interleaved images
+   */
+  public static CpuFusionImage[] split(CpuFusionImage pImage,
+                                       int pNumberOfImages)
+  {
+    int lDepth = pImage.getDepth() / pNumberOfImages;
+    CpuFusionImage[] lResult = new CpuFusionImage[pNumberOfImages];
+    for (int n = 0; n < pNumberOfImages; n++)
+    {
+      lResult[n] = new CpuFusionImage(pImage.getWidth(),
+                                      pImage.getHeight(),
+                                      lDepth);
+      for (int z = 0; z < lDepth; z++)
+      {
+        System.arraycopy(pImage.getPlane(z * pNumberOfImages + n),
+                         0,
+                         lResult[n].getPlane(z),
+                         0,
+                         pImage.getWidth() * pImage.getHeight());
+      }
+    }
+    return lResult;
+  }
+
+  /**
+   * Subtracts a blurred copy of the image (the background) and clamps
+   * negative values to zero
+   *
+   * @param pImage
+   *          input image
+   * @param pBackgroundSigmas
+   *          sigmas of the blur estimating the background
+   * @return background subtracted image
+   */
+  public static CpuFusionImage subtractBlurredCopy(CpuFusionImage pImage,
+                                                   float[] pBackgroundSigmas)
+  {
+    CpuFusionImage lBackground = gaussianBlur(pImage,
+                                              pBackgroundSigmas,
+                                              null);
+    int lLength = pImage.getWidth() * pImage.getHeight();
+    IntStream.range(0, pImage.getDepth()).parallel().forEach((z) -> {
+      float[] lSource = pImage.getPlane(z);
+      float[] lTarget = lBackground.getPlane(z);
+      for (int i = 0; i < lLength; i++)
+      {
+        lTarget[i] = Math.max(0, lSource[i] - lTarget[i]);
+      }
+    });
+    return lBackground;
+  }
+
+  /**
+   * Crops a sub-volume
+   *
+   * @return cropped image
+   */
+  public static CpuFusionImage crop(CpuFusionImage pImage,
+                                    int pX,
+                                    int pY,
+                                    int pZ,
+                                    int pWidth,
+                                    int pHeight,
+                                    int pDepth)
+  {
+    CpuFusionImage lResult = new CpuFusionImage(pWidth, pHeight, pDepth);
+    int lCopyWidth = Math.max(0,
+                              Math.min(pWidth, pImage.getWidth() - pX));
+    IntStream.range(0, pDepth).parallel().forEach((z) -> {
+      if (z + pZ >= pImage.getDepth())
+      {
+        return;
+      }
+      float[] lSource = pImage.getPlane(z + pZ);
+      float[] lTarget = lResult.getPlane(z);
+      for (int y = 0; y < pHeight && y + pY < pImage.getHeight(); y++)
+      {
+        System.arraycopy(lSource,
+                         (y + pY) * pImage.getWidth() + pX,
+                         lTarget,
+                         y * pWidth,
+                         lCopyWidth);
+      }
+    });
+    return lResult;
+  }
+
+  /**
+   * Scales an image by the given factors using nearest neighbor sampling, as
+   * ClearCLIJ's downsample kernel does
+   *
+   * @return scaled image
+   */
+  public static CpuFusionImage downsample(CpuFusionImage pImage,
+                                          float pFactorX,
+                                          float pFactorY,
+                                          float pFactorZ)
+  {
+    int lWidth = (int) (pImage.getWidth() * pFactorX);
+    int lHeight = (int) (pImage.getHeight() * pFactorY);
+    int lDepth = (int) (pImage.getDepth() * pFactorZ);
+    CpuFusionImage lResult = new CpuFusionImage(lWidth, lHeight, lDepth);
+    IntStream.range(0, lDepth).parallel().forEach((z) -> {
+      float[] lSource =
+                      pImage.getPlane(clamp((int) (z / pFactorZ),
+                                            pImage.getDepth()));
+      float[] lTarget = lResult.getPlane(z);
+      for (int y = 0; y < lHeight; y++)
+      {
+        int lSourceRow = clamp((int) (y / pFactorY), pImage.getHeight())
+                         * pImage.getWidth();
+        for (int x = 0; x < lWidth; x++)
+        {
+          lTarget[y * lWidth + x] =
+                                  lSource[lSourceRow + clamp((int) (x / pFactorX),
+                                                             pImage.getWidth())];
+        }
+      }
+    });
+    return lResult;
+  }
+
+  static float[] gaussianKernel(float pSigma, int pKernelSize)
+  {
+    if (pSigma <= 0)
+    {
+      return new float[]
+      { 1 };
+    }
+    int lRadius = pKernelSize > 0 ? pKernelSize / 2
+                                  : (int) Math.ceil(3 * pSigma);
+    float[] lKernel = new float[2 * lRadius + 1];
+    float lSum = 0;
+    for (int i = -lRadius; i <= lRadius; i++)
+    {
+      lKernel[i + lRadius] =
+                           (float) Math.exp(-0.5 * i * i / (pSigma * pSigma));
+      lSum += lKernel[i + lRadius];
+    }
+    for (int i = 0; i < lKernel.length; i++)
+    {
+      lKernel[i] /= lSum;
+    }
+    return lKernel;
+  }
+
+  private static float[] getPlaneBuffer(ThreadLocal<float[]> pBuffer,
+                                        int pLength)
+  {
+    float[] lBuffer = pBuffer.get();
+    if (lBuffer == null || lBuffer.length < pLength)
+    {
+      lBuffer = new float[pLength];
+      pBuffer.set(lBuffer);
+    }
+    return lBuffer;
+  }
+
+  private static void blurPlaneZ(CpuFusionImage pImage,
+                                 int pZ,
+                                 float[] pKernel,
+                                 float[] pTarget)
+  {
+    int lLength = pImage.getWidth() * pImage.getHeight();
+    int lRadius = pKernel.length / 2;
+    if (lRadius == 0)
+    {
+      System.arraycopy(pImage.getPlane(pZ), 0, pTarget, 0, lLength);
+      return;
+    }
+    Arrays.fill(pTarget, 0, lLength, 0);
+    for (int k = 0; k < pKernel.length; k++)
+    {
+      float[] lSource = pImage.getPlane(clamp(pZ + k - lRadius,
+                                              pImage.getDepth()));
+      float lWeight = pKernel[k];
+      for (int i = 0; i < lLength; i++)
+      {
+        pTarget[i] += lWeight * lSource[i];
+      }
+    }
+  }
+
+  private static void tenengradPlane(float[] pSource,
+                                     float[] pTarget,
+                                     int pWidth,
+                                     int pHeight)
+  {
+    for (int y = 0; y < pHeight; y++)
+    {
+      int lUp = clamp(y - 1, pHeight) * pWidth;
+      int lRow = y * pWidth;
+      int lDown = clamp(y + 1, pHeight) * pWidth;
+      for (int x = 0; x < pWidth; x++)
+      {
+        int lLeft = clamp(x - 1, pWidth);
+        int lRight = clamp(x + 1, pWidth);
+        float lGradientX = pSource[lUp + lRight]
+                           + 2 * pSource[lRow + lRight]
+                           + pSource[lDown + lRight]
+                           - pSource[lUp + lLeft]
+                           - 2 * pSource[lRow + lLeft]
+                           - pSource[lDown + lLeft];
+        float lGradientY = pSource[lDown + lLeft]
+                           + 2 * pSource[lDown + x]
+                           + pSource[lDown + lRight]
+                           - pSource[lUp + lLeft]
+                           - 2 * pSource[lUp + x]
+                           - pSource[lUp + lRight];
+        pTarget[lRow + x] = lGradientX * lGradientX
+                            + lGradientY * lGradientY;
+      }
+    }
+  }
+
+  private static void blurRows(float[] pSource,
+                               float[] pTarget,
+                               int pWidth,
+                               int pHeight,
+                               float[] pKernel)
+  {
+    int lRadius = pKernel.length / 2;
+    if (lRadius == 0)
+    {
+      System.arraycopy(pSource, 0, pTarget, 0, pWidth * pHeight);
+      return;
+    }
+    for (int y = 0; y < pHeight; y++)
+    {
+      int lRow = y * pWidth;
+      for (int x = 0; x < pWidth; x++)
+      {
+        float lSum = 0;
+        if (x >= lRadius && x < pWidth - lRadius)
+        {
+          int lStart = lRow + x - lRadius;
+          for (int k = 0; k < pKernel.length; k++)
+          {
+            lSum += pKernel[k] * pSource[lStart + k];
+          }
+        }
+        else
+        {
+          for (int k = 0; k < pKernel.length; k++)
+          {
+            lSum += pKernel[k]
+                    * pSource[lRow + clamp(x + k - lRadius, pWidth)];
+          }
+        }
+        pTarget[lRow + x] = lSum;
+      }
+    }
+  }
+
+  private static void blurColumns(float[] pSource,
+                                  float[] pTarget,
+                                  int pWidth,
+                                  int pHeight,
+                                  float[] pKernel)
+  {
+    int lRadius = pKernel.length / 2;
+    if (lRadius == 0)
+    {
+      System.arraycopy(pSource, 0, pTarget, 0, pWidth * pHeight);
+      return;
+    }
+    // whole rows are accumulated, so that memory is accessed sequentially
+    for (int y = 0; y < pHeight; y++)
+    {
+      int lTargetRow = y * pWidth;
+      for (int k = 0; k < pKernel.length; k++)
+      {
+        int lSourceRow = clamp(y + k - lRadius, pHeight) * pWidth;
+        float lWeight = pKernel[k];
+        for (int x = 0; x < pWidth; x++)
+        {
+          pTarget[lTargetRow + x] += lWeight * pSource[lSourceRow + x];
+        }
+      }
+    }
+  }
+
+  private static float interpolate(CpuFusionImage pImage,
+                                   double pX,
+                                   double pY,
+                                   double pZ)
+  {
+    int lWidth = pImage.getWidth();
+    int lHeight = pImage.getHeight();
+    int lDepth = pImage.getDepth();
+    if (pX < -0.5 || pY < -0.5
+        || pZ < -0.5
+        || pX > lWidth - 0.5
+        || pY > lHeight - 0.5
+        || pZ > lDepth - 0.5)
+    {
+      return 0;
+    }
+    int lX0 = (int) Math.floor(pX);
+    int lY0 = (int) Math.floor(pY);
+    int lZ0 = (int) Math.floor(pZ);
+    float lFractionX = (float) (pX - lX0);
+    float lFractionY = (float) (pY - lY0);
+    float lFractionZ = (float) (pZ - lZ0);
+    int lX1 = clamp(lX0 + 1, lWidth);
+    int lY1 = clamp(lY0 + 1, lHeight);
+    lX0 = clamp(lX0, lWidth);
+    lY0 = clamp(lY0, lHeight);
+
+    float[] lPlane0 = pImage.getPlane(clamp(lZ0, lDepth));
+    float[] lPlane1 = pImage.getPlane(clamp(lZ0 + 1, lDepth));
+
+    float lValue0 = bilinear(lPlane0,
+                             lWidth,
+                             lX0,
+                             lX1,
+                             lY0,
+                             lY1,
+                             lFractionX,
+                             lFractionY);
+    float lValue1 = bilinear(lPlane1,
+                             lWidth,
+                             lX0,
+                             lX1,
+                             lY0,
+                             lY1,
+                             lFractionX,
+                             lFractionY);
+    return lValue0 + lFractionZ * (lValue1 - lValue0);
+  }
+
+  private static float bilinear(float[] pPlane,
+                                int pWidth,
+                                int pX0,
+                                int pX1,
+                                int pY0,
+                                int pY1,
+                                float pFractionX,
+                                float pFractionY)
+  {
+    float lTop = pPlane[pY0 * pWidth + pX0]
+                 + pFractionX * (pPlane[pY0 * pWidth + pX1]
+                                 - pPlane[pY0 * pWidth + pX0]);
+    float lBottom = pPlane[pY1 * pWidth + pX0]
+                    + pFractionX * (pPlane[pY1 * pWidth + pX1]
+                                    - pPlane[pY1 * pWidth + pX0]);
+    return lTop + pFractionY * (lBottom - lTop);
+  }
+
+  private static int clamp(int pIndex, int pLength)
+  {
+    return pIndex < 0 ? 0 : pIndex >= pLength ? pLength - 1 : pIndex;
+  }
+}
@@ -0,0 +1,398 @@
+package clearcontrol.microscope.lightsheet.processor.cpu.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assume.assumeTrue;
+
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.util.Random;
+
+import clearcl.ClearCL;
+import clearcl.ClearCLContext;
+import clearcl.ClearCLDevice;
+import clearcl.ClearCLImage;
+import clearcl.backend.ClearCLBackends;
+import clearcontrol.microscope.lightsheet.processor.LightSheetFastFusionEngine;
+import clearcontrol.microscope.lightsheet.processor.cpu.CpuFallback;
+import clearcontrol.microscope.lightsheet.processor.cpu.CpuFastFusionEngine;
+import clearcontrol.microscope.lightsheet.processor.cpu.CpuFusionImage;
+import clearcontrol.microscope.lightsheet.processor.cpu.CpuFusionOperations;
+import clearcontrol.microscope.lightsheet.stacks.MetaDataView;
+import clearcontrol.stack.ContiguousOffHeapPlanarStackFactory;
+import clearcontrol.stack.StackInterface;
+import clearcontrol.stack.StackRequest;
+
+import org.junit.Test;
+
+/**
+ * Compares the CPU fusion with a straightforward reference implementation and
+ * with the OpenCL fusion on small synthetic stacks. The comparisons with
+ * OpenCL are skipped on machines without OpenCL device.
+ */
+public class CpuFastFusionEngineTests
+{
+  private static final int cWidth = 64;
+  private static final int cHeight = 48;
+  private static final int cDepth = 12;
+
+  /**
+   * one light sheet, one camera: downscaled stacks must agree within one grey
+   * value
+   */
+  @Test
+  public void testOneLightSheetOneCamera()
+  {
+    compareWithOpenCL(1, 1, 0.0);
+  }
+
+  /**
+   * two light sheets, one camera: Tenengrad fused stacks must agree within 1%
+   */
+  @Test
+  public void testTwoLightSheetsOneCamera()
+  {
+    compareWithOpenCL(2, 1, 0.01);
+  }
+
+  /**
+   * two light sheets, one camera, without OpenCL: the fused stack must agree
+   * with a double precision reference of downscaling and Tenengrad fusion
+   */
+  @Test
+  public void testTwoLightSheetsOneCameraAgainstReference()
+  {
+    CpuFastFusionEngine lCpuEngine = new CpuFastFusionEngine(2, 1);
+    lCpuEngine.setDownscale(true);
+
+    double[][][][] lDownscaled = new double[2][][][];
+    for (int l = 0; l < 2; l++)
+    {
+      StackInterface lStack = createStack(l);
+      lDownscaled[l] = downscaleReference(lStack);
+      lCpuEngine.passStack(lStack);
+    }
+    lCpuEngine.executeAllTasks();
+
+    double[][][] lExpected = tenengradFusionReference(new double[]
+    { 2, 2, 1 }, lDownscaled);
+    CpuFusionImage lFused = lCpuEngine.getImage("fused");
+    assertNotNull(lFused);
+    assertArrayEquals(new long[]
+    { cWidth / 2, cHeight / 2, cDepth }, lFused.getDimensions());
+    for (int z = 0; z < lFused.getDepth(); z++)
+    {
+      float[] lPlane = lFused.getPlane(z);
+      for (int y = 0; y < lFused.getHeight(); y++)
+      {
+        for (int x = 0; x < lFused.getWidth(); x++)
+        {
+          double lValue = lExpected[z][y][x];
+          assertEquals("voxel " + x + "," + y + "," + z,
+                       lValue,
+                       lPlane[y * lFused.getWidth() + x],
+                       1e-4 * (1 + Math.abs(lValue)));
+        }
+      }
+    }
+  }
+
+  /**
+   * the tiled affine transform must mirror exactly like flipX, also in the
+   * partial tiles at the image border
+   */
+  @Test
+  public void testAffineTransformAgainstFlip()
+  {
+    CpuFusionImage lImage = new CpuFusionImage(150, 70, 3);
+    Random lRandom = new Random(3);
+    for (int z = 0; z < lImage.getDepth(); z++)
+    {
+      float[] lPlane = lImage.getPlane(z);
+      for (int i = 0; i < lPlane.length; i++)
+      {
+        lPlane[i] = lRandom.nextInt(4096);
+      }
+    }
+
+    CpuFusionImage lFlipped = CpuFusionOperations.flipX(lImage);
+    CpuFusionImage lTransformed =
+                                CpuFusionOperations.affineTransform(lImage,
+                                                                    new double[]
+                                                                    { -1,
+                                                                      0,
+                                                                      0,
+                                                                      0,
+                                                                      0,
+                                                                      1,
+                                                                      0,
+                                                                      0,
+                                                                      0,
+                                                                      0,
+                                                                      1,
+                                                                      0 },
+                                                                    2);
+    for (int z = 0; z < lImage.getDepth(); z++)
+    {
+      assertArrayEquals(lFlipped.getPlane(z),
+                        lTransformed.getPlane(z),
+                        0);
+    }
+  }
+
+  private void compareWithOpenCL(int pNumberOfLightSheets,
+                                 int pNumberOfDetectionArms,
+                                 double pRelativeTolerance)
+  {
+    assumeTrue(CpuFallback.isOpenCLAvailable());
+
+    ClearCL lClearCL = new ClearCL(ClearCLBackends.getBestBackend());
+    ClearCLDevice lDevice = lClearCL.getFastestGPUDeviceForImages();
+    assumeTrue(lDevice != null);
+    ClearCLContext lContext = lDevice.createContext();
+    try
+    {
+      LightSheetFastFusionEngine lGpuEngine =
+                                            new LightSheetFastFusionEngine(lContext,
+                                                                           null,
+                                                                           pNumberOfLightSheets,
+                                                                           pNumberOfDetectionArms);
+      CpuFastFusionEngine lCpuEngine =
+                                     new CpuFastFusionEngine(pNumberOfLightSheets,
+                                                             pNumberOfDetectionArms);
+      lCpuEngine.setDownscale(lGpuEngine.isDownscale());
+
+      for (int l = 0; l < pNumberOfLightSheets; l++)
+      {
+        lGpuEngine.passStack(true, createStack(l));
+        lCpuEngine.passStack(createStack(l));
+      }
+      lGpuEngine.executeAllTasks();
+      lCpuEngine.executeAllTasks();
+
+      ClearCLImage lGpuImage = lGpuEngine.getImage("fused");
+      CpuFusionImage lCpuImage = lCpuEngine.getImage("fused");
+      assertNotNull(lGpuImage);
+      assertNotNull(lCpuImage);
+      assertArrayEquals(lGpuImage.getDimensions(),
+                        lCpuImage.getDimensions());
+
+      StackInterface lGpuStack =
+                               new ContiguousOffHeapPlanarStackFactory().create(StackRequest.build(lGpuImage.getDimensions()));
+      lGpuImage.writeTo(lGpuStack.getContiguousMemory(), true);
+      StackInterface lCpuStack = lCpuImage.toStack();
+
+      for (int z = 0; z < lCpuImage.getDepth(); z++)
+      {
+        CharBuffer lGpuPlane = getPlane(lGpuStack, z);
+        CharBuffer lCpuPlane = getPlane(lCpuStack, z);
+        for (int i = 0; i < lCpuImage.getWidth()
+                            * lCpuImage.getHeight(); i++)
+        {
+          double lExpected = lGpuPlane.get(i);
+          assertEquals(lExpected,
+                       lCpuPlane.get(i),
+                       1 + pRelativeTolerance * lExpected);
+        }
+      }
+
+      lGpuStack.free();
+      lCpuStack.free();
+      lGpuEngine.reset(true);
+    }
+    finally
+    {
+      lContext.close();
+    }
+  }
+
+  private static double[][][] downscaleReference(StackInterface pStack)
+  {
+    int lWidth = (int) pStack.getWidth() / 2;
+    int lHeight = (int) pStack.getHeight() / 2;
+    double[][][] lResult = new double[(int) pStack.getDepth()][lHeight][lWidth];
+    for (int z = 0; z < lResult.length; z++)
+    {
+      CharBuffer lPlane = getPlane(pStack, z);
+      for (int y = 0; y < lHeight; y++)
+      {
+        for (int x = 0; x < lWidth; x++)
+        {
+          int i = 2 * y * (int) pStack.getWidth() + 2 * x;
+          lResult[z][y][x] = (lPlane.get(i) + lPlane.get(i + 1)
+                              + lPlane.get(i + (int) pStack.getWidth())
+                              + lPlane.get(i + (int) pStack.getWidth()
+                                           + 1))
+                             / 4.0;
+        }
+      }
+    }
+    return lResult;
+  }
+
+  /**
+   * Tenengrad fusion voxel by voxel: Sobel gradient magnitude, Gaussian blur
+   * of 3 sigma radius in X, Y and Z with clamped borders, weighted average
+   */
+  private static double[][][] tenengradFusionReference(double[] pSigmas,
+                                                       double[][][]... pImages)
+  {
+    int lDepth = pImages[0].length;
+    int lHeight = pImages[0][0].length;
+    int lWidth = pImages[0][0][0].length;
+
+    double[][][][] lWeights = new double[pImages.length][][][];
+    for (int n = 0; n < pImages.length; n++)
+    {
+      double[][][] lImage = pImages[n];
+      double[][][] lTenengrad = new double[lDepth][lHeight][lWidth];
+      for (int z = 0; z < lDepth; z++)
+        for (int y = 0; y < lHeight; y++)
+          for (int x = 0; x < lWidth; x++)
+          {
+            double[][] lPlane = lImage[z];
+            int lUp = clamp(y - 1, lHeight);
+            int lDown = clamp(y + 1, lHeight);
+            int lLeft = clamp(x - 1, lWidth);
+            int lRight = clamp(x + 1, lWidth);
+            double lGradientX = lPlane[lUp][lRight] + 2 * lPlane[y][lRight]
+                                + lPlane[lDown][lRight]
+                                - lPlane[lUp][lLeft]
+                                - 2 * lPlane[y][lLeft]
+                                - lPlane[lDown][lLeft];
+            double lGradientY = lPlane[lDown][lLeft] + 2 * lPlane[lDown][x]
+                                + lPlane[lDown][lRight]
+                                - lPlane[lUp][lLeft]
+                                - 2 * lPlane[lUp][x]
+                                - lPlane[lUp][lRight];
+            lTenengrad[z][y][x] = lGradientX * lGradientX
+                                  + lGradientY * lGradientY;
+          }
+      lWeights[n] = blurReference(lTenengrad, pSigmas);
+    }
+
+    double[][][] lResult = new double[lDepth][lHeight][lWidth];
+    for (int z = 0; z < lDepth; z++)
+      for (int y = 0; y < lHeight; y++)
+        for (int x = 0; x < lWidth; x++)
+        {
+          double lSum = 0;
+          double lWeightSum = 0;
+          double lPlainSum = 0;
+          for (int n = 0; n < pImages.length; n++)
+          {
+            lSum += lWeights[n][z][y][x] * pImages[n][z][y][x];
+            lWeightSum += lWeights[n][z][y][x];
+            lPlainSum += pImages[n][z][y][x];
+          }
+          lResult[z][y][x] = lWeightSum > 1e-6 ? lSum / lWeightSum
+                                               : lPlainSum / pImages.length;
+        }
+    return lResult;
+  }
+
+  private static double[][][] blurReference(double[][][] pImage,
+                                            double[] pSigmas)
+  {
+    int lDepth = pImage.length;
+    int lHeight = pImage[0].length;
+    int lWidth = pImage[0][0].length;
+    double[][][] lResult = new double[lDepth][lHeight][lWidth];
+    double[][] lKernels = new double[3][];
+    for (int d = 0; d < 3; d++)
+    {
+      int lRadius = (int) Math.ceil(3 * pSigmas[d]);
+      lKernels[d] = new double[2 * lRadius + 1];
+      double lSum = 0;
+      for (int i = -lRadius; i <= lRadius; i++)
+      {
+        lKernels[d][i + lRadius] = Math.exp(-0.5 * i
+                                            * i
+                                            / (pSigmas[d] * pSigmas[d]));
+        lSum += lKernels[d][i + lRadius];
+      }
+      for (int i = 0; i < lKernels[d].length; i++)
+      {
+        lKernels[d][i] /= lSum;
+      }
+    }
+    int lRadiusX = lKernels[0].length / 2;
+    int lRadiusY = lKernels[1].length / 2;
+    int lRadiusZ = lKernels[2].length / 2;
+    for (int z = 0; z < lDepth; z++)
+      for (int y = 0; y < lHeight; y++)
+        for (int x = 0; x < lWidth; x++)
+        {
+          double lSum = 0;
+          for (int k = 0; k < lKernels[2].length; k++)
+            for (int j = 0; j < lKernels[1].length; j++)
+              for (int i = 0; i < lKernels[0].length; i++)
+              {
+                lSum += lKernels[2][k] * lKernels[1][j]
+                        * lKernels[0][i]
+                        * pImage[clamp(z + k - lRadiusZ,
+                                       lDepth)][clamp(y + j - lRadiusY,
+                                                      lHeight)][clamp(x + i
+                                                                      - lRadiusX,
+                                                                      lWidth)];
+              }
+          lResult[z][y][x] = lSum;
+        }
+    return lResult;
+  }
+
+  private static int clamp(int pIndex, int pLength)
+  {
+    return Math.max(0, Math.min(pLength - 1, pIndex));
+  }
+
+  private static CharBuffer getPlane(StackInterface pStack, int pZ)
+  {
+    return pStack.getContiguousMemory(pZ)
+                 .getByteBuffer()
+                 .order(ByteOrder.nativeOrder())
+                 .asCharBuffer();
+  }
+
+  /**
+   * Creates a stack with a blob that is in focus on one side of the field of
+   * view for one light sheet and on the other side for the other one, plus
+   * some noise.
+   */
+  private static StackInterface createStack(int pLightSheetIndex)
+  {
+    StackInterface lStack =
+                          new ContiguousOffHeapPlanarStackFactory().create(StackRequest.build(cWidth,
+                                                                                              cHeight,
+                                                                                              cDepth));
+    Random lRandom = new Random(pLightSheetIndex);
+    double lSigma = pLightSheetIndex == 0 ? 3 : 8;
+    for (int z = 0; z < cDepth; z++)
+    {
+      CharBuffer lPlane = getPlane(lStack, z);
+      for (int y = 0; y < cHeight; y++)
+      {
+        for (int x = 0; x < cWidth; x++)
+        {
+          double lSideSigma = x < cWidth / 2 ? lSigma : 11 - lSigma;
+          double lDistance2 = Math.pow(x % 16 - 8, 2)
+                              + Math.pow(y % 16 - 8, 2)
+                              + Math.pow(z - cDepth / 2, 2);
+          double lValue = 100 + 2000 * Math.exp(-lDistance2
+                                                / (2 * lSideSigma
+                                                   * lSideSigma))
+                          + 10 * lRandom.nextGaussian();
+          lPlane.put(y * cWidth + x, (char) Math.max(0, lValue));
+        }
+      }
+    }
+    lStack.getMetaData().addEntry(MetaDataView.Camera, 0);
+    lStack.getMetaData().addEntry(MetaDataView.LightSheet,
+                                  pLightSheetIndex);
+    lStack.getMetaData().setVoxelDimX(1.0);
+    lStack.getMetaData().setVoxelDimY(1.0);
+    lStack.getMetaData().setVoxelDimZ(2.0);
+    return lStack;
+  }
+}
@@ -4,6 +4,8 @@ import java.util.Arrays;
 
 import clearcl.util.ElapsedTime;
 import clearcontrol.core.log.LoggingFeature;
+import clearcontrol.instructions.PipelinableInstructionInterface;
+import clearcontrol.instructions.PipelineStage;
 import clearcontrol.microscope.lightsheet.LightSheetMicroscope;
 import clearcontrol.microscope.lightsheet.instructions.LightSheetMicroscopeInstructionBase;
 import clearcontrol.microscope.lightsheet.processor.LightSheetFastFusionProcessor;
@@ -26,7 +28,9 @@ import coremem.recycling.RecyclerInterface;
  */
 public abstract class FusionInstruction extends
                                         LightSheetMicroscopeInstructionBase
-                                        implements LoggingFeature
+                                        implements
+                                        LoggingFeature,
+                                        PipelinableInstructionInterface
 {
   private static Object mLock = new Object();
   private StackInterface mFusedStack = null;
@@ -96,11 +100,9 @@ public abstract class FusionInstruction extends
                             }
                             if (mFusedStack == null)
                             {
-                              lProcessor.getEngine()
-                                        .executeAllTasks();
+                              lProcessor.executeAllTasks();
                               warning("Finished, but there are just "
-                                      + lProcessor.getEngine()
-                                                  .getAvailableImagesSlotKeys());
+                                      + lProcessor.getAvailableImagesSlotKeys());
                             }
                           }
                         });
@@ -121,8 +123,8 @@ public abstract class FusionInstruction extends
                                                    getLightSheetMicroscope().getDevice(LightSheetFastFusionProcessor.class,
                                                                                        0);
 
-    lProcessor.getEngine().setup(pNumberOfLightSheets,
-                                 pNumberOfDetectionArms);
+    lProcessor.setupEngine(pNumberOfLightSheets,
+                           pNumberOfDetectionArms);
   }
 
   protected void storeFusedContainer(StackInterface lFusedStack)
@@ -149,4 +151,10 @@ public abstract class FusionInstruction extends
   {
     return mFusedStack;
   }
+
+  @Override
+  public PipelineStage getPipelineStage()
+  {
+    return PipelineStage.Compute;
+  }
 }
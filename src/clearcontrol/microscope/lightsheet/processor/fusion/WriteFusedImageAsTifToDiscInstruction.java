@@ -30,7 +30,11 @@ public class WriteFusedImageAsTifToDiscInstruction extends
   @Override
   public WriteFusedImageAsTifToDiscInstruction copy()
   {
-    return new WriteFusedImageAsTifToDiscInstruction(mChannelName,
-                                                     getLightSheetMicroscope());
+    WriteFusedImageAsTifToDiscInstruction copied =
+                                                 new WriteFusedImageAsTifToDiscInstruction(mChannelName,
+                                                                                           getLightSheetMicroscope());
+    copied.getCompressionVariable()
+          .set(getCompressionVariable().get());
+    return copied;
   }
 }
\ No newline at end of file
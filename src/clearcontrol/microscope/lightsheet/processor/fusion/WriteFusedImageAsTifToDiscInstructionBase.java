@@ -26,7 +26,11 @@ public class WriteFusedImageAsTifToDiscInstructionBase extends
   @Override
   public WriteFusedImageAsTifToDiscInstructionBase copy()
   {
-    return new WriteFusedImageAsTifToDiscInstructionBase(mChannelName,
-                                                         getLightSheetMicroscope());
+    WriteFusedImageAsTifToDiscInstructionBase copied =
+                                                     new WriteFusedImageAsTifToDiscInstructionBase(mChannelName,
+                                                                                                   getLightSheetMicroscope());
+    copied.getCompressionVariable()
+          .set(getCompressionVariable().get());
+    return copied;
   }
 }
\ No newline at end of file
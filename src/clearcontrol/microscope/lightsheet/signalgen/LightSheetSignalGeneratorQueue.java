@@ -1,8 +1,10 @@
 package clearcontrol.microscope.lightsheet.signalgen;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import clearcontrol.core.device.queue.QueueInterface;
@@ -53,6 +55,12 @@ public class LightSheetSignalGeneratorQueue implements
   private final ConcurrentHashMap<LightSheetOpticalSwitch, LightSheetOpticalSwitchStaves> mOpticalSwitchToStavesMap =
                                                                                                                     new ConcurrentHashMap<>();
 
+  // lightsheet staves only recompute values that changed since the last plane.
+  // Staves shared between lightsheets need to be rewritten whenever another
+  // lightsheet wrote them in between:
+  private volatile boolean mLightSheetStavesShareChannels = false;
+  private LightSheetStaves mLastUpdatedLightSheetStaves;
+
   private final Variable<Double> mTransitionDurationInSecondsVariable =
                                                                       new Variable<Double>("mTransitionDurationInSeconds",
                                                                                            0d);
@@ -186,6 +194,16 @@ public class LightSheetSignalGeneratorQueue implements
                                            mExposureMovement,
                                            mFinalMovement);
 
+    HashSet<Integer> lStaveIndices = new HashSet<>();
+    int lNumberOfStaveIndices = 0;
+    for (LightSheetStaves lStaves : mLightSheetToStavesMap.values())
+    {
+      Set<Integer> lIndices = lStaves.getStaveIndices();
+      lStaveIndices.addAll(lIndices);
+      lNumberOfStaveIndices += lIndices.size();
+    }
+    mLightSheetStavesShareChannels =
+                                   lStaveIndices.size() < lNumberOfStaveIndices;
   }
 
   /**
@@ -212,6 +230,16 @@ public class LightSheetSignalGeneratorQueue implements
   @Override
   public void clearQueue()
   {
+    synchronized (this)
+    {
+      for (DetectionArmStaves lDetectionArmStaves : mDetectionArmToStavesMap.values())
+        lDetectionArmStaves.invalidate();
+      for (LightSheetStaves lLightSheetStaves : mLightSheetToStavesMap.values())
+        lLightSheetStaves.invalidate();
+      for (LightSheetOpticalSwitchStaves lLightSheetOpticalSwitchStaves : mOpticalSwitchToStavesMap.values())
+        lLightSheetOpticalSwitchStaves.invalidate();
+      mLastUpdatedLightSheetStaves = null;
+    }
     mDelegatedQueue.clearQueue();
   }
 
@@ -270,6 +298,10 @@ public class LightSheetSignalGeneratorQueue implements
         LightSheetStaves lLightSheetStaves =
                                            mLightSheetToStavesMap.get(lSelectedLightSheet);
 
+        if (lLightSheetStaves != mLastUpdatedLightSheetStaves)
+          lLightSheetStaves.invalidate();
+        mLastUpdatedLightSheetStaves = lLightSheetStaves;
+
         lLightSheetStaves.update(mBeforeExposureMovement,
                                  mExposureMovement,
                                  mFinalMovement);
@@ -279,6 +311,9 @@ public class LightSheetSignalGeneratorQueue implements
         for (Map.Entry<LightSheet, LightSheetStaves> lEntry : mLightSheetToStavesMap.entrySet())
         {
           LightSheetStaves lLightSheetStaves = lEntry.getValue();
+          if (mLightSheetStavesShareChannels)
+            lLightSheetStaves.invalidate();
+          mLastUpdatedLightSheetStaves = lLightSheetStaves;
           lLightSheetStaves.update(mBeforeExposureMovement,
                                    mExposureMovement,
                                    mFinalMovement);
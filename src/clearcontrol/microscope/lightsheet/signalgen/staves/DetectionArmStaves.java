@@ -21,6 +21,8 @@ public class DetectionArmStaves
 
   private final int mStaveIndex;
 
+  private final StaveDependencies mDependencies = new StaveDependencies();
+
   /**
    * Instantiates an object holding detection arm staves
    * 
@@ -100,10 +102,25 @@ public class DetectionArmStaves
                                                                     .getZFunction();
 
     double lZFocus = lZVariable.get().doubleValue();
-    float lZFocusTransformed =
-                             (float) lZFunction.get().value(lZFocus);
-    mDetectionZStave.setValue(lZFocusTransformed);
+    if (mDependencies.begin()
+                     .add(lZFunction.get())
+                     .add(lZFocus)
+                     .hasChanged())
+    {
+      float lZFocusTransformed =
+                               (float) lZFunction.get().value(lZFocus);
+      mDetectionZStave.setValue(lZFocusTransformed);
+    }
+
+  }
 
+  /**
+   * Forces the next update to rewrite the staves, e.g. because the queue was
+   * cleared.
+   */
+  public void invalidate()
+  {
+    mDependencies.invalidate();
   }
 
   /**
@@ -21,6 +21,8 @@ public class LightSheetOpticalSwitchStaves
 
   private int[] mStaveIndex;
 
+  private final StaveDependencies mDependencies = new StaveDependencies();
+
   /**
    * Instanciates given a lightsheet optical switch device and default stave
    * index.
@@ -80,6 +82,18 @@ public class LightSheetOpticalSwitchStaves
     }
   }
 
+  /**
+   * Forces the next update to rewrite the staves, e.g. because the queue was
+   * cleared.
+   */
+  public void invalidate()
+  {
+    synchronized (this)
+    {
+      mDependencies.invalidate();
+    }
+  }
+
   /**
    * Updates staves
    * 
@@ -93,6 +107,15 @@ public class LightSheetOpticalSwitchStaves
   {
     synchronized (this)
     {
+      mDependencies.begin();
+      for (int i = 0; i < mBitStave.length; i++)
+      {
+        mDependencies.add(mLightSheetOpticalSwitchQueue.getSwitchVariable(i)
+                                                       .get());
+      }
+      if (!mDependencies.hasChanged())
+        return;
+
       for (int i = 0; i < mBitStave.length; i++)
       {
         mBitStave[i].setValue(mLightSheetOpticalSwitchQueue.getSwitchVariable(i)
@@ -4,6 +4,9 @@ import static java.lang.Math.cos;
 import static java.lang.Math.round;
 import static java.lang.Math.sin;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import clearcontrol.core.configuration.MachineConfiguration;
@@ -57,6 +60,19 @@ public class LightSheetStaves implements LoggingFeature
   private int mStaveXIndex, mStaveYIndex, mStaveZIndex, mStaveBIndex,
       mStaveWIndex, mStaveLAIndex, mStaveTIndex;
 
+  private final int[] mLaserDigitalLineIndices;
+
+  private final StaveDependencies mGalvoDependencies =
+                                                     new StaveDependencies();
+  private final StaveDependencies mXDependencies =
+                                                 new StaveDependencies();
+  private final StaveDependencies mBetaDependencies =
+                                                    new StaveDependencies();
+  private final StaveDependencies mWidthAndPowerDependencies =
+                                                             new StaveDependencies();
+  private final StaveDependencies mLaserTriggerDependencies =
+                                                            new StaveDependencies();
+
   public LightSheetStaves(LightSheetQueue pLightSheetQueue)
   {
     super();
@@ -126,6 +142,19 @@ public class LightSheetStaves implements LoggingFeature
                                                                  + ".t.index",
                                                                  8 + 7);
 
+    mLaserDigitalLineIndices =
+                             new int[pLightSheetQueue.getNumberOfLaserDigitalControls()];
+    for (int i = 0; i < mLaserDigitalLineIndices.length; i++)
+    {
+      mLaserDigitalLineIndices[i] =
+                                  cCurrentMachineConfiguration.getIntegerProperty("device.lsm.lightsheet."
+                                                                                  + getLightSheet().getName()
+                                                                                  + ".ld"
+                                                                                  + i
+                                                                                  + ".index",
+                                                                                  8 + i);
+    }
+
   }
 
   protected String getDevicePrefixInConfigFile()
@@ -249,6 +278,43 @@ public class LightSheetStaves implements LoggingFeature
 
   }
 
+  /**
+   * Forces the next update to rewrite all staves, e.g. because other
+   * lightsheets share the same staves and might have modified them.
+   */
+  public void invalidate()
+  {
+    synchronized (this)
+    {
+      mGalvoDependencies.invalidate();
+      mXDependencies.invalidate();
+      mBetaDependencies.invalidate();
+      mWidthAndPowerDependencies.invalidate();
+      mLaserTriggerDependencies.invalidate();
+    }
+  }
+
+  /**
+   * Returns the indices of the signal generator channels written by these
+   * staves.
+   *
+   * @return set of stave indices
+   */
+  public Set<Integer> getStaveIndices()
+  {
+    HashSet<Integer> lStaveIndices = new HashSet<>();
+    lStaveIndices.addAll(Arrays.asList(mStaveXIndex,
+                                       mStaveYIndex,
+                                       mStaveZIndex,
+                                       mStaveBIndex,
+                                       mStaveWIndex,
+                                       mStaveLAIndex,
+                                       mStaveTIndex));
+    for (int lLaserDigitalLineIndex : mLaserDigitalLineIndices)
+      lStaveIndices.add(lLaserDigitalLineIndex);
+    return lStaveIndices;
+  }
+
   public void update(Movement pBeforeExposureMovement,
                      Movement pExposureMovement,
                      Movement pFinalMovement)
@@ -258,6 +324,11 @@ public class LightSheetStaves implements LoggingFeature
 
       // info("Updating: " + getLightSheet().getName());
 
+      // Movement durations are cheap to set and might be shared with other
+      // lightsheets, they are therefore always set. All other staves are only
+      // recomputed if the variables they depend on changed since the last
+      // plane.
+
       final double lReadoutTimeInMicroseconds =
                                               getBeforeExposureMovementDuration(TimeUnit.MICROSECONDS);
       final double lExposureMovementTimeInMicroseconds =
@@ -280,37 +351,10 @@ public class LightSheetStaves implements LoggingFeature
                                                      + lExposureMovementTimeInMicroseconds;
       mLineExposureInMicrosecondsVariable.set(lLineExposureTimeInMicroseconds);
 
-      UnivariateAffineFunction lYFunction =
-                                          getLightSheet().getYFunction()
-                                                         .get();
-
-      UnivariateAffineFunction lZFunction =
-                                          getLightSheet().getZFunction()
-                                                         .get();
-
       UnivariateAffineFunction lHeightFunction =
                                                getLightSheet().getHeightFunction()
                                                               .get();
 
-      final double lYBF = mLightSheetQueue.getYVariable()
-                                          .get()
-                                          .doubleValue();
-
-      final double lZBF = mLightSheetQueue.getZVariable()
-                                          .get()
-                                          .doubleValue();
-      final double lZminBF = mLightSheetQueue.getZVariable()
-                                             .getMin()
-                                             .doubleValue();
-      final double lZmaxBF = mLightSheetQueue.getZVariable()
-                                             .getMax()
-                                             .doubleValue();
-
-      final double lZCenter = (lZmaxBF - lZminBF) / 2;
-
-      final double lGalvoYOffsetBeforeRotation = lYBF;
-      final double lGalvoZOffsetBeforeRotation = lZBF;
-
       final double lHeightBF = mLightSheetQueue.getHeightVariable()
                                                .get()
                                                .doubleValue();
@@ -318,206 +362,298 @@ public class LightSheetStaves implements LoggingFeature
       final double lLightSheetHeight =
                                      lHeightFunction.value(lHeightBF);
 
-      final double lGalvoYOffset =
-                                 galvoRotateY(lGalvoYOffsetBeforeRotation,
-                                              lGalvoZOffsetBeforeRotation - lZCenter);
-      final double lGalvoZOffset =
-                                 galvoRotateZ(lGalvoYOffsetBeforeRotation,
-                                              lGalvoZOffsetBeforeRotation);
+      final double lOverscan = mLightSheetQueue.getOverScanVariable()
+                                               .get()
+                                               .doubleValue();
+
+      updateGalvoStaves(lLightSheetHeight);
+
+      UnivariateAffineFunction lXFunction = getLightSheet().getXFunction()
+                                                           .get();
+      final double lX = mLightSheetQueue.getXVariable()
+                                        .get()
+                                        .doubleValue();
+      if (mXDependencies.begin().add(lXFunction).add(lX).hasChanged())
+      {
+        mBeforeExposureXStave.setValue((float) lXFunction.value(lX));
+        mExposureXStave.setValue((float) lXFunction.value(lX));
+      }
+
+      UnivariateAffineFunction lBetaFunction =
+                                             getLightSheet().getBetaFunction()
+                                                            .get();
+      final double lBeta = mLightSheetQueue.getBetaInDegreesVariable()
+                                           .get()
+                                           .doubleValue();
+      if (mBetaDependencies.begin()
+                           .add(lBetaFunction)
+                           .add(lBeta)
+                           .hasChanged())
+      {
+        mBeforeExposureBStave.setValue((float) lBetaFunction.value(lBeta));
+        mExposureBStave.setValue((float) lBetaFunction.value(lBeta));
+      }
+
+      updateWidthAndPowerStaves(lLightSheetHeight, lOverscan);
+
+      updateLaserTriggerStaves(pExposureMovement,
+                               lExposureMovementTimeInMicroseconds,
+                               lOverscan);
+    }
+
+  }
+
+  private void updateGalvoStaves(double pLightSheetHeight)
+  {
+    UnivariateAffineFunction lYFunction = getLightSheet().getYFunction()
+                                                         .get();
 
-      final double lGalvoAmplitudeY = galvoRotateY(lLightSheetHeight,
-                                                   0);
-      final double lGalvoAmplitudeZ = galvoRotateZ(lLightSheetHeight,
-                                                   0);
+    UnivariateAffineFunction lZFunction = getLightSheet().getZFunction()
+                                                         .get();
 
-      final double lGalvoYLowValue =
-                                   lYFunction.value(lGalvoYOffset
+    UnivariateAffineFunction lAlphaFunction =
+                                            getLightSheet().getAlphaFunction()
+                                                           .get();
+
+    final double lYBF = mLightSheetQueue.getYVariable()
+                                        .get()
+                                        .doubleValue();
+
+    final double lZBF = mLightSheetQueue.getZVariable()
+                                        .get()
+                                        .doubleValue();
+    final double lZminBF = mLightSheetQueue.getZVariable()
+                                           .getMin()
+                                           .doubleValue();
+    final double lZmaxBF = mLightSheetQueue.getZVariable()
+                                           .getMax()
+                                           .doubleValue();
+
+    final double lAlphaDegrees =
+                               mLightSheetQueue.getAlphaInDegreesVariable()
+                                               .get()
+                                               .doubleValue();
+
+    if (!mGalvoDependencies.begin()
+                           .add(lYFunction)
+                           .add(lZFunction)
+                           .add(lAlphaFunction)
+                           .add(lYBF)
+                           .add(lZBF)
+                           .add(lZminBF)
+                           .add(lZmaxBF)
+                           .add(lAlphaDegrees)
+                           .add(pLightSheetHeight)
+                           .hasChanged())
+      return;
+
+    final double lZCenter = (lZmaxBF - lZminBF) / 2;
+
+    final double lGalvoYOffsetBeforeRotation = lYBF;
+    final double lGalvoZOffsetBeforeRotation = lZBF;
+
+    final double lGalvoYOffset =
+                               galvoRotateY(lGalvoYOffsetBeforeRotation,
+                                            lGalvoZOffsetBeforeRotation - lZCenter);
+    final double lGalvoZOffset =
+                               galvoRotateZ(lGalvoYOffsetBeforeRotation,
+                                            lGalvoZOffsetBeforeRotation);
+
+    final double lGalvoAmplitudeY = galvoRotateY(pLightSheetHeight, 0);
+    final double lGalvoAmplitudeZ = galvoRotateZ(pLightSheetHeight, 0);
+
+    final double lGalvoYLowValue = lYFunction.value(lGalvoYOffset
                                                     - lGalvoAmplitudeY);
-      final double lGalvoYHighValue =
-                                    lYFunction.value(lGalvoYOffset
+    final double lGalvoYHighValue = lYFunction.value(lGalvoYOffset
                                                      + lGalvoAmplitudeY);
 
-      final double lGalvoZLowValue =
-                                   lZFunction.value(lGalvoZOffset
+    final double lGalvoZLowValue = lZFunction.value(lGalvoZOffset
                                                     - lGalvoAmplitudeZ);
-      final double lGalvoZHighValue =
-                                    lZFunction.value(lGalvoZOffset
+    final double lGalvoZHighValue = lZFunction.value(lGalvoZOffset
                                                      + lGalvoAmplitudeZ);
 
-      mBeforeExposureYStave.setStartValue((float) lGalvoYHighValue);
-      mBeforeExposureYStave.setStopValue((float) lGalvoYLowValue);
-      mBeforeExposureYStave.setStartSlope((float) (lGalvoYHighValue
-                                                   - lGalvoYLowValue));
-      mBeforeExposureYStave.setStopSlope((float) (lGalvoYHighValue
-                                                  - lGalvoYLowValue));
-      mBeforeExposureYStave.setSmoothness(0.50f);
-      mBeforeExposureYStave.setMargin(0.1f);
-
-      mBeforeExposureZStave.setStartValue((float) lGalvoZHighValue);
-      mBeforeExposureZStave.setStopValue((float) lGalvoZLowValue);
-      mBeforeExposureZStave.setStartSlope((float) (lGalvoZHighValue
-                                                   - lGalvoZLowValue));
-      mBeforeExposureZStave.setStopSlope((float) (lGalvoZHighValue
-                                                  - lGalvoZLowValue));
-      mBeforeExposureZStave.setSmoothness(0.50f);
-      mBeforeExposureZStave.setMargin(0.1f);
-
-      mExposureYStave.setSyncStart(0);
-      mExposureYStave.setSyncStop(1);
-      mExposureYStave.setStartValue((float) lGalvoYLowValue);
-      mExposureYStave.setStopValue((float) lGalvoYHighValue);
-      mExposureYStave.setOutsideValue((float) lGalvoYHighValue);
-      mExposureYStave.setNoJump(true);
-
-      mExposureZStave.setSyncStart(0);
-      mExposureZStave.setSyncStop(1);
-      mExposureZStave.setStartValue((float) lGalvoZLowValue);
-      mExposureZStave.setStopValue((float) lGalvoZHighValue);
-      mExposureZStave.setOutsideValue((float) lGalvoZHighValue);
-      mExposureZStave.setNoJump(true);
-
-      mFinalYStave.setSyncStart(0);
-      mFinalYStave.setSyncStop(1);
-      mFinalYStave.setStartValue((float) lGalvoYHighValue);
-      mFinalYStave.setStopValue((float) lGalvoYHighValue);
-      mFinalYStave.setOutsideValue((float) lGalvoYHighValue);
-      mFinalYStave.setNoJump(true);
-
-      mBeforeExposureXStave.setValue((float) getLightSheet().getXFunction()
-                                                            .get()
-                                                            .value(mLightSheetQueue.getXVariable()
-                                                                                   .get()
-                                                                                   .doubleValue()));
-      mExposureXStave.setValue((float) getLightSheet().getXFunction()
-                                                      .get()
-                                                      .value(mLightSheetQueue.getXVariable()
-                                                                             .get()
-                                                                             .doubleValue()));
-
-      mBeforeExposureBStave.setValue((float) getLightSheet().getBetaFunction()
-                                                            .get()
-                                                            .value(mLightSheetQueue.getBetaInDegreesVariable()
-                                                                                   .get()
-                                                                                   .doubleValue()));
-      mExposureBStave.setValue((float) getLightSheet().getBetaFunction()
-                                                      .get()
-                                                      .value(mLightSheetQueue.getBetaInDegreesVariable()
-                                                                             .get()
-                                                                             .doubleValue()));
-
-      /*final double lFocalLength = mFocalLengthInMicronsVariable.get();
-      final double lLambdaInMicrons = mLambdaInMicronsVariable.get();
-      final double lLightSheetRangeInMicrons = mWidthVariable.getValue();
-      
-      final double lIrisDiameterInMm = GaussianBeamGeometry.getBeamIrisDiameter(lFocalLength,
-                                                                                lLambdaInMicrons,
-                                                                                lLightSheetRangeInMicrons);/**/
-      double lWidthValue =
-                         getLightSheet().getWidthFunction()
-                                        .get()
-                                        .value(mLightSheetQueue.getWidthVariable()
-                                                               .get()
-                                                               .doubleValue());
+    mBeforeExposureYStave.setStartValue((float) lGalvoYHighValue);
+    mBeforeExposureYStave.setStopValue((float) lGalvoYLowValue);
+    mBeforeExposureYStave.setStartSlope((float) (lGalvoYHighValue
+                                                 - lGalvoYLowValue));
+    mBeforeExposureYStave.setStopSlope((float) (lGalvoYHighValue
+                                                - lGalvoYLowValue));
+    mBeforeExposureYStave.setSmoothness(0.50f);
+    mBeforeExposureYStave.setMargin(0.1f);
+
+    mBeforeExposureZStave.setStartValue((float) lGalvoZHighValue);
+    mBeforeExposureZStave.setStopValue((float) lGalvoZLowValue);
+    mBeforeExposureZStave.setStartSlope((float) (lGalvoZHighValue
+                                                 - lGalvoZLowValue));
+    mBeforeExposureZStave.setStopSlope((float) (lGalvoZHighValue
+                                                - lGalvoZLowValue));
+    mBeforeExposureZStave.setSmoothness(0.50f);
+    mBeforeExposureZStave.setMargin(0.1f);
+
+    mExposureYStave.setSyncStart(0);
+    mExposureYStave.setSyncStop(1);
+    mExposureYStave.setStartValue((float) lGalvoYLowValue);
+    mExposureYStave.setStopValue((float) lGalvoYHighValue);
+    mExposureYStave.setOutsideValue((float) lGalvoYHighValue);
+    mExposureYStave.setNoJump(true);
+
+    mExposureZStave.setSyncStart(0);
+    mExposureZStave.setSyncStop(1);
+    mExposureZStave.setStartValue((float) lGalvoZLowValue);
+    mExposureZStave.setStopValue((float) lGalvoZHighValue);
+    mExposureZStave.setOutsideValue((float) lGalvoZHighValue);
+    mExposureZStave.setNoJump(true);
+
+    mFinalYStave.setSyncStart(0);
+    mFinalYStave.setSyncStop(1);
+    mFinalYStave.setStartValue((float) lGalvoYHighValue);
+    mFinalYStave.setStopValue((float) lGalvoYHighValue);
+    mFinalYStave.setOutsideValue((float) lGalvoYHighValue);
+    mFinalYStave.setNoJump(true);
+  }
 
-      mBeforeExposureWStave.setValue((float) lWidthValue);
-      mExposureWStave.setValue((float) lWidthValue);
+  private void updateWidthAndPowerStaves(double pLightSheetHeight,
+                                         double pOverscan)
+  {
+    UnivariateAffineFunction lWidthFunction =
+                                            getLightSheet().getWidthFunction()
+                                                           .get();
+    UnivariateAffineFunction lPowerFunction =
+                                            getLightSheet().getPowerFunction()
+                                                           .get();
+    UnivariateAffineFunction lWidthPowerFunction =
+                                                 getLightSheet().getWidthPowerFunction()
+                                                                .get();
+    UnivariateAffineFunction lHeightPowerFunction =
+                                                  getLightSheet().getHeightPowerFunction()
+                                                                 .get();
+    final double lWidth = mLightSheetQueue.getWidthVariable()
+                                          .get()
+                                          .doubleValue();
+    final double lPower = mLightSheetQueue.getPowerVariable()
+                                          .get()
+                                          .doubleValue();
+    final boolean lAdaptPowerToWidthHeight =
+                                           mLightSheetQueue.getAdaptPowerToWidthHeightVariable()
+                                                           .get();
 
-      final double lOverscan = mLightSheetQueue.getOverScanVariable()
-                                               .get()
-                                               .doubleValue();
-      double lMarginTimeInMicroseconds = (lOverscan - 1)
-                                         / (2 * lOverscan)
-                                         * lExposureMovementTimeInMicroseconds;
-      final double lMarginTimeRelativeUnits =
-                                            microsecondsToRelative(lExposureMovementTimeInMicroseconds,
-                                                                   lMarginTimeInMicroseconds);
-
-      boolean lIsStepping = true;
-      for (int i =
-                 0; i < mLightSheetQueue.getNumberOfLaserDigitalControls(); i++)
-        lIsStepping &= mLightSheetQueue.getSIPatternOnOffVariable(i)
-                                       .get();
-
-      mExposureYStave.setStepping(lIsStepping);
-      mExposureZStave.setStepping(lIsStepping);
-
-      for (int i =
-                 0; i < mLightSheetQueue.getNumberOfLaserDigitalControls(); i++)
-      {
-        final Variable<Boolean> lLaserBooleanVariable =
-                                                      mLightSheetQueue.getLaserOnOffArrayVariable(i);
-
-        if (mLightSheetQueue.getSIPatternOnOffVariable(i).get())
-        {
-
-          final StructuredIlluminationPatternInterface lStructuredIlluminatioPatternInterface =
-                                                                                              mLightSheetQueue.getSIPatternVariable(i)
-                                                                                                              .get();
-          final StaveInterface lSIIlluminationLaserTriggerStave =
-                                                                lStructuredIlluminatioPatternInterface.getStave(lMarginTimeRelativeUnits);
-          lSIIlluminationLaserTriggerStave.setEnabled(lLaserBooleanVariable.get());
-
-          setLaserDigitalTriggerStave(pExposureMovement,
-                                      i,
-                                      lSIIlluminationLaserTriggerStave);
-        }
-        else
-        {
-          mNonSIIluminationLaserTriggerStave.setEnabled(lLaserBooleanVariable.get());
-          mNonSIIluminationLaserTriggerStave.setStart((float) lMarginTimeRelativeUnits);
-          mNonSIIluminationLaserTriggerStave.setStop((float) (1.0f
-                                                              - lMarginTimeRelativeUnits));
-          setLaserDigitalTriggerStave(pExposureMovement,
-                                      i,
-                                      mNonSIIluminationLaserTriggerStave);
-        }
+    if (!mWidthAndPowerDependencies.begin()
+                                   .add(lWidthFunction)
+                                   .add(lPowerFunction)
+                                   .add(lWidthPowerFunction)
+                                   .add(lHeightPowerFunction)
+                                   .add(lWidth)
+                                   .add(lPower)
+                                   .add(lAdaptPowerToWidthHeight)
+                                   .add(pLightSheetHeight)
+                                   .add(pOverscan)
+                                   .hasChanged())
+      return;
+
+    /*final double lFocalLength = mFocalLengthInMicronsVariable.get();
+    final double lLambdaInMicrons = mLambdaInMicronsVariable.get();
+    final double lLightSheetRangeInMicrons = mWidthVariable.getValue();
+    
+    final double lIrisDiameterInMm = GaussianBeamGeometry.getBeamIrisDiameter(lFocalLength,
+                                                                              lLambdaInMicrons,
+                                                                              lLightSheetRangeInMicrons);/**/
+    double lWidthValue = lWidthFunction.value(lWidth);
+
+    mBeforeExposureWStave.setValue((float) lWidthValue);
+    mExposureWStave.setValue((float) lWidthValue);
+
+    double lPowerValue = lPowerFunction.value(lPower);
+
+    if (lAdaptPowerToWidthHeight)
+    {
+      double lWidthPowerFactor = lWidthPowerFunction.value(lWidthValue);
 
-      }
+      double lHeightPowerFactor =
+                                lHeightPowerFunction.value(pLightSheetHeight
+                                                           / pOverscan);/**/
 
-      double lPowerValue =
-                         getLightSheet().getPowerFunction()
-                                        .get()
-                                        .value(mLightSheetQueue.getPowerVariable()
-                                                               .get()
-                                                               .doubleValue());
+      lPowerValue *= lWidthPowerFactor * lHeightPowerFactor;
+    }
 
-      if (mLightSheetQueue.getAdaptPowerToWidthHeightVariable().get())
-      {
-        double lWidthPowerFactor =
-                                 getLightSheet().getWidthPowerFunction()
-                                                .get()
-                                                .value(lWidthValue);
-
-        double lHeightPowerFactor =
-                                  getLightSheet().getHeightPowerFunction()
-                                                 .get()
-                                                 .value(lLightSheetHeight
-                                                        / lOverscan);/**/
-
-        lPowerValue *= lWidthPowerFactor * lHeightPowerFactor;
-      }
+    mBeforeExposureLAStave.setValue(0f);
+    mExposureLAStave.setValue((float) lPowerValue);
+  }
 
-      mBeforeExposureLAStave.setValue(0f);
-      mExposureLAStave.setValue((float) lPowerValue);
+  private void updateLaserTriggerStaves(Movement pExposureMovement,
+                                        double pExposureMovementTimeInMicroseconds,
+                                        double pOverscan)
+  {
+    int lNumberOfLaserDigitalControls =
+                                      mLightSheetQueue.getNumberOfLaserDigitalControls();
 
+    mLaserTriggerDependencies.begin()
+                             .add(pExposureMovementTimeInMicroseconds)
+                             .add(pOverscan);
+    for (int i = 0; i < lNumberOfLaserDigitalControls; i++)
+    {
+      mLaserTriggerDependencies.add(mLightSheetQueue.getSIPatternOnOffVariable(i)
+                                                    .get())
+                               .add(mLightSheetQueue.getLaserOnOffArrayVariable(i)
+                                                    .get())
+                               .addReference(mLightSheetQueue.getSIPatternVariable(i)
+                                                             .get());
     }
+    if (!mLaserTriggerDependencies.hasChanged())
+      return;
+
+    double lMarginTimeInMicroseconds = (pOverscan - 1)
+                                       / (2 * pOverscan)
+                                       * pExposureMovementTimeInMicroseconds;
+    final double lMarginTimeRelativeUnits =
+                                          microsecondsToRelative(pExposureMovementTimeInMicroseconds,
+                                                                 lMarginTimeInMicroseconds);
+
+    boolean lIsStepping = true;
+    for (int i = 0; i < lNumberOfLaserDigitalControls; i++)
+      lIsStepping &= mLightSheetQueue.getSIPatternOnOffVariable(i)
+                                     .get();
+
+    mExposureYStave.setStepping(lIsStepping);
+    mExposureZStave.setStepping(lIsStepping);
 
+    for (int i = 0; i < lNumberOfLaserDigitalControls; i++)
+    {
+      final Variable<Boolean> lLaserBooleanVariable =
+                                                    mLightSheetQueue.getLaserOnOffArrayVariable(i);
+
+      if (mLightSheetQueue.getSIPatternOnOffVariable(i).get())
+      {
+
+        final StructuredIlluminationPatternInterface lStructuredIlluminatioPatternInterface =
+                                                                                            mLightSheetQueue.getSIPatternVariable(i)
+                                                                                                            .get();
+        final StaveInterface lSIIlluminationLaserTriggerStave =
+                                                              lStructuredIlluminatioPatternInterface.getStave(lMarginTimeRelativeUnits);
+        lSIIlluminationLaserTriggerStave.setEnabled(lLaserBooleanVariable.get());
+
+        setLaserDigitalTriggerStave(pExposureMovement,
+                                    i,
+                                    lSIIlluminationLaserTriggerStave);
+      }
+      else
+      {
+        mNonSIIluminationLaserTriggerStave.setEnabled(lLaserBooleanVariable.get());
+        mNonSIIluminationLaserTriggerStave.setStart((float) lMarginTimeRelativeUnits);
+        mNonSIIluminationLaserTriggerStave.setStop((float) (1.0f
+                                                            - lMarginTimeRelativeUnits));
+        setLaserDigitalTriggerStave(pExposureMovement,
+                                    i,
+                                    mNonSIIluminationLaserTriggerStave);
+      }
+
+    }
   }
 
   private <O extends StaveInterface> O setLaserDigitalTriggerStave(Movement pExposureMovement,
                                                                    int pLaserLineIndex,
                                                                    O pStave)
   {
-
-    final int lLaserDigitalLineIndex =
-                                     MachineConfiguration.get()
-                                                         .getIntegerProperty("device.lsm.lightsheet."
-                                                                             + getLightSheet().getName()
-                                                                             + ".ld"
-                                                                             + pLaserLineIndex
-                                                                             + ".index",
-                                                                             8 + pLaserLineIndex);
-    return pExposureMovement.ensureSetStave(lLaserDigitalLineIndex,
+    return pExposureMovement.ensureSetStave(mLaserDigitalLineIndices[pLaserLineIndex],
                                             pStave);
   }
 
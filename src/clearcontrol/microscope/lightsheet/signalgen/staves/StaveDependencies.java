@@ -0,0 +1,146 @@
+package clearcontrol.microscope.lightsheet.signalgen.staves;
+
+import java.util.Arrays;
+
+import clearcontrol.core.math.functions.UnivariateAffineFunction;
+
+/**
+ * Remembers the values of the source variables a group of staves was last
+ * computed from. Before recomputing the staves, the current values are
+ * collected with begin(), add(...) and hasChanged(); the staves only need to be
+ * rewritten if hasChanged() returns true. Collecting values does not allocate
+ * once the group has been computed the first time.
+ */
+public class StaveDependencies
+{
+  private double[] mLastValues = new double[16];
+  private double[] mCurrentValues = new double[16];
+  private Object[] mLastReferences = new Object[4];
+  private Object[] mCurrentReferences = new Object[4];
+  private int mNumberOfValues, mNumberOfReferences;
+  private int mLastNumberOfValues = -1, mLastNumberOfReferences = -1;
+
+  /**
+   * Starts collecting the current values of the dependencies
+   *
+   * @return this
+   */
+  public StaveDependencies begin()
+  {
+    mNumberOfValues = 0;
+    mNumberOfReferences = 0;
+    return this;
+  }
+
+  /**
+   * Adds the current value of a numeric dependency
+   *
+   * @param pValue
+   *          value
+   * @return this
+   */
+  public StaveDependencies add(double pValue)
+  {
+    if (mNumberOfValues == mCurrentValues.length)
+    {
+      mCurrentValues = Arrays.copyOf(mCurrentValues,
+                                     2 * mCurrentValues.length);
+    }
+    mCurrentValues[mNumberOfValues++] = pValue;
+    return this;
+  }
+
+  /**
+   * Adds the current value of a boolean dependency
+   *
+   * @param pValue
+   *          value
+   * @return this
+   */
+  public StaveDependencies add(boolean pValue)
+  {
+    return add(pValue ? 1 : 0);
+  }
+
+  /**
+   * Adds an affine function dependency. Functions might be modified in place
+   * (e.g. by calibration), therefore their current coefficients are recorded
+   * and not the function object.
+   *
+   * @param pFunction
+   *          function
+   * @return this
+   */
+  public StaveDependencies add(UnivariateAffineFunction pFunction)
+  {
+    double lConstant = pFunction.value(0);
+    return add(lConstant).add(pFunction.value(1) - lConstant);
+  }
+
+  /**
+   * Adds a dependency that is compared by identity, e.g. a structured
+   * illumination pattern
+   *
+   * @param pReference
+   *          object
+   * @return this
+   */
+  public StaveDependencies addReference(Object pReference)
+  {
+    if (mNumberOfReferences == mCurrentReferences.length)
+    {
+      mCurrentReferences = Arrays.copyOf(mCurrentReferences,
+                                         2 * mCurrentReferences.length);
+    }
+    mCurrentReferences[mNumberOfReferences++] = pReference;
+    return this;
+  }
+
+  /**
+   * Compares the collected values with the ones collected last time this
+   * method returned true.
+   *
+   * @return true if any dependency changed or if the staves were invalidated
+   */
+  public boolean hasChanged()
+  {
+    boolean lChanged = mNumberOfValues != mLastNumberOfValues
+                       || mNumberOfReferences != mLastNumberOfReferences;
+
+    for (int i = 0; !lChanged && i < mNumberOfValues; i++)
+    {
+      // compare bit patterns, so that NaN values do not count as change:
+      lChanged =
+               Double.doubleToLongBits(mCurrentValues[i]) != Double.doubleToLongBits(mLastValues[i]);
+    }
+    for (int i = 0; !lChanged && i < mNumberOfReferences; i++)
+    {
+      lChanged = mCurrentReferences[i] != mLastReferences[i];
+    }
+
+    if (lChanged)
+    {
+      double[] lValues = mLastValues;
+      mLastValues = mCurrentValues;
+      mCurrentValues = lValues.length >= mLastValues.length ? lValues
+                                                            : new double[mLastValues.length];
+      Object[] lReferences = mLastReferences;
+      mLastReferences = mCurrentReferences;
+      mCurrentReferences =
+                         lReferences.length >= mLastReferences.length ? lReferences
+                                                                      : new Object[mLastReferences.length];
+      mLastNumberOfValues = mNumberOfValues;
+      mLastNumberOfReferences = mNumberOfReferences;
+    }
+    return lChanged;
+  }
+
+  /**
+   * Forgets the recorded values, the next call to hasChanged() returns true.
+   */
+  public void invalidate()
+  {
+    mLastNumberOfValues = -1;
+    mLastNumberOfReferences = -1;
+  }
+}
@@ -0,0 +1,168 @@
+package clearcontrol.microscope.lightsheet.signalgen.staves.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import clearcontrol.core.math.functions.UnivariateAffineFunction;
+import clearcontrol.devices.signalgen.movement.Movement;
+import clearcontrol.devices.signalgen.staves.StaveInterface;
+import clearcontrol.microscope.lightsheet.component.detection.DetectionArm;
+import clearcontrol.microscope.lightsheet.component.detection.DetectionArmQueue;
+import clearcontrol.microscope.lightsheet.component.lightsheet.LightSheet;
+import clearcontrol.microscope.lightsheet.component.lightsheet.LightSheetQueue;
+import clearcontrol.microscope.lightsheet.signalgen.staves.DetectionArmStaves;
+import clearcontrol.microscope.lightsheet.signalgen.staves.LightSheetStaves;
+
+import org.junit.Test;
+
+/**
+ * Checks that staves which are only recomputed when their inputs changed end
+ * up the same as staves computed from scratch.
+ */
+public class LightSheetStavesTests
+{
+  private static final float[] cNormalizedTimes = new float[]
+  { 0f, 0.1f, 0.25f, 0.5f, 0.75f, 0.9f, 1f };
+
+  /**
+   * changes one variable or calibration function after the other and compares
+   * the incrementally updated staves with the staves of a fresh queue
+   */
+  @Test
+  public void testIncrementalUpdatesMatchFreshStaves()
+  {
+    LightSheet lLightSheet = new LightSheet("L0", 1, 2);
+    LightSheetQueue lLightSheetQueue = lLightSheet.requestQueue();
+    DetectionArm lDetectionArm = new DetectionArm("D0");
+    DetectionArmQueue lDetectionArmQueue = lDetectionArm.requestQueue();
+
+    Movement[] lMovements = createMovements();
+    LightSheetStaves lLightSheetStaves =
+                                       new LightSheetStaves(lLightSheetQueue);
+    DetectionArmStaves lDetectionArmStaves =
+                                           new DetectionArmStaves(lDetectionArmQueue);
+    lLightSheetStaves.addStavesToMovements(lMovements[0],
+                                           lMovements[1],
+                                           lMovements[2]);
+    lDetectionArmStaves.addStavesToMovements(lMovements[0],
+                                             lMovements[1],
+                                             lMovements[2]);
+
+    Runnable[] lChanges = new Runnable[]
+    { () -> lLightSheetQueue.getXVariable().set(3.0),
+      () -> lLightSheetQueue.getYVariable().set(1.5),
+      () -> lLightSheetQueue.getZVariable().set(20.0),
+      () -> lLightSheetQueue.getAlphaInDegreesVariable().set(2.0),
+      () -> lLightSheetQueue.getBetaInDegreesVariable().set(1.0),
+      () -> lLightSheetQueue.getWidthVariable().set(0.3),
+      () -> lLightSheetQueue.getHeightVariable().set(0.5),
+      () -> lLightSheetQueue.getPowerVariable().set(0.7),
+      () -> lLightSheetQueue.getAdaptPowerToWidthHeightVariable()
+                            .set(true),
+      () -> lLightSheetQueue.getLaserOnOffArrayVariable(0).set(false),
+      () -> lLightSheetQueue.getLaserOnOffArrayVariable(1).set(true),
+      () -> lLightSheetQueue.getOverScanVariable().set(1.5),
+      () -> lLightSheetQueue.getEffectiveExposureInSecondsVariable()
+                            .set(0.02),
+      () -> {
+        // calibration modifies functions in place and sets them again:
+        lLightSheet.getXFunction()
+                   .get()
+                   .composeWith(UnivariateAffineFunction.axplusb(1, 5));
+        lLightSheet.getXFunction().setCurrent();
+      },
+      () -> lLightSheet.getZFunction()
+                       .set(UnivariateAffineFunction.axplusb(2, 1)),
+      () -> lDetectionArmQueue.getZVariable().set(10.0),
+      () -> lDetectionArm.getZFunction()
+                         .set(UnivariateAffineFunction.axplusb(1, 2)) };
+
+    for (int i = 0; i < lChanges.length; i++)
+    {
+      lChanges[i].run();
+
+      lLightSheetStaves.update(lMovements[0],
+                               lMovements[1],
+                               lMovements[2]);
+      lDetectionArmStaves.update(lMovements[0],
+                                 lMovements[1],
+                                 lMovements[2]);
+
+      Movement[] lFreshMovements = createMovements();
+      LightSheetStaves lFreshLightSheetStaves =
+                                              new LightSheetStaves(lLightSheetQueue);
+      DetectionArmStaves lFreshDetectionArmStaves =
+                                                  new DetectionArmStaves(lDetectionArmQueue);
+      lFreshLightSheetStaves.addStavesToMovements(lFreshMovements[0],
+                                                  lFreshMovements[1],
+                                                  lFreshMovements[2]);
+      lFreshDetectionArmStaves.addStavesToMovements(lFreshMovements[0],
+                                                    lFreshMovements[1],
+                                                    lFreshMovements[2]);
+      lFreshLightSheetStaves.update(lFreshMovements[0],
+                                    lFreshMovements[1],
+                                    lFreshMovements[2]);
+      lFreshDetectionArmStaves.update(lFreshMovements[0],
+                                      lFreshMovements[1],
+                                      lFreshMovements[2]);
+
+      assertSameMovements("change " + i,
+                          lFreshLightSheetStaves,
+                          lFreshMovements,
+                          lMovements);
+      assertEquals("change " + i,
+                   lFreshDetectionArmStaves.getDetectionZStave()
+                                           .getValue(0),
+                   lDetectionArmStaves.getDetectionZStave().getValue(0),
+                   0);
+    }
+  }
+
+  private static Movement[] createMovements()
+  {
+    return new Movement[]
+    { new Movement("BeforeExposure"),
+      new Movement("Exposure"),
+      new Movement("Final") };
+  }
+
+  private static void assertSameMovements(String pMessage,
+                                          LightSheetStaves pLightSheetStaves,
+                                          Movement[] pExpected,
+                                          Movement[] pActual)
+  {
+    for (int m = 0; m < pExpected.length; m++)
+    {
+      assertEquals(pMessage,
+                   pExpected[m].getDuration(TimeUnit.MICROSECONDS),
+                   pActual[m].getDuration(TimeUnit.MICROSECONDS));
+
+      for (int lStaveIndex : pLightSheetStaves.getStaveIndices())
+      {
+        StaveInterface lExpected = pExpected[m].getStave(lStaveIndex);
+        StaveInterface lActual = pActual[m].getStave(lStaveIndex);
+        String lMessage = pMessage + ", movement "
+                          + m
+                          + ", stave "
+                          + lStaveIndex;
+        if (lExpected == null || lActual == null)
+        {
+          assertTrue(lMessage, lExpected == lActual);
+          continue;
+        }
+        assertEquals(lMessage,
+                     lExpected.isEnabled(),
+                     lActual.isEnabled());
+        for (float lTime : cNormalizedTimes)
+        {
+          assertEquals(lMessage + ", t=" + lTime,
+                       lExpected.getValue(lTime),
+                       lActual.getValue(lTime),
+                       1e-6f);
+        }
+      }
+    }
+  }
+}
@@ -57,6 +57,7 @@ import clearcontrol.microscope.lightsheet.warehouse.containers.StackInterfaceCon
 import clearcontrol.microscope.lightsheet.warehouse.containers.io.ReadStackInterfaceContainerFromDiscInstruction;
 import clearcontrol.microscope.lightsheet.warehouse.containers.io.WriteAllStacksAsRawToDiscInstruction;
 import clearcontrol.microscope.lightsheet.warehouse.containers.io.WriteSpecificStackToSpecificRawFolderInstruction;
+import clearcontrol.microscope.lightsheet.warehouse.containers.io.WriteStackInterfaceContainerAsN5ToDiscInstruction;
 import clearcontrol.microscope.lightsheet.warehouse.containers.io.WriteStackInterfaceContainerAsTifToDiscInstruction;
 import clearcontrol.microscope.lightsheet.warehouse.instructions.DropOldestStackInterfaceContainerInstruction;
 import clearcontrol.microscope.state.AcquisitionStateManager;
@@ -486,10 +487,14 @@ public class SimulatedLightSheetMicroscope extends
       addDevice(0,
                 new WriteStackInterfaceContainerAsTifToDiscInstruction(InterleavedImageDataContainer.class,
                                                                        this));
+      addDevice(0,
+                new WriteStackInterfaceContainerAsN5ToDiscInstruction(InterleavedImageDataContainer.class,
+                                                                      this));
 
       // ------------------------------------------------------------------------
       // Sequential imaging
       addDevice(0, new SequentialAcquisitionInstruction(this));
+      addDevice(0, new MergedSequentialAcquisitionInstruction(this));
       addDevice(0, new SequentialFusionInstruction(this));
       addDevice(0, new WriteSequentialRawDataToDiscInstruction(this));
       addDevice(0,
@@ -504,6 +509,9 @@ public class SimulatedLightSheetMicroscope extends
       addDevice(0,
                 new WriteStackInterfaceContainerAsTifToDiscInstruction(SequentialImageDataContainer.class,
                                                                        this));
+      addDevice(0,
+                new WriteStackInterfaceContainerAsN5ToDiscInstruction(SequentialImageDataContainer.class,
+                                                                      this));
 
       // ------------------------------------------------------------------------
       // optics prefused imaging
@@ -523,10 +531,16 @@ public class SimulatedLightSheetMicroscope extends
       addDevice(0,
                 new WriteStackInterfaceContainerAsTifToDiscInstruction(OpticsPrefusedImageDataContainer.class,
                                                                        this));
+      addDevice(0,
+                new WriteStackInterfaceContainerAsN5ToDiscInstruction(OpticsPrefusedImageDataContainer.class,
+                                                                      this));
 
       addDevice(0,
                 new DropOldestStackInterfaceContainerInstruction(FusedImageDataContainer.class,
                                                                  getDataWarehouse()));
+      addDevice(0,
+                new WriteStackInterfaceContainerAsN5ToDiscInstruction(FusedImageDataContainer.class,
+                                                                      this));
       addDevice(0,
                 new ViewStack3DInstruction<FusedImageDataContainer>(FusedImageDataContainer.class,
                                                                     this));
@@ -726,7 +740,9 @@ public class SimulatedLightSheetMicroscope extends
     addDevice(0, new ChangeLightSheetHeightInstruction(this, 0, 0.0));
 
     addDevice(0, new ChangeImageSizeInstruction(this));
+    addDevice(0, new FitImageSizeToSampleInstruction(this));
     addDevice(0, new ChangeZRangeInstruction(this));
+    addDevice(0, new FitZRangeToSampleInstruction(this));
 
     addDevice(0, new TimelapseStopInstruction(this));
 
@@ -0,0 +1,165 @@
+package clearcontrol.microscope.lightsheet.state;
+
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+import clearcontrol.core.concurrent.executors.AsynchronousExecutorFeature;
+import clearcontrol.microscope.lightsheet.LightSheetMicroscopeQueue;
+
+/**
+ * Keeps finalized queues, together with the signal scores generated for them,
+ * as long as the acquisition state they were compiled from has not changed.
+ * Queues are identified by a key describing the parameters of the
+ * instruction that built them. Whenever the version of the acquisition state
+ * changes, all cached queues are dropped.
+ *
+ * Cached queues are played again as they are; callers must only change
+ * entries which are the same for every time point (such as the time point
+ * metadata) on a queue they got from the cache.
+ *
+ * Queues can be compiled ahead of time on a worker thread, see prepare(...).
+ * Asking for a queue that is being compiled in the background waits for it
+ * instead of compiling it a second time.
+ */
+public class CompiledQueueCache implements AsynchronousExecutorFeature
+{
+  private final HashMap<String, CompletableFuture<LightSheetMicroscopeQueue>> mQueues =
+                                                                                    new HashMap<>();
+  private long mVersion = -1;
+
+  private long mNumberOfHits = 0;
+  private long mNumberOfMisses = 0;
+
+  /**
+   * Returns the queue compiled for the given key and acquisition state
+   * version. If there is none, it is compiled and stored. If it is being
+   * compiled in the background, this method waits until it is ready.
+   *
+   * @param pVersion
+   *          version of the acquisition state
+   * @param pKey
+   *          key identifying the instruction parameters
+   * @param pCompiler
+   *          builds and finalizes the queue
+   * @return compiled queue
+   */
+  public LightSheetMicroscopeQueue get(long pVersion,
+                                       String pKey,
+                                       Supplier<LightSheetMicroscopeQueue> pCompiler)
+  {
+    CompletableFuture<LightSheetMicroscopeQueue> lFuture;
+    boolean lCompileHere = false;
+    synchronized (this)
+    {
+      lFuture = getEntry(pVersion, pKey);
+      if (lFuture != null)
+      {
+        mNumberOfHits++;
+      }
+      else
+      {
+        mNumberOfMisses++;
+        lFuture = new CompletableFuture<>();
+        mQueues.put(pKey, lFuture);
+        lCompileHere = true;
+      }
+    }
+
+    if (lCompileHere)
+      compile(pKey, lFuture, pCompiler);
+
+    try
+    {
+      return lFuture.join();
+    }
+    catch (CompletionException e)
+    {
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+      throw e;
+    }
+  }
+
+  /**
+   * Starts compiling the queue for the given key and acquisition state version
+   * on a worker thread, unless it is already cached or being compiled. A later
+   * call to get(...) with the same version and key returns this queue.
+   *
+   * @param pVersion
+   *          version of the acquisition state
+   * @param pKey
+   *          key identifying the instruction parameters
+   * @param pCompiler
+   *          builds and finalizes the queue
+   */
+  public void prepare(long pVersion,
+                      String pKey,
+                      Supplier<LightSheetMicroscopeQueue> pCompiler)
+  {
+    CompletableFuture<LightSheetMicroscopeQueue> lFuture;
+    synchronized (this)
+    {
+      if (getEntry(pVersion, pKey) != null)
+        return;
+      lFuture = new CompletableFuture<>();
+      mQueues.put(pKey, lFuture);
+    }
+    final CompletableFuture<LightSheetMicroscopeQueue> lFinalFuture =
+                                                                    lFuture;
+    executeAsynchronously(() -> compile(pKey,
+                                        lFinalFuture,
+                                        pCompiler));
+  }
+
+  private CompletableFuture<LightSheetMicroscopeQueue> getEntry(long pVersion,
+                                                                String pKey)
+  {
+    if (pVersion != mVersion)
+    {
+      mQueues.clear();
+      mVersion = pVersion;
+    }
+
+    return mQueues.get(pKey);
+  }
+
+  private void compile(String pKey,
+                       CompletableFuture<LightSheetMicroscopeQueue> pFuture,
+                       Supplier<LightSheetMicroscopeQueue> pCompiler)
+  {
+    try
+    {
+      pFuture.complete(pCompiler.get());
+    }
+    catch (Throwable e)
+    {
+      // do not keep failed compilations, the next request tries again:
+      synchronized (this)
+      {
+        mQueues.remove(pKey, pFuture);
+      }
+      pFuture.completeExceptionally(e);
+    }
+  }
+
+  /**
+   * Drops all cached queues
+   */
+  public synchronized void clear()
+  {
+    mQueues.clear();
+    mVersion = -1;
+  }
+
+  public synchronized long getNumberOfHits()
+  {
+    return mNumberOfHits;
+  }
+
+  public synchronized long getNumberOfMisses()
+  {
+    return mNumberOfMisses;
+  }
+}
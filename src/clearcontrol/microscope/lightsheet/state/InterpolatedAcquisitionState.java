@@ -3,6 +3,8 @@ package clearcontrol.microscope.lightsheet.state;
 import static java.lang.Math.round;
 
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 import clearcontrol.core.log.LoggingFeature;
 import clearcontrol.core.variable.Variable;
@@ -13,6 +15,8 @@ import clearcontrol.microscope.lightsheet.LightSheetDOF;
 import clearcontrol.microscope.lightsheet.LightSheetMicroscopeInterface;
 import clearcontrol.microscope.lightsheet.LightSheetMicroscopeQueue;
 import clearcontrol.microscope.lightsheet.component.detection.DetectionArmInterface;
+import clearcontrol.microscope.lightsheet.component.lightsheet.LightSheetInterface;
+import clearcontrol.microscope.lightsheet.state.tables.InterpolatedValues;
 import clearcontrol.microscope.lightsheet.state.tables.InterpolationTables;
 import clearcontrol.microscope.state.AcquisitionStateBase;
 
@@ -53,6 +57,18 @@ public class InterpolatedAcquisitionState extends
 
   private volatile boolean mQueueUpdateNeeded = true;
 
+  private final AtomicLong mVersion = new AtomicLong();
+  private final CompiledQueueCache mCompiledQueueCache =
+                                                       new CompiledQueueCache();
+
+  // suppresses the range listeners while setStackZRange(...) sets all of
+  // the range variables
+  private boolean mSettingStackZRange = false;
+
+  private final Object mUpdateLock = new Object();
+  private int mUpdateDepth = 0;
+  private boolean mNotificationPending = false;
+
   /**
    * Instantiates an interpolated acquisition state
    * 
@@ -76,13 +92,16 @@ public class InterpolatedAcquisitionState extends
     final VariableSetListener lChangeListener = (o, n) -> {
       // info("State changed!");
       mQueueUpdateNeeded = true;
-      notifyListeners(this);
+      mVersion.incrementAndGet();
+      notifyStateChanged();
     };
 
     getExposureInSecondsVariable().addSetListener(lChangeListener);
     getImageWidthVariable().addSetListener(lChangeListener);
     getImageHeightVariable().addSetListener(lChangeListener);
 
+    listenToDeviceSettings();
+
     {
       DetectionArmInterface lDetectionArm =
                                           getMicroscope().getDetectionArm(0);
@@ -134,7 +153,8 @@ public class InterpolatedAcquisitionState extends
       mInterpolationTables.addChangeListener((e) -> {
         // info("Interpolation table changed!");
         mQueueUpdateNeeded = true;
-        notifyListeners(this);
+        mVersion.incrementAndGet();
+        notifyStateChanged();
       });
 
       addControlPlane(mZLowVariable.get().doubleValue());
@@ -181,19 +201,19 @@ public class InterpolatedAcquisitionState extends
     // Range listener and adjustement of the
     {
       VariableSetListener<Number> lRangeListener = (o, n) -> {
-        if (n != null && !n.equals(o))
+        if (n != null && !n.equals(o) && !mSettingStackZRange)
           setNumberOfPlanesAndZStepBasedOnRange();
       };
 
       mZLowVariable.addSetListener(lRangeListener);
       mZHighVariable.addSetListener(lRangeListener);
       mZStepVariable.addSetListener((o, n) -> {
-        if (n != null && !n.equals(o))
+        if (n != null && !n.equals(o) && !mSettingStackZRange)
           setNumberOfPlanesBasedOnZStep(n);
       });
 
       mNumberOfZPlanesVariable.addSetListener((o, n) -> {
-        if (n != null && !n.equals(o))
+        if (n != null && !n.equals(o) && !mSettingStackZRange)
           setZStepBasedOnNumberOfPlanes(n);
       });
 
@@ -280,6 +300,45 @@ public class InterpolatedAcquisitionState extends
     // System.out.println("lZPlanes=" + lZPlanes);
   }
 
+  /**
+   * Sets the Z range and the number of planes at once, the Z step follows.
+   * Setting the bounds one after the other would recompute the number of
+   * planes and the step from the intermediate ranges, and the step would drift
+   * away from the one the range was chosen for.
+   *
+   * @param pZLow
+   *          lowest Z plane
+   * @param pZHigh
+   *          highest Z plane
+   * @param pNumberOfPlanes
+   *          number of planes, at least two
+   */
+  public void setStackZRange(double pZLow,
+                             double pZHigh,
+                             long pNumberOfPlanes)
+  {
+    beginUpdate();
+    try
+    {
+      mSettingStackZRange = true;
+      try
+      {
+        mZLowVariable.set(pZLow);
+        mZHighVariable.set(pZHigh);
+        mNumberOfZPlanesVariable.set(pNumberOfPlanes);
+        mZStepVariable.set((pZHigh - pZLow) / (pNumberOfPlanes - 1));
+      }
+      finally
+      {
+        mSettingStackZRange = false;
+      }
+    }
+    finally
+    {
+      commitUpdate();
+    }
+  }
+
   /**
    * Sets the number of planes according to a given stack anisotropy
    * 
@@ -356,6 +415,57 @@ public class InterpolatedAcquisitionState extends
       mLaserOnOff[i] =
                      pInterpolatedAcquisitionState.getLaserOnOffVariable(i);
 
+    mQueueUpdateNeeded = true;
+    mVersion.incrementAndGet();
+  }
+
+  /**
+   * The functions of lightsheets and detection arms (e.g. their calibration)
+   * are compiled into the queues as well. They are mostly changed in place
+   * and then set again, which is all a listener can see. Any such change
+   * invalidates the compiled queues.
+   */
+  @SuppressWarnings("rawtypes")
+  private void listenToDeviceSettings()
+  {
+    final VariableSetListener lDeviceSettingListener = (o, n) -> {
+      mQueueUpdateNeeded = true;
+      mVersion.incrementAndGet();
+    };
+
+    for (int l = 0; l < mNumberOfLightSheets; l++)
+    {
+      LightSheetInterface lLightSheet = getMicroscope().getLightSheet(l);
+      if (lLightSheet == null)
+      {
+        continue;
+      }
+      for (Variable<?> lFunctionVariable : new Variable<?>[]
+      { lLightSheet.getXFunction(),
+        lLightSheet.getYFunction(),
+        lLightSheet.getZFunction(),
+        lLightSheet.getWidthFunction(),
+        lLightSheet.getHeightFunction(),
+        lLightSheet.getAlphaFunction(),
+        lLightSheet.getBetaFunction(),
+        lLightSheet.getPowerFunction(),
+        lLightSheet.getWidthPowerFunction(),
+        lLightSheet.getHeightPowerFunction() })
+      {
+        lFunctionVariable.addSetListener(lDeviceSettingListener);
+      }
+    }
+
+    for (int d = 0; d < mNumberOfDetectionArms; d++)
+    {
+      DetectionArmInterface lDetectionArm =
+                                          getMicroscope().getDetectionArm(d);
+      if (lDetectionArm != null)
+      {
+        lDetectionArm.getZFunction()
+                     .addSetListener(lDeviceSettingListener);
+      }
+    }
   }
 
   @Override
@@ -399,26 +509,79 @@ public class InterpolatedAcquisitionState extends
                                  ControlPlaneLayout pControlPlaneLayout)
   {
 
-    InterpolationTables lInterpolationTables =
-                                             new InterpolationTables(mInterpolationTables);
-    lInterpolationTables.removeAllControlPlanes();
+    beginUpdate();
+    try
+    {
+      InterpolationTables lInterpolationTables =
+                                               new InterpolationTables(mInterpolationTables);
+      lInterpolationTables.removeAllControlPlanes();
+
+      for (int cpi = 0; cpi < pNumberOfControlPlanes; cpi++)
+      {
+        double lNormalizedZ =
+                            pControlPlaneLayout.layout(pNumberOfControlPlanes,
+                                                       cpi);
+
+        double lAbsoluteZ = pControlPlaneLowZ
+                            + lNormalizedZ * (pControlPlaneHighZ
+                                              - pControlPlaneLowZ);
+        lInterpolationTables.addControlPlane(mInterpolationTables,
+                                             lAbsoluteZ);
+      }
+
+      mInterpolationTables.set(lInterpolationTables);
+      setupDefaultValues();
 
-    for (int cpi = 0; cpi < pNumberOfControlPlanes; cpi++)
+      notifyStateChanged();
+    }
+    finally
     {
-      double lNormalizedZ =
-                          pControlPlaneLayout.layout(pNumberOfControlPlanes,
-                                                     cpi);
-
-      double lAbsoluteZ = pControlPlaneLowZ
-                          + lNormalizedZ * (pControlPlaneHighZ
-                                            - pControlPlaneLowZ);
-      lInterpolationTables.addControlPlane(mInterpolationTables,
-                                           lAbsoluteZ);
+      commitUpdate();
     }
+  }
 
-    mInterpolationTables.set(lInterpolationTables);
-    setupDefaultValues();
+  /**
+   * Starts a transactional update of this state: changes of the
+   * interpolation tables and of the state variables made until the matching
+   * call to commitUpdate() result in a single change notification of the
+   * tables and of this state. Updates can be nested.
+   */
+  public void beginUpdate()
+  {
+    synchronized (mUpdateLock)
+    {
+      mUpdateDepth++;
+    }
+    mInterpolationTables.beginUpdate();
+  }
 
+  /**
+   * Ends a transactional update started with beginUpdate(). Listeners are
+   * notified once if anything changed.
+   */
+  public void commitUpdate()
+  {
+    mInterpolationTables.commitUpdate();
+    synchronized (mUpdateLock)
+    {
+      mUpdateDepth--;
+      if (mUpdateDepth > 0 || !mNotificationPending)
+        return;
+      mNotificationPending = false;
+    }
+    notifyListeners(this);
+  }
+
+  private void notifyStateChanged()
+  {
+    synchronized (mUpdateLock)
+    {
+      if (mUpdateDepth > 0)
+      {
+        mNotificationPending = true;
+        return;
+      }
+    }
     notifyListeners(this);
   }
 
@@ -521,7 +684,17 @@ public class InterpolatedAcquisitionState extends
    */
   public void updateQueue(boolean pForceUpdate)
   {
-    if (mQueueUpdateNeeded || pForceUpdate)
+    if (pForceUpdate)
+    {
+      mQueue = compileQueue(0,
+                            mNumberOfDetectionArms,
+                            0,
+                            mNumberOfLightSheets,
+                            0,
+                            mNumberOfLaserLines,
+                            0);
+    }
+    else if (mQueueUpdateNeeded)
     {
       mQueue = getQueue(0,
                         mNumberOfDetectionArms,
@@ -534,6 +707,10 @@ public class InterpolatedAcquisitionState extends
     mQueueUpdateNeeded = false;
   }
 
+  /**
+   * Returns the queue for the given index ranges. The queue is compiled only
+   * if the state changed since it was compiled last.
+   */
   @Override
   public LightSheetMicroscopeQueue getQueue(int pCameraIndexMin,
                                             int pCameraIndexMax,
@@ -542,6 +719,32 @@ public class InterpolatedAcquisitionState extends
                                             int pLaserLineIndexMin,
                                             int pLaserLineIndexMax,
                                             int pExtendedDepthOfFieldSliceCount)
+  {
+    String lKey = String.format("state C%d-%d L%d-%d La%d-%d EDF%d",
+                                pCameraIndexMin,
+                                pCameraIndexMax,
+                                pLightSheetIndexMin,
+                                pLightSheetIndexMax,
+                                pLaserLineIndexMin,
+                                pLaserLineIndexMax,
+                                pExtendedDepthOfFieldSliceCount);
+    return getCompiledQueue(lKey,
+                            () -> compileQueue(pCameraIndexMin,
+                                               pCameraIndexMax,
+                                               pLightSheetIndexMin,
+                                               pLightSheetIndexMax,
+                                               pLaserLineIndexMin,
+                                               pLaserLineIndexMax,
+                                               pExtendedDepthOfFieldSliceCount));
+  }
+
+  protected LightSheetMicroscopeQueue compileQueue(int pCameraIndexMin,
+                                                   int pCameraIndexMax,
+                                                   int pLightSheetIndexMin,
+                                                   int pLightSheetIndexMax,
+                                                   int pLaserLineIndexMin,
+                                                   int pLaserLineIndexMax,
+                                                   int pExtendedDepthOfFieldSliceCount)
   {
     LightSheetMicroscopeQueue lQueue = getMicroscope().requestQueue();
 
@@ -595,6 +798,63 @@ public class InterpolatedAcquisitionState extends
     return mQueue;
   }
 
+  /**
+   * Returns the version of this acquisition state. It is increased whenever
+   * interpolation tables, stack range, image size, exposure or on/off
+   * switches change, and whenever a function of a lightsheet or detection arm
+   * is set, e.g. by a calibration.
+   *
+   * @return state version
+   */
+  public long getVersion()
+  {
+    return mVersion.get();
+  }
+
+  /**
+   * Returns a queue compiled from this state for the given key. The queue is
+   * compiled using the given compiler, unless a queue for the same key has
+   * been compiled since the last change of this state.
+   *
+   * @param pKey
+   *          key identifying the parameters used to compile the queue
+   * @param pCompiler
+   *          builds and finalizes the queue
+   * @return compiled queue
+   */
+  public LightSheetMicroscopeQueue getCompiledQueue(String pKey,
+                                                    Supplier<LightSheetMicroscopeQueue> pCompiler)
+  {
+    return mCompiledQueueCache.get(getVersion(), pKey, pCompiler);
+  }
+
+  /**
+   * Starts compiling the queue for the given key on a worker thread, so that a
+   * later call to getCompiledQueue(...) with the same key does not need to wait
+   * for it. Nothing happens if the queue is already compiled for the current
+   * version of this state.
+   *
+   * @param pKey
+   *          key identifying the parameters used to compile the queue
+   * @param pCompiler
+   *          builds and finalizes the queue
+   */
+  public void prepareCompiledQueue(String pKey,
+                                   Supplier<LightSheetMicroscopeQueue> pCompiler)
+  {
+    mCompiledQueueCache.prepare(getVersion(), pKey, pCompiler);
+  }
+
+  /**
+   * Returns the cache holding queues compiled from this state
+   *
+   * @return compiled queue cache
+   */
+  public CompiledQueueCache getCompiledQueueCache()
+  {
+    return mCompiledQueueCache;
+  }
+
   /**
    * Applies acquisition state at a given z position
    * 
@@ -912,10 +1172,19 @@ public class InterpolatedAcquisitionState extends
                     int pDeviceIndex)
   {
     final double lRamp = getZRamp(pPlaneIndex);
-    final double lInterpolatedValue =
-                                    mInterpolationTables.getInterpolated(pDOF,
-                                                                         pDeviceIndex,
-                                                                         lRamp);
+    final InterpolatedValues lInterpolatedValues =
+                                                 getInterpolatedValues();
+
+    final double lInterpolatedValue;
+    if (pPlaneIndex >= 0
+        && pPlaneIndex < lInterpolatedValues.getNumberOfPlanes())
+      lInterpolatedValue = lInterpolatedValues.get(pDOF,
+                                                   pPlaneIndex,
+                                                   pDeviceIndex);
+    else
+      lInterpolatedValue = mInterpolationTables.getInterpolated(pDOF,
+                                                                pDeviceIndex,
+                                                                lRamp);
 
     if (pDOF == LightSheetDOF.DZ)
       return lRamp + lInterpolatedValue;
@@ -925,6 +1194,24 @@ public class InterpolatedAcquisitionState extends
       return lInterpolatedValue;
   }
 
+  /**
+   * Returns the values of all DOFs interpolated for every plane of the current
+   * stack and every device. The values are cached until the interpolation
+   * tables or the stack range change. Note that DZ and IZ values are relative
+   * to the Z ramp, see get(...).
+   *
+   * @return interpolated values for all stack planes
+   */
+  public InterpolatedValues getInterpolatedValues()
+  {
+    return mInterpolationTables.getInterpolatedValues(mZLowVariable.get()
+                                                                   .doubleValue(),
+                                                      getStackZStepVariable().get()
+                                                                             .doubleValue(),
+                                                      getNumberOfZPlanesVariable().get()
+                                                                                  .intValue());
+  }
+
   /**
    * Returns the number of detection arms
    * 
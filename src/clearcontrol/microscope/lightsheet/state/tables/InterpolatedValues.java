@@ -0,0 +1,103 @@
+package clearcontrol.microscope.lightsheet.state.tables;
+
+import clearcontrol.microscope.lightsheet.LightSheetDOF;
+
+/**
+ * Values of all LightSheetDOFs interpolated for every plane of a stack and
+ * every device, stored in dense primitive arrays. Instances are computed by
+ * InterpolationTables.getInterpolatedValues(...) and are immutable; they are
+ * shared between queue building, GUI and logging until the tables change.
+ *
+ * The values are the raw table values, e.g. DZ and IZ are offsets relative to
+ * the Z ramp.
+ */
+public class InterpolatedValues
+{
+  private final long mTablesModificationCount;
+  private final double mZLow;
+  private final double mZStep;
+  private final int mNumberOfPlanes;
+
+  // [dof][device][plane]
+  private final double[][][] mValues;
+
+  InterpolatedValues(long pTablesModificationCount,
+                     double pZLow,
+                     double pZStep,
+                     int pNumberOfPlanes,
+                     double[][][] pValues)
+  {
+    mTablesModificationCount = pTablesModificationCount;
+    mZLow = pZLow;
+    mZStep = pZStep;
+    mNumberOfPlanes = pNumberOfPlanes;
+    mValues = pValues;
+  }
+
+  boolean isValidFor(long pTablesModificationCount,
+                     double pZLow,
+                     double pZStep,
+                     int pNumberOfPlanes)
+  {
+    return mTablesModificationCount == pTablesModificationCount
+           && mZLow == pZLow
+           && mZStep == pZStep
+           && mNumberOfPlanes == pNumberOfPlanes;
+  }
+
+  /**
+   * Returns the interpolated value of a DOF
+   *
+   * @param pLightSheetDOF
+   *          DOF
+   * @param pPlaneIndex
+   *          stack plane index
+   * @param pDeviceIndex
+   *          device index
+   * @return interpolated value
+   */
+  public double get(LightSheetDOF pLightSheetDOF,
+                    int pPlaneIndex,
+                    int pDeviceIndex)
+  {
+    return mValues[pLightSheetDOF.ordinal()][pDeviceIndex][pPlaneIndex];
+  }
+
+  /**
+   * Returns the interpolated values of a DOF for all planes of the stack. The
+   * returned array is shared and must not be modified.
+   *
+   * @param pLightSheetDOF
+   *          DOF
+   * @param pDeviceIndex
+   *          device index
+   * @return values, one per plane
+   */
+  public double[] getValues(LightSheetDOF pLightSheetDOF,
+                            int pDeviceIndex)
+  {
+    return mValues[pLightSheetDOF.ordinal()][pDeviceIndex];
+  }
+
+  /**
+   * Returns the Z position of a stack plane
+   *
+   * @param pPlaneIndex
+   *          stack plane index
+   * @return z position
+   */
+  public double getZ(int pPlaneIndex)
+  {
+    return mZLow + pPlaneIndex * mZStep;
+  }
+
+  public int getNumberOfPlanes()
+  {
+    return mNumberOfPlanes;
+  }
+
+  public int getNumberOfDevices(LightSheetDOF pLightSheetDOF)
+  {
+    return mValues[pLightSheetDOF.ordinal()].length;
+  }
+}
@@ -1,6 +1,10 @@
 package clearcontrol.microscope.lightsheet.state.tables;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 import clearcontrol.core.device.change.ChangeListeningBase;
 import clearcontrol.core.math.interpolation.AbstractInterpolationTable;
@@ -23,6 +27,32 @@ public class InterpolationTables extends
   private ArrayList<AbstractInterpolationTable> mInterpolationTableList =
                                                                         new ArrayList<AbstractInterpolationTable>();
 
+  private final AtomicLong mModificationCount = new AtomicLong();
+  private volatile InterpolatedValues mInterpolatedValues;
+
+  private final Object mUpdateLock = new Object();
+  private int mUpdateDepth = 0;
+  private EnumSet<LightSheetDOF> mPendingChangedDOFs =
+                                                     EnumSet.noneOf(LightSheetDOF.class);
+  private boolean mPendingControlPlanesChanged = false;
+  private int mPendingNumberOfEdits = 0;
+
+  private final CopyOnWriteArrayList<DOFChangeListener> mDOFChangeListenerList =
+                                                                               new CopyOnWriteArrayList<>();
+
+  private static class DOFChangeListener
+  {
+    final InterpolationTablesChangeListener mListener;
+    final EnumSet<LightSheetDOF> mLightSheetDOFs;
+
+    DOFChangeListener(InterpolationTablesChangeListener pListener,
+                      EnumSet<LightSheetDOF> pLightSheetDOFs)
+    {
+      mListener = pListener;
+      mLightSheetDOFs = pLightSheetDOFs;
+    }
+  }
+
   /**
    * Instanciates an interpolation table given a number of detection arms and
    * lightsheets
@@ -122,6 +152,7 @@ public class InterpolationTables extends
         mInterpolationTableList.add(((SplineInterpolationTable) lSplineInterpolationTable).clone());
       }
     }
+    mModificationCount.incrementAndGet();
   }
 
   /**
@@ -134,7 +165,7 @@ public class InterpolationTables extends
   {
     for (AbstractInterpolationTable lSplineInterpolationTable : mInterpolationTableList)
       lSplineInterpolationTable.addRow(pZ);
-    notifyListeners(this);
+    notifyChanged(null);
   }
 
   /**
@@ -171,7 +202,7 @@ public class InterpolationTables extends
       }
 
     }
-    notifyListeners(this);
+    notifyChanged(null);
 
   }
 
@@ -185,7 +216,7 @@ public class InterpolationTables extends
   {
     for (AbstractInterpolationTable lSplineInterpolationTable : mInterpolationTableList)
       lSplineInterpolationTable.addRowAfter(pZ);
-    notifyListeners(this);
+    notifyChanged(null);
   }
 
   /**
@@ -198,7 +229,7 @@ public class InterpolationTables extends
   {
     for (AbstractInterpolationTable lSplineInterpolationTable : mInterpolationTableList)
       lSplineInterpolationTable.removeRow(pZ);
-    notifyListeners(this);
+    notifyChanged(null);
   }
 
   /**
@@ -213,7 +244,7 @@ public class InterpolationTables extends
   {
     for (AbstractInterpolationTable lSplineInterpolationTable : mInterpolationTableList)
       lSplineInterpolationTable.moveRow(pControlPlaneIndex, pNewZ);
-    notifyListeners(this);
+    notifyChanged(null);
   }
 
   /**
@@ -224,7 +255,7 @@ public class InterpolationTables extends
     for (AbstractInterpolationTable lSplineInterpolationTable : mInterpolationTableList)
       lSplineInterpolationTable.clear();
 
-    notifyListeners(this);
+    notifyChanged(null);
   }
 
   /**
@@ -344,7 +375,7 @@ public class InterpolationTables extends
     getTable(pLightSheetDOF).setY(pControlPlaneIndex,
                                   pDeviceIndex,
                                   pValue);
-    notifyListeners(this);
+    notifyChanged(pLightSheetDOF);
   }
 
   /**
@@ -367,7 +398,7 @@ public class InterpolationTables extends
     getTable(pLightSheetDOF).addY(pControlPlaneIndex,
                                   pDeviceIndex,
                                   pDeltaValue);
-    notifyListeners(this);
+    notifyChanged(pLightSheetDOF);
   }
 
   /**
@@ -385,7 +416,7 @@ public class InterpolationTables extends
                   double pValue)
   {
     getTable(pLightSheetDOF).setY(pControlPlaneIndex, pValue);
-    notifyListeners(this);
+    notifyChanged(pLightSheetDOF);
   }
 
   /**
@@ -399,7 +430,183 @@ public class InterpolationTables extends
   public void set(LightSheetDOF pLightSheetDOF, double pValue)
   {
     getTable(pLightSheetDOF).setY(pValue);
+    notifyChanged(pLightSheetDOF);
+  }
+
+  /**
+   * Returns the values of all DOFs interpolated for every plane of a stack and
+   * every device. The values are computed in one pass and cached until the
+   * tables or the stack geometry change, so repeated calls (queue building,
+   * GUI, logging) are cheap.
+   *
+   * @param pZLow
+   *          z position of the first plane
+   * @param pZStep
+   *          z step between planes
+   * @param pNumberOfPlanes
+   *          number of planes
+   * @return interpolated values
+   */
+  public InterpolatedValues getInterpolatedValues(double pZLow,
+                                                  double pZStep,
+                                                  int pNumberOfPlanes)
+  {
+    pNumberOfPlanes = Math.max(0, pNumberOfPlanes);
+    InterpolatedValues lInterpolatedValues = mInterpolatedValues;
+    long lModificationCount = mModificationCount.get();
+    if (lInterpolatedValues != null
+        && lInterpolatedValues.isValidFor(lModificationCount,
+                                          pZLow,
+                                          pZStep,
+                                          pNumberOfPlanes))
+      return lInterpolatedValues;
+
+    LightSheetDOF[] lLightSheetDOFs = LightSheetDOF.values();
+    double[][][] lValues = new double[lLightSheetDOFs.length][][];
+    for (LightSheetDOF lLightSheetDOF : lLightSheetDOFs)
+    {
+      AbstractInterpolationTable lTable = getTable(lLightSheetDOF);
+      int lNumberOfDevices = lTable.getNumberOfColumns();
+      double[][] lDOFValues = new double[lNumberOfDevices][pNumberOfPlanes];
+      for (int d = 0; d < lNumberOfDevices; d++)
+      {
+        double[] lDeviceValues = lDOFValues[d];
+        for (int z = 0; z < pNumberOfPlanes; z++)
+        {
+          lDeviceValues[z] = lTable.getInterpolatedValue(d,
+                                                         pZLow + z * pZStep);
+        }
+      }
+      lValues[lLightSheetDOF.ordinal()] = lDOFValues;
+    }
+
+    lInterpolatedValues = new InterpolatedValues(lModificationCount,
+                                                 pZLow,
+                                                 pZStep,
+                                                 pNumberOfPlanes,
+                                                 lValues);
+    mInterpolatedValues = lInterpolatedValues;
+    return lInterpolatedValues;
+  }
+
+  /**
+   * Returns a counter that is increased whenever the tables change
+   *
+   * @return modification count
+   */
+  public long getModificationCount()
+  {
+    return mModificationCount.get();
+  }
+
+  /**
+   * Starts a transactional update: all edits until the matching call to
+   * commitUpdate() are reported to listeners as a single change event.
+   * Updates can be nested, listeners are notified when the outermost update
+   * is committed. Cached interpolated values are invalidated immediately.
+   */
+  public void beginUpdate()
+  {
+    synchronized (mUpdateLock)
+    {
+      mUpdateDepth++;
+    }
+  }
+
+  /**
+   * Ends a transactional update started with beginUpdate(). If this ends the
+   * outermost update and any edits were made, listeners are notified once.
+   */
+  public void commitUpdate()
+  {
+    InterpolationTablesChange lChange;
+    synchronized (mUpdateLock)
+    {
+      if (mUpdateDepth == 0)
+        throw new IllegalStateException("commitUpdate() called without beginUpdate()");
+      mUpdateDepth--;
+      if (mUpdateDepth > 0 || mPendingNumberOfEdits == 0)
+        return;
+      lChange = takePendingChange();
+    }
+    fireChange(lChange);
+  }
+
+  /**
+   * Adds a listener that is only notified about changes affecting at least
+   * one of the given DOFs. Changes of the control planes affect all DOFs. If
+   * no DOF is given, the listener is notified about all changes.
+   *
+   * @param pListener
+   *          listener
+   * @param pLightSheetDOFs
+   *          DOFs of interest
+   */
+  public void addDOFChangeListener(InterpolationTablesChangeListener pListener,
+                                   LightSheetDOF... pLightSheetDOFs)
+  {
+    EnumSet<LightSheetDOF> lLightSheetDOFs =
+                                           pLightSheetDOFs.length == 0 ? EnumSet.allOf(LightSheetDOF.class)
+                                                                       : EnumSet.copyOf(Arrays.asList(pLightSheetDOFs));
+    mDOFChangeListenerList.add(new DOFChangeListener(pListener,
+                                                     lLightSheetDOFs));
+  }
+
+  /**
+   * Removes a listener added with addDOFChangeListener(...)
+   *
+   * @param pListener
+   *          listener
+   */
+  public void removeDOFChangeListener(InterpolationTablesChangeListener pListener)
+  {
+    mDOFChangeListenerList.removeIf(l -> l.mListener == pListener);
+  }
+
+  private void notifyChanged(LightSheetDOF pLightSheetDOF)
+  {
+    mModificationCount.incrementAndGet();
+    InterpolationTablesChange lChange;
+    synchronized (mUpdateLock)
+    {
+      if (pLightSheetDOF == null)
+        mPendingControlPlanesChanged = true;
+      else
+        mPendingChangedDOFs.add(pLightSheetDOF);
+      mPendingNumberOfEdits++;
+
+      if (mUpdateDepth > 0)
+        return;
+      lChange = takePendingChange();
+    }
+    fireChange(lChange);
+  }
+
+  private InterpolationTablesChange takePendingChange()
+  {
+    InterpolationTablesChange lChange =
+                                      new InterpolationTablesChange(mPendingChangedDOFs,
+                                                                    mPendingControlPlanesChanged,
+                                                                    mPendingNumberOfEdits);
+    mPendingChangedDOFs = EnumSet.noneOf(LightSheetDOF.class);
+    mPendingControlPlanesChanged = false;
+    mPendingNumberOfEdits = 0;
+    return lChange;
+  }
+
+  private void fireChange(InterpolationTablesChange pChange)
+  {
     notifyListeners(this);
+    for (DOFChangeListener lDOFChangeListener : mDOFChangeListenerList)
+    {
+      boolean lAffected = pChange.areControlPlanesChanged();
+      for (LightSheetDOF lLightSheetDOF : lDOFChangeListener.mLightSheetDOFs)
+        lAffected |= pChange.getChangedDOFs().contains(lLightSheetDOF);
+
+      if (lAffected)
+        lDOFChangeListener.mListener.interpolationTablesChanged(this,
+                                                                pChange);
+    }
   }
 
   private AbstractInterpolationTable getTable(LightSheetDOF pLightSheetDOF)
@@ -0,0 +1,80 @@
+package clearcontrol.microscope.lightsheet.state.tables;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+import clearcontrol.microscope.lightsheet.LightSheetDOF;
+
+/**
+ * Describes a change of InterpolationTables: which DOFs were edited, whether
+ * control planes were added, moved or removed, and how many single edits
+ * were coalesced into this change (e.g. within beginUpdate() and
+ * commitUpdate()).
+ */
+public class InterpolationTablesChange
+{
+  private final Set<LightSheetDOF> mChangedDOFs;
+  private final boolean mControlPlanesChanged;
+  private final int mNumberOfEdits;
+
+  InterpolationTablesChange(EnumSet<LightSheetDOF> pChangedDOFs,
+                            boolean pControlPlanesChanged,
+                            int pNumberOfEdits)
+  {
+    mChangedDOFs = Collections.unmodifiableSet(pChangedDOFs);
+    mControlPlanesChanged = pControlPlanesChanged;
+    mNumberOfEdits = pNumberOfEdits;
+  }
+
+  /**
+   * Returns the DOFs whose values were edited. If control planes changed, all
+   * DOFs are affected even if they are not listed here.
+   *
+   * @return edited DOFs
+   */
+  public Set<LightSheetDOF> getChangedDOFs()
+  {
+    return mChangedDOFs;
+  }
+
+  /**
+   * @return true if control planes were added, moved or removed
+   */
+  public boolean areControlPlanesChanged()
+  {
+    return mControlPlanesChanged;
+  }
+
+  /**
+   * @return number of single edits coalesced into this change
+   */
+  public int getNumberOfEdits()
+  {
+    return mNumberOfEdits;
+  }
+
+  /**
+   * Checks whether the values of a given DOF might have changed
+   *
+   * @param pLightSheetDOF
+   *          DOF
+   * @return true if the DOF is affected by this change
+   */
+  public boolean affects(LightSheetDOF pLightSheetDOF)
+  {
+    return mControlPlanesChanged
+           || mChangedDOFs.contains(pLightSheetDOF);
+  }
+
+  @Override
+  public String toString()
+  {
+    return "InterpolationTablesChange [edits=" + mNumberOfEdits
+           + ", DOFs="
+           + mChangedDOFs
+           + ", control planes changed="
+           + mControlPlanesChanged
+           + "]";
+  }
+}
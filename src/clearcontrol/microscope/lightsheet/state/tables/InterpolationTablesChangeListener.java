@@ -0,0 +1,14 @@
+package clearcontrol.microscope.lightsheet.state.tables;
+
+import java.util.EventListener;
+
+/**
+ * Listener for changes of selected DOFs of InterpolationTables, see
+ * InterpolationTables.addDOFChangeListener(...)
+ */
+public interface InterpolationTablesChangeListener extends
+                                                   EventListener
+{
+  void interpolationTablesChanged(InterpolationTables pInterpolationTables,
+                                  InterpolationTablesChange pChange);
+}
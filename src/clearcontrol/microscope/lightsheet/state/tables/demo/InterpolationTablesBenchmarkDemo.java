@@ -0,0 +1,90 @@
+package clearcontrol.microscope.lightsheet.state.tables.demo;
+
+import clearcontrol.microscope.lightsheet.LightSheetDOF;
+import clearcontrol.microscope.lightsheet.state.tables.InterpolatedValues;
+import clearcontrol.microscope.lightsheet.state.tables.InterpolationTables;
+
+/**
+ * Compares evaluating InterpolationTables plane by plane with the bulk
+ * getInterpolatedValues(...) API, once computed freshly and once served from
+ * the cache.
+ */
+public class InterpolationTablesBenchmarkDemo
+{
+  private static final int cNumberOfDetectionArms = 2;
+  private static final int cNumberOfLightSheets = 4;
+  private static final int cNumberOfControlPlanes = 7;
+  private static final int cNumberOfPlanes = 2000;
+  private static final double cZLow = -200;
+  private static final double cZStep = 0.2;
+  private static final int cIterations = 20;
+
+  public static void main(String[] args)
+  {
+    InterpolationTables lTables =
+                                new InterpolationTables(cNumberOfDetectionArms,
+                                                        cNumberOfLightSheets);
+    lTables.removeAllControlPlanes();
+    for (int cpi = 0; cpi < cNumberOfControlPlanes; cpi++)
+    {
+      lTables.addControlPlane(cZLow + cpi * cNumberOfPlanes
+                                      * cZStep
+                                      / (cNumberOfControlPlanes - 1));
+      for (LightSheetDOF lLightSheetDOF : LightSheetDOF.values())
+      {
+        lTables.set(lLightSheetDOF, cpi, Math.sin(cpi));
+      }
+    }
+
+    double lChecksum = 0;
+    long lStartTime = System.nanoTime();
+    for (int i = 0; i < cIterations; i++)
+    {
+      for (LightSheetDOF lLightSheetDOF : LightSheetDOF.values())
+        for (int d = 0; d < lTables.getNumberOfDevices(lLightSheetDOF); d++)
+          for (int z = 0; z < cNumberOfPlanes; z++)
+            lChecksum += lTables.getInterpolated(lLightSheetDOF,
+                                                 d,
+                                                 cZLow + z * cZStep);
+    }
+    double lPerPlaneTime = (System.nanoTime() - lStartTime) * 1e-6
+                           / cIterations;
+
+    double lBulkChecksum = 0;
+    lStartTime = System.nanoTime();
+    for (int i = 0; i < cIterations; i++)
+    {
+      // changing a value invalidates the cached values:
+      lTables.set(LightSheetDOF.IP, 0, Math.sin(0));
+      lBulkChecksum += sum(lTables.getInterpolatedValues(cZLow,
+                                                         cZStep,
+                                                         cNumberOfPlanes));
+    }
+    double lBulkTime = (System.nanoTime() - lStartTime) * 1e-6
+                       / cIterations;
+
+    lStartTime = System.nanoTime();
+    for (int i = 0; i < cIterations; i++)
+    {
+      lTables.getInterpolatedValues(cZLow, cZStep, cNumberOfPlanes);
+    }
+    double lCachedTime = (System.nanoTime() - lStartTime) * 1e-6
+                         / cIterations;
+
+    System.out.format("checksums: %g / %g\n", lChecksum, lBulkChecksum);
+    System.out.format("per plane: %8.3f ms\n", lPerPlaneTime);
+    System.out.format("bulk:      %8.3f ms\n", lBulkTime);
+    System.out.format("cached:    %8.3f ms\n", lCachedTime);
+  }
+
+  private static double sum(InterpolatedValues pInterpolatedValues)
+  {
+    double lSum = 0;
+    for (LightSheetDOF lLightSheetDOF : LightSheetDOF.values())
+      for (int d = 0; d < pInterpolatedValues.getNumberOfDevices(lLightSheetDOF); d++)
+        for (double lValue : pInterpolatedValues.getValues(lLightSheetDOF,
+                                                           d))
+          lSum += lValue;
+    return lSum;
+  }
+}
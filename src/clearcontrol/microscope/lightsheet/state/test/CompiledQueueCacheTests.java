@@ -0,0 +1,68 @@
+package clearcontrol.microscope.lightsheet.state.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import clearcontrol.core.math.functions.UnivariateAffineFunction;
+import clearcontrol.microscope.lightsheet.LightSheetMicroscope;
+import clearcontrol.microscope.lightsheet.LightSheetMicroscopeQueue;
+import clearcontrol.microscope.lightsheet.component.detection.DetectionArm;
+import clearcontrol.microscope.lightsheet.component.lightsheet.LightSheet;
+import clearcontrol.microscope.lightsheet.state.InterpolatedAcquisitionState;
+
+import org.junit.Test;
+
+/**
+ * Checks that queues compiled from an acquisition state are only reused as
+ * long as neither the state nor the device settings compiled into them
+ * changed.
+ */
+public class CompiledQueueCacheTests
+{
+  @Test
+  public void testCalibrationChangeInvalidatesQueues()
+  {
+    LightSheetMicroscope lLightSheetMicroscope =
+                                               new LightSheetMicroscope("Dummy",
+                                                                        null,
+                                                                        1,
+                                                                        1);
+    DetectionArm lDetectionArm = new DetectionArm("D0");
+    lLightSheetMicroscope.addDevice(0, lDetectionArm);
+    LightSheet lLightSheet = new LightSheet("L0", 1, 2);
+    lLightSheetMicroscope.addDevice(0, lLightSheet);
+
+    InterpolatedAcquisitionState lState =
+                                        new InterpolatedAcquisitionState("current",
+                                                                         lLightSheetMicroscope);
+
+    AtomicInteger lNumberOfCompilations = new AtomicInteger();
+    Runnable lGetQueue = () -> lState.getCompiledQueue("test", () -> {
+      lNumberOfCompilations.incrementAndGet();
+      return (LightSheetMicroscopeQueue) null;
+    });
+
+    lGetQueue.run();
+    lGetQueue.run();
+    assertEquals(1, lNumberOfCompilations.get());
+
+    // calibration modules change functions in place and set them again:
+    lLightSheet.getXFunction()
+               .get()
+               .composeWith(UnivariateAffineFunction.axplusb(1, 5));
+    lLightSheet.getXFunction().setCurrent();
+    lGetQueue.run();
+    assertEquals(2, lNumberOfCompilations.get());
+
+    lDetectionArm.getZFunction()
+                 .set(UnivariateAffineFunction.axplusb(1, 2));
+    lGetQueue.run();
+    assertEquals(3, lNumberOfCompilations.get());
+
+    lGetQueue.run();
+    assertEquals(3, lNumberOfCompilations.get());
+    assertEquals(3,
+                 lState.getCompiledQueueCache().getNumberOfMisses());
+  }
+}
@@ -0,0 +1,119 @@
+package clearcontrol.microscope.lightsheet.state.test;
+
+import static org.junit.Assert.assertEquals;
+
+import clearcontrol.microscope.lightsheet.LightSheetDOF;
+import clearcontrol.microscope.lightsheet.LightSheetMicroscope;
+import clearcontrol.microscope.lightsheet.component.detection.DetectionArm;
+import clearcontrol.microscope.lightsheet.component.lightsheet.LightSheet;
+import clearcontrol.microscope.lightsheet.state.InterpolatedAcquisitionState;
+import clearcontrol.microscope.lightsheet.state.tables.InterpolatedValues;
+import clearcontrol.microscope.lightsheet.state.tables.InterpolationTables;
+
+import org.junit.Test;
+
+/**
+ * Checks that the values interpolated for a whole stack in one pass are the
+ * values interpolated plane by plane.
+ */
+public class InterpolatedValuesTests
+{
+  /**
+   * compares bulk and per plane interpolation for every DOF, device and plane,
+   * also after the tables and the stack range changed
+   */
+  @Test
+  public void testBulkValuesMatchPerPlaneValues()
+  {
+    LightSheetMicroscope lLightSheetMicroscope =
+                                               new LightSheetMicroscope("Dummy",
+                                                                        null,
+                                                                        1,
+                                                                        1);
+    lLightSheetMicroscope.addDevice(0, new DetectionArm("D0"));
+    lLightSheetMicroscope.addDevice(1, new DetectionArm("D1"));
+    lLightSheetMicroscope.addDevice(0, new LightSheet("L0", 1, 2));
+    lLightSheetMicroscope.addDevice(1, new LightSheet("L1", 1, 2));
+
+    InterpolatedAcquisitionState lState =
+                                        new InterpolatedAcquisitionState("current",
+                                                                         lLightSheetMicroscope);
+    InterpolationTables lTables = lState.getInterpolationTables();
+
+    lTables.removeAllControlPlanes();
+    for (double lZ : new double[]
+    { -100, -20, 50, 120 })
+      lTables.addControlPlane(lZ);
+
+    // distinct values for every DOF, control plane and device:
+    for (LightSheetDOF lLightSheetDOF : LightSheetDOF.values())
+      for (int cpi = 0; cpi < lTables.getNumberOfControlPlanes(); cpi++)
+        for (int d = 0; d < lTables.getNumberOfDevices(lLightSheetDOF); d++)
+          lTables.set(lLightSheetDOF,
+                      cpi,
+                      d,
+                      Math.sin(lLightSheetDOF.ordinal() + 3 * cpi + 7 * d));
+
+    // the stack extends beyond the outermost control planes:
+    lState.setStackZRange(lTables.getMinZ() - 13.3,
+                          lTables.getMaxZ() + 7.9,
+                          97);
+    assertBulkValuesMatchPerPlaneValues(lState);
+
+    lTables.set(LightSheetDOF.IX, 1, 1, 42);
+    lTables.addControlPlane((lTables.getZ(0) + lTables.getZ(1)) / 2);
+    assertBulkValuesMatchPerPlaneValues(lState);
+
+    lState.setStackZRange(lTables.getZ(0), lTables.getZ(1), 11);
+    assertBulkValuesMatchPerPlaneValues(lState);
+  }
+
+  private static void assertBulkValuesMatchPerPlaneValues(InterpolatedAcquisitionState pState)
+  {
+    InterpolationTables lTables = pState.getInterpolationTables();
+    InterpolatedValues lInterpolatedValues =
+                                           pState.getInterpolatedValues();
+    int lNumberOfPlanes = pState.getNumberOfZPlanesVariable()
+                                .get()
+                                .intValue();
+    assertEquals(lNumberOfPlanes, lInterpolatedValues.getNumberOfPlanes());
+
+    for (LightSheetDOF lLightSheetDOF : LightSheetDOF.values())
+    {
+      assertEquals(lTables.getNumberOfDevices(lLightSheetDOF),
+                   lInterpolatedValues.getNumberOfDevices(lLightSheetDOF));
+
+      for (int d = 0; d < lTables.getNumberOfDevices(lLightSheetDOF); d++)
+      {
+        double[] lValues = lInterpolatedValues.getValues(lLightSheetDOF,
+                                                         d);
+        for (int z = 0; z < lNumberOfPlanes; z++)
+        {
+          String lMessage = lLightSheetDOF + ", device "
+                            + d
+                            + ", plane "
+                            + z;
+          double lZ = pState.getZRamp(z);
+          double lExpected = lTables.getInterpolated(lLightSheetDOF,
+                                                     d,
+                                                     lZ);
+
+          assertEquals(lMessage, lZ, lInterpolatedValues.getZ(z), 0);
+          assertEquals(lMessage,
+                       lExpected,
+                       lInterpolatedValues.get(lLightSheetDOF, z, d),
+                       0);
+          assertEquals(lMessage, lExpected, lValues[z], 0);
+
+          if (lLightSheetDOF == LightSheetDOF.DZ
+              || lLightSheetDOF == LightSheetDOF.IZ)
+            lExpected += lZ;
+          assertEquals(lMessage,
+                       lExpected,
+                       pState.get(lLightSheetDOF, z, d),
+                       0);
+        }
+      }
+    }
+  }
+}
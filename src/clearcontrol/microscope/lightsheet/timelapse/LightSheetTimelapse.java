@@ -12,9 +12,11 @@ import java.util.Date;
 import clearcontrol.core.concurrent.timing.ElapsedTime;
 import clearcontrol.core.log.LoggingFeature;
 import clearcontrol.core.variable.Variable;
+import clearcontrol.core.variable.bounded.BoundedVariable;
 import clearcontrol.instructions.InstructionInterface;
 import clearcontrol.microscope.lightsheet.LightSheetMicroscope;
-import clearcontrol.microscope.lightsheet.processor.LightSheetFastFusionEngine;
+import clearcontrol.microscope.lightsheet.warehouse.DataWarehouseMemoryManager;
+import clearcontrol.microscope.lightsheet.warehouse.containers.io.AsyncRawStackWriter;
 import clearcontrol.microscope.lightsheet.processor.LightSheetFastFusionProcessor;
 import clearcontrol.microscope.lightsheet.state.InterpolatedAcquisitionState;
 import clearcontrol.microscope.lightsheet.timelapse.containers.InstructionDurationContainer;
@@ -24,7 +26,9 @@ import clearcontrol.microscope.timelapse.TimelapseInterface;
 
 /**
  * A LightSheetTimelapse is a list of instructions, which are executed one by
- * one as long as the timelapse is running.
+ * one as long as the timelapse is running. In pipelined mode, compute
+ * instructions are executed in the background while the next hardware
+ * instructions run (see PipelinedInstructionExecutor).
  *
  * @author royer
  * @author haesleinhuepf
@@ -48,6 +52,22 @@ public class LightSheetTimelapse extends TimelapseBase implements
                                                                   new Variable<Integer>("Last executed instructions index",
                                                                                         -1);
 
+  private Variable<Boolean> mPipelinedExecutionVariable =
+                                                        new Variable<Boolean>("Pipelined execution (overlap acquisition and processing)",
+                                                                              false);
+
+  private BoundedVariable<Integer> mMaximumNumberOfPendingComputeInstructionsVariable =
+                                                                                     new BoundedVariable<Integer>("Maximum number of pending compute instructions",
+                                                                                                                  8,
+                                                                                                                  1,
+                                                                                                                  Integer.MAX_VALUE);
+
+  // set at time point 0 and taken away on stop, which may happen on another
+  // thread
+  private volatile PipelinedInstructionExecutor mPipelinedInstructionExecutor;
+
+  private final AsyncRawStackWriter mAsyncRawStackWriter;
+
   ArrayList<InstructionInterface> mInitializedInstructionsList;
 
   private BufferedWriter mLogFileWriter;
@@ -60,6 +80,9 @@ public class LightSheetTimelapse extends TimelapseBase implements
   {
     super(pLightSheetMicroscope);
     mLightSheetMicroscope = pLightSheetMicroscope;
+    mAsyncRawStackWriter =
+                         new AsyncRawStackWriter(pLightSheetMicroscope.getDataWarehouse()
+                                                                      .getMemoryManager());
 
     this.getMaxNumberOfTimePointsVariable().set(999999L);
   }
@@ -69,6 +92,12 @@ public class LightSheetTimelapse extends TimelapseBase implements
   {
     if (getTimePointCounterVariable().get() == 0)
     {
+      // leftovers of a former run must not end up in the new one
+      if (mPipelinedInstructionExecutor != null)
+      {
+        mPipelinedInstructionExecutor.waitUntilDrained();
+      }
+      mAsyncRawStackWriter.waitUntilDrained();
 
       File lLogFile = new File(getWorkingDirectory(),
                                "scheduleLog.txt");
@@ -148,13 +177,21 @@ public class LightSheetTimelapse extends TimelapseBase implements
       LightSheetFastFusionProcessor lLightSheetFastFusionProcessor =
                                                                    mLightSheetMicroscope.getDevice(LightSheetFastFusionProcessor.class,
                                                                                                    0);
-      LightSheetFastFusionEngine lLightSheetFastFusionEngine =
-                                                             lLightSheetFastFusionProcessor.getEngine();
-      if (lLightSheetFastFusionEngine != null)
+      lLightSheetFastFusionProcessor.resetEngine(true);
+      mLastExecutedInstructionIndexVariable.set(-1);
+
+      if (mPipelinedExecutionVariable.get())
       {
-        lLightSheetFastFusionEngine.reset(true);
+        if (mPipelinedInstructionExecutor == null)
+        {
+          mPipelinedInstructionExecutor =
+                                        new PipelinedInstructionExecutor(this,
+                                                                         mLightSheetMicroscope.getDataWarehouse()
+                                                                                              .getMemoryManager(),
+                                                                         mMaximumNumberOfPendingComputeInstructionsVariable.get());
+        }
+        mPipelinedInstructionExecutor.setMaximumNumberOfPendingComputeInstructions(mMaximumNumberOfPendingComputeInstructionsVariable.get());
       }
-      mLastExecutedInstructionIndexVariable.set(-1);
     }
 
     if (getStopSignalVariable().get())
@@ -197,31 +234,83 @@ public class LightSheetTimelapse extends TimelapseBase implements
         mInitializedInstructionsList.add(lNextSchedulerToRun);
       }
 
-      log("Starting " + lNextSchedulerToRun);
-      double duration = ElapsedTime.measure("instructions execution",
-                                            () -> {
-                                              lNextSchedulerToRun.enqueue(getTimePointCounterVariable().get());
-                                            });
-      log("Finished " + lNextSchedulerToRun);
+      long lTimePoint = getTimePointCounterVariable().get();
+      PipelinedInstructionExecutor lPipelinedInstructionExecutor =
+                                                                 mPipelinedInstructionExecutor;
+      if (mPipelinedExecutionVariable.get()
+          && lPipelinedInstructionExecutor != null)
+      {
+        lPipelinedInstructionExecutor.execute(lNextSchedulerToRun,
+                                              lTimePoint);
+      }
+      else
+      {
+        // pipelined mode may have been switched off while compute
+        // instructions were still pending
+        if (lPipelinedInstructionExecutor != null)
+        {
+          lPipelinedInstructionExecutor.waitUntilDrained();
+        }
+        executeInstruction(lNextSchedulerToRun, lTimePoint);
+      }
+    }
+    catch (Throwable e)
+    {
+      e.printStackTrace();
+    }
+
+  }
+
+  /**
+   * Executes an instruction, logs its start and end and stores how long the
+   * execution took in the DataWarehouse. In pipelined mode, this method is
+   * also called from the compute lane.
+   *
+   * @param pInstruction
+   *          instruction to execute
+   * @param pTimePoint
+   *          time point to pass to the instruction
+   */
+  void executeInstruction(InstructionInterface pInstruction,
+                          long pTimePoint)
+  {
+    try
+    {
+      log("Starting " + pInstruction);
+      // stacks the instruction gets from the warehouse are not recycled
+      // before it is done, even if they are spilled meanwhile
+      DataWarehouseMemoryManager lMemoryManager =
+                                                mLightSheetMicroscope.getDataWarehouse()
+                                                                     .getMemoryManager();
+      lMemoryManager.openReadLeases();
+      double duration;
+      try
+      {
+        duration = ElapsedTime.measure("instructions execution", () -> {
+          pInstruction.enqueue(pTimePoint);
+        });
+      }
+      finally
+      {
+        lMemoryManager.closeReadLeases();
+      }
+      log("Finished " + pInstruction);
 
       // store how long the execution took
       InstructionDurationContainer lContainer =
-                                              new InstructionDurationContainer(getTimePointCounterVariable().get(),
-                                                                               lNextSchedulerToRun,
+                                              new InstructionDurationContainer(pTimePoint,
+                                                                               pInstruction,
                                                                                duration);
       mLightSheetMicroscope.getDataWarehouse()
-                           .put("duration_"
-                                + getTimePointCounterVariable().get(),
-                                lContainer);
+                           .put("duration_" + pTimePoint, lContainer);
     }
     catch (Throwable e)
     {
       e.printStackTrace();
     }
-
   }
 
-  public void log(String pText)
+  public synchronized void log(String pText)
   {
     if (mLogFileWriter != null)
     {
@@ -308,4 +397,50 @@ public class LightSheetTimelapse extends TimelapseBase implements
     return mLastExecutedInstructionIndexVariable;
   }
 
+  public Variable<Boolean> getPipelinedExecutionVariable()
+  {
+    return mPipelinedExecutionVariable;
+  }
+
+  public BoundedVariable<Integer> getMaximumNumberOfPendingComputeInstructionsVariable()
+  {
+    return mMaximumNumberOfPendingComputeInstructionsVariable;
+  }
+
+  /**
+   * @return the writer used by raw writing instructions if asynchronous
+   *         writing is enabled
+   */
+  public AsyncRawStackWriter getAsyncRawStackWriter()
+  {
+    return mAsyncRawStackWriter;
+  }
+
+  /**
+   * Stops the timelapse and waits for the compute instructions still pending
+   * in pipelined mode. A new executor is set up at the next start.
+   */
+  @Override
+  public void stopTimelapse()
+  {
+    super.stopTimelapse();
+
+    PipelinedInstructionExecutor lPipelinedInstructionExecutor =
+                                                               mPipelinedInstructionExecutor;
+    mPipelinedInstructionExecutor = null;
+    if (lPipelinedInstructionExecutor != null)
+    {
+      lPipelinedInstructionExecutor.shutdown();
+    }
+  }
+
+  /**
+   * @return the executor used in pipelined mode or null if the timelapse has
+   *         not been started in pipelined mode yet or was stopped
+   */
+  public PipelinedInstructionExecutor getPipelinedInstructionExecutor()
+  {
+    return mPipelinedInstructionExecutor;
+  }
+
 }
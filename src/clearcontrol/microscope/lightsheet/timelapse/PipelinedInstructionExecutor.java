@@ -0,0 +1,260 @@
+package clearcontrol.microscope.lightsheet.timelapse;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import clearcontrol.core.log.LoggingFeature;
+import clearcontrol.instructions.InstructionInterface;
+import clearcontrol.instructions.PipelinableInstructionInterface;
+import clearcontrol.instructions.PipelineStage;
+import clearcontrol.microscope.lightsheet.warehouse.DataWarehouseMemoryManager;
+
+/**
+ * The PipelinedInstructionExecutor lets a LightSheetTimelapse overlap
+ * acquisition with processing and saving. Hardware instructions keep running
+ * in order on the timelapse thread, compute instructions are handed over to
+ * a compute lane where they are executed in program order as well. As all
+ * compute instructions work on the oldest containers of the DataWarehouse,
+ * keeping their order ensures they see the same data as in sequential mode.
+ *
+ * The compute lane is a single thread rather than a pool: compute
+ * instructions pick the oldest container of a class when they run, two of them
+ * running at the same time could pick the same container or run before the
+ * instruction producing their input. Parallelism within an instruction, e.g.
+ * the writer threads of the AsyncRawStackWriter, is up to the instruction.
+ *
+ * Backpressure: the timelapse thread blocks before the next instruction as
+ * long as too many compute instructions are pending or as long as the
+ * DataWarehouse holds more stack memory than its budget allows and compute
+ * instructions are still pending which may free memory.
+ *
+ * When the timelapse stops, shutdown() lets the pending compute instructions
+ * finish and waits for them. Compute instructions handed over after that run
+ * on the calling thread.
+ */
+public class PipelinedInstructionExecutor implements LoggingFeature
+{
+  private static final long cWaitIntervalInMilliseconds = 100;
+
+  private static final ThreadLocal<Boolean> cOnComputeLane =
+                                                           ThreadLocal.withInitial(() -> false);
+
+  private final LightSheetTimelapse mTimelapse;
+  private final DataWarehouseMemoryManager mMemoryManager;
+
+  private final ThreadPoolExecutor mComputeLane;
+
+  private final Object mPendingLock = new Object();
+  private int mNumberOfPendingComputeInstructions = 0;
+  private volatile int mMaximumNumberOfPendingComputeInstructions;
+
+  /**
+   * @param pTimelapse
+   *          timelapse whose instructions are executed
+   * @param pMemoryManager
+   *          memory manager of the DataWarehouse used for backpressure
+   * @param pMaximumNumberOfPendingComputeInstructions
+   *          number of compute instructions which may be queued before the
+   *          timelapse thread blocks
+   */
+  public PipelinedInstructionExecutor(LightSheetTimelapse pTimelapse,
+                                      DataWarehouseMemoryManager pMemoryManager,
+                                      int pMaximumNumberOfPendingComputeInstructions)
+  {
+    mTimelapse = pTimelapse;
+    mMemoryManager = pMemoryManager;
+    mMaximumNumberOfPendingComputeInstructions =
+                                               pMaximumNumberOfPendingComputeInstructions;
+
+    // one thread keeps compute instructions in program order; it terminates
+    // when idle so that it doesn't keep the JVM alive
+    mComputeLane = new ThreadPoolExecutor(1,
+                                          1,
+                                          10,
+                                          TimeUnit.SECONDS,
+                                          new LinkedBlockingQueue<Runnable>(),
+                                          (r) -> new Thread(() -> {
+                                            cOnComputeLane.set(true);
+                                            r.run();
+                                          }, "Timelapse compute lane"));
+    mComputeLane.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * @param pInstruction
+   *          instruction
+   * @return the pipeline stage of the given instruction
+   */
+  public static PipelineStage getPipelineStage(InstructionInterface pInstruction)
+  {
+    if (pInstruction instanceof PipelinableInstructionInterface)
+    {
+      return ((PipelinableInstructionInterface) pInstruction).getPipelineStage();
+    }
+    return PipelineStage.Barrier;
+  }
+
+  /**
+   * Executes an instruction according to its pipeline stage. Returns
+   * immediately for compute instructions once they are queued.
+   *
+   * @param pInstruction
+   *          instruction to execute
+   * @param pTimePoint
+   *          time point to pass to the instruction
+   */
+  public void execute(InstructionInterface pInstruction,
+                      long pTimePoint)
+  {
+    switch (getPipelineStage(pInstruction))
+    {
+    case Compute:
+      waitForCapacity();
+      synchronized (mPendingLock)
+      {
+        if (mComputeLane.isShutdown())
+        {
+          break;
+        }
+        mNumberOfPendingComputeInstructions++;
+        // handed over while holding the lock, so that shutdown() can't come
+        // in between
+        mComputeLane.execute(() -> {
+          try
+          {
+            mTimelapse.executeInstruction(pInstruction, pTimePoint);
+          }
+          finally
+          {
+            synchronized (mPendingLock)
+            {
+              mNumberOfPendingComputeInstructions--;
+              mPendingLock.notifyAll();
+            }
+          }
+        });
+        return;
+      }
+      // the lane was shut down:
+      mTimelapse.executeInstruction(pInstruction, pTimePoint);
+      break;
+    case Barrier:
+      waitUntilDrained();
+      mTimelapse.executeInstruction(pInstruction, pTimePoint);
+      break;
+    case Hardware:
+    default:
+      waitForCapacity();
+      mTimelapse.executeInstruction(pInstruction, pTimePoint);
+      break;
+    }
+  }
+
+  private void waitForCapacity()
+  {
+    synchronized (mPendingLock)
+    {
+      while (mNumberOfPendingComputeInstructions >= mMaximumNumberOfPendingComputeInstructions
+             || (mNumberOfPendingComputeInstructions > 0
+                 && isOverMemoryBudget()))
+      {
+        try
+        {
+          mPendingLock.wait(cWaitIntervalInMilliseconds);
+        }
+        catch (InterruptedException e)
+        {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+  }
+
+  private boolean isOverMemoryBudget()
+  {
+    return mMemoryManager != null
+           && mMemoryManager.getResidentBytes() > mMemoryManager.getMemoryBudgetInBytesVariable()
+                                                                .get();
+  }
+
+  /**
+   * Blocks until all queued compute instructions are finished.
+   */
+  public void waitUntilDrained()
+  {
+    synchronized (mPendingLock)
+    {
+      while (mNumberOfPendingComputeInstructions > 0)
+      {
+        try
+        {
+          mPendingLock.wait(cWaitIntervalInMilliseconds);
+        }
+        catch (InterruptedException e)
+        {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Stops the compute lane. Pending compute instructions are finished, this
+   * method waits for them unless it is called from the compute lane itself.
+   */
+  public void shutdown()
+  {
+    synchronized (mPendingLock)
+    {
+      mComputeLane.shutdown();
+    }
+    if (cOnComputeLane.get())
+    {
+      return;
+    }
+    try
+    {
+      while (!mComputeLane.awaitTermination(cWaitIntervalInMilliseconds,
+                                            TimeUnit.MILLISECONDS))
+      {
+        // pending compute instructions are still running
+      }
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      warning("Interrupted while waiting for "
+              + getNumberOfPendingComputeInstructions()
+              + " pending compute instructions");
+    }
+  }
+
+  /**
+   * @return true if shutdown() was called
+   */
+  public boolean isShutdown()
+  {
+    return mComputeLane.isShutdown();
+  }
+
+  /**
+   * @return number of compute instructions which are queued or running
+   */
+  public int getNumberOfPendingComputeInstructions()
+  {
+    synchronized (mPendingLock)
+    {
+      return mNumberOfPendingComputeInstructions;
+    }
+  }
+
+  public void setMaximumNumberOfPendingComputeInstructions(int pMaximumNumberOfPendingComputeInstructions)
+  {
+    mMaximumNumberOfPendingComputeInstructions =
+                                               Math.max(1,
+                                                        pMaximumNumberOfPendingComputeInstructions);
+  }
+}
@@ -469,6 +469,20 @@ public class LightSheetTimelapseToolbar extends TimelapseToolbar
     lAdvancedOptionsGridPane.addSeparator();
     int lRow = lAdvancedOptionsGridPane.getLastUsedRow();
 
+    lAdvancedOptionsGridPane.addCheckbox(pLightSheetTimelapse.getPipelinedExecutionVariable(),
+                                         ++lRow);
+    lAdvancedOptionsGridPane.addIntegerField(pLightSheetTimelapse.getMaximumNumberOfPendingComputeInstructionsVariable(),
+                                             ++lRow);
+    lAdvancedOptionsGridPane.addCheckbox(pLightSheetTimelapse.getAsyncRawStackWriter()
+                                                             .getEnabledVariable(),
+                                         ++lRow);
+    lAdvancedOptionsGridPane.addIntegerField(pLightSheetTimelapse.getAsyncRawStackWriter()
+                                                                 .getNumberOfWriterThreadsVariable(),
+                                             ++lRow);
+    lAdvancedOptionsGridPane.addIntegerField(pLightSheetTimelapse.getAsyncRawStackWriter()
+                                                                 .getMaximumQueueLengthVariable(),
+                                             ++lRow);
+
     {
       MicroscopeInterface lMicroscopeInterface =
                                                pLightSheetTimelapse.getMicroscope();
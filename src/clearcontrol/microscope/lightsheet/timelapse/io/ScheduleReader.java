@@ -164,6 +164,20 @@ public class ScheduleReader implements LoggingFeature
                 {
                   variable.set(new File(value));
                 }
+                else if (object instanceof Enum)
+                {
+                  try
+                  {
+                    variable.set(Enum.valueOf(((Enum) object).getDeclaringClass(),
+                                              value));
+                  }
+                  catch (IllegalArgumentException e)
+                  {
+                    warning("Unknown value " + value
+                            + " of parameter "
+                            + name);
+                  }
+                }
                 else
                 {
                   warning("Couldn't read parameter " + name);
@@ -1,50 +1,176 @@
 package clearcontrol.microscope.lightsheet.warehouse;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import clearcontrol.core.log.LoggingFeature;
 import clearcontrol.microscope.lightsheet.warehouse.containers.DataContainerInterface;
+import clearcontrol.microscope.lightsheet.warehouse.containers.StackInterfaceContainer;
 
 /**
  * The DataWarehouse represents central data storage. It allows collecting a
- * number of DataContainers containing image data grouped per timepoint. It has
- * its own recycler to ensure memory stays under a certain limit.
+ * number of DataContainers containing image data grouped per timepoint. Its
+ * DataWarehouseMemoryManager ensures memory held by stacks stays under a
+ * certain limit by spilling stacks to disc.
+ *
+ * Containers are indexed by class and time point, so that oldest/newest/range
+ * queries don't need to scan all stored containers. The warehouse can be
+ * accessed from acquisition and post-processing threads at the same time.
+ * Modifications should go through put/remove/clear/disposeContainer; the
+ * compute/merge family of methods bypasses the index and is not supported.
  *
  * Author: Robert Haase (http://haesleinhuepf.net) at MPI CBG
  * (http://mpi-cbg.de) April 2018
  */
 public class DataWarehouse extends
-                           HashMap<String, DataContainerInterface>
+                           ConcurrentHashMap<String, DataContainerInterface>
                            implements LoggingFeature
 {
+  private final transient DataWarehouseIndex mIndex =
+                                                    new DataWarehouseIndex();
+
+  private final transient DataWarehouseMemoryManager mMemoryManager =
+                                                                  new DataWarehouseMemoryManager();
+
+  // map and index are modified together while holding this lock, reading
+  // works without
+  private final transient Object mLock = new Object();
 
   @Override
   public DataContainerInterface put(String key,
                                     DataContainerInterface value)
   {
-    if (containsKey(key))
+    StackInterfaceContainer lLeavingContainer = null;
+    synchronized (mLock)
+    {
+      DataContainerInterface lFormerContainer = super.put(key, value);
+      if (lFormerContainer != null)
+      {
+        warning(key + " already exists!");
+        lLeavingContainer = containerLeft(lFormerContainer);
+      }
+      mIndex.add(key, value);
+    }
+    // outside the lock, reloading and spilling may take a while
+    detach(lLeavingContainer);
+    if (value instanceof StackInterfaceContainer)
     {
-      warning(key + " already exists!");
+      ((StackInterfaceContainer) value).setMemoryManager(mMemoryManager);
     }
-    super.put(key, value);
     return value;
   }
 
-  public <DCI extends DataContainerInterface> DCI getOldestContainer(Class pClass)
+  @Override
+  public DataContainerInterface putIfAbsent(String key,
+                                            DataContainerInterface value)
+  {
+    synchronized (mLock)
+    {
+      DataContainerInterface lExistingContainer = get(key);
+      if (lExistingContainer != null)
+      {
+        return lExistingContainer;
+      }
+      put(key, value);
+      return null;
+    }
+  }
+
+  @Override
+  public void putAll(Map<? extends String, ? extends DataContainerInterface> m)
+  {
+    for (Map.Entry<? extends String, ? extends DataContainerInterface> lEntry : m.entrySet())
+    {
+      put(lEntry.getKey(), lEntry.getValue());
+    }
+  }
+
+  @Override
+  public DataContainerInterface remove(Object key)
   {
-    long lMinimumTimePoint = Long.MAX_VALUE;
-    DCI lOldestContainer = null;
-    for (String key : keySet())
+    DataContainerInterface lContainer;
+    StackInterfaceContainer lLeavingContainer = null;
+    synchronized (mLock)
     {
-      DataContainerInterface lContainer = get(key);
-      if (pClass.isInstance(lContainer)
-          && lContainer.getTimepoint() < lMinimumTimePoint)
+      lContainer = super.remove(key);
+      if (lContainer != null)
       {
-        lMinimumTimePoint = lContainer.getTimepoint();
-        lOldestContainer = (DCI) lContainer;
+        lLeavingContainer = containerLeft(lContainer);
       }
     }
+    detach(lLeavingContainer);
+    return lContainer;
+  }
+
+  @Override
+  public boolean remove(Object key, Object value)
+  {
+    StackInterfaceContainer lLeavingContainer;
+    synchronized (mLock)
+    {
+      if (!super.remove(key, value))
+      {
+        return false;
+      }
+      lLeavingContainer = containerLeft((DataContainerInterface) value);
+    }
+    detach(lLeavingContainer);
+    return true;
+  }
+
+  @Override
+  public DataContainerInterface replace(String key,
+                                        DataContainerInterface value)
+  {
+    DataContainerInterface lFormerContainer;
+    StackInterfaceContainer lLeavingContainer;
+    synchronized (mLock)
+    {
+      if (!containsKey(key))
+      {
+        return null;
+      }
+      lFormerContainer = super.put(key, value);
+      lLeavingContainer = containerLeft(lFormerContainer);
+      mIndex.add(key, value);
+    }
+    detach(lLeavingContainer);
+    if (value instanceof StackInterfaceContainer)
+    {
+      ((StackInterfaceContainer) value).setMemoryManager(mMemoryManager);
+    }
+    return lFormerContainer;
+  }
+
+  @Override
+  public boolean replace(String key,
+                         DataContainerInterface oldValue,
+                         DataContainerInterface newValue)
+  {
+    StackInterfaceContainer lLeavingContainer;
+    synchronized (mLock)
+    {
+      if (!super.replace(key, oldValue, newValue))
+      {
+        return false;
+      }
+      lLeavingContainer = containerLeft(oldValue);
+      mIndex.add(key, newValue);
+    }
+    detach(lLeavingContainer);
+    if (newValue instanceof StackInterfaceContainer)
+    {
+      ((StackInterfaceContainer) newValue).setMemoryManager(mMemoryManager);
+    }
+    return true;
+  }
+
+  public <DCI extends DataContainerInterface> DCI getOldestContainer(Class pClass)
+  {
+    DataWarehouseIndex.Entry lEntry = mIndex.getOldest(pClass);
+    DCI lOldestContainer =
+                         lEntry == null ? null : (DCI) lEntry.mContainer;
 
     if (lOldestContainer != null)
     {
@@ -60,18 +186,9 @@ public class DataWarehouse extends
 
   public <DCI extends DataContainerInterface> DCI getNewestContainer(Class pClass)
   {
-    long lMaximumTimePoint = -Long.MAX_VALUE;
-    DCI lNewestContainer = null;
-    for (String key : keySet())
-    {
-      DataContainerInterface lContainer = get(key);
-      if (pClass.isInstance(lContainer)
-          && lContainer.getTimepoint() > lMaximumTimePoint)
-      {
-        lMaximumTimePoint = lContainer.getTimepoint();
-        lNewestContainer = (DCI) lContainer;
-      }
-    }
+    DataWarehouseIndex.Entry lEntry = mIndex.getNewest(pClass);
+    DCI lNewestContainer =
+                         lEntry == null ? null : (DCI) lEntry.mContainer;
 
     if (lNewestContainer != null)
     {
@@ -93,34 +210,55 @@ public class DataWarehouse extends
   public <DCI extends DataContainerInterface> ArrayList<DCI> getContainers(Class pClass,
                                                                            boolean pSortedByTimePointAscending)
   {
-    ArrayList<DCI> lContainerList = new ArrayList<DCI>();
-    for (String key : keySet())
-    {
-      DataContainerInterface lContainer = get(key);
-      if (pClass.isInstance(lContainer))
-      {
-        lContainerList.add((DCI) lContainer);
-      }
-    }
+    return getContainers(pClass,
+                         Long.MIN_VALUE,
+                         Long.MAX_VALUE,
+                         pSortedByTimePointAscending);
+  }
 
-    if (pSortedByTimePointAscending)
+  /**
+   * Returns all containers of a given class (including sub classes) which
+   * were created within a given time point range.
+   *
+   * @param pClass
+   *          class of the containers to return
+   * @param pFromTimepoint
+   *          first time point of the range (inclusive)
+   * @param pToTimepoint
+   *          last time point of the range (inclusive)
+   * @param pSortedByTimePointAscending
+   *          true if the list should be sorted by time point
+   * @return list of containers
+   */
+  public <DCI extends DataContainerInterface> ArrayList<DCI> getContainers(Class pClass,
+                                                                           long pFromTimepoint,
+                                                                           long pToTimepoint,
+                                                                           boolean pSortedByTimePointAscending)
+  {
+    ArrayList<DataWarehouseIndex.Entry> lEntries =
+                                                 mIndex.getRange(pClass,
+                                                                 pFromTimepoint,
+                                                                 pToTimepoint,
+                                                                 pSortedByTimePointAscending);
+    ArrayList<DCI> lContainerList = new ArrayList<DCI>(lEntries.size());
+    for (DataWarehouseIndex.Entry lEntry : lEntries)
     {
-      lContainerList.sort((a, b) -> {
-        if (a.getTimepoint() > b.getTimepoint())
-        {
-          return 1;
-        }
-        if (a.getTimepoint() < b.getTimepoint())
-        {
-          return -1;
-        }
-        return 0;
-      });
+      lContainerList.add((DCI) lEntry.mContainer);
     }
-
     return lContainerList;
   }
 
+  /**
+   * @param pContainer
+   *          container to search for
+   * @return the key the given container is stored with in the warehouse or
+   *         null if it is not stored here
+   */
+  public String getKey(DataContainerInterface pContainer)
+  {
+    return mIndex.getKey(pContainer);
+  }
+
   public void disposeContainer(DataContainerInterface pContainer)
   {
     if (pContainer == null)
@@ -130,26 +268,80 @@ public class DataWarehouse extends
 
     pContainer.dispose();
 
-    for (String key : keySet())
+    // remove(key, value) does nothing if the key was reassigned meanwhile
+    String lKey = mIndex.getKey(pContainer);
+    if (lKey != null)
     {
-      DataContainerInterface lContainer = get(key);
-      if (lContainer == pContainer)
-      {
-        info("Disposing container: " + key);
-        remove(key);
-        return;
-      }
+      info("Disposing container: " + lKey);
+      remove(lKey, pContainer);
     }
   }
 
   @Override
   public void clear()
   {
-    for (DataContainerInterface lContainer : values())
+    synchronized (mLock)
+    {
+      for (DataContainerInterface lContainer : values())
+      {
+        lContainer.dispose();
+      }
+      super.clear();
+      mIndex.clear();
+    }
+  }
+
+  /**
+   * Removes a container from the index, has to be called while holding the
+   * lock. From now on, none of the stacks of a leaving stack container is
+   * spilled again; it has to be detached with detach() after releasing the
+   * lock.
+   *
+   * @return the container if it is a stack container, null otherwise
+   */
+  private StackInterfaceContainer containerLeft(DataContainerInterface pContainer)
+  {
+    mIndex.remove(pContainer);
+    if (!(pContainer instanceof StackInterfaceContainer))
     {
-      lContainer.dispose();
+      return null;
     }
-    super.clear();
+    StackInterfaceContainer lContainer =
+                                       (StackInterfaceContainer) pContainer;
+    mMemoryManager.beginLeaving(lContainer);
+    return lContainer;
+  }
+
+  /**
+   * Reads the spilled stacks of a container which left the warehouse back
+   * into memory and detaches it from the memory manager. Must not be called
+   * while holding the lock: reading from disc would block every other
+   * modification of the warehouse.
+   */
+  private void detach(StackInterfaceContainer pLeavingContainer)
+  {
+    if (pLeavingContainer == null)
+    {
+      return;
+    }
+    try
+    {
+      pLeavingContainer.values();
+      pLeavingContainer.setMemoryManager(null);
+    }
+    finally
+    {
+      mMemoryManager.endLeaving(pLeavingContainer);
+    }
+  }
+
+  /**
+   * @return the memory manager keeping stacks in this warehouse under a given
+   *         memory budget
+   */
+  public DataWarehouseMemoryManager getMemoryManager()
+  {
+    return mMemoryManager;
   }
 
 }
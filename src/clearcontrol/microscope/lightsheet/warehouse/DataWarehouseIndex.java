@@ -0,0 +1,230 @@
+package clearcontrol.microscope.lightsheet.warehouse;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import clearcontrol.microscope.lightsheet.warehouse.containers.DataContainerInterface;
+
+/**
+ * The DataWarehouseIndex keeps the containers of the DataWarehouse sorted by
+ * container class and time point. Oldest/newest/range queries cost O(log N)
+ * per stored container class and removal by identity costs O(1) lookup plus
+ * O(log N) index maintenance. All structures are concurrent, reading does not
+ * need any lock.
+ */
+class DataWarehouseIndex
+{
+  /**
+   * Single entry of the index. Entries of the same time point are ordered by
+   * insertion.
+   */
+  static final class Entry
+  {
+    final String mKey;
+    final DataContainerInterface mContainer;
+    final long mTimepoint;
+    final long mSequence;
+
+    Entry(String pKey,
+          DataContainerInterface pContainer,
+          long pSequence)
+    {
+      mKey = pKey;
+      mContainer = pContainer;
+      mTimepoint = pContainer.getTimepoint();
+      mSequence = pSequence;
+    }
+
+    /**
+     * Creates a probe entry used as boundary for range queries
+     */
+    Entry(long pTimepoint, long pSequence)
+    {
+      mKey = null;
+      mContainer = null;
+      mTimepoint = pTimepoint;
+      mSequence = pSequence;
+    }
+  }
+
+  /**
+   * Wraps a container to compare it by identity, containers implementing Map
+   * may have an equals() method comparing content
+   */
+  private static final class IdentityKey
+  {
+    private final Object mObject;
+
+    IdentityKey(Object pObject)
+    {
+      mObject = pObject;
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return System.identityHashCode(mObject);
+    }
+
+    @Override
+    public boolean equals(Object pOther)
+    {
+      return pOther instanceof IdentityKey
+             && ((IdentityKey) pOther).mObject == mObject;
+    }
+  }
+
+  private static final Comparator<Entry> cTimepointComparator =
+                                                            Comparator.<Entry> comparingLong(e -> e.mTimepoint)
+                                                                      .thenComparingLong(e -> e.mSequence);
+
+  private final ConcurrentHashMap<Class<?>, NavigableSet<Entry>> mEntriesPerClass =
+                                                                                 new ConcurrentHashMap<>();
+
+  private final ConcurrentHashMap<IdentityKey, Entry> mEntriesPerContainer =
+                                                                        new ConcurrentHashMap<>();
+
+  private final AtomicLong mSequenceCounter = new AtomicLong();
+
+  void add(String pKey, DataContainerInterface pContainer)
+  {
+    Entry lEntry = new Entry(pKey,
+                             pContainer,
+                             mSequenceCounter.getAndIncrement());
+    mEntriesPerClass.computeIfAbsent(pContainer.getClass(),
+                                     (c) -> new ConcurrentSkipListSet<>(cTimepointComparator))
+                    .add(lEntry);
+    mEntriesPerContainer.put(new IdentityKey(pContainer), lEntry);
+  }
+
+  void remove(DataContainerInterface pContainer)
+  {
+    Entry lEntry =
+                 mEntriesPerContainer.remove(new IdentityKey(pContainer));
+    if (lEntry == null)
+    {
+      return;
+    }
+    NavigableSet<Entry> lEntries =
+                                 mEntriesPerClass.get(pContainer.getClass());
+    if (lEntries != null)
+    {
+      lEntries.remove(lEntry);
+    }
+  }
+
+  void clear()
+  {
+    mEntriesPerContainer.clear();
+    mEntriesPerClass.clear();
+  }
+
+  /**
+   * @return the key under which the given container is stored or null if it
+   *         is not part of the index
+   */
+  String getKey(DataContainerInterface pContainer)
+  {
+    Entry lEntry =
+                 mEntriesPerContainer.get(new IdentityKey(pContainer));
+    return lEntry == null ? null : lEntry.mKey;
+  }
+
+  Entry getOldest(Class<?> pClass)
+  {
+    Entry lOldest = null;
+    for (Map.Entry<Class<?>, NavigableSet<Entry>> lClassEntries : mEntriesPerClass.entrySet())
+    {
+      if (!pClass.isAssignableFrom(lClassEntries.getKey()))
+      {
+        continue;
+      }
+      Entry lCandidate = first(lClassEntries.getValue());
+      if (lCandidate != null && (lOldest == null
+                                 || cTimepointComparator.compare(lCandidate,
+                                                                 lOldest) < 0))
+      {
+        lOldest = lCandidate;
+      }
+    }
+    return lOldest;
+  }
+
+  Entry getNewest(Class<?> pClass)
+  {
+    Entry lNewest = null;
+    for (Map.Entry<Class<?>, NavigableSet<Entry>> lClassEntries : mEntriesPerClass.entrySet())
+    {
+      if (!pClass.isAssignableFrom(lClassEntries.getKey()))
+      {
+        continue;
+      }
+      Entry lCandidate = last(lClassEntries.getValue());
+      if (lCandidate != null && (lNewest == null
+                                 || cTimepointComparator.compare(lCandidate,
+                                                                 lNewest) > 0))
+      {
+        lNewest = lCandidate;
+      }
+    }
+    return lNewest;
+  }
+
+  /**
+   * Collects all entries of the given class (including sub classes) with time
+   * points within the given range (both inclusive).
+   */
+  ArrayList<Entry> getRange(Class<?> pClass,
+                            long pFromTimepoint,
+                            long pToTimepoint,
+                            boolean pSorted)
+  {
+    ArrayList<Entry> lResult = new ArrayList<>();
+    if (pFromTimepoint > pToTimepoint)
+    {
+      return lResult;
+    }
+    Entry lFrom = new Entry(pFromTimepoint, Long.MIN_VALUE);
+    Entry lTo = new Entry(pToTimepoint, Long.MAX_VALUE);
+
+    int lNumberOfMatchingClasses = 0;
+    for (Map.Entry<Class<?>, NavigableSet<Entry>> lClassEntries : mEntriesPerClass.entrySet())
+    {
+      if (!pClass.isAssignableFrom(lClassEntries.getKey()))
+      {
+        continue;
+      }
+      lResult.addAll(lClassEntries.getValue()
+                                  .subSet(lFrom, true, lTo, true));
+      lNumberOfMatchingClasses++;
+    }
+
+    // every per-class set is sorted already, merging is only necessary if
+    // several classes contributed
+    if (pSorted && lNumberOfMatchingClasses > 1)
+    {
+      lResult.sort(cTimepointComparator);
+    }
+    return lResult;
+  }
+
+  // first() and last() throw if the set was emptied concurrently, iterators
+  // don't
+  private static Entry first(NavigableSet<Entry> pSet)
+  {
+    Iterator<Entry> lIterator = pSet.iterator();
+    return lIterator.hasNext() ? lIterator.next() : null;
+  }
+
+  private static Entry last(NavigableSet<Entry> pSet)
+  {
+    Iterator<Entry> lIterator = pSet.descendingIterator();
+    return lIterator.hasNext() ? lIterator.next() : null;
+  }
+}
@@ -0,0 +1,749 @@
+package clearcontrol.microscope.lightsheet.warehouse;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import clearcontrol.core.log.LoggingFeature;
+import clearcontrol.core.variable.Variable;
+import clearcontrol.microscope.lightsheet.warehouse.containers.SpilledStack;
+import clearcontrol.microscope.lightsheet.warehouse.containers.StackInterfaceContainer;
+import clearcontrol.stack.ContiguousOffHeapPlanarStackFactory;
+import clearcontrol.stack.StackInterface;
+import clearcontrol.stack.StackRequest;
+import coremem.ContiguousMemoryInterface;
+import coremem.fragmented.FragmentedMemoryInterface;
+import coremem.recycling.BasicRecycler;
+import coremem.recycling.RecyclerInterface;
+
+/**
+ * The DataWarehouseMemoryManager keeps the off-heap memory held by
+ * StackInterfaceContainers in the DataWarehouse under a configurable budget.
+ * When the budget is exceeded, stacks are written to a raw cache folder and
+ * released to their recycler. A spilled stack is read back transparently the
+ * next time it is requested from its container.
+ *
+ * The budget is enforced whenever stacks enter the warehouse. Victims are
+ * chosen while holding the lock of the manager, but written to disc outside of
+ * it, so that containers can be read while stacks are spilled.
+ *
+ * A thread can open read leases, as the timelapse does around every
+ * instruction. Stacks it gets from containers until it closes the leases are
+ * not released to their recycler in the meantime, even if they are spilled.
+ * Without open read leases, references to stacks should not be kept but the
+ * container should be asked again.
+ */
+public class DataWarehouseMemoryManager implements LoggingFeature
+{
+  /**
+   * Identifies a stack which is currently held in memory
+   */
+  private static final class ResidentStack
+  {
+    final StackInterfaceContainer mContainer;
+    final String mKey;
+
+    ResidentStack(StackInterfaceContainer pContainer, String pKey)
+    {
+      mContainer = pContainer;
+      mKey = pKey;
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return 31 * System.identityHashCode(mContainer) + mKey.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object pOther)
+    {
+      if (!(pOther instanceof ResidentStack))
+      {
+        return false;
+      }
+      ResidentStack lOther = (ResidentStack) pOther;
+      return lOther.mContainer == mContainer
+             && Objects.equals(lOther.mKey, mKey);
+    }
+  }
+
+  private final Variable<Long> mMemoryBudgetInBytesVariable =
+                                                            new Variable<Long>("Memory budget in bytes",
+                                                                               Long.MAX_VALUE);
+
+  private final Variable<WarehouseEvictionPolicy> mEvictionPolicyVariable =
+                                                                          new Variable<WarehouseEvictionPolicy>("Eviction policy",
+                                                                                                                WarehouseEvictionPolicy.OldestTimepointFirst);
+
+  private final Variable<File> mSpillFolderVariable =
+                                                    new Variable<File>("Spill folder",
+                                                                       new File(System.getProperty("java.io.tmpdir"),
+                                                                                "clearcontrol_warehouse_cache"));
+
+  /**
+   * Stack chosen to be spilled
+   */
+  private static final class Victim
+  {
+    final ResidentStack mResidentStack;
+    final StackInterface mStack;
+
+    Victim(ResidentStack pResidentStack, StackInterface pStack)
+    {
+      mResidentStack = pResidentStack;
+      mStack = pStack;
+    }
+  }
+
+  /**
+   * Stacks a thread got from containers while it had read leases open
+   */
+  private static final class ReadLeases
+  {
+    int mDepth = 0;
+    final Set<StackInterface> mStacks =
+                                      Collections.newSetFromMap(new IdentityHashMap<>());
+  }
+
+  private final HashSet<Class<?>> mPinnedContainerClasses =
+                                                          new HashSet<>();
+
+  // access ordered, the eldest entry is the least recently used stack
+  private final LinkedHashMap<ResidentStack, StackInterface> mResidentStacks =
+                                                                            new LinkedHashMap<>(16,
+                                                                                                0.75f,
+                                                                                                true);
+
+  // stacks which are currently written to disc and the bytes they hold
+  private final HashSet<ResidentStack> mSpillingStacks = new HashSet<>();
+  private long mSpillingBytes = 0;
+
+  // containers leaving the warehouse are neither accounted nor spilled.
+  // Guarded by mLeavingContainers, which is never held while calling out of
+  // this class.
+  private final Set<StackInterfaceContainer> mLeavingContainers =
+                                                                Collections.newSetFromMap(new IdentityHashMap<>());
+
+  private final ThreadLocal<ReadLeases> mReadLeases = new ThreadLocal<>();
+
+  private RecyclerInterface<StackInterface, StackRequest> mRecycler;
+
+  // stacks which must not go back to their recycler yet, e.g. because they
+  // are still being written to disc or read under a lease. Guarded by mRetainedStacks, which is
+  // never held while calling out of this class.
+  private final IdentityHashMap<StackInterface, Integer> mRetainedStacks =
+                                                                        new IdentityHashMap<>();
+  private final Set<StackInterface> mDeferredReleases =
+                                                      Collections.newSetFromMap(new IdentityHashMap<>());
+
+  private final AtomicLong mResidentBytes = new AtomicLong();
+  private final AtomicLong mHitCount = new AtomicLong();
+  private final AtomicLong mMissCount = new AtomicLong();
+  private final AtomicLong mSpilledBytes = new AtomicLong();
+  private final AtomicLong mReloadedBytes = new AtomicLong();
+  private final AtomicLong mSpillFileCounter = new AtomicLong();
+
+  /**
+   * Called by containers whenever a stack enters memory. Spills other stacks
+   * if the memory budget is exceeded then.
+   *
+   * @param pContainer
+   *          container holding the stack
+   * @param pKey
+   *          key of the stack within the container
+   * @param pStack
+   *          stack
+   */
+  public void notifyStackResident(StackInterfaceContainer pContainer,
+                                  String pKey,
+                                  StackInterface pStack)
+  {
+    ArrayList<Victim> lVictims;
+    synchronized (this)
+    {
+      if (isLeaving(pContainer))
+      {
+        return;
+      }
+      StackInterface lFormerStack =
+                                  mResidentStacks.put(new ResidentStack(pContainer,
+                                                                        pKey),
+                                                      pStack);
+      if (lFormerStack != null)
+      {
+        mResidentBytes.addAndGet(-lFormerStack.getSizeInBytes());
+      }
+      mResidentBytes.addAndGet(pStack.getSizeInBytes());
+
+      lVictims = selectVictims(pContainer, pKey);
+    }
+    // outside the lock, writing may take a while
+    spill(lVictims);
+  }
+
+  /**
+   * Called by containers whenever a stack is read from memory.
+   *
+   * @param pContainer
+   *          container holding the stack
+   * @param pKey
+   *          key of the stack within the container
+   */
+  public void notifyStackAccessed(StackInterfaceContainer pContainer,
+                                  String pKey)
+  {
+    mHitCount.incrementAndGet();
+    synchronized (this)
+    {
+      // touches the entry in the access ordered map
+      mResidentStacks.get(new ResidentStack(pContainer, pKey));
+    }
+  }
+
+  /**
+   * Called by containers whenever a stack leaves memory without being
+   * spilled, e.g. because it was removed or released.
+   *
+   * @param pContainer
+   *          container holding the stack
+   * @param pKey
+   *          key of the stack within the container
+   */
+  public void notifyStackRemoved(StackInterfaceContainer pContainer,
+                                 String pKey)
+  {
+    synchronized (this)
+    {
+      StackInterface lStack =
+                            mResidentStacks.remove(new ResidentStack(pContainer,
+                                                                     pKey));
+      if (lStack != null)
+      {
+        mResidentBytes.addAndGet(-lStack.getSizeInBytes());
+      }
+    }
+  }
+
+  /**
+   * Drops the accounting of all stacks of a container, e.g. because the
+   * container left the warehouse.
+   *
+   * @param pContainer
+   *          container
+   */
+  public void forgetContainer(StackInterfaceContainer pContainer)
+  {
+    synchronized (this)
+    {
+      Iterator<Map.Entry<ResidentStack, StackInterface>> lIterator =
+                                                                   mResidentStacks.entrySet()
+                                                                                  .iterator();
+      while (lIterator.hasNext())
+      {
+        Map.Entry<ResidentStack, StackInterface> lEntry =
+                                                        lIterator.next();
+        if (lEntry.getKey().mContainer == pContainer)
+        {
+          mResidentBytes.addAndGet(-lEntry.getValue()
+                                          .getSizeInBytes());
+          lIterator.remove();
+        }
+      }
+    }
+  }
+
+  /**
+   * Marks a container as leaving the warehouse: its stacks are no longer
+   * accounted and none of them is spilled until endLeaving() is called, so
+   * that the container can read its spilled stacks back before it is
+   * detached. Spills of the container which are in progress are abandoned.
+   *
+   * @param pContainer
+   *          container
+   */
+  public void beginLeaving(StackInterfaceContainer pContainer)
+  {
+    synchronized (mLeavingContainers)
+    {
+      mLeavingContainers.add(pContainer);
+    }
+    forgetContainer(pContainer);
+  }
+
+  /**
+   * Ends what beginLeaving() started, the container should be detached from
+   * this manager by then.
+   *
+   * @param pContainer
+   *          container
+   */
+  public void endLeaving(StackInterfaceContainer pContainer)
+  {
+    synchronized (mLeavingContainers)
+    {
+      mLeavingContainers.remove(pContainer);
+    }
+  }
+
+  /**
+   * @param pContainer
+   *          container
+   * @return true if the container is leaving the warehouse
+   */
+  public boolean isLeaving(StackInterfaceContainer pContainer)
+  {
+    synchronized (mLeavingContainers)
+    {
+      return mLeavingContainers.contains(pContainer);
+    }
+  }
+
+  /**
+   * Writes a stack to a new file in the spill folder.
+   *
+   * @param pStack
+   *          stack to write
+   * @return description of the spilled stack
+   * @throws IOException
+   *           if writing fails
+   */
+  public SpilledStack writeSpillFile(StackInterface pStack) throws IOException
+  {
+    File lFolder = mSpillFolderVariable.get();
+    lFolder.mkdirs();
+    File lFile = new File(lFolder,
+                          "stack" + mSpillFileCounter.getAndIncrement()
+                                   + ".raw");
+
+    FragmentedMemoryInterface lFragmentedMemory =
+                                                pStack.getFragmentedMemory();
+    try (FileChannel lFileChannel =
+                                  FileChannel.open(lFile.toPath(),
+                                                   StandardOpenOption.CREATE,
+                                                   StandardOpenOption.WRITE,
+                                                   StandardOpenOption.TRUNCATE_EXISTING))
+    {
+      long lFilePosition = 0;
+      for (int i = 0; i < lFragmentedMemory.getNumberOfFragments(); i++)
+      {
+        ContiguousMemoryInterface lFragment = lFragmentedMemory.get(i);
+        lFragment.writeBytesToFileChannel(lFileChannel, lFilePosition);
+        lFilePosition += lFragment.getSizeInBytes();
+      }
+    }
+
+    mSpilledBytes.addAndGet(pStack.getSizeInBytes());
+    return new SpilledStack(lFile,
+                            pStack.getDimensions(),
+                            pStack.getMetaData().clone(),
+                            pStack.getSizeInBytes());
+  }
+
+  /**
+   * Reads a previously spilled stack back into memory. The spill file is kept:
+   * another thread may be reading it at the same time, the caller deletes it
+   * once the reloaded stack is in place.
+   *
+   * @param pSpilledStack
+   *          description of the spilled stack
+   * @return the stack or null if reading failed
+   */
+  public StackInterface readSpillFile(SpilledStack pSpilledStack)
+  {
+    mMissCount.incrementAndGet();
+
+    StackInterface lStack =
+                          getRecycler().getOrWait(1000,
+                                                  TimeUnit.SECONDS,
+                                                  StackRequest.build(pSpilledStack.getDimensions()));
+    if (lStack == null)
+    {
+      warning("Could not get a stack from the recycler for reloading "
+              + pSpilledStack.getFile());
+      return null;
+    }
+
+    FragmentedMemoryInterface lFragmentedMemory =
+                                                lStack.getFragmentedMemory();
+    try (FileChannel lFileChannel =
+                                  FileChannel.open(pSpilledStack.getFile()
+                                                                .toPath(),
+                                                   StandardOpenOption.READ))
+    {
+      long lFilePosition = 0;
+      for (int i = 0; i < lFragmentedMemory.getNumberOfFragments(); i++)
+      {
+        ContiguousMemoryInterface lFragment = lFragmentedMemory.get(i);
+        lFragment.readBytesFromFileChannel(lFileChannel,
+                                           lFilePosition,
+                                           lFragment.getSizeInBytes());
+        lFilePosition += lFragment.getSizeInBytes();
+      }
+    }
+    catch (IOException e)
+    {
+      e.printStackTrace();
+      lStack.release();
+      return null;
+    }
+    lStack.setMetaData(pSpilledStack.getMetaData().clone());
+
+    mReloadedBytes.addAndGet(pSpilledStack.getSizeInBytes());
+    return lStack;
+  }
+
+  /**
+   * Chooses the stacks to spill for bringing the resident bytes under the
+   * budget. Has to be called while holding the lock of this manager. Stacks
+   * which are being spilled already are not chosen again.
+   */
+  private ArrayList<Victim> selectVictims(StackInterfaceContainer pExcludedContainer,
+                                          String pExcludedKey)
+  {
+    long lBudget = mMemoryBudgetInBytesVariable.get();
+    long lExcessBytes = mResidentBytes.get() - mSpillingBytes - lBudget;
+    if (lExcessBytes <= 0)
+    {
+      return new ArrayList<>();
+    }
+
+    ArrayList<Victim> lCandidates = new ArrayList<>();
+    WarehouseEvictionPolicy lPolicy = mEvictionPolicyVariable.get();
+    for (Map.Entry<ResidentStack, StackInterface> lEntry : mResidentStacks.entrySet())
+    {
+      ResidentStack lResidentStack = lEntry.getKey();
+      if (lResidentStack.mContainer == pExcludedContainer
+          && lResidentStack.mKey.equals(pExcludedKey))
+      {
+        continue;
+      }
+      if (mSpillingStacks.contains(lResidentStack))
+      {
+        continue;
+      }
+      if (lPolicy == WarehouseEvictionPolicy.PinnedByType
+          && isPinned(lResidentStack.mContainer))
+      {
+        continue;
+      }
+      lCandidates.add(new Victim(lResidentStack, lEntry.getValue()));
+    }
+
+    // the resident map is in LRU order already
+    if (lPolicy != WarehouseEvictionPolicy.LeastRecentlyUsed)
+    {
+      lCandidates.sort((a,
+                        b) -> Long.compare(a.mResidentStack.mContainer.getTimepoint(),
+                                           b.mResidentStack.mContainer.getTimepoint()));
+    }
+
+    ArrayList<Victim> lVictims = new ArrayList<>();
+    Iterator<Victim> lIterator = lCandidates.iterator();
+    while (lExcessBytes > 0 && lIterator.hasNext())
+    {
+      Victim lVictim = lIterator.next();
+      lVictims.add(lVictim);
+      mSpillingStacks.add(lVictim.mResidentStack);
+      mSpillingBytes += lVictim.mStack.getSizeInBytes();
+      lExcessBytes -= lVictim.mStack.getSizeInBytes();
+    }
+
+    if (lExcessBytes > 0)
+    {
+      warning("Warehouse memory budget of " + lBudget
+              + " bytes exceeded, "
+              + mResidentBytes.get()
+              + " bytes are in use and nothing more can be spilled.");
+    }
+    return lVictims;
+  }
+
+  /**
+   * Spills the given victims. Must not be called while holding the lock of
+   * this manager.
+   */
+  private void spill(ArrayList<Victim> pVictims)
+  {
+    for (Victim lVictim : pVictims)
+    {
+      boolean lSpilled = false;
+      try
+      {
+        lSpilled =
+                 lVictim.mResidentStack.mContainer.spill(lVictim.mResidentStack.mKey,
+                                                         lVictim.mStack);
+      }
+      finally
+      {
+        synchronized (this)
+        {
+          mSpillingStacks.remove(lVictim.mResidentStack);
+          mSpillingBytes -= lVictim.mStack.getSizeInBytes();
+          // the stack may have been replaced or removed in the meantime
+          if (lSpilled
+              && mResidentStacks.remove(lVictim.mResidentStack,
+                                        lVictim.mStack))
+          {
+            mResidentBytes.addAndGet(-lVictim.mStack.getSizeInBytes());
+          }
+        }
+      }
+    }
+  }
+
+  private boolean isPinned(StackInterfaceContainer pContainer)
+  {
+    for (Class<?> lPinnedClass : mPinnedContainerClasses)
+    {
+      if (lPinnedClass.isInstance(pContainer))
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Prevents a stack from being released to its recycler until
+   * unretainStack() is called. Releases requested in the meantime via
+   * releaseStack() are deferred.
+   *
+   * @param pStack
+   *          stack to retain
+   */
+  public void retainStack(StackInterface pStack)
+  {
+    synchronized (mRetainedStacks)
+    {
+      mRetainedStacks.merge(pStack, 1, Integer::sum);
+    }
+  }
+
+  /**
+   * Undoes a retainStack() call. If the stack was released in the meantime
+   * and nobody else retains it, it is released now.
+   *
+   * @param pStack
+   *          stack to unretain
+   */
+  public void unretainStack(StackInterface pStack)
+  {
+    synchronized (mRetainedStacks)
+    {
+      Integer lCount = mRetainedStacks.get(pStack);
+      if (lCount == null)
+      {
+        return;
+      }
+      if (lCount > 1)
+      {
+        mRetainedStacks.put(pStack, lCount - 1);
+        return;
+      }
+      mRetainedStacks.remove(pStack);
+      if (!mDeferredReleases.remove(pStack))
+      {
+        return;
+      }
+    }
+    pStack.release();
+  }
+
+  /**
+   * Releases a stack to its recycler unless it is retained. In that case, it
+   * is released as soon as the last retainer lets it go.
+   *
+   * @param pStack
+   *          stack to release
+   */
+  public void releaseStack(StackInterface pStack)
+  {
+    synchronized (mRetainedStacks)
+    {
+      if (mRetainedStacks.containsKey(pStack))
+      {
+        mDeferredReleases.add(pStack);
+        return;
+      }
+    }
+    pStack.release();
+  }
+
+  /**
+   * Opens read leases for the current thread. Until the matching
+   * closeReadLeases() call, stacks handed out to this thread by containers are
+   * retained. Calls can be nested.
+   */
+  public void openReadLeases()
+  {
+    ReadLeases lReadLeases = mReadLeases.get();
+    if (lReadLeases == null)
+    {
+      lReadLeases = new ReadLeases();
+      mReadLeases.set(lReadLeases);
+    }
+    lReadLeases.mDepth++;
+  }
+
+  /**
+   * Closes the read leases of the current thread opened by openReadLeases().
+   * Stacks which were released in the meantime are released now.
+   */
+  public void closeReadLeases()
+  {
+    ReadLeases lReadLeases = mReadLeases.get();
+    if (lReadLeases == null || --lReadLeases.mDepth > 0)
+    {
+      return;
+    }
+    mReadLeases.remove();
+    for (StackInterface lStack : lReadLeases.mStacks)
+    {
+      unretainStack(lStack);
+    }
+  }
+
+  /**
+   * Called by containers whenever a stack is handed out. Retains the stack if
+   * the current thread has read leases open.
+   *
+   * @param pStack
+   *          stack handed out
+   */
+  public void leaseForReading(StackInterface pStack)
+  {
+    ReadLeases lReadLeases = mReadLeases.get();
+    if (lReadLeases != null && lReadLeases.mStacks.add(pStack))
+    {
+      retainStack(pStack);
+    }
+  }
+
+  /**
+   * Containers of the given class (and its sub classes) are never spilled if
+   * the eviction policy is PinnedByType.
+   *
+   * @param pContainerClass
+   *          container class to pin
+   */
+  public synchronized void pinContainerClass(Class<?> pContainerClass)
+  {
+    mPinnedContainerClasses.add(pContainerClass);
+  }
+
+  public synchronized void unpinContainerClass(Class<?> pContainerClass)
+  {
+    mPinnedContainerClasses.remove(pContainerClass);
+  }
+
+  /**
+   * Sets the recycler stacks are taken from when they are read back from
+   * disc. If none is set, the manager creates its own.
+   *
+   * @param pRecycler
+   *          recycler
+   */
+  public synchronized void setRecycler(RecyclerInterface<StackInterface, StackRequest> pRecycler)
+  {
+    mRecycler = pRecycler;
+  }
+
+  private synchronized RecyclerInterface<StackInterface, StackRequest> getRecycler()
+  {
+    if (mRecycler == null)
+    {
+      mRecycler =
+                new BasicRecycler<StackInterface, StackRequest>(new ContiguousOffHeapPlanarStackFactory(),
+                                                                1024,
+                                                                1024,
+                                                                true);
+    }
+    return mRecycler;
+  }
+
+  public Variable<Long> getMemoryBudgetInBytesVariable()
+  {
+    return mMemoryBudgetInBytesVariable;
+  }
+
+  public Variable<WarehouseEvictionPolicy> getEvictionPolicyVariable()
+  {
+    return mEvictionPolicyVariable;
+  }
+
+  public Variable<File> getSpillFolderVariable()
+  {
+    return mSpillFolderVariable;
+  }
+
+  /**
+   * @return number of bytes currently held in memory by stacks in the
+   *         warehouse
+   */
+  public long getResidentBytes()
+  {
+    return mResidentBytes.get();
+  }
+
+  /**
+   * @return number of stack requests which were served from memory
+   */
+  public long getHitCount()
+  {
+    return mHitCount.get();
+  }
+
+  /**
+   * @return number of stack requests which had to be read back from disc
+   */
+  public long getMissCount()
+  {
+    return mMissCount.get();
+  }
+
+  /**
+   * @return total number of bytes written to the spill folder
+   */
+  public long getSpilledBytes()
+  {
+    return mSpilledBytes.get();
+  }
+
+  /**
+   * @return total number of bytes read back from the spill folder
+   */
+  public long getReloadedBytes()
+  {
+    return mReloadedBytes.get();
+  }
+
+  @Override
+  public String toString()
+  {
+    return "DataWarehouseMemoryManager [resident=" + getResidentBytes()
+           + " bytes, budget="
+           + mMemoryBudgetInBytesVariable.get()
+           + " bytes, hits="
+           + getHitCount()
+           + ", misses="
+           + getMissCount()
+           + ", spilled="
+           + getSpilledBytes()
+           + " bytes, reloaded="
+           + getReloadedBytes()
+           + " bytes]";
+  }
+}
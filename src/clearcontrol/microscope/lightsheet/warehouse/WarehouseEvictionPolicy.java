@@ -0,0 +1,24 @@
+package clearcontrol.microscope.lightsheet.warehouse;
+
+/**
+ * Strategies the DataWarehouseMemoryManager can use to decide which stacks are
+ * spilled to disc when the memory budget of the DataWarehouse is exceeded.
+ */
+public enum WarehouseEvictionPolicy
+{
+ /**
+  * Stacks of the container with the oldest time point are spilled first
+  */
+ OldestTimepointFirst,
+
+ /**
+  * Stacks which were not accessed for the longest time are spilled first
+  */
+ LeastRecentlyUsed,
+
+ /**
+  * Like OldestTimepointFirst, but stacks in containers of pinned types are
+  * never spilled
+  */
+ PinnedByType
+}
@@ -0,0 +1,60 @@
+package clearcontrol.microscope.lightsheet.warehouse.containers;
+
+import java.io.File;
+
+import clearcontrol.stack.metadata.StackMetaData;
+
+/**
+ * A SpilledStack describes a stack which was moved out of memory to a raw file
+ * by the DataWarehouseMemoryManager. It keeps everything needed to bring the
+ * stack back into memory.
+ */
+public class SpilledStack
+{
+  private final File mFile;
+  private final long[] mDimensions;
+  private final StackMetaData mMetaData;
+  private final long mSizeInBytes;
+
+  public SpilledStack(File pFile,
+                      long[] pDimensions,
+                      StackMetaData pMetaData,
+                      long pSizeInBytes)
+  {
+    mFile = pFile;
+    mDimensions = pDimensions;
+    mMetaData = pMetaData;
+    mSizeInBytes = pSizeInBytes;
+  }
+
+  public File getFile()
+  {
+    return mFile;
+  }
+
+  public long[] getDimensions()
+  {
+    return mDimensions;
+  }
+
+  public StackMetaData getMetaData()
+  {
+    return mMetaData;
+  }
+
+  public long getSizeInBytes()
+  {
+    return mSizeInBytes;
+  }
+
+  /**
+   * Deletes the raw file on disc
+   */
+  public void delete()
+  {
+    if (mFile.exists())
+    {
+      mFile.delete();
+    }
+  }
+}
@@ -1,11 +1,15 @@
 package clearcontrol.microscope.lightsheet.warehouse.containers;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
 import clearcontrol.core.log.LoggingFeature;
+import clearcontrol.microscope.lightsheet.warehouse.DataWarehouseMemoryManager;
 import clearcontrol.stack.StackInterface;
 
 import org.jetbrains.annotations.NotNull;
@@ -14,6 +18,10 @@ import org.jetbrains.annotations.NotNull;
  * This DataContainer is used to store several image stack which belong together
  * because they were acquired together.
  *
+ * Once the container is stored in the DataWarehouse, its stacks may be spilled
+ * to disc by the DataWarehouseMemoryManager. Spilled stacks are read back when
+ * they are requested via get().
+ *
  * @author haesleinhuepf April 2018
  */
 public abstract class StackInterfaceContainer extends
@@ -24,32 +32,136 @@ public abstract class StackInterfaceContainer extends
                                               LoggingFeature
 {
   HashMap<String, StackInterface> mData = new HashMap<>();
+  HashMap<String, SpilledStack> mSpilledData = new HashMap<>();
+
+  // while holding the lock of this container, only the retain, lease and
+  // leaving bookkeeping of the memory manager may be called, the manager calls
+  // into containers while spilling
+  private volatile DataWarehouseMemoryManager mMemoryManager;
 
   public StackInterfaceContainer(long pTimePoint)
   {
     super(pTimePoint);
   }
 
+  /**
+   * Hands the container over to a memory manager. Stacks which are already in
+   * the container are accounted immediately.
+   *
+   * @param pMemoryManager
+   *          memory manager or null to detach the container
+   */
+  public void setMemoryManager(DataWarehouseMemoryManager pMemoryManager)
+  {
+    ArrayList<Entry<String, StackInterface>> lResidentStacks;
+    synchronized (this)
+    {
+      mMemoryManager = pMemoryManager;
+      lResidentStacks = new ArrayList<>(mData.entrySet());
+    }
+    if (pMemoryManager != null)
+    {
+      for (Entry<String, StackInterface> lEntry : lResidentStacks)
+      {
+        pMemoryManager.notifyStackResident(this,
+                                           lEntry.getKey(),
+                                           lEntry.getValue());
+      }
+    }
+  }
+
+  /**
+   * Writes the stack with the given key to disc and releases its memory. This
+   * method is called by the DataWarehouseMemoryManager. The stack is written
+   * without holding the lock of this container; if it is replaced or removed
+   * meanwhile or the container leaves the warehouse, the spill is abandoned.
+   *
+   * @param pKey
+   *          key of the stack
+   * @param pStack
+   *          stack expected under this key
+   * @return true if the stack was spilled
+   */
+  public boolean spill(String pKey, StackInterface pStack)
+  {
+    DataWarehouseMemoryManager lMemoryManager;
+    synchronized (this)
+    {
+      lMemoryManager = mMemoryManager;
+      if (mData.get(pKey) != pStack || lMemoryManager == null)
+      {
+        return false;
+      }
+      // prevents a concurrent remove from recycling the stack while writing
+      lMemoryManager.retainStack(pStack);
+    }
+
+    try
+    {
+      SpilledStack lSpilledStack;
+      try
+      {
+        lSpilledStack = lMemoryManager.writeSpillFile(pStack);
+      }
+      catch (IOException e)
+      {
+        e.printStackTrace();
+        return false;
+      }
+
+      synchronized (this)
+      {
+        if (mData.get(pKey) != pStack
+            || mMemoryManager != lMemoryManager
+            || lMemoryManager.isLeaving(this))
+        {
+          lSpilledStack.delete();
+          return false;
+        }
+        mData.remove(pKey);
+        mSpilledData.put(pKey, lSpilledStack);
+      }
+      // deferred while an instruction holds a lease on the stack
+      lMemoryManager.releaseStack(pStack);
+      info("Spilled " + pKey + " of " + this + " to " + lSpilledStack.getFile());
+      return true;
+    }
+    finally
+    {
+      lMemoryManager.unretainStack(pStack);
+    }
+  }
+
+  /**
+   * @param pKey
+   *          key of the stack
+   * @return true if the stack is currently not in memory but on disc
+   */
+  public synchronized boolean isSpilled(String pKey)
+  {
+    return mSpilledData.containsKey(pKey);
+  }
+
   @Override
-  public int size()
+  public synchronized int size()
   {
-    return mData.size();
+    return mData.size() + mSpilledData.size();
   }
 
   @Override
-  public boolean isEmpty()
+  public synchronized boolean isEmpty()
   {
-    return mData.isEmpty();
+    return mData.isEmpty() && mSpilledData.isEmpty();
   }
 
   @Override
-  public boolean containsKey(Object key)
+  public synchronized boolean containsKey(Object key)
   {
-    return mData.containsKey(key);
+    return mData.containsKey(key) || mSpilledData.containsKey(key);
   }
 
   @Override
-  public boolean containsValue(Object value)
+  public synchronized boolean containsValue(Object value)
   {
     return mData.containsValue(value);
   }
@@ -57,65 +169,232 @@ public abstract class StackInterfaceContainer extends
   @Override
   public StackInterface get(Object key)
   {
-    return mData.get(key);
+    StackInterface lStack;
+    SpilledStack lSpilledStack;
+    DataWarehouseMemoryManager lMemoryManager;
+    synchronized (this)
+    {
+      lStack = mData.get(key);
+      lSpilledStack = lStack == null ? mSpilledData.get(key) : null;
+      lMemoryManager = mMemoryManager;
+      // leased before a spill can release the stack
+      if (lStack != null && lMemoryManager != null)
+      {
+        lMemoryManager.leaseForReading(lStack);
+      }
+    }
+
+    if (lStack != null)
+    {
+      if (lMemoryManager != null)
+      {
+        lMemoryManager.notifyStackAccessed(this, (String) key);
+      }
+      return lStack;
+    }
+    if (lSpilledStack == null || lMemoryManager == null)
+    {
+      return null;
+    }
+
+    StackInterface lReloadedStack =
+                                  lMemoryManager.readSpillFile(lSpilledStack);
+    synchronized (this)
+    {
+      if (lReloadedStack == null
+          || mSpilledData.get(key) != lSpilledStack)
+      {
+        // another thread may have reloaded the stack in the meantime, its
+        // reload deleted the spill file then
+        if (lReloadedStack != null)
+        {
+          lReloadedStack.release();
+        }
+        lStack = mData.get(key);
+        if (lStack != null)
+        {
+          lMemoryManager.leaseForReading(lStack);
+        }
+        return lStack;
+      }
+      mSpilledData.remove(key);
+      mData.put((String) key, lReloadedStack);
+      lMemoryManager.leaseForReading(lReloadedStack);
+    }
+    // only now, a concurrent get() finds the reloaded stack instead
+    lSpilledStack.delete();
+    lMemoryManager.notifyStackResident(this,
+                                       (String) key,
+                                       lReloadedStack);
+    return lReloadedStack;
   }
 
   @Override
   public StackInterface put(String key, StackInterface value)
   {
-    return mData.put(key, value);
+    StackInterface lFormerStack;
+    SpilledStack lFormerSpilledStack;
+    synchronized (this)
+    {
+      lFormerStack = mData.put(key, value);
+      lFormerSpilledStack = mSpilledData.remove(key);
+    }
+    if (lFormerSpilledStack != null)
+    {
+      lFormerSpilledStack.delete();
+    }
+    DataWarehouseMemoryManager lMemoryManager = mMemoryManager;
+    if (lMemoryManager != null)
+    {
+      lMemoryManager.notifyStackResident(this, key, value);
+    }
+    return lFormerStack;
   }
 
   @Override
   public StackInterface remove(Object key)
   {
-    return mData.remove(key);
+    StackInterface lStack;
+    SpilledStack lSpilledStack;
+    synchronized (this)
+    {
+      lStack = mData.remove(key);
+      lSpilledStack = mSpilledData.remove(key);
+    }
+    if (lSpilledStack != null)
+    {
+      lSpilledStack.delete();
+    }
+    DataWarehouseMemoryManager lMemoryManager = mMemoryManager;
+    if (lStack != null && lMemoryManager != null)
+    {
+      lMemoryManager.notifyStackRemoved(this, (String) key);
+    }
+    return lStack;
   }
 
   @Override
   public void putAll(@NotNull Map<? extends String, ? extends StackInterface> m)
   {
-    mData.putAll(m);
+    for (Entry<? extends String, ? extends StackInterface> lEntry : m.entrySet())
+    {
+      put(lEntry.getKey(), lEntry.getValue());
+    }
   }
 
   @Override
   public void clear()
   {
-    mData.clear();
+    for (String key : keySet())
+    {
+      remove(key);
+    }
   }
 
   @NotNull
   @Override
-  public Set<String> keySet()
+  public synchronized Set<String> keySet()
   {
-    return mData.keySet();
+    if (mSpilledData.isEmpty())
+    {
+      return mData.keySet();
+    }
+    HashSet<String> lKeys = new HashSet<>(mData.keySet());
+    lKeys.addAll(mSpilledData.keySet());
+    return lKeys;
   }
 
+  /**
+   * Spilled stacks are read back into memory before the values are returned
+   */
   @NotNull
   @Override
   public Collection<StackInterface> values()
   {
+    reloadSpilledStacks();
+    leaseResidentStacks();
     return mData.values();
   }
 
+  /**
+   * Spilled stacks are read back into memory before the entries are returned
+   */
   @NotNull
   @Override
   public Set<Entry<String, StackInterface>> entrySet()
   {
+    reloadSpilledStacks();
+    leaseResidentStacks();
     return mData.entrySet();
   }
 
+  private void reloadSpilledStacks()
+  {
+    ArrayList<String> lSpilledKeys;
+    synchronized (this)
+    {
+      lSpilledKeys = new ArrayList<>(mSpilledData.keySet());
+    }
+    for (String lKey : lSpilledKeys)
+    {
+      get(lKey);
+    }
+  }
+
+  private synchronized void leaseResidentStacks()
+  {
+    if (mMemoryManager == null)
+    {
+      return;
+    }
+    for (StackInterface lStack : mData.values())
+    {
+      mMemoryManager.leaseForReading(lStack);
+    }
+  }
+
   public void dispose()
   {
     warning("This container should be recycled, not disposed!");
     /*for (String key : keySet()) {
       get(key).free();
     }*/
-    for (String key : keySet())
+    ArrayList<StackInterface> lStacks;
+    ArrayList<SpilledStack> lSpilledStacks;
+    ArrayList<String> lKeys;
+    synchronized (this)
+    {
+      lStacks = new ArrayList<>(mData.values());
+      lKeys = new ArrayList<>(mData.keySet());
+      lSpilledStacks = new ArrayList<>(mSpilledData.values());
+      mData.clear();
+      mSpilledData.clear();
+    }
+    DataWarehouseMemoryManager lMemoryManager = mMemoryManager;
+    if (lMemoryManager != null)
+    {
+      for (String lKey : lKeys)
+      {
+        lMemoryManager.notifyStackRemoved(this, lKey);
+      }
+    }
+    for (StackInterface lStack : lStacks)
+    {
+      if (lMemoryManager != null)
+      {
+        // stacks which are still being written are released afterwards
+        lMemoryManager.releaseStack(lStack);
+      }
+      else
+      {
+        lStack.release();
+      }
+    }
+    // spilled stacks were released already, only their files remain
+    for (SpilledStack lSpilledStack : lSpilledStacks)
     {
-      get(key).release();
+      lSpilledStack.delete();
     }
-    clear();
   }
 
   public String toString()
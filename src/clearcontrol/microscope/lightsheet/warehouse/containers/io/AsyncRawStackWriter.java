@@ -0,0 +1,372 @@
+package clearcontrol.microscope.lightsheet.warehouse.containers.io;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import clearcontrol.core.log.LoggingFeature;
+import clearcontrol.core.variable.Variable;
+import clearcontrol.core.variable.bounded.BoundedVariable;
+import clearcontrol.microscope.lightsheet.warehouse.DataWarehouseMemoryManager;
+import clearcontrol.stack.StackInterface;
+import clearcontrol.stack.sourcesink.sink.FileStackSinkInterface;
+
+/**
+ * The AsyncRawStackWriter hands stacks over to a file stack sink on a number
+ * of writer threads while the caller continues. As the stacks end up in the
+ * very same sink the timelapse would write to synchronously, the data set on
+ * disc is the usual one, including its meta data, and can be read back with
+ * RawFileStackSource or the ReadStackInterfaceContainerFromDisc instructions.
+ *
+ * Sinks are not thread safe, the stacks of one sink are therefore appended
+ * one after the other in the order they were submitted, i.e. in time point
+ * order. Different sinks are written in parallel; as a timelapse writes to a
+ * single sink, more than one writer thread only pays off when writing to
+ * several sinks. The sink owns its files, flushing them to disc is up to the
+ * sink as in the synchronous case.
+ *
+ * Stacks are retained at the DataWarehouseMemoryManager while they are
+ * written, so that disposing their container doesn't hand them back to the
+ * recycler too early. Writes complete, i.e. are accounted for and unretained,
+ * in the order they were submitted, also across sinks.
+ */
+public class AsyncRawStackWriter implements LoggingFeature
+{
+  private static final long cWaitIntervalInMilliseconds = 100;
+
+  /**
+   * A stack which was handed over for writing
+   */
+  private static final class WriteJob
+  {
+    final long mSequenceNumber;
+    final FileStackSinkInterface mSink;
+    final String mChannelName;
+    final StackInterface mStack;
+    Throwable mException;
+
+    WriteJob(long pSequenceNumber,
+             FileStackSinkInterface pSink,
+             String pChannelName,
+             StackInterface pStack)
+    {
+      mSequenceNumber = pSequenceNumber;
+      mSink = pSink;
+      mChannelName = pChannelName;
+      mStack = pStack;
+    }
+  }
+
+  private final Variable<Boolean> mEnabledVariable =
+                                                   new Variable<Boolean>("Asynchronous raw writing",
+                                                                         false);
+
+  private final BoundedVariable<Integer> mNumberOfWriterThreadsVariable =
+                                                                        new BoundedVariable<Integer>("Number of writer threads",
+                                                                                                     2,
+                                                                                                     1,
+                                                                                                     64);
+
+  private final BoundedVariable<Integer> mMaximumQueueLengthVariable =
+                                                                     new BoundedVariable<Integer>("Maximum number of stacks waiting for writing",
+                                                                                                  8,
+                                                                                                  1,
+                                                                                                  Integer.MAX_VALUE);
+
+  private final DataWarehouseMemoryManager mMemoryManager;
+
+  private ThreadPoolExecutor mWriterThreads;
+
+  // everything below is guarded by this
+  private long mNextSequenceNumber = 0;
+  private long mNextSequenceNumberToComplete = 0;
+  private final TreeMap<Long, WriteJob> mFinishedJobs = new TreeMap<>();
+  private final HashMap<FileStackSinkInterface, CompletableFuture<Void>> mLastJobPerSink =
+                                                                                         new HashMap<>();
+
+  private int mQueueDepth = 0;
+  private int mMaximumQueueDepth = 0;
+  private long mWrittenBytes = 0;
+  private long mNumberOfWrittenStacks = 0;
+  private long mNumberOfFailedWrites = 0;
+  private long mBusySinceNanoseconds = 0;
+  private long mBusyTimeInNanoseconds = 0;
+
+  /**
+   * @param pMemoryManager
+   *          memory manager retaining stacks while they are written, may be
+   *          null
+   */
+  public AsyncRawStackWriter(DataWarehouseMemoryManager pMemoryManager)
+  {
+    mMemoryManager = pMemoryManager;
+  }
+
+  /**
+   * Hands a stack over for writing. Blocks as long as the maximum number of
+   * stacks is waiting for writing already.
+   *
+   * @param pSink
+   *          sink to append the stack to
+   * @param pChannelName
+   *          channel name
+   * @param pStack
+   *          stack to write
+   * @return true if the stack was handed over, false if the calling thread
+   *         was interrupted while waiting and the stack was not written
+   */
+  public boolean write(FileStackSinkInterface pSink,
+                       String pChannelName,
+                       StackInterface pStack)
+  {
+    synchronized (this)
+    {
+      while (mQueueDepth >= mMaximumQueueLengthVariable.get())
+      {
+        try
+        {
+          wait(cWaitIntervalInMilliseconds);
+        }
+        catch (InterruptedException e)
+        {
+          Thread.currentThread().interrupt();
+          mNumberOfFailedWrites++;
+          warning("Interrupted while waiting for the writer, stack "
+                  + pStack
+                  + " of channel "
+                  + pChannelName
+                  + " was not written");
+          return false;
+        }
+      }
+
+      WriteJob lJob = new WriteJob(mNextSequenceNumber++,
+                                   pSink,
+                                   pChannelName,
+                                   pStack);
+
+      if (mQueueDepth == 0)
+      {
+        mBusySinceNanoseconds = System.nanoTime();
+      }
+      mQueueDepth++;
+      mMaximumQueueDepth = Math.max(mMaximumQueueDepth, mQueueDepth);
+
+      if (mMemoryManager != null)
+      {
+        mMemoryManager.retainStack(pStack);
+      }
+
+      // jobs of the same sink run one after the other
+      Runnable lRunnable = () -> run(lJob);
+      CompletableFuture<Void> lLastJob = mLastJobPerSink.get(pSink);
+      CompletableFuture<Void> lNextJob =
+                                       lLastJob == null ? CompletableFuture.runAsync(lRunnable,
+                                                                                     getWriterThreads())
+                                                        : lLastJob.thenRunAsync(lRunnable,
+                                                                                getWriterThreads());
+      mLastJobPerSink.put(pSink, lNextJob);
+    }
+    return true;
+  }
+
+  private void run(WriteJob pJob)
+  {
+    try
+    {
+      pJob.mSink.appendStack(pJob.mChannelName, pJob.mStack);
+    }
+    catch (Throwable e)
+    {
+      pJob.mException = e;
+    }
+    finally
+    {
+      // a failing job must not hold back the jobs submitted after it
+      complete(pJob);
+    }
+  }
+
+  private synchronized ThreadPoolExecutor getWriterThreads()
+  {
+    int lNumberOfThreads = mNumberOfWriterThreadsVariable.get();
+    if (mWriterThreads == null)
+    {
+      mWriterThreads =
+                     new ThreadPoolExecutor(lNumberOfThreads,
+                                            lNumberOfThreads,
+                                            10,
+                                            TimeUnit.SECONDS,
+                                            new LinkedBlockingQueue<Runnable>(),
+                                            (r) -> new Thread(r,
+                                                              "Raw stack writer"));
+      mWriterThreads.allowCoreThreadTimeOut(true);
+    }
+    else if (mWriterThreads.getMaximumPoolSize() != lNumberOfThreads)
+    {
+      if (lNumberOfThreads > mWriterThreads.getMaximumPoolSize())
+      {
+        mWriterThreads.setMaximumPoolSize(lNumberOfThreads);
+        mWriterThreads.setCorePoolSize(lNumberOfThreads);
+      }
+      else
+      {
+        mWriterThreads.setCorePoolSize(lNumberOfThreads);
+        mWriterThreads.setMaximumPoolSize(lNumberOfThreads);
+      }
+    }
+    return mWriterThreads;
+  }
+
+  /**
+   * Called by the writer threads. Jobs are accounted for and handed back in
+   * the order they were submitted.
+   */
+  private void complete(WriteJob pJob)
+  {
+    synchronized (this)
+    {
+      mFinishedJobs.put(pJob.mSequenceNumber, pJob);
+      while (!mFinishedJobs.isEmpty()
+             && mFinishedJobs.firstKey() == mNextSequenceNumberToComplete)
+      {
+        WriteJob lJob = mFinishedJobs.pollFirstEntry().getValue();
+        mNextSequenceNumberToComplete++;
+        commit(lJob);
+
+        mQueueDepth--;
+        if (mQueueDepth == 0)
+        {
+          mBusyTimeInNanoseconds += System.nanoTime()
+                                    - mBusySinceNanoseconds;
+          mLastJobPerSink.clear();
+        }
+      }
+      notifyAll();
+    }
+  }
+
+  private void commit(WriteJob pJob)
+  {
+    if (pJob.mException == null)
+    {
+      mWrittenBytes += pJob.mStack.getSizeInBytes();
+      mNumberOfWrittenStacks++;
+    }
+    else
+    {
+      mNumberOfFailedWrites++;
+      warning("Writing stack " + pJob.mStack
+              + " of channel "
+              + pJob.mChannelName
+              + " failed: "
+              + pJob.mException);
+    }
+
+    if (mMemoryManager != null)
+    {
+      mMemoryManager.unretainStack(pJob.mStack);
+    }
+  }
+
+  /**
+   * Blocks until all stacks handed over so far are written.
+   */
+  public synchronized void waitUntilDrained()
+  {
+    while (mQueueDepth > 0)
+    {
+      try
+      {
+        wait(cWaitIntervalInMilliseconds);
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  public Variable<Boolean> getEnabledVariable()
+  {
+    return mEnabledVariable;
+  }
+
+  public BoundedVariable<Integer> getNumberOfWriterThreadsVariable()
+  {
+    return mNumberOfWriterThreadsVariable;
+  }
+
+  public BoundedVariable<Integer> getMaximumQueueLengthVariable()
+  {
+    return mMaximumQueueLengthVariable;
+  }
+
+  /**
+   * @return number of stacks which are handed over but not completely
+   *         written yet
+   */
+  public synchronized int getQueueDepth()
+  {
+    return mQueueDepth;
+  }
+
+  /**
+   * @return the highest queue depth observed so far
+   */
+  public synchronized int getMaximumQueueDepth()
+  {
+    return mMaximumQueueDepth;
+  }
+
+  public synchronized long getWrittenBytes()
+  {
+    return mWrittenBytes;
+  }
+
+  public synchronized long getNumberOfWrittenStacks()
+  {
+    return mNumberOfWrittenStacks;
+  }
+
+  public synchronized long getNumberOfFailedWrites()
+  {
+    return mNumberOfFailedWrites;
+  }
+
+  /**
+   * @return average write throughput in MB/s, measured over the time the
+   *         writer was busy
+   */
+  public synchronized double getThroughputInMegaBytesPerSecond()
+  {
+    long lBusyTimeInNanoseconds = mBusyTimeInNanoseconds;
+    if (mQueueDepth > 0)
+    {
+      lBusyTimeInNanoseconds += System.nanoTime() - mBusySinceNanoseconds;
+    }
+    if (lBusyTimeInNanoseconds == 0)
+    {
+      return 0;
+    }
+    return (mWrittenBytes / (1024.0 * 1024.0))
+           / (lBusyTimeInNanoseconds * 1e-9);
+  }
+
+  @Override
+  public String toString()
+  {
+    return String.format(Locale.US,
+                         "AsyncRawStackWriter [written=%d stacks, %.1f MB/s, queue depth=%d (max %d), failed=%d]",
+                         getNumberOfWrittenStacks(),
+                         getThroughputInMegaBytesPerSecond(),
+                         getQueueDepth(),
+                         getMaximumQueueDepth(),
+                         getNumberOfFailedWrites());
+  }
+}
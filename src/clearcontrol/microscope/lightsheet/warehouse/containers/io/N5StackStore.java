@@ -0,0 +1,823 @@
+package clearcontrol.microscope.lightsheet.warehouse.containers.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import clearcontrol.core.log.LoggingFeature;
+import clearcontrol.stack.StackInterface;
+import clearcontrol.stack.metadata.StackMetaData;
+
+/**
+ * The N5StackStore saves stacks as chunked, compressed blocks in the N5 format,
+ * together with a multi-scale pyramid of 2x2x2 averaged resolution levels.
+ * Every block is compressed on its own, so that sub-volumes can be read
+ * without decompressing whole stacks. Blocks are compressed and decompressed
+ * on a number of threads in parallel.
+ *
+ * Stacks are stored as groups [group]/s0, [group]/s1, ... with the
+ * attributes N5 viewers expect (scales, downsamplingFactors,
+ * pixelResolution). Blocks are either stored raw or zlib compressed (N5 gzip
+ * compression with useZlib).
+ */
+public class N5StackStore implements LoggingFeature
+{
+  private final File mRootFolder;
+  private int mNumberOfThreads =
+                               Runtime.getRuntime().availableProcessors();
+
+  /**
+   * @param pRootFolder
+   *          folder of the N5 container, usually ending with .n5
+   */
+  public N5StackStore(File pRootFolder)
+  {
+    mRootFolder = pRootFolder;
+  }
+
+  public void setNumberOfThreads(int pNumberOfThreads)
+  {
+    mNumberOfThreads = Math.max(1, pNumberOfThreads);
+  }
+
+  public File getRootFolder()
+  {
+    return mRootFolder;
+  }
+
+  /**
+   * @param pGroupPath
+   *          group path relative to the root folder, e.g. C0L0/000001
+   * @return true if a stack was written to the given group
+   */
+  public boolean exists(String pGroupPath)
+  {
+    return new File(getDatasetFolder(pGroupPath, 0),
+                    "attributes.json").exists();
+  }
+
+  /**
+   * Writes a stack and its resolution pyramid
+   *
+   * @param pGroupPath
+   *          group path relative to the root folder, e.g. C0L0/000001
+   * @param pStack
+   *          stack with 8 bit, 16 bit or 32 bit float voxels
+   * @param pBlockSize
+   *          edge length of the cubic blocks
+   * @param pNumberOfLevels
+   *          number of resolution levels including full resolution
+   * @param pCompressionLevel
+   *          deflate level between 1 and 9, 0 stores blocks uncompressed
+   * @throws IOException
+   *           if writing fails
+   */
+  public void write(String pGroupPath,
+                    StackInterface pStack,
+                    int pBlockSize,
+                    int pNumberOfLevels,
+                    int pCompressionLevel) throws IOException
+  {
+    int lBytesPerVoxel = (int) pStack.getBytesPerVoxel();
+    long[] lDimensions = new long[]
+    { pStack.getWidth(), pStack.getHeight(), pStack.getDepth() };
+
+    writeAttributes(mRootFolder, "{\"n5\":\"2.0.0\"}");
+
+    StringBuilder lScales = new StringBuilder();
+    for (int l = 0; l < pNumberOfLevels; l++)
+    {
+      int lFactor = 1 << l;
+      lScales.append(l == 0 ? "" : ",")
+             .append("[" + lFactor + "," + lFactor + "," + lFactor + "]");
+    }
+    StackMetaData lMetaData = pStack.getMetaData();
+    double lVoxelDimX = 1, lVoxelDimY = 1, lVoxelDimZ = 1;
+    if (lMetaData != null && lMetaData.getVoxelDimX() != null)
+    {
+      lVoxelDimX = lMetaData.getVoxelDimX();
+      lVoxelDimY = lMetaData.getVoxelDimY();
+      lVoxelDimZ = lMetaData.getVoxelDimZ();
+    }
+    writeAttributes(new File(mRootFolder, pGroupPath),
+                    "{\"scales\":[" + lScales
+                                                       + "],\"pixelResolution\":{\"unit\":\"um\",\"dimensions\":["
+                                                       + lVoxelDimX
+                                                       + ","
+                                                       + lVoxelDimY
+                                                       + ","
+                                                       + lVoxelDimZ
+                                                       + "]}}");
+
+    ExecutorService lExecutorService = createExecutorService();
+    try
+    {
+      LevelWriter lLevelZero = null;
+      LevelWriter lLevelBefore = null;
+      long[] lLevelDimensions = lDimensions.clone();
+      for (int l = 0; l < pNumberOfLevels; l++)
+      {
+        LevelWriter lLevelWriter =
+                                 new LevelWriter(getDatasetFolder(pGroupPath,
+                                                                  l),
+                                                 lLevelDimensions.clone(),
+                                                 lBytesPerVoxel,
+                                                 pBlockSize,
+                                                 pCompressionLevel,
+                                                 lExecutorService);
+        writeAttributes(lLevelWriter.mFolder,
+                        "{\"dataType\":\"" + getDataType(lBytesPerVoxel)
+                                              + "\",\"compression\":"
+                                              + getCompressionAttribute(pCompressionLevel)
+                                              + ",\"blockSize\":["
+                                              + pBlockSize
+                                              + ","
+                                              + pBlockSize
+                                              + ","
+                                              + pBlockSize
+                                              + "],\"dimensions\":["
+                                              + lLevelDimensions[0]
+                                              + ","
+                                              + lLevelDimensions[1]
+                                              + ","
+                                              + lLevelDimensions[2]
+                                              + "],\"downsamplingFactors\":["
+                                              + (1 << l)
+                                              + ","
+                                              + (1 << l)
+                                              + ","
+                                              + (1 << l)
+                                              + "]}");
+        if (lLevelBefore == null)
+        {
+          lLevelZero = lLevelWriter;
+        }
+        else
+        {
+          lLevelBefore.mNextLevel = lLevelWriter;
+        }
+        lLevelBefore = lLevelWriter;
+
+        for (int d = 0; d < 3; d++)
+        {
+          lLevelDimensions[d] = Math.max(1,
+                                         (lLevelDimensions[d] + 1) / 2);
+        }
+      }
+
+      for (int z = 0; z < lDimensions[2]; z++)
+      {
+        ByteBuffer lPlane = pStack.getContiguousMemory(z)
+                                  .getByteBuffer()
+                                  .order(ByteOrder.nativeOrder());
+        lLevelZero.addPlane(lPlane);
+      }
+      lLevelZero.finish();
+    }
+    finally
+    {
+      lExecutorService.shutdownNow();
+    }
+  }
+
+  /**
+   * @param pGroupPath
+   *          group path relative to the root folder
+   * @param pLevel
+   *          resolution level, 0 is full resolution
+   * @return width, height and depth of the given level
+   * @throws IOException
+   *           if the attributes can't be read
+   */
+  public long[] getDimensions(String pGroupPath,
+                              int pLevel) throws IOException
+  {
+    String lAttributes = readAttributes(getDatasetFolder(pGroupPath,
+                                                         pLevel));
+    return parseLongArray(lAttributes, "dimensions");
+  }
+
+  /**
+   * @param pGroupPath
+   *          group path relative to the root folder
+   * @param pLevel
+   *          resolution level, 0 is full resolution
+   * @return N5 data type of the given level, e.g. uint16
+   * @throws IOException
+   *           if the attributes can't be read
+   */
+  public String getDataType(String pGroupPath,
+                            int pLevel) throws IOException
+  {
+    String lAttributes = readAttributes(getDatasetFolder(pGroupPath,
+                                                         pLevel));
+    Matcher lMatcher = Pattern.compile("\"dataType\"\\s*:\\s*\"(\\w+)\"")
+                              .matcher(lAttributes);
+    if (!lMatcher.find())
+    {
+      throw new IOException("No data type in attributes of "
+                            + pGroupPath);
+    }
+    return lMatcher.group(1);
+  }
+
+  /**
+   * Reads a sub-volume. Only the blocks overlapping the sub-volume are read
+   * and decompressed.
+   *
+   * @param pGroupPath
+   *          group path relative to the root folder
+   * @param pLevel
+   *          resolution level, 0 is full resolution
+   * @param pOffset
+   *          position of the sub-volume in voxels of the given level
+   * @param pTarget
+   *          stack the sub-volume is read into; its dimensions define the
+   *          size of the sub-volume
+   * @throws IOException
+   *           if reading fails
+   */
+  public void read(String pGroupPath,
+                   int pLevel,
+                   long[] pOffset,
+                   StackInterface pTarget) throws IOException
+  {
+    File lFolder = getDatasetFolder(pGroupPath, pLevel);
+    String lAttributes = readAttributes(lFolder);
+    long[] lDimensions = parseLongArray(lAttributes, "dimensions");
+    long[] lBlockSize = parseLongArray(lAttributes, "blockSize");
+    int lBytesPerVoxel = getBytesPerVoxel(getDataType(pGroupPath,
+                                                      pLevel));
+    boolean lCompressed = !lAttributes.replaceAll("\\s", "")
+                                      .contains("\"type\":\"raw\"");
+    if (lBytesPerVoxel != pTarget.getBytesPerVoxel())
+    {
+      throw new IOException("Target stack has "
+                            + pTarget.getBytesPerVoxel()
+                            + " bytes per voxel, data set has "
+                            + lBytesPerVoxel);
+    }
+
+    long[] lSize = new long[]
+    { pTarget.getWidth(), pTarget.getHeight(), pTarget.getDepth() };
+    long[] lEnd = new long[3];
+    for (int d = 0; d < 3; d++)
+    {
+      lEnd[d] = Math.min(pOffset[d] + lSize[d], lDimensions[d]);
+    }
+
+    ByteBuffer[] lTargetPlanes = new ByteBuffer[(int) lSize[2]];
+    for (int z = 0; z < lSize[2]; z++)
+    {
+      lTargetPlanes[z] = pTarget.getContiguousMemory(z)
+                                .getByteBuffer()
+                                .order(ByteOrder.nativeOrder());
+    }
+
+    ExecutorService lExecutorService = createExecutorService();
+    try
+    {
+      ArrayList<Future<Void>> lFutures = new ArrayList<>();
+      for (long bz = pOffset[2] / lBlockSize[2]; bz
+                                                 * lBlockSize[2] < lEnd[2]; bz++)
+      {
+        for (long by = pOffset[1] / lBlockSize[1]; by
+                                                   * lBlockSize[1] < lEnd[1]; by++)
+        {
+          for (long bx = pOffset[0] / lBlockSize[0]; bx
+                                                     * lBlockSize[0] < lEnd[0]; bx++)
+          {
+            long[] lBlockPosition = new long[]
+            { bx, by, bz };
+            lFutures.add(lExecutorService.submit(() -> {
+              readBlock(lFolder,
+                        lCompressed,
+                        lBlockPosition,
+                        lBlockSize,
+                        lBytesPerVoxel,
+                        pOffset,
+                        lEnd,
+                        lSize,
+                        lTargetPlanes);
+              return null;
+            }));
+          }
+        }
+      }
+      waitFor(lFutures);
+    }
+    finally
+    {
+      lExecutorService.shutdownNow();
+    }
+  }
+
+  private void readBlock(File pFolder,
+                         boolean pCompressed,
+                         long[] pBlockPosition,
+                         long[] pBlockSize,
+                         int pBytesPerVoxel,
+                         long[] pOffset,
+                         long[] pEnd,
+                         long[] pTargetSize,
+                         ByteBuffer[] pTargetPlanes) throws IOException
+  {
+    File lBlockFile = new File(pFolder,
+                               pBlockPosition[0] + "/"
+                                        + pBlockPosition[1]
+                                        + "/"
+                                        + pBlockPosition[2]);
+    if (!lBlockFile.exists())
+    {
+      // N5 leaves out empty blocks
+      return;
+    }
+    ByteBuffer lBlockFileContent =
+                                 ByteBuffer.wrap(Files.readAllBytes(lBlockFile.toPath()))
+                                           .order(ByteOrder.BIG_ENDIAN);
+    lBlockFileContent.getShort(); // mode
+    int lNumberOfDimensions = lBlockFileContent.getShort();
+    int[] lBlockDimensions = new int[lNumberOfDimensions];
+    for (int d = 0; d < lNumberOfDimensions; d++)
+    {
+      lBlockDimensions[d] = lBlockFileContent.getInt();
+    }
+    int lBlockSizeInBytes = lBlockDimensions[0] * lBlockDimensions[1]
+                            * lBlockDimensions[2]
+                            * pBytesPerVoxel;
+
+    ByteBuffer lBlock;
+    if (!pCompressed)
+    {
+      lBlock = lBlockFileContent.slice().order(ByteOrder.BIG_ENDIAN);
+    }
+    else
+    {
+      Inflater lInflater = new Inflater();
+      try
+      {
+        lInflater.setInput(lBlockFileContent.array(),
+                           lBlockFileContent.arrayOffset()
+                           + lBlockFileContent.position(),
+                           lBlockFileContent.remaining());
+        byte[] lData = new byte[lBlockSizeInBytes];
+        int lLength = 0;
+        while (lLength < lData.length && !lInflater.finished())
+        {
+          int lInflated = lInflater.inflate(lData,
+                                            lLength,
+                                            lData.length - lLength);
+          if (lInflated == 0 && lInflater.needsInput())
+          {
+            break;
+          }
+          lLength += lInflated;
+        }
+        lBlock = ByteBuffer.wrap(lData).order(ByteOrder.BIG_ENDIAN);
+      }
+      catch (DataFormatException e)
+      {
+        throw new IOException("Corrupt block " + lBlockFile, e);
+      }
+      finally
+      {
+        lInflater.end();
+      }
+    }
+
+    long lBlockX = pBlockPosition[0] * pBlockSize[0];
+    long lBlockY = pBlockPosition[1] * pBlockSize[1];
+    long lBlockZ = pBlockPosition[2] * pBlockSize[2];
+    long lFromX = Math.max(lBlockX, pOffset[0]);
+    long lToX = Math.min(lBlockX + lBlockDimensions[0], pEnd[0]);
+    long lFromY = Math.max(lBlockY, pOffset[1]);
+    long lToY = Math.min(lBlockY + lBlockDimensions[1], pEnd[1]);
+    long lFromZ = Math.max(lBlockZ, pOffset[2]);
+    long lToZ = Math.min(lBlockZ + lBlockDimensions[2], pEnd[2]);
+    int lRowLength = (int) (lToX - lFromX);
+    if (lRowLength <= 0)
+    {
+      return;
+    }
+
+    for (long z = lFromZ; z < lToZ; z++)
+    {
+      ByteBuffer lTargetPlane = pTargetPlanes[(int) (z - pOffset[2])];
+      for (long y = lFromY; y < lToY; y++)
+      {
+        int lSourceIndex = (int) (((z - lBlockZ) * lBlockDimensions[1]
+                                   + (y - lBlockY))
+                                  * lBlockDimensions[0]
+                                  + (lFromX - lBlockX));
+        int lTargetIndex = (int) ((y - pOffset[1]) * pTargetSize[0]
+                                  + (lFromX - pOffset[0]));
+        copyElements(lBlock,
+                     lSourceIndex,
+                     lTargetPlane,
+                     lTargetIndex,
+                     lRowLength,
+                     pBytesPerVoxel);
+      }
+    }
+  }
+
+  /**
+   * Collects the planes of one resolution level until a slab of blocks is
+   * complete, writes it and hands averaged planes to the next level.
+   */
+  private class LevelWriter
+  {
+    final File mFolder;
+    final long[] mDimensions;
+    final int mBytesPerVoxel;
+    final int mBlockSize;
+    final int mCompressionLevel;
+    final ExecutorService mExecutorService;
+
+    LevelWriter mNextLevel;
+
+    private final ArrayList<ByteBuffer> mSlab = new ArrayList<>();
+    private long mSlabIndex = 0;
+    private ByteBuffer mUnpairedPlane;
+
+    LevelWriter(File pFolder,
+                long[] pDimensions,
+                int pBytesPerVoxel,
+                int pBlockSize,
+                int pCompressionLevel,
+                ExecutorService pExecutorService)
+    {
+      mFolder = pFolder;
+      mDimensions = pDimensions;
+      mBytesPerVoxel = pBytesPerVoxel;
+      mBlockSize = pBlockSize;
+      mCompressionLevel = pCompressionLevel;
+      mExecutorService = pExecutorService;
+    }
+
+    void addPlane(ByteBuffer pPlane) throws IOException
+    {
+      mSlab.add(pPlane);
+      if (mSlab.size() == mBlockSize)
+      {
+        writeSlab();
+      }
+
+      if (mNextLevel != null)
+      {
+        if (mUnpairedPlane == null)
+        {
+          mUnpairedPlane = pPlane;
+        }
+        else
+        {
+          mNextLevel.addPlane(downsample(mUnpairedPlane, pPlane));
+          mUnpairedPlane = null;
+        }
+      }
+    }
+
+    void finish() throws IOException
+    {
+      if (!mSlab.isEmpty())
+      {
+        writeSlab();
+      }
+      if (mNextLevel != null)
+      {
+        if (mUnpairedPlane != null)
+        {
+          mNextLevel.addPlane(downsample(mUnpairedPlane, null));
+          mUnpairedPlane = null;
+        }
+        mNextLevel.finish();
+      }
+    }
+
+    private void writeSlab() throws IOException
+    {
+      ArrayList<ByteBuffer> lSlab = new ArrayList<>(mSlab);
+      long lSlabIndex = mSlabIndex;
+
+      ArrayList<Future<Void>> lFutures = new ArrayList<>();
+      for (long by = 0; by * mBlockSize < mDimensions[1]; by++)
+      {
+        for (long bx = 0; bx * mBlockSize < mDimensions[0]; bx++)
+        {
+          long lBlockX = bx;
+          long lBlockY = by;
+          lFutures.add(mExecutorService.submit(() -> {
+            writeBlock(lSlab, lBlockX, lBlockY, lSlabIndex);
+            return null;
+          }));
+        }
+      }
+      waitFor(lFutures);
+
+      mSlab.clear();
+      mSlabIndex++;
+    }
+
+    private void writeBlock(ArrayList<ByteBuffer> pSlab,
+                            long pBlockX,
+                            long pBlockY,
+                            long pBlockZ) throws IOException
+    {
+      long lFromX = pBlockX * mBlockSize;
+      long lFromY = pBlockY * mBlockSize;
+      int lBlockWidth = (int) Math.min(mBlockSize,
+                                       mDimensions[0] - lFromX);
+      int lBlockHeight = (int) Math.min(mBlockSize,
+                                        mDimensions[1] - lFromY);
+      int lBlockDepth = pSlab.size();
+
+      ByteBuffer lBlock =
+                        ByteBuffer.allocate(lBlockWidth * lBlockHeight
+                                            * lBlockDepth
+                                            * mBytesPerVoxel)
+                                  .order(ByteOrder.BIG_ENDIAN);
+      for (int z = 0; z < lBlockDepth; z++)
+      {
+        for (int y = 0; y < lBlockHeight; y++)
+        {
+          copyElements(pSlab.get(z),
+                       (int) ((lFromY + y) * mDimensions[0] + lFromX),
+                       lBlock,
+                       (z * lBlockHeight + y) * lBlockWidth,
+                       lBlockWidth,
+                       mBytesPerVoxel);
+        }
+      }
+
+      byte[] lData = lBlock.array();
+      int lDataLength = lData.length;
+      if (mCompressionLevel > 0)
+      {
+        Deflater lDeflater = new Deflater(mCompressionLevel);
+        try
+        {
+          lDeflater.setInput(lData);
+          lDeflater.finish();
+          ByteArrayOutputStream lOutput =
+                                        new ByteArrayOutputStream(lData.length / 2
+                                                                  + 64);
+          byte[] lBuffer = new byte[64 * 1024];
+          while (!lDeflater.finished())
+          {
+            int lLength = lDeflater.deflate(lBuffer);
+            lOutput.write(lBuffer, 0, lLength);
+          }
+          lData = lOutput.toByteArray();
+          lDataLength = lData.length;
+        }
+        finally
+        {
+          lDeflater.end();
+        }
+      }
+
+      ByteBuffer lHeader = ByteBuffer.allocate(16)
+                                     .order(ByteOrder.BIG_ENDIAN);
+      lHeader.putShort((short) 0);
+      lHeader.putShort((short) 3);
+      lHeader.putInt(lBlockWidth);
+      lHeader.putInt(lBlockHeight);
+      lHeader.putInt(lBlockDepth);
+
+      File lBlockFolder = new File(mFolder, pBlockX + "/" + pBlockY);
+      lBlockFolder.mkdirs();
+      byte[] lFileContent = Arrays.copyOf(lHeader.array(),
+                                          16 + lDataLength);
+      System.arraycopy(lData, 0, lFileContent, 16, lDataLength);
+      Files.write(new File(lBlockFolder, "" + pBlockZ).toPath(),
+                  lFileContent);
+    }
+
+    /**
+     * Averages 2x2 voxels of two planes (2x2x1 if the second is missing)
+     */
+    private ByteBuffer downsample(ByteBuffer pPlane1, ByteBuffer pPlane2)
+    {
+      long lWidth = mDimensions[0];
+      long lHeight = mDimensions[1];
+      int lTargetWidth = (int) Math.max(1, (lWidth + 1) / 2);
+      int lTargetHeight = (int) Math.max(1, (lHeight + 1) / 2);
+      ByteBuffer lTarget =
+                         ByteBuffer.allocate(lTargetWidth * lTargetHeight
+                                             * mBytesPerVoxel)
+                                   .order(ByteOrder.nativeOrder());
+      for (int y = 0; y < lTargetHeight; y++)
+      {
+        for (int x = 0; x < lTargetWidth; x++)
+        {
+          double lSum = 0;
+          int lCount = 0;
+          for (int dy = 0; dy < 2 && 2 * y + dy < lHeight; dy++)
+          {
+            for (int dx = 0; dx < 2 && 2 * x + dx < lWidth; dx++)
+            {
+              int lIndex = (int) ((2 * y + dy) * lWidth + 2 * x + dx);
+              lSum += getElement(pPlane1, lIndex, mBytesPerVoxel);
+              lCount++;
+              if (pPlane2 != null)
+              {
+                lSum += getElement(pPlane2, lIndex, mBytesPerVoxel);
+                lCount++;
+              }
+            }
+          }
+          setElement(lTarget,
+                     y * lTargetWidth + x,
+                     mBytesPerVoxel,
+                     lSum / lCount);
+        }
+      }
+      return lTarget;
+    }
+  }
+
+  private static double getElement(ByteBuffer pBuffer,
+                                   int pIndex,
+                                   int pBytesPerVoxel)
+  {
+    switch (pBytesPerVoxel)
+    {
+    case 1:
+      return pBuffer.get(pIndex) & 0xFF;
+    case 2:
+      return pBuffer.getShort(pIndex * 2) & 0xFFFF;
+    default:
+      return pBuffer.getFloat(pIndex * 4);
+    }
+  }
+
+  private static void setElement(ByteBuffer pBuffer,
+                                 int pIndex,
+                                 int pBytesPerVoxel,
+                                 double pValue)
+  {
+    switch (pBytesPerVoxel)
+    {
+    case 1:
+      pBuffer.put(pIndex, (byte) Math.round(pValue));
+      break;
+    case 2:
+      pBuffer.putShort(pIndex * 2, (short) Math.round(pValue));
+      break;
+    default:
+      pBuffer.putFloat(pIndex * 4, (float) pValue);
+    }
+  }
+
+  /**
+   * Copies elements between buffers of possibly different byte order
+   */
+  private static void copyElements(ByteBuffer pSource,
+                                   int pSourceIndex,
+                                   ByteBuffer pTarget,
+                                   int pTargetIndex,
+                                   int pLength,
+                                   int pBytesPerVoxel)
+  {
+    ByteBuffer lSource = pSource.duplicate().order(pSource.order());
+    ByteBuffer lTarget = pTarget.duplicate().order(pTarget.order());
+    lSource.position(pSourceIndex * pBytesPerVoxel);
+    lSource.limit((pSourceIndex + pLength) * pBytesPerVoxel);
+    lTarget.position(pTargetIndex * pBytesPerVoxel);
+    switch (pBytesPerVoxel)
+    {
+    case 1:
+      lTarget.put(lSource);
+      break;
+    case 2:
+      lTarget.asShortBuffer().put(lSource.asShortBuffer());
+      break;
+    default:
+      lTarget.asFloatBuffer().put(lSource.asFloatBuffer());
+    }
+  }
+
+  private void waitFor(ArrayList<Future<Void>> pFutures) throws IOException
+  {
+    try
+    {
+      for (Future<Void> lFuture : pFutures)
+      {
+        lFuture.get();
+      }
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted", e);
+    }
+    catch (ExecutionException e)
+    {
+      if (e.getCause() instanceof IOException)
+      {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+
+  private ExecutorService createExecutorService()
+  {
+    return Executors.newFixedThreadPool(mNumberOfThreads, (r) -> {
+      Thread lThread = new Thread(r, "N5 block codec");
+      lThread.setDaemon(true);
+      return lThread;
+    });
+  }
+
+  private File getDatasetFolder(String pGroupPath, int pLevel)
+  {
+    return new File(new File(mRootFolder, pGroupPath), "s" + pLevel);
+  }
+
+  private static String getDataType(int pBytesPerVoxel)
+  {
+    switch (pBytesPerVoxel)
+    {
+    case 1:
+      return "uint8";
+    case 2:
+      return "uint16";
+    default:
+      return "float32";
+    }
+  }
+
+  private static int getBytesPerVoxel(String pDataType)
+  {
+    switch (pDataType)
+    {
+    case "uint8":
+      return 1;
+    case "uint16":
+      return 2;
+    default:
+      return 4;
+    }
+  }
+
+  private static String getCompressionAttribute(int pCompressionLevel)
+  {
+    if (pCompressionLevel <= 0)
+    {
+      return "{\"type\":\"raw\"}";
+    }
+    return "{\"type\":\"gzip\",\"useZlib\":true,\"level\":"
+           + pCompressionLevel
+           + "}";
+  }
+
+  private static void writeAttributes(File pFolder,
+                                      String pJson) throws IOException
+  {
+    pFolder.mkdirs();
+    Files.write(new File(pFolder, "attributes.json").toPath(),
+                pJson.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String readAttributes(File pFolder) throws IOException
+  {
+    return new String(Files.readAllBytes(new File(pFolder,
+                                                  "attributes.json").toPath()),
+                      StandardCharsets.UTF_8);
+  }
+
+  private static long[] parseLongArray(String pJson,
+                                       String pKey) throws IOException
+  {
+    Matcher lMatcher = Pattern.compile("\"" + pKey
+                                       + "\"\\s*:\\s*\\[([^\\]]*)\\]")
+                              .matcher(pJson);
+    if (!lMatcher.find())
+    {
+      throw new IOException("No " + pKey + " in attributes");
+    }
+    String[] lElements = lMatcher.group(1).split(",");
+    long[] lResult = new long[lElements.length];
+    for (int i = 0; i < lElements.length; i++)
+    {
+      lResult[i] = Long.parseLong(lElements[i].trim());
+    }
+    return lResult;
+  }
+}
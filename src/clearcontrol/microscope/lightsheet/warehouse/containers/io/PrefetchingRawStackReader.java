@@ -0,0 +1,266 @@
+package clearcontrol.microscope.lightsheet.warehouse.containers.io;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import clearcontrol.core.log.LoggingFeature;
+import clearcontrol.stack.StackInterface;
+import clearcontrol.stack.StackRequest;
+import clearcontrol.stack.sourcesink.source.RawFileStackSource;
+import coremem.recycling.RecyclerInterface;
+
+/**
+ * The PrefetchingRawStackReader reads stacks saved in the RAW format from a
+ * data set folder. Stacks which are going to be requested next can be
+ * prefetched on a background thread, so that replaying a recorded timelapse
+ * isn't bound by waiting for the disc.
+ *
+ * Stacks are read by a RawFileStackSource, so that they come with their full
+ * meta data and stacks of any size can be read. The source isn't thread safe,
+ * it is therefore only used on the prefetch thread, also for stacks which
+ * weren't prefetched.
+ */
+public class PrefetchingRawStackReader implements LoggingFeature
+{
+  private final File mDatasetFolder;
+  private final RecyclerInterface<StackInterface, StackRequest> mRecycler;
+
+  private final ExecutorService mPrefetchThread =
+                                                Executors.newSingleThreadExecutor((r) -> {
+                                                  Thread lThread =
+                                                                 new Thread(r,
+                                                                            "Raw stack prefetcher");
+                                                  lThread.setDaemon(true);
+                                                  return lThread;
+                                                });
+
+  // only used on the prefetch thread
+  private RawFileStackSource mRawFileStackSource;
+
+  // guarded by this
+  private final LinkedHashMap<String, Future<StackInterface>> mPrefetchedStacks =
+                                                                                new LinkedHashMap<>();
+
+  private final AtomicLong mHitCount = new AtomicLong();
+  private final AtomicLong mMissCount = new AtomicLong();
+
+  /**
+   * @param pDatasetFolder
+   *          folder containing the index files and the stacks folder
+   * @param pRecycler
+   *          recycler the stacks are taken from
+   */
+  public PrefetchingRawStackReader(File pDatasetFolder,
+                                   RecyclerInterface<StackInterface, StackRequest> pRecycler)
+  {
+    mDatasetFolder = pDatasetFolder;
+    mRecycler = pRecycler;
+  }
+
+  public File getDatasetFolder()
+  {
+    return mDatasetFolder;
+  }
+
+  /**
+   * Returns a stack. If it was prefetched before, the prefetched stack is
+   * handed out, otherwise it is read right away.
+   *
+   * @param pChannelName
+   *          channel, e.g. C0L0
+   * @param pIndex
+   *          index of the stack within the channel
+   * @return the stack or null if it doesn't exist or reading failed
+   */
+  public StackInterface getStack(String pChannelName, long pIndex)
+  {
+    Future<StackInterface> lFuture;
+    synchronized (this)
+    {
+      lFuture = mPrefetchedStacks.remove(getKey(pChannelName, pIndex));
+    }
+    StackInterface lStack = lFuture == null ? null : get(lFuture);
+    if (lStack != null)
+    {
+      mHitCount.incrementAndGet();
+      return lStack;
+    }
+
+    // not prefetched or not written yet when it was prefetched
+    mMissCount.incrementAndGet();
+    return get(mPrefetchThread.submit(() -> readStack(pChannelName,
+                                                      pIndex,
+                                                      true)));
+  }
+
+  private StackInterface get(Future<StackInterface> pFuture)
+  {
+    try
+    {
+      return pFuture.get();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+    catch (ExecutionException e)
+    {
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  /**
+   * Schedules reading the given stacks on the background thread. Prefetched
+   * stacks of the same channel which aren't listed anymore are released.
+   *
+   * @param pChannelName
+   *          channel, e.g. C0L0
+   * @param pIndices
+   *          indices of the stacks which will be requested next
+   */
+  public synchronized void prefetch(String pChannelName,
+                                    List<Long> pIndices)
+  {
+    ArrayList<String> lRequestedKeys = new ArrayList<>();
+    for (Long lIndex : pIndices)
+    {
+      lRequestedKeys.add(getKey(pChannelName, lIndex));
+    }
+
+    Iterator<Map.Entry<String, Future<StackInterface>>> lIterator =
+                                                                  mPrefetchedStacks.entrySet()
+                                                                                   .iterator();
+    while (lIterator.hasNext())
+    {
+      Map.Entry<String, Future<StackInterface>> lEntry =
+                                                       lIterator.next();
+      if (lEntry.getKey().startsWith(pChannelName + "/")
+          && !lRequestedKeys.contains(lEntry.getKey()))
+      {
+        discard(lEntry.getValue());
+        lIterator.remove();
+      }
+    }
+
+    for (Long lIndex : pIndices)
+    {
+      String lKey = getKey(pChannelName, lIndex);
+      if (!mPrefetchedStacks.containsKey(lKey))
+      {
+        mPrefetchedStacks.put(lKey,
+                              mPrefetchThread.submit(() -> readStack(pChannelName,
+                                                                     lIndex,
+                                                                     false)));
+      }
+    }
+  }
+
+  /**
+   * Stops prefetching and hands prefetched stacks back to the recycler.
+   */
+  public synchronized void close()
+  {
+    for (Future<StackInterface> lFuture : mPrefetchedStacks.values())
+    {
+      discard(lFuture);
+    }
+    mPrefetchedStacks.clear();
+    mPrefetchThread.shutdown();
+  }
+
+  public long getHitCount()
+  {
+    return mHitCount.get();
+  }
+
+  public long getMissCount()
+  {
+    return mMissCount.get();
+  }
+
+  private void discard(Future<StackInterface> pFuture)
+  {
+    mPrefetchThread.execute(() -> {
+      try
+      {
+        StackInterface lStack = pFuture.get();
+        if (lStack != null)
+        {
+          lStack.release();
+        }
+      }
+      catch (InterruptedException | ExecutionException e)
+      {
+        // nothing to give back
+      }
+    });
+  }
+
+  private StackInterface readStack(String pChannelName,
+                                   long pIndex,
+                                   boolean pReloadIndex)
+  {
+    StackInterface lStack = null;
+    if (mRawFileStackSource != null)
+    {
+      lStack = readStack(pChannelName, pIndex);
+    }
+    if (lStack == null
+        && (mRawFileStackSource == null || pReloadIndex))
+    {
+      // the index files are read when the location is set, the data set
+      // may have grown since
+      mRawFileStackSource = new RawFileStackSource(mRecycler);
+      mRawFileStackSource.setLocation(mDatasetFolder.getParentFile(),
+                                      mDatasetFolder.getName());
+      lStack = readStack(pChannelName, pIndex);
+    }
+    return lStack;
+  }
+
+  private StackInterface readStack(String pChannelName, long pIndex)
+  {
+    try
+    {
+      return mRawFileStackSource.getStack(pChannelName, pIndex);
+    }
+    catch (Throwable e)
+    {
+      warning("Could not read stack " + pIndex
+              + " of channel "
+              + pChannelName
+              + " from "
+              + mDatasetFolder
+              + ": "
+              + e);
+      return null;
+    }
+  }
+
+  private static String getKey(String pChannelName, long pIndex)
+  {
+    return pChannelName + "/" + pIndex;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "PrefetchingRawStackReader [" + mDatasetFolder
+           + ", hits="
+           + getHitCount()
+           + ", misses="
+           + getMissCount()
+           + "]";
+  }
+}
@@ -1,7 +1,10 @@
 package clearcontrol.microscope.lightsheet.warehouse.containers.io;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 
 import clearcontrol.core.log.LoggingFeature;
 import clearcontrol.core.variable.Variable;
@@ -23,7 +26,10 @@ import coremem.recycling.RecyclerInterface;
 /**
  * The ReadStackInterfaceContainerFromDiscInstruction allows reading RAW images
  * from disc. This allows simulation of workflows with data originally acquired
- * by a microscope.
+ * by a microscope. If the chosen folder is an N5 container (ending with .n5),
+ * stacks are read from the given resolution level and optionally only a
+ * sub-volume is read. RAW stacks can be prefetched: the stacks of the next time
+ * points are read in the background while the current one is processed.
  *
  * Author: @haesleinhuepf May 2018
  */
@@ -52,6 +58,54 @@ public class ReadStackInterfaceContainerFromDiscInstruction extends
                                                                  new Variable<Boolean>("Restart when reached final file",
                                                                                        false);
 
+  private BoundedVariable<Integer> mResolutionLevel =
+                                                    new BoundedVariable<Integer>("N5 resolution level",
+                                                                                 0,
+                                                                                 0,
+                                                                                 10);
+  private BoundedVariable<Integer> mRegionOffsetX =
+                                                  new BoundedVariable<Integer>("N5 region offset X",
+                                                                               0,
+                                                                               0,
+                                                                               Integer.MAX_VALUE);
+  private BoundedVariable<Integer> mRegionOffsetY =
+                                                  new BoundedVariable<Integer>("N5 region offset Y",
+                                                                               0,
+                                                                               0,
+                                                                               Integer.MAX_VALUE);
+  private BoundedVariable<Integer> mRegionOffsetZ =
+                                                  new BoundedVariable<Integer>("N5 region offset Z",
+                                                                               0,
+                                                                               0,
+                                                                               Integer.MAX_VALUE);
+  private BoundedVariable<Integer> mRegionWidth =
+                                                new BoundedVariable<Integer>("N5 region width (0 = all)",
+                                                                             0,
+                                                                             0,
+                                                                             Integer.MAX_VALUE);
+  private BoundedVariable<Integer> mRegionHeight =
+                                                 new BoundedVariable<Integer>("N5 region height (0 = all)",
+                                                                              0,
+                                                                              0,
+                                                                              Integer.MAX_VALUE);
+  private BoundedVariable<Integer> mRegionDepth =
+                                                new BoundedVariable<Integer>("N5 region depth (0 = all)",
+                                                                             0,
+                                                                             0,
+                                                                             Integer.MAX_VALUE);
+
+  private BoundedVariable<Integer> mNumberOfPrefetchedTimePoints =
+                                                                 new BoundedVariable<Integer>("Prefetched time points (0 = off)",
+                                                                                              0,
+                                                                                              0,
+                                                                                              64);
+
+  private PrefetchingRawStackReader mPrefetchingRawStackReader;
+
+  // reading the index files is expensive, the source is kept per data set
+  private RawFileStackSource mRawFileStackSource;
+  private File mRawFileStackSourceFolder;
+
   private long mReadTimePoint = 0;
 
   public ReadStackInterfaceContainerFromDiscInstruction(String[] pDatasetNames,
@@ -70,6 +124,13 @@ public class ReadStackInterfaceContainerFromDiscInstruction extends
   public boolean initialize()
   {
     mReadTimePoint = mTimepointOffset.get();
+    if (mPrefetchingRawStackReader != null)
+    {
+      mPrefetchingRawStackReader.close();
+      mPrefetchingRawStackReader = null;
+    }
+    mRawFileStackSource = null;
+    mRawFileStackSourceFolder = null;
     return true;
   }
 
@@ -77,6 +138,11 @@ public class ReadStackInterfaceContainerFromDiscInstruction extends
   public boolean enqueue(long pTimePoint)
   {
     File lRootFolder = getRootFolderVariable().get();
+    N5StackStore lN5StackStore = null;
+    if (lRootFolder.getName().endsWith(".n5"))
+    {
+      lN5StackStore = new N5StackStore(lRootFolder);
+    }
 
     String lDatasetname = lRootFolder.getName();
 
@@ -128,23 +194,34 @@ public class ReadStackInterfaceContainerFromDiscInstruction extends
                         10,
                         true);
     */
-    RawFileStackSource rawFileStackSource =
-                                          new RawFileStackSource(lRecycler);
-    rawFileStackSource.setLocation(lRootFolder, lDatasetname);
+    File lDatasetFolder = new File(lRootFolder, lDatasetname);
+    PrefetchingRawStackReader lPrefetchingRawStackReader = null;
+    if (lN5StackStore == null
+        && mNumberOfPrefetchedTimePoints.get() > 0)
+    {
+      lPrefetchingRawStackReader =
+                                 getPrefetchingRawStackReader(lDatasetFolder,
+                                                              lRecycler);
+    }
     for (int i = 0; i < mDatasetNames.length; i++)
     {
       info("getting " + mDatasetNames[i] + " tp " + mReadTimePoint);
       try
       {
-        StackInterface stack =
-                             rawFileStackSource.getStack(mDatasetNames[i],
-                                                         mReadTimePoint);
+        StackInterface stack = readStack(lDatasetFolder,
+                                         lPrefetchingRawStackReader,
+                                         lN5StackStore,
+                                         lRecycler,
+                                         mDatasetNames[i]);
         if (stack == null
             && mRestartFromBeginningWhenReachingEnd.get())
         {
           mReadTimePoint = mTimepointOffset.get();
-          stack = rawFileStackSource.getStack(mDatasetNames[i],
-                                              mReadTimePoint);
+          stack = readStack(lDatasetFolder,
+                            lPrefetchingRawStackReader,
+                            lN5StackStore,
+                            lRecycler,
+                            mDatasetNames[i]);
         }
 
         if (stack == null)
@@ -167,12 +244,151 @@ public class ReadStackInterfaceContainerFromDiscInstruction extends
       }
     }
     mReadTimePoint += mTimepointStepSize.get();
+
+    if (lPrefetchingRawStackReader != null)
+    {
+      ArrayList<Long> lNextTimePoints = new ArrayList<>();
+      for (int k = 0; k < mNumberOfPrefetchedTimePoints.get(); k++)
+      {
+        lNextTimePoints.add(mReadTimePoint
+                            + k * mTimepointStepSize.get());
+      }
+      for (String lDatasetName : mDatasetNames)
+      {
+        lPrefetchingRawStackReader.prefetch(lDatasetName,
+                                            lNextTimePoints);
+      }
+    }
+
     getLightSheetMicroscope().getDataWarehouse()
                              .put(lContainerWarehouseKey, lContainer);
 
     return false;
   }
 
+  private PrefetchingRawStackReader getPrefetchingRawStackReader(File pDatasetFolder,
+                                                                 RecyclerInterface<StackInterface, StackRequest> pRecycler)
+  {
+    if (mPrefetchingRawStackReader != null
+        && !mPrefetchingRawStackReader.getDatasetFolder()
+                                      .equals(pDatasetFolder))
+    {
+      mPrefetchingRawStackReader.close();
+      mPrefetchingRawStackReader = null;
+    }
+    if (mPrefetchingRawStackReader == null)
+    {
+      mPrefetchingRawStackReader =
+                                 new PrefetchingRawStackReader(pDatasetFolder,
+                                                               pRecycler);
+    }
+    return mPrefetchingRawStackReader;
+  }
+
+  private StackInterface readRawStack(File pDatasetFolder,
+                                      RecyclerInterface<StackInterface, StackRequest> pRecycler,
+                                      String pDatasetName)
+  {
+    boolean lNewSource = false;
+    if (mRawFileStackSource == null
+        || !pDatasetFolder.equals(mRawFileStackSourceFolder))
+    {
+      setRawFileStackSource(pDatasetFolder, pRecycler);
+      lNewSource = true;
+    }
+    StackInterface lStack =
+                          mRawFileStackSource.getStack(pDatasetName,
+                                                       mReadTimePoint);
+    if (lStack == null && !lNewSource)
+    {
+      // the index files are read when the location is set, the data set
+      // may have grown since
+      setRawFileStackSource(pDatasetFolder, pRecycler);
+      lStack = mRawFileStackSource.getStack(pDatasetName,
+                                            mReadTimePoint);
+    }
+    return lStack;
+  }
+
+  private void setRawFileStackSource(File pDatasetFolder,
+                                     RecyclerInterface<StackInterface, StackRequest> pRecycler)
+  {
+    mRawFileStackSource = new RawFileStackSource(pRecycler);
+    mRawFileStackSource.setLocation(pDatasetFolder.getParentFile(),
+                                    pDatasetFolder.getName());
+    mRawFileStackSourceFolder = pDatasetFolder;
+  }
+
+  private StackInterface readStack(File pDatasetFolder,
+                                   PrefetchingRawStackReader pPrefetchingRawStackReader,
+                                   N5StackStore pN5StackStore,
+                                   RecyclerInterface<StackInterface, StackRequest> pRecycler,
+                                   String pDatasetName)
+  {
+    if (pPrefetchingRawStackReader != null)
+    {
+      return pPrefetchingRawStackReader.getStack(pDatasetName,
+                                                 mReadTimePoint);
+    }
+    if (pN5StackStore == null)
+    {
+      return readRawStack(pDatasetFolder, pRecycler, pDatasetName);
+    }
+
+    String lGroupPath = pDatasetName + "/"
+                        + String.format("%06d", mReadTimePoint);
+    if (!pN5StackStore.exists(lGroupPath))
+    {
+      return null;
+    }
+    try
+    {
+      int lLevel = mResolutionLevel.get();
+      if (!"uint16".equals(pN5StackStore.getDataType(lGroupPath,
+                                                      lLevel)))
+      {
+        warning("Only 16 bit N5 data sets can be read, "
+                + lGroupPath
+                + " is "
+                + pN5StackStore.getDataType(lGroupPath, lLevel));
+        return null;
+      }
+
+      long[] lDimensions = pN5StackStore.getDimensions(lGroupPath,
+                                                       lLevel);
+      long[] lOffset = new long[]
+      { mRegionOffsetX.get(), mRegionOffsetY.get(), mRegionOffsetZ.get() };
+      long[] lSize = new long[]
+      { mRegionWidth.get(), mRegionHeight.get(), mRegionDepth.get() };
+      for (int d = 0; d < 3; d++)
+      {
+        lOffset[d] = Math.min(lOffset[d], lDimensions[d] - 1);
+        if (lSize[d] == 0 || lOffset[d] + lSize[d] > lDimensions[d])
+        {
+          lSize[d] = lDimensions[d] - lOffset[d];
+        }
+      }
+
+      StackInterface lStack =
+                            pRecycler.getOrWait(1000,
+                                                TimeUnit.SECONDS,
+                                                StackRequest.build(lSize));
+      if (lStack == null)
+      {
+        warning("Could not get a stack from the recycler for reading "
+                + lGroupPath);
+        return null;
+      }
+      pN5StackStore.read(lGroupPath, lLevel, lOffset, lStack);
+      return lStack;
+    }
+    catch (IOException e)
+    {
+      e.printStackTrace();
+      return null;
+    }
+  }
+
   public Variable<File> getRootFolderVariable()
   {
     return mRootFolderVariable;
@@ -181,8 +397,24 @@ public class ReadStackInterfaceContainerFromDiscInstruction extends
   @Override
   public ReadStackInterfaceContainerFromDiscInstruction copy()
   {
-    return new ReadStackInterfaceContainerFromDiscInstruction(mDatasetNames,
-                                                              getLightSheetMicroscope());
+    ReadStackInterfaceContainerFromDiscInstruction copied =
+                                                          new ReadStackInterfaceContainerFromDiscInstruction(mDatasetNames,
+                                                                                                             getLightSheetMicroscope());
+    copied.getRootFolderVariable().set(getRootFolderVariable().get());
+    copied.getTimepointOffset().set(getTimepointOffset().get());
+    copied.getTimepointStepSize().set(getTimepointStepSize().get());
+    copied.getRestartFromBeginningWhenReachingEnd()
+          .set(getRestartFromBeginningWhenReachingEnd().get());
+    copied.getNumberOfPrefetchedTimePoints()
+          .set(getNumberOfPrefetchedTimePoints().get());
+    copied.getResolutionLevel().set(getResolutionLevel().get());
+    copied.getRegionOffsetX().set(getRegionOffsetX().get());
+    copied.getRegionOffsetY().set(getRegionOffsetY().get());
+    copied.getRegionOffsetZ().set(getRegionOffsetZ().get());
+    copied.getRegionWidth().set(getRegionWidth().get());
+    copied.getRegionHeight().set(getRegionHeight().get());
+    copied.getRegionDepth().set(getRegionDepth().get());
+    return copied;
   }
 
   public BoundedVariable<Integer> getTimepointOffset()
@@ -200,6 +432,46 @@ public class ReadStackInterfaceContainerFromDiscInstruction extends
     return mRestartFromBeginningWhenReachingEnd;
   }
 
+  public BoundedVariable<Integer> getNumberOfPrefetchedTimePoints()
+  {
+    return mNumberOfPrefetchedTimePoints;
+  }
+
+  public BoundedVariable<Integer> getResolutionLevel()
+  {
+    return mResolutionLevel;
+  }
+
+  public BoundedVariable<Integer> getRegionOffsetX()
+  {
+    return mRegionOffsetX;
+  }
+
+  public BoundedVariable<Integer> getRegionOffsetY()
+  {
+    return mRegionOffsetY;
+  }
+
+  public BoundedVariable<Integer> getRegionOffsetZ()
+  {
+    return mRegionOffsetZ;
+  }
+
+  public BoundedVariable<Integer> getRegionWidth()
+  {
+    return mRegionWidth;
+  }
+
+  public BoundedVariable<Integer> getRegionHeight()
+  {
+    return mRegionHeight;
+  }
+
+  public BoundedVariable<Integer> getRegionDepth()
+  {
+    return mRegionDepth;
+  }
+
   @Override
   public Variable[] getProperties()
   {
@@ -207,6 +479,14 @@ public class ReadStackInterfaceContainerFromDiscInstruction extends
     { getRestartFromBeginningWhenReachingEnd(),
       getRootFolderVariable(),
       getTimepointOffset(),
-      getTimepointStepSize() };
+      getTimepointStepSize(),
+      getNumberOfPrefetchedTimePoints(),
+      getResolutionLevel(),
+      getRegionOffsetX(),
+      getRegionOffsetY(),
+      getRegionOffsetZ(),
+      getRegionWidth(),
+      getRegionHeight(),
+      getRegionDepth() };
   }
 }
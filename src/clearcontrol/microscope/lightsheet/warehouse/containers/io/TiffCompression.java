@@ -0,0 +1,38 @@
+package clearcontrol.microscope.lightsheet.warehouse.containers.io;
+
+/**
+ * Compression schemes the TiffStackWriter can apply to the strips of a TIFF
+ * file. Every plane is stored as one strip.
+ */
+public enum TiffCompression
+{
+ /**
+  * Planes are written as they are in memory
+  */
+ None(1),
+
+ /**
+  * Lempel-Ziv-Welch compression as specified in TIFF 6.0
+  */
+ LZW(5),
+
+ /**
+  * zlib/deflate compression (Adobe style)
+  */
+ Deflate(8);
+
+  private final int mTagValue;
+
+  private TiffCompression(int pTagValue)
+  {
+    mTagValue = pTagValue;
+  }
+
+  /**
+   * @return value of the TIFF Compression tag for this scheme
+   */
+  public int getTagValue()
+  {
+    return mTagValue;
+  }
+}
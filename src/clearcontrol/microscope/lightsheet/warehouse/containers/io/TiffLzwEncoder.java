@@ -0,0 +1,142 @@
+package clearcontrol.microscope.lightsheet.warehouse.containers.io;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Encodes strips with the LZW variant of TIFF 6.0: codes are written MSB
+ * first, starting with 9 bits, with the "early change" of the code length
+ * libtiff and ImageJ expect. An encoder is not thread safe, use one per
+ * thread.
+ */
+class TiffLzwEncoder
+{
+  private static final int cClearCode = 256;
+  private static final int cEndOfInformationCode = 257;
+  private static final int cFirstCode = 258;
+  private static final int cMaximumCode = 4095;
+  private static final int cMinimumCodeLength = 9;
+
+  // open addressing table mapping (prefix code << 8 | byte) to codes
+  private static final int cHashSize = 9029;
+  private final int[] mHashKeys = new int[cHashSize];
+  private final int[] mHashCodes = new int[cHashSize];
+
+  private byte[] mOutput;
+  private int mOutputLength;
+  private long mBitBuffer;
+  private int mBitCount;
+
+  private int mCodeLength;
+  private int mNextCode;
+
+  /**
+   * @param pInput
+   *          bytes from position to limit are encoded, the position of the
+   *          buffer is not changed
+   * @return encoded strip
+   */
+  ByteBuffer encode(ByteBuffer pInput)
+  {
+    int lStart = pInput.position();
+    int lLength = pInput.remaining();
+
+    mOutput = new byte[Math.max(1024, lLength / 2)];
+    mOutputLength = 0;
+    mBitBuffer = 0;
+    mBitCount = 0;
+
+    resetTable();
+    writeCode(cClearCode);
+
+    if (lLength > 0)
+    {
+      int lPrefix = pInput.get(lStart) & 0xFF;
+      for (int i = 1; i < lLength; i++)
+      {
+        int lByte = pInput.get(lStart + i) & 0xFF;
+        int lKey = (lPrefix << 8) | lByte;
+        int lSlot = findSlot(lKey);
+        if (mHashKeys[lSlot] == lKey)
+        {
+          lPrefix = mHashCodes[lSlot];
+          continue;
+        }
+
+        writeCode(lPrefix);
+        mHashKeys[lSlot] = lKey;
+        mHashCodes[lSlot] = mNextCode;
+        nextCode();
+        lPrefix = lByte;
+      }
+      writeCode(lPrefix);
+      // the decoder adds one more entry when reading the last code, the code
+      // length of the end code has to match
+      nextCode();
+    }
+    writeCode(cEndOfInformationCode);
+
+    if (mBitCount > 0)
+    {
+      writeByte((int) (mBitBuffer << (8 - mBitCount)));
+    }
+
+    return ByteBuffer.wrap(mOutput, 0, mOutputLength);
+  }
+
+  private void nextCode()
+  {
+    mNextCode++;
+    if (mNextCode == cMaximumCode - 1)
+    {
+      writeCode(cClearCode);
+      resetTable();
+    }
+    else if (mNextCode > (1 << mCodeLength) - 1)
+    {
+      mCodeLength++;
+    }
+  }
+
+  private int findSlot(int pKey)
+  {
+    int lSlot = (pKey * 0x9E3779B1 >>> 1) % cHashSize;
+    while (mHashKeys[lSlot] != -1 && mHashKeys[lSlot] != pKey)
+    {
+      lSlot++;
+      if (lSlot == cHashSize)
+      {
+        lSlot = 0;
+      }
+    }
+    return lSlot;
+  }
+
+  private void resetTable()
+  {
+    Arrays.fill(mHashKeys, -1);
+    mCodeLength = cMinimumCodeLength;
+    mNextCode = cFirstCode;
+  }
+
+  private void writeCode(int pCode)
+  {
+    mBitBuffer = (mBitBuffer << mCodeLength) | pCode;
+    mBitCount += mCodeLength;
+    while (mBitCount >= 8)
+    {
+      mBitCount -= 8;
+      writeByte((int) (mBitBuffer >>> mBitCount));
+    }
+    mBitBuffer &= (1L << mBitCount) - 1;
+  }
+
+  private void writeByte(int pByte)
+  {
+    if (mOutputLength == mOutput.length)
+    {
+      mOutput = Arrays.copyOf(mOutput, mOutput.length * 2);
+    }
+    mOutput[mOutputLength++] = (byte) pByte;
+  }
+}
@@ -0,0 +1,491 @@
+package clearcontrol.microscope.lightsheet.warehouse.containers.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+
+import clearcontrol.core.log.LoggingFeature;
+import clearcontrol.stack.StackInterface;
+import clearcontrol.stack.metadata.StackMetaData;
+
+/**
+ * The TiffStackWriter writes stacks to TIFF files directly from their
+ * off-heap planes, without converting them to ImagePlus and without an
+ * OpenCL context. Every plane is stored as one strip which is optionally
+ * compressed; compression runs on a number of threads while finished planes
+ * are written in order. Files which may exceed 4 GB are written as BigTIFF.
+ *
+ * Voxel sizes from the StackMetaData are stored as resolution and in an
+ * ImageJ compatible image description, so that ImageJ opens the file as
+ * calibrated stack.
+ */
+public class TiffStackWriter implements LoggingFeature
+{
+  private static final int cTypeAscii = 2;
+  private static final int cTypeShort = 3;
+  private static final int cTypeLong = 4;
+  private static final int cTypeRational = 5;
+  private static final int cTypeLong8 = 16;
+
+  private static final long cClassicTiffLimit = 0xFFFFFFFFL;
+
+  private final TiffCompression mCompression;
+  private final int mNumberOfThreads;
+
+  private final ThreadLocal<TiffLzwEncoder> mLzwEncoder =
+                                                        ThreadLocal.withInitial(TiffLzwEncoder::new);
+  private final ThreadLocal<byte[]> mDeflaterInput =
+                                                   ThreadLocal.withInitial(() -> new byte[0]);
+
+  /**
+   * @param pCompression
+   *          compression of the strips
+   * @param pNumberOfThreads
+   *          number of threads compressing planes in parallel
+   */
+  public TiffStackWriter(TiffCompression pCompression,
+                         int pNumberOfThreads)
+  {
+    mCompression = pCompression;
+    mNumberOfThreads = Math.max(1, pNumberOfThreads);
+  }
+
+  /**
+   * Writes a stack to a file
+   *
+   * @param pStack
+   *          stack with 8 bit, 16 bit or 32 bit float voxels
+   * @param pFile
+   *          target file, will be overwritten
+   * @throws IOException
+   *           if writing fails
+   */
+  public void write(StackInterface pStack, File pFile) throws IOException
+  {
+    int lWidth = (int) pStack.getWidth();
+    int lHeight = (int) pStack.getHeight();
+    int lDepth = (int) pStack.getDepth();
+    int lBytesPerVoxel = (int) pStack.getBytesPerVoxel();
+    if (lBytesPerVoxel != 1 && lBytesPerVoxel != 2
+        && lBytesPerVoxel != 4)
+    {
+      throw new IOException("Unsupported voxel size of "
+                            + lBytesPerVoxel
+                            + " bytes");
+    }
+
+    // LZW may grow incompressible data by up to 50%
+    long lEstimatedSizeInBytes = pStack.getSizeInBytes();
+    if (mCompression != TiffCompression.None)
+    {
+      lEstimatedSizeInBytes = lEstimatedSizeInBytes * 3 / 2;
+    }
+    boolean lBigTiff = lEstimatedSizeInBytes
+                       + lDepth * 512L > cClassicTiffLimit;
+
+    long[] lStripOffsets = new long[lDepth];
+    long[] lStripByteCounts = new long[lDepth];
+
+    ByteOrder lByteOrder = ByteOrder.nativeOrder();
+
+    ExecutorService lExecutorService = null;
+    try (FileChannel lFileChannel =
+                                  FileChannel.open(pFile.toPath(),
+                                                   StandardOpenOption.CREATE,
+                                                   StandardOpenOption.WRITE,
+                                                   StandardOpenOption.TRUNCATE_EXISTING))
+    {
+      long lPosition = lBigTiff ? 16 : 8;
+      lFileChannel.position(lPosition);
+
+      if (mCompression == TiffCompression.None)
+      {
+        for (int z = 0; z < lDepth; z++)
+        {
+          ByteBuffer lPlane = getPlane(pStack, z);
+          lStripOffsets[z] = lPosition;
+          lStripByteCounts[z] = lPlane.remaining();
+          lPosition += writeFully(lFileChannel, lPlane);
+        }
+      }
+      else
+      {
+        lExecutorService =
+                         Executors.newFixedThreadPool(mNumberOfThreads,
+                                                      (r) -> {
+                                                        Thread lThread =
+                                                                       new Thread(r,
+                                                                                  "TIFF plane encoder");
+                                                        lThread.setDaemon(true);
+                                                        return lThread;
+                                                      });
+
+        // encode a few planes ahead, write them in order
+        ArrayDeque<Future<ByteBuffer>> lEncodedPlanes =
+                                                      new ArrayDeque<>();
+        int lNextPlaneToEncode = 0;
+        for (int z = 0; z < lDepth; z++)
+        {
+          while (lNextPlaneToEncode < lDepth
+                 && lEncodedPlanes.size() < 2 * mNumberOfThreads)
+          {
+            ByteBuffer lPlane = getPlane(pStack, lNextPlaneToEncode);
+            lEncodedPlanes.add(lExecutorService.submit(() -> encode(lPlane)));
+            lNextPlaneToEncode++;
+          }
+
+          ByteBuffer lEncodedPlane;
+          try
+          {
+            lEncodedPlane = lEncodedPlanes.poll().get();
+          }
+          catch (InterruptedException | ExecutionException e)
+          {
+            throw new IOException("Encoding plane " + z
+                                  + " failed", e);
+          }
+          lStripOffsets[z] = lPosition;
+          lStripByteCounts[z] = lEncodedPlane.remaining();
+          lPosition += writeFully(lFileChannel, lEncodedPlane);
+        }
+      }
+
+      // values which don't fit into the IFD entries are shared by all IFDs
+      lPosition += lPosition % 2;
+      byte[] lDescription = getImageJDescription(pStack.getMetaData(),
+                                                 lDepth);
+      long lDescriptionOffset = lPosition;
+      long lXResolutionOffset = lDescriptionOffset
+                                + lDescription.length
+                                + lDescription.length % 2;
+      long lYResolutionOffset = lXResolutionOffset + 8;
+      long[] lXResolution =
+                          getResolution(pStack.getMetaData() == null ? null
+                                                                     : pStack.getMetaData()
+                                                                             .getVoxelDimX());
+      long[] lYResolution =
+                          getResolution(pStack.getMetaData() == null ? null
+                                                                     : pStack.getMetaData()
+                                                                             .getVoxelDimY());
+
+      ByteBuffer lSharedValues =
+                               ByteBuffer.allocate((int) (lYResolutionOffset
+                                                          + 8
+                                                          - lDescriptionOffset))
+                                         .order(lByteOrder);
+      lSharedValues.put(lDescription);
+      lSharedValues.position((int) (lXResolutionOffset
+                                    - lDescriptionOffset));
+      lSharedValues.putInt((int) lXResolution[0]);
+      lSharedValues.putInt((int) lXResolution[1]);
+      lSharedValues.putInt((int) lYResolution[0]);
+      lSharedValues.putInt((int) lYResolution[1]);
+      lSharedValues.flip();
+      lFileChannel.position(lDescriptionOffset);
+      lPosition = lDescriptionOffset
+                  + writeFully(lFileChannel, lSharedValues);
+
+      if (!lBigTiff && lPosition > cClassicTiffLimit - lDepth * 256L)
+      {
+        throw new IOException("Stack too large for a classic TIFF file");
+      }
+
+      // image file directories, one per plane
+      long lFirstIfdOffset = lPosition;
+      IfdWriter lIfdWriter = new IfdWriter(lBigTiff, lByteOrder);
+      for (int z = 0; z < lDepth; z++)
+      {
+        int lNumberOfEntries = z == 0 ? 14 : 13;
+        long lNextIfdOffset = lPosition
+                              + lIfdWriter.getIfdSize(lNumberOfEntries);
+        lIfdWriter.begin(lNumberOfEntries);
+        lIfdWriter.entry(256, cTypeLong, 1, lWidth);
+        lIfdWriter.entry(257, cTypeLong, 1, lHeight);
+        lIfdWriter.entry(258, cTypeShort, 1, lBytesPerVoxel * 8);
+        lIfdWriter.entry(259, cTypeShort, 1, mCompression.getTagValue());
+        lIfdWriter.entry(262, cTypeShort, 1, 1);
+        if (z == 0)
+        {
+          lIfdWriter.entry(270,
+                           cTypeAscii,
+                           lDescription.length,
+                           lDescriptionOffset);
+        }
+        lIfdWriter.entry(273,
+                         lBigTiff ? cTypeLong8 : cTypeLong,
+                         1,
+                         lStripOffsets[z]);
+        lIfdWriter.entry(277, cTypeShort, 1, 1);
+        lIfdWriter.entry(278, cTypeLong, 1, lHeight);
+        lIfdWriter.entry(279,
+                         lBigTiff ? cTypeLong8 : cTypeLong,
+                         1,
+                         lStripByteCounts[z]);
+        lIfdWriter.rationalEntry(282, lXResolution, lXResolutionOffset);
+        lIfdWriter.rationalEntry(283, lYResolution, lYResolutionOffset);
+        lIfdWriter.entry(296, cTypeShort, 1, 1);
+        lIfdWriter.entry(339, cTypeShort, 1, lBytesPerVoxel == 4 ? 3 : 1);
+        lIfdWriter.end(z == lDepth - 1 ? 0 : lNextIfdOffset);
+        lPosition = lNextIfdOffset;
+
+        if (lIfdWriter.isFull() || z == lDepth - 1)
+        {
+          lIfdWriter.writeTo(lFileChannel);
+        }
+      }
+
+      // header
+      ByteBuffer lHeader = ByteBuffer.allocate(lBigTiff ? 16 : 8)
+                                     .order(lByteOrder);
+      lHeader.put((byte) (lByteOrder == ByteOrder.LITTLE_ENDIAN ? 'I'
+                                                                : 'M'));
+      lHeader.put(lHeader.get(0));
+      if (lBigTiff)
+      {
+        lHeader.putShort((short) 43);
+        lHeader.putShort((short) 8);
+        lHeader.putShort((short) 0);
+        lHeader.putLong(lFirstIfdOffset);
+      }
+      else
+      {
+        lHeader.putShort((short) 42);
+        lHeader.putInt((int) lFirstIfdOffset);
+      }
+      lHeader.flip();
+      lFileChannel.position(0);
+      writeFully(lFileChannel, lHeader);
+    }
+    finally
+    {
+      if (lExecutorService != null)
+      {
+        lExecutorService.shutdownNow();
+      }
+    }
+  }
+
+  private ByteBuffer getPlane(StackInterface pStack, int pPlaneIndex)
+  {
+    return pStack.getContiguousMemory(pPlaneIndex).getByteBuffer();
+  }
+
+  private ByteBuffer encode(ByteBuffer pPlane)
+  {
+    switch (mCompression)
+    {
+    case LZW:
+      return mLzwEncoder.get().encode(pPlane);
+    case Deflate:
+      Deflater lDeflater = new Deflater(Deflater.BEST_SPEED);
+      try
+      {
+        int lInputLength = pPlane.remaining();
+        byte[] lInput = mDeflaterInput.get();
+        if (lInput.length < lInputLength)
+        {
+          lInput = new byte[lInputLength];
+          mDeflaterInput.set(lInput);
+        }
+        pPlane.duplicate().get(lInput, 0, lInputLength);
+        lDeflater.setInput(lInput, 0, lInputLength);
+        lDeflater.finish();
+        byte[] lOutput = new byte[Math.max(1024,
+                                           pPlane.remaining() / 2)];
+        int lLength = 0;
+        while (!lDeflater.finished())
+        {
+          if (lLength == lOutput.length)
+          {
+            lOutput = Arrays.copyOf(lOutput, lOutput.length * 2);
+          }
+          lLength += lDeflater.deflate(lOutput,
+                                       lLength,
+                                       lOutput.length - lLength);
+        }
+        return ByteBuffer.wrap(lOutput, 0, lLength);
+      }
+      finally
+      {
+        lDeflater.end();
+      }
+    case None:
+    default:
+      return pPlane;
+    }
+  }
+
+  private long writeFully(FileChannel pFileChannel,
+                          ByteBuffer pBuffer) throws IOException
+  {
+    long lWrittenBytes = 0;
+    while (pBuffer.hasRemaining())
+    {
+      lWrittenBytes += pFileChannel.write(pBuffer);
+    }
+    return lWrittenBytes;
+  }
+
+  private byte[] getImageJDescription(StackMetaData pMetaData,
+                                      int pDepth)
+  {
+    StringBuilder lDescription = new StringBuilder();
+    lDescription.append("ImageJ=1.52e\n");
+    lDescription.append("images=" + pDepth + "\n");
+    lDescription.append("slices=" + pDepth + "\n");
+    lDescription.append("unit=micron\n");
+    if (pMetaData != null && pMetaData.getVoxelDimZ() != null)
+    {
+      lDescription.append("spacing=" + pMetaData.getVoxelDimZ() + "\n");
+    }
+    lDescription.append("loop=false\n");
+    lDescription.append('\0');
+    return lDescription.toString().getBytes(StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * @return pixels per micron as numerator and denominator
+   */
+  private long[] getResolution(Double pVoxelSizeInMicrons)
+  {
+    if (pVoxelSizeInMicrons == null || pVoxelSizeInMicrons <= 0)
+    {
+      return new long[]
+      { 1, 1 };
+    }
+    long lDenominator = Math.max(1,
+                                 Math.min(Integer.MAX_VALUE,
+                                          Math.round(pVoxelSizeInMicrons
+                                                     * 1000000)));
+    return new long[]
+    { 1000000, lDenominator };
+  }
+
+  /**
+   * Collects image file directories in a buffer, so that they can be written
+   * in large chunks
+   */
+  private static class IfdWriter
+  {
+    private static final int cBufferSize = 1024 * 1024;
+
+    private final boolean mBigTiff;
+    private final ByteBuffer mBuffer;
+
+    IfdWriter(boolean pBigTiff, ByteOrder pByteOrder)
+    {
+      mBigTiff = pBigTiff;
+      mBuffer = ByteBuffer.allocate(cBufferSize).order(pByteOrder);
+    }
+
+    long getIfdSize(int pNumberOfEntries)
+    {
+      return mBigTiff ? 8 + 20 * pNumberOfEntries + 8
+                      : 2 + 12 * pNumberOfEntries + 4;
+    }
+
+    void begin(int pNumberOfEntries)
+    {
+      if (mBigTiff)
+      {
+        mBuffer.putLong(pNumberOfEntries);
+      }
+      else
+      {
+        mBuffer.putShort((short) pNumberOfEntries);
+      }
+    }
+
+    /**
+     * Values are stored left aligned in the value field. Offsets are passed
+     * as value for types which don't fit.
+     */
+    void entry(int pTag, int pType, long pCount, long pValue)
+    {
+      mBuffer.putShort((short) pTag);
+      mBuffer.putShort((short) pType);
+      if (mBigTiff)
+      {
+        mBuffer.putLong(pCount);
+      }
+      else
+      {
+        mBuffer.putInt((int) pCount);
+      }
+
+      int lValueFieldStart = mBuffer.position();
+      if (pType == cTypeShort)
+      {
+        mBuffer.putShort((short) pValue);
+      }
+      else if (pType == cTypeLong8 || (mBigTiff && pType != cTypeLong))
+      {
+        mBuffer.putLong(pValue);
+      }
+      else
+      {
+        mBuffer.putInt((int) pValue);
+      }
+      int lValueFieldSize = mBigTiff ? 8 : 4;
+      while (mBuffer.position() < lValueFieldStart + lValueFieldSize)
+      {
+        mBuffer.put((byte) 0);
+      }
+    }
+
+    /**
+     * Rationals fit into the value field of BigTIFF entries only
+     */
+    void rationalEntry(int pTag, long[] pRational, long pOffset)
+    {
+      if (!mBigTiff)
+      {
+        entry(pTag, cTypeRational, 1, pOffset);
+        return;
+      }
+      mBuffer.putShort((short) pTag);
+      mBuffer.putShort((short) cTypeRational);
+      mBuffer.putLong(1);
+      mBuffer.putInt((int) pRational[0]);
+      mBuffer.putInt((int) pRational[1]);
+    }
+
+    void end(long pNextIfdOffset)
+    {
+      if (mBigTiff)
+      {
+        mBuffer.putLong(pNextIfdOffset);
+      }
+      else
+      {
+        mBuffer.putInt((int) pNextIfdOffset);
+      }
+    }
+
+    boolean isFull()
+    {
+      return mBuffer.remaining() < getIfdSize(14);
+    }
+
+    void writeTo(FileChannel pFileChannel) throws IOException
+    {
+      mBuffer.flip();
+      while (mBuffer.hasRemaining())
+      {
+        pFileChannel.write(mBuffer);
+      }
+      mBuffer.clear();
+    }
+  }
+}
@@ -0,0 +1,204 @@
+package clearcontrol.microscope.lightsheet.warehouse.containers.io;
+
+import java.io.File;
+import java.io.IOException;
+
+import clearcl.util.ElapsedTime;
+import clearcontrol.core.log.LoggingFeature;
+import clearcontrol.core.variable.Variable;
+import clearcontrol.core.variable.bounded.BoundedVariable;
+import clearcontrol.instructions.PipelinableInstructionInterface;
+import clearcontrol.instructions.PipelineStage;
+import clearcontrol.instructions.PropertyIOableInstructionInterface;
+import clearcontrol.microscope.lightsheet.LightSheetMicroscope;
+import clearcontrol.microscope.lightsheet.instructions.LightSheetMicroscopeInstructionBase;
+import clearcontrol.microscope.lightsheet.timelapse.LightSheetTimelapse;
+import clearcontrol.microscope.lightsheet.warehouse.DataWarehouse;
+import clearcontrol.microscope.lightsheet.warehouse.containers.StackInterfaceContainer;
+import clearcontrol.stack.StackInterface;
+
+/**
+ * The WriteStackInterfaceContainerAsN5ToDiscInstruction writes a container to
+ * disc as chunked, compressed N5 data set including a multi-scale pyramid.
+ * All channels and time points of a timelapse go into the same N5 container
+ * (stacks.n5 in the working directory) as groups [channel]/[time point].
+ */
+public class WriteStackInterfaceContainerAsN5ToDiscInstruction extends
+                                                               LightSheetMicroscopeInstructionBase
+                                                               implements
+                                                               LoggingFeature,
+                                                               PipelinableInstructionInterface,
+                                                               PropertyIOableInstructionInterface
+{
+  protected Class mContainerClass;
+  protected String[] mImageKeys = null;
+  protected String mChannelName = null;
+
+  private BoundedVariable<Integer> mBlockSizeVariable =
+                                                      new BoundedVariable<Integer>("Block size",
+                                                                                   64,
+                                                                                   8,
+                                                                                   1024);
+  private BoundedVariable<Integer> mNumberOfResolutionLevelsVariable =
+                                                                     new BoundedVariable<Integer>("Resolution levels",
+                                                                                                  3,
+                                                                                                  1,
+                                                                                                  10);
+  private BoundedVariable<Integer> mCompressionLevelVariable =
+                                                             new BoundedVariable<Integer>("Compression level (0 = raw)",
+                                                                                          1,
+                                                                                          0,
+                                                                                          9);
+
+  public WriteStackInterfaceContainerAsN5ToDiscInstruction(Class pContainerClass,
+                                                           LightSheetMicroscope pLightSheetMicroscope)
+  {
+    this("IO: Write " + pContainerClass.getSimpleName()
+         + " as N5 to disc",
+         pContainerClass,
+         null,
+         null,
+         pLightSheetMicroscope);
+  }
+
+  /**
+   * INstanciates a virtual device with a given name
+   *
+   * @param pDeviceName
+   *          device name
+   */
+  public WriteStackInterfaceContainerAsN5ToDiscInstruction(String pDeviceName,
+                                                           Class pContainerClass,
+                                                           String[] pImageKeys,
+                                                           String pChannelName,
+                                                           LightSheetMicroscope pLightSheetMicroscope)
+  {
+    super(pDeviceName, pLightSheetMicroscope);
+    mContainerClass = pContainerClass;
+    mImageKeys = pImageKeys;
+    if (pChannelName != null && pChannelName.length() > 0)
+    {
+      mChannelName = pChannelName;
+    }
+  }
+
+  @Override
+  public boolean initialize()
+  {
+    return false;
+  }
+
+  @Override
+  public boolean enqueue(long pTimePoint)
+  {
+    LightSheetTimelapse lTimelapse =
+                                   getLightSheetMicroscope().getTimelapse();
+    File lWorkingDirectory = lTimelapse.getWorkingDirectory();
+
+    DataWarehouse lDataWarehouse =
+                                 getLightSheetMicroscope().getDataWarehouse();
+
+    StackInterfaceContainer lContainer =
+                                       lDataWarehouse.getOldestContainer(mContainerClass);
+    if (lContainer == null)
+    {
+      warning("No " + mContainerClass.getCanonicalName()
+              + " found for saving");
+      return false;
+    }
+
+    N5StackStore lStackStore =
+                             new N5StackStore(new File(lWorkingDirectory,
+                                                       "stacks.n5"));
+
+    String[] lImageKeys = mImageKeys;
+    if (lImageKeys == null)
+    {
+      lImageKeys = new String[lContainer.keySet().size()];
+      lContainer.keySet().toArray(lImageKeys);
+    }
+    for (String key : lImageKeys)
+    {
+      StackInterface lStack = lContainer.get(key);
+      if (mChannelName != null)
+      {
+        saveStack(lStackStore, mChannelName, lStack, pTimePoint);
+      }
+      else
+      {
+        saveStack(lStackStore, key, lStack, pTimePoint);
+      }
+    }
+    return true;
+  }
+
+  private void saveStack(N5StackStore pStackStore,
+                         String pChannelName,
+                         StackInterface lStack,
+                         long lTimePoint)
+  {
+    ElapsedTime.measureForceOutput(this + " stack saving", () -> {
+      String lGroupPath = pChannelName + "/"
+                          + String.format("%06d", lTimePoint);
+      try
+      {
+        pStackStore.write(lGroupPath,
+                          lStack,
+                          mBlockSizeVariable.get(),
+                          mNumberOfResolutionLevelsVariable.get(),
+                          mCompressionLevelVariable.get());
+      }
+      catch (IOException e)
+      {
+        e.printStackTrace();
+      }
+    });
+  }
+
+  @Override
+  public WriteStackInterfaceContainerAsN5ToDiscInstruction copy()
+  {
+    WriteStackInterfaceContainerAsN5ToDiscInstruction copied =
+                                                             new WriteStackInterfaceContainerAsN5ToDiscInstruction(getName(),
+                                                                                                                   mContainerClass,
+                                                                                                                   mImageKeys,
+                                                                                                                   mChannelName,
+                                                                                                                   getLightSheetMicroscope());
+    copied.getBlockSizeVariable().set(getBlockSizeVariable().get());
+    copied.getNumberOfResolutionLevelsVariable()
+          .set(getNumberOfResolutionLevelsVariable().get());
+    copied.getCompressionLevelVariable()
+          .set(getCompressionLevelVariable().get());
+    return copied;
+  }
+
+  public BoundedVariable<Integer> getBlockSizeVariable()
+  {
+    return mBlockSizeVariable;
+  }
+
+  public BoundedVariable<Integer> getNumberOfResolutionLevelsVariable()
+  {
+    return mNumberOfResolutionLevelsVariable;
+  }
+
+  public BoundedVariable<Integer> getCompressionLevelVariable()
+  {
+    return mCompressionLevelVariable;
+  }
+
+  @Override
+  public Variable[] getProperties()
+  {
+    return new Variable[]
+    { getBlockSizeVariable(),
+      getNumberOfResolutionLevelsVariable(),
+      getCompressionLevelVariable() };
+  }
+
+  @Override
+  public PipelineStage getPipelineStage()
+  {
+    return PipelineStage.Compute;
+  }
+}
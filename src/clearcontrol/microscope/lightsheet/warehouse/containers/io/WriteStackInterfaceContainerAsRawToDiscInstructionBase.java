@@ -2,6 +2,8 @@ package clearcontrol.microscope.lightsheet.warehouse.containers.io;
 
 import clearcl.util.ElapsedTime;
 import clearcontrol.core.log.LoggingFeature;
+import clearcontrol.instructions.PipelinableInstructionInterface;
+import clearcontrol.instructions.PipelineStage;
 import clearcontrol.microscope.lightsheet.LightSheetMicroscope;
 import clearcontrol.microscope.lightsheet.instructions.LightSheetMicroscopeInstructionBase;
 import clearcontrol.microscope.lightsheet.timelapse.LightSheetTimelapse;
@@ -20,7 +22,8 @@ import clearcontrol.stack.sourcesink.sink.FileStackSinkInterface;
 public abstract class WriteStackInterfaceContainerAsRawToDiscInstructionBase extends
                                                                              LightSheetMicroscopeInstructionBase
                                                                              implements
-                                                                             LoggingFeature
+                                                                             LoggingFeature,
+                                                                             PipelinableInstructionInterface
 {
   protected Class mContainerClass;
   protected String[] mImageKeys = null;
@@ -75,16 +78,22 @@ public abstract class WriteStackInterfaceContainerAsRawToDiscInstructionBase ext
       return false;
     }
 
+    AsyncRawStackWriter lAsyncRawStackWriter =
+                                             lTimelapse.getAsyncRawStackWriter();
+
     for (String key : mImageKeys)
     {
       StackInterface lStack = lContainer.get(key);
-      if (mChannelName != null)
+      String lChannelName = mChannelName != null ? mChannelName : key;
+      if (lAsyncRawStackWriter.getEnabledVariable().get())
       {
-        saveStack(lFileStackSinkInterface, mChannelName, lStack);
+        lAsyncRawStackWriter.write(lFileStackSinkInterface,
+                                   lChannelName,
+                                   lStack);
       }
       else
       {
-        saveStack(lFileStackSinkInterface, key, lStack);
+        saveStack(lFileStackSinkInterface, lChannelName, lStack);
       }
     }
     return true;
@@ -99,4 +108,10 @@ public abstract class WriteStackInterfaceContainerAsRawToDiscInstructionBase ext
                                                                     lStack));
 
   }
+
+  @Override
+  public PipelineStage getPipelineStage()
+  {
+    return PipelineStage.Compute;
+  }
 }
@@ -1,19 +1,20 @@
 package clearcontrol.microscope.lightsheet.warehouse.containers.io;
 
 import java.io.File;
+import java.io.IOException;
 
-import clearcl.imagej.ClearCLIJ;
 import clearcl.util.ElapsedTime;
 import clearcontrol.core.log.LoggingFeature;
+import clearcontrol.core.variable.Variable;
+import clearcontrol.instructions.PipelinableInstructionInterface;
+import clearcontrol.instructions.PipelineStage;
+import clearcontrol.instructions.PropertyIOableInstructionInterface;
 import clearcontrol.microscope.lightsheet.LightSheetMicroscope;
 import clearcontrol.microscope.lightsheet.instructions.LightSheetMicroscopeInstructionBase;
 import clearcontrol.microscope.lightsheet.timelapse.LightSheetTimelapse;
 import clearcontrol.microscope.lightsheet.warehouse.DataWarehouse;
 import clearcontrol.microscope.lightsheet.warehouse.containers.StackInterfaceContainer;
 import clearcontrol.stack.StackInterface;
-import ij.IJ;
-import ij.ImagePlus;
-import ij.measure.Calibration;
 
 /**
  * The WriteStackInterfaceContainerAsTifToDiscInstruction writes a container to
@@ -24,12 +25,18 @@ import ij.measure.Calibration;
 public class WriteStackInterfaceContainerAsTifToDiscInstruction extends
                                                                 LightSheetMicroscopeInstructionBase
                                                                 implements
-                                                                LoggingFeature
+                                                                LoggingFeature,
+                                                                PipelinableInstructionInterface,
+                                                                PropertyIOableInstructionInterface
 {
   protected Class mContainerClass;
   protected String[] mImageKeys = null;
   protected String mChannelName = null;
 
+  protected Variable<TiffCompression> mCompressionVariable =
+                                                           new Variable<TiffCompression>("Compression",
+                                                                                         TiffCompression.None);
+
   public WriteStackInterfaceContainerAsTifToDiscInstruction(Class pContainerClass,
                                                             LightSheetMicroscope pLightSheetMicroscope)
   {
@@ -114,11 +121,15 @@ public class WriteStackInterfaceContainerAsTifToDiscInstruction extends
   @Override
   public WriteStackInterfaceContainerAsTifToDiscInstruction copy()
   {
-    return new WriteStackInterfaceContainerAsTifToDiscInstruction(getName(),
-                                                                  mContainerClass,
-                                                                  mImageKeys,
-                                                                  mChannelName,
-                                                                  getLightSheetMicroscope());
+    WriteStackInterfaceContainerAsTifToDiscInstruction copied =
+                                                              new WriteStackInterfaceContainerAsTifToDiscInstruction(getName(),
+                                                                                                                     mContainerClass,
+                                                                                                                     mImageKeys,
+                                                                                                                     mChannelName,
+                                                                                                                     getLightSheetMicroscope());
+    copied.getCompressionVariable()
+          .set(getCompressionVariable().get());
+    return copied;
   }
 
   private void saveStack(File lWorkingDirectory,
@@ -134,27 +145,42 @@ public class WriteStackInterfaceContainerAsTifToDiscInstruction extends
 
       int lDigits = 6;
 
-      ImagePlus lConvertedImp = ClearCLIJ.getInstance()
-                                         .converter(lStack)
-                                         .getImagePlus();
-      if (lStack.getMetaData() != null)
+      File lFile = new File(lWorkingDirectory + "/stacks/"
+                            + pChannelName
+                            + "/"
+                            + String.format("%0" + lDigits + "d",
+                                            lTimePoint)
+                            + ".tif");
+      try
+      {
+        new TiffStackWriter(mCompressionVariable.get(),
+                            Runtime.getRuntime()
+                                   .availableProcessors()).write(lStack,
+                                                                 lFile);
+      }
+      catch (IOException e)
       {
-        Calibration lCalibration = lConvertedImp.getCalibration();
-        lCalibration.pixelWidth = lStack.getMetaData().getVoxelDimX();
-        lCalibration.pixelHeight =
-                                 lStack.getMetaData().getVoxelDimY();
-        lCalibration.pixelDepth = lStack.getMetaData().getVoxelDimZ();
-        lCalibration.setUnit("micron");
+        e.printStackTrace();
       }
-      IJ.saveAsTiff(lConvertedImp,
-                    lWorkingDirectory + "/stacks/"
-                                   + pChannelName
-                                   + "/"
-                                   + String.format("%0" + lDigits
-                                                   + "d",
-                                                   lTimePoint)
-                                   + ".tif");
     });
 
   }
+
+  public Variable<TiffCompression> getCompressionVariable()
+  {
+    return mCompressionVariable;
+  }
+
+  @Override
+  public Variable[] getProperties()
+  {
+    return new Variable[]
+    { getCompressionVariable() };
+  }
+
+  @Override
+  public PipelineStage getPipelineStage()
+  {
+    return PipelineStage.Compute;
+  }
 }
@@ -45,6 +45,22 @@ public class ReadStackInterfaceContainerFromDiscInstructionPanel extends
     addCheckbox(pScheduler.getRestartFromBeginningWhenReachingEnd(),
                 lRow);
     lRow++;
+    addIntegerField(pScheduler.getNumberOfPrefetchedTimePoints(), lRow);
+    lRow++;
+    addIntegerField(pScheduler.getResolutionLevel(), lRow);
+    lRow++;
+    addIntegerField(pScheduler.getRegionOffsetX(), lRow);
+    lRow++;
+    addIntegerField(pScheduler.getRegionOffsetY(), lRow);
+    lRow++;
+    addIntegerField(pScheduler.getRegionOffsetZ(), lRow);
+    lRow++;
+    addIntegerField(pScheduler.getRegionWidth(), lRow);
+    lRow++;
+    addIntegerField(pScheduler.getRegionHeight(), lRow);
+    lRow++;
+    addIntegerField(pScheduler.getRegionDepth(), lRow);
+    lRow++;
 
   }
 }
@@ -0,0 +1,23 @@
+package clearcontrol.microscope.lightsheet.warehouse.containers.io.gui;
+
+import clearcontrol.gui.jfx.custom.gridpane.CustomGridPane;
+import clearcontrol.microscope.lightsheet.warehouse.containers.io.WriteStackInterfaceContainerAsN5ToDiscInstruction;
+
+/**
+ * WriteStackInterfaceContainerAsN5ToDiscInstructionPanel
+ */
+public class WriteStackInterfaceContainerAsN5ToDiscInstructionPanel extends
+                                                                    CustomGridPane
+{
+  public WriteStackInterfaceContainerAsN5ToDiscInstructionPanel(WriteStackInterfaceContainerAsN5ToDiscInstruction pInstruction)
+  {
+    int lRow = 0;
+    addIntegerField(pInstruction.getBlockSizeVariable(), lRow);
+    lRow++;
+    addIntegerField(pInstruction.getNumberOfResolutionLevelsVariable(),
+                    lRow);
+    lRow++;
+    addIntegerField(pInstruction.getCompressionLevelVariable(), lRow);
+    lRow++;
+  }
+}
@@ -0,0 +1,38 @@
+package clearcontrol.microscope.lightsheet.warehouse.containers.io.gui;
+
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.scene.control.ComboBox;
+import javafx.scene.control.Label;
+
+import clearcontrol.core.variable.Variable;
+import clearcontrol.gui.jfx.custom.gridpane.CustomGridPane;
+import clearcontrol.microscope.lightsheet.warehouse.containers.io.TiffCompression;
+import clearcontrol.microscope.lightsheet.warehouse.containers.io.WriteStackInterfaceContainerAsTifToDiscInstruction;
+
+/**
+ * WriteStackInterfaceContainerAsTifToDiscInstructionPanel
+ */
+public class WriteStackInterfaceContainerAsTifToDiscInstructionPanel extends
+                                                                     CustomGridPane
+{
+  public WriteStackInterfaceContainerAsTifToDiscInstructionPanel(WriteStackInterfaceContainerAsTifToDiscInstruction pInstruction)
+  {
+    Variable<TiffCompression> lCompressionVariable =
+                                                   pInstruction.getCompressionVariable();
+
+    ComboBox<TiffCompression> lCompressionComboBox =
+                                                   new ComboBox<>(FXCollections.observableArrayList(TiffCompression.values()));
+    lCompressionComboBox.setValue(lCompressionVariable.get());
+    lCompressionComboBox.valueProperty().addListener((c, o, n) -> {
+      if (n != null)
+        lCompressionVariable.set(n);
+    });
+    lCompressionVariable.addSetListener((o, n) -> {
+      Platform.runLater(() -> lCompressionComboBox.setValue(n));
+    });
+
+    add(new Label(lCompressionVariable.getName()), 0, 0);
+    add(lCompressionComboBox, 1, 0);
+  }
+}
@@ -0,0 +1,182 @@
+package clearcontrol.microscope.lightsheet.warehouse.containers.io.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import clearcontrol.microscope.lightsheet.warehouse.DataWarehouseMemoryManager;
+import clearcontrol.microscope.lightsheet.warehouse.containers.io.AsyncRawStackWriter;
+import clearcontrol.stack.ContiguousOffHeapPlanarStackFactory;
+import clearcontrol.stack.StackInterface;
+import clearcontrol.stack.StackRequest;
+import clearcontrol.stack.sourcesink.sink.FileStackSinkInterface;
+
+import org.junit.Test;
+
+/**
+ * Checks that the AsyncRawStackWriter completes writes in submission order,
+ * even if a sink written in parallel is faster or an append fails.
+ */
+public class AsyncRawStackWriterTests
+{
+  private static final int cNumberOfStacks = 24;
+
+  /**
+   * a slow and a fast sink are written in parallel, stacks are nevertheless
+   * unretained in the order they were handed over
+   */
+  @Test
+  public void testCompletionInSubmissionOrder()
+  {
+    List<StackInterface> lUnretainedStacks =
+                                           Collections.synchronizedList(new ArrayList<>());
+    DataWarehouseMemoryManager lMemoryManager =
+                                              new DataWarehouseMemoryManager()
+                                              {
+                                                @Override
+                                                public void unretainStack(StackInterface pStack)
+                                                {
+                                                  lUnretainedStacks.add(pStack);
+                                                  super.unretainStack(pStack);
+                                                }
+                                              };
+
+    List<StackInterface> lSlowAppends =
+                                      Collections.synchronizedList(new ArrayList<>());
+    List<StackInterface> lFastAppends =
+                                      Collections.synchronizedList(new ArrayList<>());
+    FileStackSinkInterface lSlowSink = createSink(lSlowAppends, 20, null);
+    FileStackSinkInterface lFastSink = createSink(lFastAppends, 0, null);
+
+    AsyncRawStackWriter lWriter = new AsyncRawStackWriter(lMemoryManager);
+    lWriter.getNumberOfWriterThreadsVariable().set(4);
+    lWriter.getMaximumQueueLengthVariable().set(6);
+
+    List<StackInterface> lStacks = new ArrayList<>();
+    List<StackInterface> lExpectedSlowAppends = new ArrayList<>();
+    List<StackInterface> lExpectedFastAppends = new ArrayList<>();
+    for (int i = 0; i < cNumberOfStacks; i++)
+    {
+      StackInterface lStack = createStack();
+      lStacks.add(lStack);
+      // two stacks to the slow sink, then one to the fast one
+      if (i % 3 == 2)
+      {
+        lExpectedFastAppends.add(lStack);
+        assertTrue(lWriter.write(lFastSink, "C0", lStack));
+      }
+      else
+      {
+        lExpectedSlowAppends.add(lStack);
+        assertTrue(lWriter.write(lSlowSink, "C0", lStack));
+      }
+    }
+    lWriter.waitUntilDrained();
+
+    assertEquals(lStacks, lUnretainedStacks);
+    assertEquals(lExpectedSlowAppends, lSlowAppends);
+    assertEquals(lExpectedFastAppends, lFastAppends);
+    assertEquals(cNumberOfStacks, lWriter.getNumberOfWrittenStacks());
+    assertEquals(0, lWriter.getNumberOfFailedWrites());
+    assertEquals(0, lWriter.getQueueDepth());
+
+    for (StackInterface lStack : lStacks)
+    {
+      lStack.free();
+    }
+  }
+
+  /**
+   * a failing append is counted and doesn't hold back the stacks after it
+   */
+  @Test
+  public void testFailingAppendCompletesInOrder()
+  {
+    List<StackInterface> lUnretainedStacks =
+                                           Collections.synchronizedList(new ArrayList<>());
+    DataWarehouseMemoryManager lMemoryManager =
+                                              new DataWarehouseMemoryManager()
+                                              {
+                                                @Override
+                                                public void unretainStack(StackInterface pStack)
+                                                {
+                                                  lUnretainedStacks.add(pStack);
+                                                  super.unretainStack(pStack);
+                                                }
+                                              };
+
+    List<StackInterface> lStacks = new ArrayList<>();
+    for (int i = 0; i < 5; i++)
+    {
+      lStacks.add(createStack());
+    }
+    FileStackSinkInterface lSink = createSink(new ArrayList<>(),
+                                              5,
+                                              lStacks.get(2));
+
+    AsyncRawStackWriter lWriter = new AsyncRawStackWriter(lMemoryManager);
+    for (StackInterface lStack : lStacks)
+    {
+      assertTrue(lWriter.write(lSink, "C0", lStack));
+    }
+    lWriter.waitUntilDrained();
+
+    assertEquals(lStacks, lUnretainedStacks);
+    assertEquals(4, lWriter.getNumberOfWrittenStacks());
+    assertEquals(1, lWriter.getNumberOfFailedWrites());
+
+    for (StackInterface lStack : lStacks)
+    {
+      lStack.free();
+    }
+  }
+
+  private static StackInterface createStack()
+  {
+    return new ContiguousOffHeapPlanarStackFactory().create(StackRequest.build(8,
+                                                                               8,
+                                                                               2));
+  }
+
+  /**
+   * The sink interface comes with the stack library, a proxy stands in for a
+   * sink: it records appended stacks after the given delay and fails for the
+   * given stack.
+   */
+  private static FileStackSinkInterface createSink(List<StackInterface> pAppendedStacks,
+                                                   long pDelayInMilliseconds,
+                                                   StackInterface pFailingStack)
+  {
+    InvocationHandler lHandler = (lProxy, lMethod, lArguments) -> {
+      switch (lMethod.getName())
+      {
+      case "appendStack":
+        StackInterface lStack =
+                              (StackInterface) lArguments[lArguments.length
+                                                          - 1];
+        Thread.sleep(pDelayInMilliseconds);
+        if (lStack == pFailingStack)
+        {
+          throw new IllegalStateException("disc full");
+        }
+        pAppendedStacks.add(lStack);
+        return true;
+      case "hashCode":
+        return System.identityHashCode(lProxy);
+      case "equals":
+        return lProxy == lArguments[0];
+      default:
+        return lMethod.getReturnType() == boolean.class ? false : null;
+      }
+    };
+    return (FileStackSinkInterface) Proxy.newProxyInstance(FileStackSinkInterface.class.getClassLoader(),
+                                                           new Class<?>[]
+                                                           { FileStackSinkInterface.class },
+                                                           lHandler);
+  }
+}
@@ -0,0 +1,155 @@
+package clearcontrol.microscope.lightsheet.warehouse.containers.io.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import clearcontrol.microscope.lightsheet.warehouse.containers.io.N5StackStore;
+import clearcontrol.stack.ContiguousOffHeapPlanarStackFactory;
+import clearcontrol.stack.StackInterface;
+import clearcontrol.stack.StackRequest;
+import coremem.ContiguousMemoryInterface;
+
+import org.junit.Test;
+
+/**
+ * N5 stack store tests
+ */
+public class N5StackStoreTests
+{
+  // not multiples of the block size, so that there are partial edge blocks
+  private static final int cWidth = 40;
+  private static final int cHeight = 33;
+  private static final int cDepth = 20;
+  private static final int cBlockSize = 16;
+
+  /**
+   * writes a stack as compressed blocks and reads it back, as a whole and as
+   * sub-volume reaching into the partial edge blocks
+   *
+   * @throws IOException
+   *           NA
+   */
+  @Test
+  public void compressedRoundTrip() throws IOException
+  {
+    assertRoundTrip(6);
+  }
+
+  /**
+   * same for uncompressed blocks
+   *
+   * @throws IOException
+   *           NA
+   */
+  @Test
+  public void uncompressedRoundTrip() throws IOException
+  {
+    assertRoundTrip(0);
+  }
+
+  private static void assertRoundTrip(int pCompressionLevel) throws IOException
+  {
+    StackInterface lStack = createStack(cWidth, cHeight, cDepth);
+    Random lRandom = new Random(42);
+    for (int z = 0; z < cDepth; z++)
+    {
+      ContiguousMemoryInterface lPlane = lStack.getContiguousMemory(z);
+      for (int i = 0; i < cWidth * cHeight; i++)
+      {
+        // noise on a ramp, compressible but not trivially
+        lPlane.setCharAligned(i,
+                              (char) (100 * z + i / 7 + lRandom.nextInt(16)));
+      }
+    }
+
+    File lFolder = Files.createTempDirectory(N5StackStoreTests.class.getSimpleName())
+                        .toFile();
+    N5StackStore lStore = new N5StackStore(new File(lFolder, "test.n5"));
+    lStore.write("C0L0/000000", lStack, cBlockSize, 2, pCompressionLevel);
+
+    assertTrue(lStore.exists("C0L0/000000"));
+    assertEquals("uint16", lStore.getDataType("C0L0/000000", 0));
+    assertArrayEquals(new long[]
+    { cWidth, cHeight, cDepth }, lStore.getDimensions("C0L0/000000", 0));
+    assertArrayEquals(new long[]
+    { (cWidth + 1) / 2, (cHeight + 1) / 2, (cDepth + 1) / 2 },
+                      lStore.getDimensions("C0L0/000000", 1));
+
+    StackInterface lWhole = createStack(cWidth, cHeight, cDepth);
+    lStore.read("C0L0/000000", 0, new long[]
+    { 0, 0, 0 }, lWhole);
+    assertSubVolume(lStack, lWhole, 0, 0, 0);
+
+    // crosses block borders in every dimension and ends in the edge blocks
+    long[] lOffset = new long[]
+    { 9, 14, 5 };
+    StackInterface lSubVolume = createStack(cWidth - 9,
+                                            cHeight - 14,
+                                            cDepth - 5);
+    lStore.read("C0L0/000000", 0, lOffset, lSubVolume);
+    assertSubVolume(lStack, lSubVolume, 9, 14, 5);
+
+    lStack.free();
+    lWhole.free();
+    lSubVolume.free();
+    deleteRecursively(lFolder);
+  }
+
+  private static StackInterface createStack(int pWidth,
+                                            int pHeight,
+                                            int pDepth)
+  {
+    return new ContiguousOffHeapPlanarStackFactory().create(StackRequest.build(pWidth,
+                                                                               pHeight,
+                                                                               pDepth));
+  }
+
+  private static void assertSubVolume(StackInterface pExpected,
+                                      StackInterface pActual,
+                                      int pOffsetX,
+                                      int pOffsetY,
+                                      int pOffsetZ)
+  {
+    int lWidth = (int) pActual.getWidth();
+    int lHeight = (int) pActual.getHeight();
+    for (int z = 0; z < pActual.getDepth(); z++)
+    {
+      ContiguousMemoryInterface lExpectedPlane =
+                                               pExpected.getContiguousMemory(z
+                                                                             + pOffsetZ);
+      ContiguousMemoryInterface lActualPlane =
+                                             pActual.getContiguousMemory(z);
+      for (int y = 0; y < lHeight; y++)
+      {
+        for (int x = 0; x < lWidth; x++)
+        {
+          assertEquals("voxel " + x + "," + y + "," + z,
+                       lExpectedPlane.getCharAligned((y + pOffsetY)
+                                                     * pExpected.getWidth()
+                                                     + x
+                                                     + pOffsetX),
+                       lActualPlane.getCharAligned(y * lWidth + x));
+        }
+      }
+    }
+  }
+
+  private static void deleteRecursively(File pFile)
+  {
+    File[] lChildren = pFile.listFiles();
+    if (lChildren != null)
+    {
+      for (File lChild : lChildren)
+      {
+        deleteRecursively(lChild);
+      }
+    }
+    pFile.delete();
+  }
+}
@@ -0,0 +1,212 @@
+package clearcontrol.microscope.lightsheet.warehouse.containers.io.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import clearcontrol.microscope.lightsheet.warehouse.containers.io.TiffCompression;
+import clearcontrol.microscope.lightsheet.warehouse.containers.io.TiffStackWriter;
+import clearcontrol.stack.ContiguousOffHeapPlanarStackFactory;
+import clearcontrol.stack.StackInterface;
+import clearcontrol.stack.StackRequest;
+import coremem.ContiguousMemoryInterface;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+
+import org.junit.Test;
+
+/**
+ * Writes stacks with the TiffStackWriter and reads them back with ImageJ,
+ * whose TIFF reader serves as reference decoder.
+ */
+public class TiffStackWriterTests
+{
+  private interface VoxelFunction
+  {
+    int value(int pX, int pY, int pZ, Random pRandom);
+  }
+
+  /**
+   * noise planes produce a new LZW code every one or two bytes, a 256x256
+   * plane of 16 bit noise therefore fills the code table (4094 codes) many
+   * times and exercises the clear codes and the code length changes after
+   * every table reset
+   *
+   * @throws IOException
+   *           NA
+   */
+  @Test
+  public void lzwRoundTripOfNoiseWithTableResets() throws IOException
+  {
+    assertRoundTrip(TiffCompression.LZW,
+                    256,
+                    256,
+                    3,
+                    (x, y, z, r) -> r.nextInt(1 << 16));
+  }
+
+  /**
+   * low entropy planes produce long strings and few codes, so that the
+   * table fills slowly and the code length changes at other positions of the
+   * strip
+   *
+   * @throws IOException
+   *           NA
+   */
+  @Test
+  public void lzwRoundTripOfStructuredPlanes() throws IOException
+  {
+    // constant, ramp, few grey values and a sparse bright spot pattern
+    assertRoundTrip(TiffCompression.LZW,
+                    301,
+                    199,
+                    4,
+                    (x, y, z, r) -> {
+                      switch (z)
+                      {
+                      case 0:
+                        return 100;
+                      case 1:
+                        return (x + 301 * y) & 0xFFFF;
+                      case 2:
+                        return 100 + r.nextInt(4);
+                      default:
+                        return r.nextInt(50) == 0 ? 60000
+                                                  : 90 + r.nextInt(20);
+                      }
+                    });
+  }
+
+  /**
+   * strips of one to a few bytes end right after the first code or on the
+   * code length change of the end code
+   *
+   * @throws IOException
+   *           NA
+   */
+  @Test
+  public void lzwRoundTripOfTinyPlanes() throws IOException
+  {
+    for (int lWidth = 1; lWidth <= 8; lWidth++)
+    {
+      assertRoundTrip(TiffCompression.LZW,
+                      lWidth,
+                      1,
+                      2,
+                      (x, y, z, r) -> r.nextInt(1 << 16));
+    }
+  }
+
+  /**
+   * deflate strips of noise, of structured planes and of a few bytes only; the
+   * planes are copied into the reused deflater input array, so that stale
+   * bytes of a previous, longer plane would show up here
+   *
+   * @throws IOException
+   *           NA
+   */
+  @Test
+  public void deflateRoundTrip() throws IOException
+  {
+    assertRoundTrip(TiffCompression.Deflate,
+                    256,
+                    256,
+                    3,
+                    (x, y, z, r) -> r.nextInt(1 << 16));
+    assertRoundTrip(TiffCompression.Deflate,
+                    301,
+                    199,
+                    3,
+                    (x, y, z, r) -> z == 0 ? 100
+                                           : (x + 301 * y + z) & 0xFFFF);
+    for (int lWidth = 1; lWidth <= 4; lWidth++)
+    {
+      assertRoundTrip(TiffCompression.Deflate,
+                      lWidth,
+                      1,
+                      2,
+                      (x, y, z, r) -> r.nextInt(1 << 16));
+    }
+  }
+
+  /**
+   * uncompressed and deflate compressed files read back the same
+   *
+   * @throws IOException
+   *           NA
+   */
+  @Test
+  public void roundTripOfOtherCompressions() throws IOException
+  {
+    for (TiffCompression lCompression : new TiffCompression[]
+    { TiffCompression.None, TiffCompression.Deflate })
+    {
+      assertRoundTrip(lCompression,
+                      128,
+                      96,
+                      3,
+                      (x, y, z, r) -> r.nextInt(1 << 12));
+    }
+  }
+
+  private static void assertRoundTrip(TiffCompression pCompression,
+                                      int pWidth,
+                                      int pHeight,
+                                      int pDepth,
+                                      VoxelFunction pVoxelFunction) throws IOException
+  {
+    StackInterface lStack =
+                          new ContiguousOffHeapPlanarStackFactory().create(StackRequest.build(pWidth,
+                                                                                              pHeight,
+                                                                                              pDepth));
+    Random lRandom = new Random(42);
+    for (int z = 0; z < pDepth; z++)
+    {
+      ContiguousMemoryInterface lPlane = lStack.getContiguousMemory(z);
+      for (int y = 0; y < pHeight; y++)
+      {
+        for (int x = 0; x < pWidth; x++)
+        {
+          lPlane.setCharAligned(y * pWidth + x,
+                                (char) pVoxelFunction.value(x,
+                                                            y,
+                                                            z,
+                                                            lRandom));
+        }
+      }
+    }
+
+    File lFile =
+               File.createTempFile(TiffStackWriterTests.class.getSimpleName(),
+                                   ".tif");
+    lFile.deleteOnExit();
+    new TiffStackWriter(pCompression, 2).write(lStack, lFile);
+
+    ImagePlus lImagePlus = IJ.openImage(lFile.getAbsolutePath());
+    assertNotNull(lImagePlus);
+    ImageStack lImageStack = lImagePlus.getStack();
+    assertEquals(pWidth, lImageStack.getWidth());
+    assertEquals(pHeight, lImageStack.getHeight());
+    assertEquals(pDepth, lImageStack.getSize());
+
+    for (int z = 0; z < pDepth; z++)
+    {
+      ContiguousMemoryInterface lPlane = lStack.getContiguousMemory(z);
+      short[] lPixels = (short[]) lImageStack.getPixels(z + 1);
+      for (int i = 0; i < pWidth * pHeight; i++)
+      {
+        assertEquals(pCompression + ", plane " + z + ", pixel " + i,
+                     lPlane.getCharAligned(i),
+                     (char) lPixels[i]);
+      }
+    }
+
+    lImagePlus.close();
+    lStack.free();
+    lFile.delete();
+  }
+}
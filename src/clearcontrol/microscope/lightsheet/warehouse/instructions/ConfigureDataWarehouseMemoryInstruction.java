@@ -0,0 +1,121 @@
+package clearcontrol.microscope.lightsheet.warehouse.instructions;
+
+import java.io.File;
+
+import clearcontrol.core.log.LoggingFeature;
+import clearcontrol.core.variable.Variable;
+import clearcontrol.core.variable.bounded.BoundedVariable;
+import clearcontrol.instructions.PropertyIOableInstructionInterface;
+import clearcontrol.microscope.lightsheet.warehouse.DataWarehouse;
+import clearcontrol.microscope.lightsheet.warehouse.DataWarehouseMemoryManager;
+import clearcontrol.microscope.lightsheet.warehouse.WarehouseEvictionPolicy;
+
+/**
+ * The ConfigureDataWarehouseMemoryInstruction sets the memory budget of the
+ * DataWarehouse, the policy which stacks are spilled to disc first and the
+ * folder they are spilled to. A budget of 0 GB disables the limit.
+ */
+public class ConfigureDataWarehouseMemoryInstruction extends
+                                                     DataWarehouseInstructionBase
+                                                     implements
+                                                     PropertyIOableInstructionInterface,
+                                                     LoggingFeature
+{
+  private BoundedVariable<Double> mMemoryBudgetInGigaBytesVariable =
+                                                                   new BoundedVariable<Double>("Memory budget in GB (0 = unlimited)",
+                                                                                               0.0,
+                                                                                               0.0,
+                                                                                               Double.MAX_VALUE,
+                                                                                               0.1);
+
+  private Variable<String> mEvictionPolicyVariable =
+                                                   new Variable<String>("Eviction policy",
+                                                                        WarehouseEvictionPolicy.OldestTimepointFirst.name());
+
+  private Variable<File> mSpillFolderVariable =
+                                              new Variable<File>("Spill folder",
+                                                                 new File(System.getProperty("java.io.tmpdir"),
+                                                                          "clearcontrol_warehouse_cache"));
+
+  public ConfigureDataWarehouseMemoryInstruction(DataWarehouse pDataWarehouse)
+  {
+    super("Memory: Configure memory budget", pDataWarehouse);
+  }
+
+  @Override
+  public boolean initialize()
+  {
+    return true;
+  }
+
+  @Override
+  public boolean enqueue(long pTimePoint)
+  {
+    DataWarehouseMemoryManager lMemoryManager =
+                                              getDataWarehouse().getMemoryManager();
+
+    double lBudgetInGigaBytes = mMemoryBudgetInGigaBytesVariable.get();
+    if (lBudgetInGigaBytes <= 0)
+    {
+      lMemoryManager.getMemoryBudgetInBytesVariable()
+                    .set(Long.MAX_VALUE);
+    }
+    else
+    {
+      lMemoryManager.getMemoryBudgetInBytesVariable()
+                    .set((long) (lBudgetInGigaBytes * 1024 * 1024
+                                 * 1024));
+    }
+
+    try
+    {
+      lMemoryManager.getEvictionPolicyVariable()
+                    .set(WarehouseEvictionPolicy.valueOf(mEvictionPolicyVariable.get()));
+    }
+    catch (IllegalArgumentException e)
+    {
+      warning("Unknown eviction policy " + mEvictionPolicyVariable.get()
+              + ", keeping "
+              + lMemoryManager.getEvictionPolicyVariable().get());
+    }
+
+    lMemoryManager.getSpillFolderVariable()
+                  .set(mSpillFolderVariable.get());
+    return true;
+  }
+
+  @Override
+  public ConfigureDataWarehouseMemoryInstruction copy()
+  {
+    ConfigureDataWarehouseMemoryInstruction copied =
+                                                   new ConfigureDataWarehouseMemoryInstruction(getDataWarehouse());
+    copied.mMemoryBudgetInGigaBytesVariable.set(mMemoryBudgetInGigaBytesVariable.get());
+    copied.mEvictionPolicyVariable.set(mEvictionPolicyVariable.get());
+    copied.mSpillFolderVariable.set(mSpillFolderVariable.get());
+    return copied;
+  }
+
+  public BoundedVariable<Double> getMemoryBudgetInGigaBytesVariable()
+  {
+    return mMemoryBudgetInGigaBytesVariable;
+  }
+
+  public Variable<String> getEvictionPolicyVariable()
+  {
+    return mEvictionPolicyVariable;
+  }
+
+  public Variable<File> getSpillFolderVariable()
+  {
+    return mSpillFolderVariable;
+  }
+
+  @Override
+  public Variable[] getProperties()
+  {
+    return new Variable[]
+    { getMemoryBudgetInGigaBytesVariable(),
+      getEvictionPolicyVariable(),
+      getSpillFolderVariable() };
+  }
+}
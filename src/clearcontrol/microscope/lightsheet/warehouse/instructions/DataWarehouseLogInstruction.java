@@ -1,5 +1,7 @@
 package clearcontrol.microscope.lightsheet.warehouse.instructions;
 
+import clearcontrol.instructions.PipelinableInstructionInterface;
+import clearcontrol.instructions.PipelineStage;
 import clearcontrol.microscope.lightsheet.LightSheetMicroscope;
 import clearcontrol.microscope.lightsheet.timelapse.LightSheetTimelapse;
 import clearcontrol.microscope.lightsheet.warehouse.DataWarehouse;
@@ -14,6 +16,7 @@ import clearcontrol.microscope.lightsheet.warehouse.containers.DataContainerInte
  */
 public class DataWarehouseLogInstruction extends
                                          DataWarehouseInstructionBase
+                                         implements PipelinableInstructionInterface
 {
   private DataWarehouse mDataWarehouse;
   private LightSheetTimelapse mTimelapse;
@@ -45,6 +48,8 @@ public class DataWarehouseLogInstruction extends
       mTimelapse.log("[" + i + "] \t" + container);
       i++;
     }
+    mTimelapse.log("" + mDataWarehouse.getMemoryManager());
+    mTimelapse.log("" + mTimelapse.getAsyncRawStackWriter());
     return false;
   }
 
@@ -53,4 +58,10 @@ public class DataWarehouseLogInstruction extends
   {
     return new DataWarehouseLogInstruction(mLightSheetMicroscope);
   }
+
+  @Override
+  public PipelineStage getPipelineStage()
+  {
+    return PipelineStage.Compute;
+  }
 }
@@ -2,6 +2,8 @@ package clearcontrol.microscope.lightsheet.warehouse.instructions;
 
 import clearcontrol.core.log.LoggingFeature;
 import clearcontrol.instructions.InstructionInterface;
+import clearcontrol.instructions.PipelinableInstructionInterface;
+import clearcontrol.instructions.PipelineStage;
 import clearcontrol.microscope.lightsheet.warehouse.DataWarehouse;
 import clearcontrol.microscope.lightsheet.warehouse.containers.DataContainerInterface;
 
@@ -16,7 +18,8 @@ public class DropAllContainersOfTypeInstruction extends
                                                 DataWarehouseInstructionBase
                                                 implements
                                                 InstructionInterface,
-                                                LoggingFeature
+                                                LoggingFeature,
+                                                PipelinableInstructionInterface
 {
   Class mContainerClassToDrop;
 
@@ -61,4 +64,10 @@ public class DropAllContainersOfTypeInstruction extends
     return new DropAllContainersOfTypeInstruction(mContainerClassToDrop,
                                                   getDataWarehouse());
   }
+
+  @Override
+  public PipelineStage getPipelineStage()
+  {
+    return PipelineStage.Compute;
+  }
 }
@@ -2,6 +2,8 @@ package clearcontrol.microscope.lightsheet.warehouse.instructions;
 
 import clearcontrol.core.log.LoggingFeature;
 import clearcontrol.instructions.InstructionInterface;
+import clearcontrol.instructions.PipelinableInstructionInterface;
+import clearcontrol.instructions.PipelineStage;
 import clearcontrol.microscope.lightsheet.warehouse.DataWarehouse;
 import clearcontrol.microscope.lightsheet.warehouse.containers.StackInterfaceContainer;
 
@@ -16,7 +18,8 @@ public class DropOldestStackInterfaceContainerInstruction extends
                                                           DataWarehouseInstructionBase
                                                           implements
                                                           InstructionInterface,
-                                                          LoggingFeature
+                                                          LoggingFeature,
+                                                          PipelinableInstructionInterface
 {
   Class mContainerClassToDrop;
 
@@ -54,4 +57,10 @@ public class DropOldestStackInterfaceContainerInstruction extends
     return new DropOldestStackInterfaceContainerInstruction(mContainerClassToDrop,
                                                             getDataWarehouse());
   }
+
+  @Override
+  public PipelineStage getPipelineStage()
+  {
+    return PipelineStage.Compute;
+  }
 }
@@ -4,6 +4,8 @@ import java.util.ArrayList;
 
 import clearcontrol.core.variable.Variable;
 import clearcontrol.instructions.PropertyIOableInstructionInterface;
+import clearcontrol.instructions.PipelinableInstructionInterface;
+import clearcontrol.instructions.PipelineStage;
 import clearcontrol.microscope.lightsheet.warehouse.DataWarehouse;
 import clearcontrol.microscope.lightsheet.warehouse.containers.StackInterfaceContainer;
 
@@ -16,7 +18,8 @@ import clearcontrol.microscope.lightsheet.warehouse.containers.StackInterfaceCon
 public class FilterStacksInStackInterfaceContainerInstruction extends
                                                               DataWarehouseInstructionBase
                                                               implements
-                                                              PropertyIOableInstructionInterface
+                                                              PropertyIOableInstructionInterface,
+                                                              PipelinableInstructionInterface
 {
 
   private Variable<String> filter =
@@ -98,4 +101,10 @@ public class FilterStacksInStackInterfaceContainerInstruction extends
     return new Variable[]
     { getFilter() };
   }
+
+  @Override
+  public PipelineStage getPipelineStage()
+  {
+    return PipelineStage.Compute;
+  }
 }
@@ -0,0 +1,312 @@
+package clearcontrol.microscope.lightsheet.warehouse.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import clearcontrol.microscope.lightsheet.warehouse.DataWarehouse;
+import clearcontrol.microscope.lightsheet.warehouse.DataWarehouseMemoryManager;
+import clearcontrol.microscope.lightsheet.warehouse.containers.DataContainerBase;
+import clearcontrol.microscope.lightsheet.warehouse.containers.DataContainerInterface;
+import clearcontrol.microscope.lightsheet.warehouse.containers.StackInterfaceContainer;
+import clearcontrol.stack.ContiguousOffHeapPlanarStackFactory;
+import clearcontrol.stack.StackInterface;
+import clearcontrol.stack.StackRequest;
+import coremem.recycling.BasicRecycler;
+
+import org.junit.Test;
+
+/**
+ * The DataWarehouseTests check if the indexed queries of the DataWarehouse
+ * return the same containers as a scan over all entries would, and that
+ * spilling stacks to disc neither loses nor recycles stacks in use.
+ */
+public class DataWarehouseTests
+{
+  private static class ContainerA extends DataContainerBase
+  {
+    boolean mDisposed = false;
+
+    ContainerA(long pTimepoint)
+    {
+      super(pTimepoint);
+    }
+
+    @Override
+    public boolean isDataComplete()
+    {
+      return true;
+    }
+
+    @Override
+    public void dispose()
+    {
+      mDisposed = true;
+    }
+  }
+
+  private static class ContainerB extends ContainerA
+  {
+    ContainerB(long pTimepoint)
+    {
+      super(pTimepoint);
+    }
+  }
+
+  private static class StackContainer extends StackInterfaceContainer
+  {
+    StackContainer(long pTimepoint)
+    {
+      super(pTimepoint);
+    }
+
+    @Override
+    public boolean isDataComplete()
+    {
+      return true;
+    }
+  }
+
+  private static final int cStackWidth = 64;
+  private static final int cStackHeight = 64;
+  private static final int cStackDepth = 4;
+  private static final long cStackSizeInBytes =
+                                              2L * cStackWidth
+                                                * cStackHeight
+                                                * cStackDepth;
+
+  private final BasicRecycler<StackInterface, StackRequest> mRecycler =
+                                                                      new BasicRecycler<StackInterface, StackRequest>(new ContiguousOffHeapPlanarStackFactory(),
+                                                                                                                      16,
+                                                                                                                      16,
+                                                                                                                      true);
+
+  @Test
+  public void testOldestNewest()
+  {
+    DataWarehouse lWarehouse = new DataWarehouse();
+    assertNull(lWarehouse.getOldestContainer(ContainerA.class));
+
+    lWarehouse.put("a5", new ContainerA(5));
+    lWarehouse.put("a2", new ContainerA(2));
+    lWarehouse.put("b3", new ContainerB(3));
+    lWarehouse.put("b9", new ContainerB(9));
+
+    assertEquals(2,
+                 lWarehouse.<ContainerA> getOldestContainer(DataContainerInterface.class)
+                           .getTimepoint());
+    assertEquals(3,
+                 lWarehouse.<ContainerB> getOldestContainer(ContainerB.class)
+                           .getTimepoint());
+    // sub classes count as instances of their super class
+    assertEquals(9,
+                 lWarehouse.<ContainerA> getNewestContainer(ContainerA.class)
+                           .getTimepoint());
+  }
+
+  @Test
+  public void testRangeAndDispose()
+  {
+    DataWarehouse lWarehouse = new DataWarehouse();
+    for (int t = 0; t < 10; t++)
+    {
+      lWarehouse.put("a" + t, new ContainerA(t));
+      lWarehouse.put("b" + t, new ContainerB(t));
+    }
+
+    ArrayList<DataContainerInterface> lRange =
+                                             lWarehouse.getContainers(DataContainerInterface.class,
+                                                                      3,
+                                                                      5,
+                                                                      true);
+    assertEquals(6, lRange.size());
+    for (int i = 1; i < lRange.size(); i++)
+    {
+      assertTrue(lRange.get(i - 1).getTimepoint() <= lRange.get(i)
+                                                           .getTimepoint());
+    }
+
+    ContainerA lOldest = lWarehouse.getOldestContainer(ContainerB.class);
+    assertEquals("b0", lWarehouse.getKey(lOldest));
+    lWarehouse.disposeContainer(lOldest);
+    assertTrue(lOldest.mDisposed);
+    assertFalse(lWarehouse.containsKey("b0"));
+    assertEquals(19, lWarehouse.size());
+    assertEquals(1,
+                 lWarehouse.<ContainerA> getOldestContainer(ContainerB.class)
+                           .getTimepoint());
+
+    // replacing a key must also replace the index entry
+    ContainerA lReplacement = new ContainerA(100);
+    lWarehouse.put("a0", lReplacement);
+    assertSame(lReplacement,
+               lWarehouse.getNewestContainer(ContainerA.class));
+    assertEquals(9, lWarehouse.getContainers(ContainerB.class).size());
+
+    lWarehouse.clear();
+    assertTrue(lWarehouse.getContainers(DataContainerInterface.class)
+                         .isEmpty());
+  }
+
+  @Test
+  public void testLeavingContainerKeepsSpilledStacks() throws IOException
+  {
+    DataWarehouse lWarehouse = new DataWarehouse();
+    DataWarehouseMemoryManager lMemoryManager =
+                                              createMemoryManager(lWarehouse,
+                                                                  2);
+
+    StackContainer lContainer = new StackContainer(0);
+    for (int i = 0; i < 4; i++)
+    {
+      lContainer.put("stack" + i, createStack(i));
+    }
+    lWarehouse.put("stacks", lContainer);
+    int lNumberOfSpilledStacks = 0;
+    for (int i = 0; i < 4; i++)
+    {
+      lNumberOfSpilledStacks += lContainer.isSpilled("stack" + i) ? 1
+                                                                  : 0;
+    }
+    assertEquals(2, lNumberOfSpilledStacks);
+    assertEquals(2 * cStackSizeInBytes,
+                 lMemoryManager.getResidentBytes());
+
+    // reading the stacks back must not spill the others of the container
+    lWarehouse.remove("stacks");
+    for (int i = 0; i < 4; i++)
+    {
+      assertFalse(lContainer.isSpilled("stack" + i));
+      assertEquals(i, getFirstVoxel(lContainer.get("stack" + i)));
+    }
+    assertEquals(0, lMemoryManager.getResidentBytes());
+  }
+
+  @Test
+  public void testLeasedStacksAreNotRecycled() throws IOException
+  {
+    DataWarehouse lWarehouse = new DataWarehouse();
+    DataWarehouseMemoryManager lMemoryManager =
+                                              createMemoryManager(lWarehouse,
+                                                                  1);
+
+    StackContainer lContainer = new StackContainer(0);
+    lWarehouse.put("stacks", lContainer);
+    lContainer.put("stack0", createStack(0));
+
+    lMemoryManager.openReadLeases();
+    StackInterface lStack = lContainer.get("stack0");
+    lContainer.put("stack1", createStack(1));
+    assertTrue(lContainer.isSpilled("stack0"));
+    assertFalse(lStack.isReleased());
+    assertEquals(0, getFirstVoxel(lStack));
+    lMemoryManager.closeReadLeases();
+    assertTrue(lStack.isReleased());
+
+    // without lease, spilled stacks go back to the recycler right away
+    StackInterface lOtherStack = lContainer.get("stack1");
+    lContainer.get("stack0");
+    assertTrue(lContainer.isSpilled("stack1"));
+    assertTrue(lOtherStack.isReleased());
+  }
+
+  @Test
+  public void testConcurrentReloadsOfSpilledStack() throws Exception
+  {
+    DataWarehouse lWarehouse = new DataWarehouse();
+    createMemoryManager(lWarehouse, 1);
+
+    StackContainer lContainer = new StackContainer(0);
+    lWarehouse.put("stacks", lContainer);
+    lContainer.put("stack0", createStack(0));
+    lContainer.put("stack1", createStack(1));
+
+    // every round reloads the spilled stack from several threads at once,
+    // which spills the other one for the next round
+    int lNumberOfThreads = 4;
+    for (int lRound = 0; lRound < 20; lRound++)
+    {
+      String lKey = "stack" + (lRound % 2);
+      assertTrue(lContainer.isSpilled(lKey));
+
+      CyclicBarrier lBarrier = new CyclicBarrier(lNumberOfThreads);
+      AtomicInteger lMisses = new AtomicInteger();
+      ArrayList<Thread> lThreads = new ArrayList<>();
+      for (int t = 0; t < lNumberOfThreads; t++)
+      {
+        Thread lThread = new Thread(() -> {
+          try
+          {
+            lBarrier.await();
+          }
+          catch (Exception e)
+          {
+            throw new RuntimeException(e);
+          }
+          if (lContainer.get(lKey) == null)
+          {
+            lMisses.incrementAndGet();
+          }
+        });
+        lThread.start();
+        lThreads.add(lThread);
+      }
+      for (Thread lThread : lThreads)
+      {
+        lThread.join();
+      }
+
+      assertEquals(0, lMisses.get());
+      assertEquals(lRound % 2, getFirstVoxel(lContainer.get(lKey)));
+    }
+  }
+
+  private DataWarehouseMemoryManager createMemoryManager(DataWarehouse pWarehouse,
+                                                         int pBudgetInStacks) throws IOException
+  {
+    DataWarehouseMemoryManager lMemoryManager =
+                                              pWarehouse.getMemoryManager();
+    lMemoryManager.setRecycler(mRecycler);
+    lMemoryManager.getSpillFolderVariable()
+                  .set(Files.createTempDirectory("warehouse")
+                            .toFile());
+    lMemoryManager.getMemoryBudgetInBytesVariable()
+                  .set(pBudgetInStacks * cStackSizeInBytes);
+    return lMemoryManager;
+  }
+
+  private StackInterface createStack(int pFirstVoxel)
+  {
+    StackInterface lStack =
+                          mRecycler.getOrWait(1,
+                                              TimeUnit.SECONDS,
+                                              StackRequest.build(cStackWidth,
+                                                                 cStackHeight,
+                                                                 cStackDepth));
+    lStack.getContiguousMemory(0)
+          .getByteBuffer()
+          .order(ByteOrder.nativeOrder())
+          .asCharBuffer()
+          .put(0, (char) pFirstVoxel);
+    return lStack;
+  }
+
+  private static int getFirstVoxel(StackInterface pStack)
+  {
+    return pStack.getContiguousMemory(0)
+                 .getByteBuffer()
+                 .order(ByteOrder.nativeOrder())
+                 .asCharBuffer()
+                 .get(0);
+  }
+}